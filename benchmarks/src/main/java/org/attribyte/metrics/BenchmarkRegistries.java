@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds registries with a realistic mix of metric types for benchmarks.
+ * <p>
+ *    Of every 20 metrics: 6 counters, 4 gauges, 4 meters, 3 histograms and 3 timers.
+ * </p>
+ */
+public class BenchmarkRegistries {
+
+   /**
+    * Creates the metrics for a registry, without registering them.
+    * @param metricCount The number of metrics.
+    * @param samplesPerMetric The number of values recorded by each histogram and timer.
+    * @return The metrics by name, in registration order.
+    */
+   public static Map<String, Metric> metrics(final int metricCount, final int samplesPerMetric) {
+      Map<String, Metric> metrics = Maps.newLinkedHashMap();
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      for(int i = 0; i < metricCount; i++) {
+         String group = "group-" + (i % 50);
+         switch(i % 20) {
+            case 0: case 1: case 2: case 3: case 4: case 5: {
+               Counter counter = new Counter();
+               counter.inc(rnd.nextInt(1000));
+               metrics.put(name("counter", group, i), counter);
+               break;
+            }
+            case 6: case 7: case 8: case 9: {
+               final long value = rnd.nextLong(1000000L);
+               metrics.put(name("gauge", group, i), (Gauge<Long>)() -> value);
+               break;
+            }
+            case 10: case 11: case 12: case 13: {
+               Meter meter = new Meter();
+               meter.mark(rnd.nextInt(1000));
+               metrics.put(name("meter", group, i), meter);
+               break;
+            }
+            case 14: case 15: case 16: {
+               Histogram histogram = new Histogram(new ExponentiallyDecayingReservoir());
+               for(int j = 0; j < samplesPerMetric; j++) {
+                  histogram.update(rnd.nextLong(1L, 100000L));
+               }
+               metrics.put(name("histogram", group, i), histogram);
+               break;
+            }
+            default: {
+               Timer timer = new Timer();
+               for(int j = 0; j < samplesPerMetric; j++) {
+                  timer.update(rnd.nextLong(1L, 1000L), TimeUnit.MILLISECONDS);
+               }
+               metrics.put(name("timer", group, i), timer);
+               break;
+            }
+         }
+      }
+      return metrics;
+   }
+
+   /**
+    * Creates a registry.
+    * @param metricCount The number of metrics.
+    * @param samplesPerMetric The number of values recorded by each histogram and timer.
+    * @return The registry.
+    */
+   public static MetricRegistry registry(final int metricCount, final int samplesPerMetric) {
+      MetricRegistry registry = new MetricRegistry();
+      for(Map.Entry<String, Metric> metric : metrics(metricCount, samplesPerMetric).entrySet()) {
+         registry.register(metric.getKey(), metric.getValue());
+      }
+      return registry;
+   }
+
+   /**
+    * Creates a registry with only counters, meters and primitive gauges,
+    * the metrics that can be collected and reported without allocation.
+    * @param metricCount The number of metrics.
+    * @return The registry.
+    */
+   public static MetricRegistry primitiveRegistry(final int metricCount) {
+      MetricRegistry registry = new MetricRegistry();
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      for(int i = 0; i < metricCount; i++) {
+         String group = "group-" + (i % 50);
+         switch(i % 3) {
+            case 0:
+               registry.counter(name("counter", group, i)).inc(rnd.nextInt(1000));
+               break;
+            case 1:
+               registry.meter(name("meter", group, i)).mark(rnd.nextInt(1000));
+               break;
+            default:
+               final double value = rnd.nextDouble(1000000.0);
+               registry.register(name("gauge", group, i), (MetricColumns.DoubleGauge)() -> value);
+               break;
+         }
+      }
+      return registry;
+   }
+
+   private static String name(final String type, final String group, final int index) {
+      return "app." + group + "." + type + "-" + index;
+   }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of reported metric fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricFieldBenchmark {
+
+   @Benchmark
+   public void fromString(final Blackhole bh) {
+      for(String field : FIELDS) {
+         bh.consume(MetricField.fromString(field));
+      }
+   }
+
+   @Benchmark
+   public EnumSet<MetricField> setFromString() {
+      return MetricField.setFromString(FIELD_SET);
+   }
+
+   private static final String FIELD_SET = "median,p75,p95,p98,p99,p999,max,mean,min,std,1m_rate,5m_rate,15m_rate,mean_rate,count";
+   private static final String[] FIELDS = {
+           "count", "1m_rate", "Five-Minute-Rate", "mean_rate", "median", "75th percentile",
+           "p95", "99.9th_%", "max", "avg", "std", "value", "unknown"
+   };
+}
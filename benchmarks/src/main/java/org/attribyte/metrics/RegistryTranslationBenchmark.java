@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures registration of every metric in a registry with the translation
+ * listener notified for each, with one in ten metrics translated.
+ * <p>
+ *    <code>register</code> is the baseline without translation.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryTranslationBenchmark {
+
+   @Param({"1000", "10000", "100000"})
+   public int metricCount;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      final Map<String, Metric> metrics = BenchmarkRegistries.metrics(metricCount, 0);
+      metricSet = () -> metrics;
+      props = new Properties();
+      int index = 0;
+      for(String name : metrics.keySet()) {
+         if(index++ % 10 == 0) {
+            props.setProperty(RegistryTranslation.TRANSLATE_PREFIX + name, "translated." + name);
+         }
+      }
+   }
+
+   @Benchmark
+   public MetricRegistry translate() {
+      MetricRegistry registry = new MetricRegistry();
+      MetricRegistry translated = RegistryTranslation.translate(props, registry);
+      registry.registerAll(metricSet);
+      return translated;
+   }
+
+   @Benchmark
+   public MetricRegistry register() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.registerAll(metricSet);
+      return registry;
+   }
+
+   private MetricSet metricSet;
+   private Properties props;
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures recording to a single reservoir shared by 1, 8, 32 and 64 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReservoirContentionBenchmark {
+
+   @Param({"exponential", "striped", "hdr"})
+   public String reservoirType;
+
+   private Reservoir reservoir;
+
+   @Setup
+   public void setup() {
+      reservoir = MetricSuppliers.reservoir(reservoirType).get();
+   }
+
+   @Benchmark
+   @Threads(1)
+   public void update1() {
+      reservoir.update(ThreadLocalRandom.current().nextInt(1000000));
+   }
+
+   @Benchmark
+   @Threads(8)
+   public void update8() {
+      reservoir.update(ThreadLocalRandom.current().nextInt(1000000));
+   }
+
+   @Benchmark
+   @Threads(32)
+   public void update32() {
+      reservoir.update(ThreadLocalRandom.current().nextInt(1000000));
+   }
+
+   @Benchmark
+   @Threads(64)
+   public void update64() {
+      reservoir.update(ThreadLocalRandom.current().nextInt(1000000));
+   }
+
+   @Benchmark
+   public Snapshot snapshot() {
+      return reservoir.getSnapshot();
+   }
+}
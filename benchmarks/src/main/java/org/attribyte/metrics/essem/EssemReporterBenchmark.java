@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.essem;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+import org.attribyte.metrics.BenchmarkRegistries;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building, deflating and sending an Essem protobuf report
+ * to a local HTTP server that discards the report.
+ * <p>
+ *    The registry snapshot is collected once, so only the Essem report path is measured.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EssemReporterBenchmark {
+
+   @Param({"1000", "10000", "100000"})
+   public int metricCount;
+
+   @Param({"true", "false"})
+   public boolean deflate;
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+      server.createContext("/", exchange -> {
+         final byte[] buf = new byte[65536];
+         try(InputStream is = exchange.getRequestBody()) {
+            while(is.read(buf) != -1) {
+               //Discard...
+            }
+         }
+         exchange.sendResponseHeaders(202, -1);
+         exchange.close();
+      });
+      server.start();
+
+      MetricRegistry registry = BenchmarkRegistries.registry(metricCount, 128);
+      snapshot = RegistrySnapshot.collect(registry, null);
+
+      Properties props = new Properties();
+      props.setProperty(EssemReporter.SERVER_URL_PROPERTY, "http://127.0.0.1:" + server.getAddress().getPort() + "/report");
+      props.setProperty(EssemReporter.REPORT_APPLICATION_PROPERTY, "benchmark");
+      props.setProperty(EssemReporter.REPORT_HOST_PROPERTY, "localhost");
+      props.setProperty(EssemReporter.REPORT_INSTANCE_PROPERTY, "benchmark-0");
+      props.setProperty(EssemReporter.REPORT_DEFLATE_PROPERTY, Boolean.toString(deflate));
+      reporter = new EssemReporter();
+      reporter.init("essem", props, registry, null);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      reporter.stop();
+      server.stop(0);
+   }
+
+   @Benchmark
+   public void report() {
+      reporter.report(snapshot);
+   }
+
+   private HttpServer server;
+   private RegistrySnapshot snapshot;
+   private EssemReporter reporter;
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.MetricRegistry;
+import org.attribyte.metrics.BenchmarkRegistries;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.ReporterBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the wall-clock time of a Graphite report of a large registry
+ * as the number of threads that encode chunks of the snapshot increases.
+ * <p>
+ *    Lines are written, in order, to a local socket server that discards everything it receives.
+ *    Parallelism above the number of available cores measures only the overhead of chunking.
+ *    For example: <code>-p encodeParallelism=1,4,16,64 ParallelEncodeBenchmark</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelEncodeBenchmark {
+
+   @Param({"50000", "200000"})
+   public int metricCount;
+
+   @Param({"1", "4", "16", "64"})
+   public int encodeParallelism;
+
+   @Param({"4096"})
+   public int encodeChunkSize;
+
+   @Setup(Level.Trial)
+   public void setup() throws Exception {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread server = new Thread(this::discard, "graphite-server");
+      server.setDaemon(true);
+      server.start();
+
+      MetricRegistry registry = BenchmarkRegistries.registry(metricCount, 128);
+      snapshot = RegistrySnapshot.collect(registry, null);
+
+      Properties props = new Properties();
+      props.setProperty(GraphiteReporter.HOST_PROPERTY, "127.0.0.1");
+      props.setProperty(GraphiteReporter.PORT_PROPERTY, Integer.toString(serverSocket.getLocalPort()));
+      props.setProperty(GraphiteReporter.PREFIX_PROPERTY, "benchmark");
+      props.setProperty(ReporterBase.ENCODE_PARALLELISM_PROPERTY, Integer.toString(encodeParallelism));
+      props.setProperty(ReporterBase.ENCODE_CHUNK_SIZE_PROPERTY, Integer.toString(encodeChunkSize));
+      reporter = new GraphiteReporter();
+      reporter.init("graphite", props, registry, null);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException {
+      reporter.stop();
+      serverSocket.close();
+   }
+
+   @Benchmark
+   public void report() {
+      reporter.report(snapshot);
+   }
+
+   /**
+    * Accepts connections and discards everything received.
+    */
+   private void discard() {
+      final byte[] buf = new byte[65536];
+      while(!serverSocket.isClosed()) {
+         try(Socket socket = serverSocket.accept(); InputStream is = socket.getInputStream()) {
+            while(is.read(buf) != -1) {
+               //Discard...
+            }
+         } catch(IOException ioe) {
+            //Closed...
+         }
+      }
+   }
+
+   private ServerSocket serverSocket;
+   private RegistrySnapshot snapshot;
+   private GraphiteReporter reporter;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.newrelic;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Timer;
+import org.attribyte.metrics.BenchmarkRegistries;
+import org.attribyte.metrics.MetricField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a single New Relic report with every sampled field
+ * reported for all histograms and timers, and every other metric reported.
+ * <p>
+ *    <code>snapshotPerField</code> reproduces the previous behavior
+ *    (one snapshot for each reported field) as a baseline.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduledNewRelicReporterBenchmark {
+
+   @Param({"1000", "10000", "100000"})
+   public int metricCount;
+
+   @Param({"128"})
+   public int samplesPerMetric;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      registry = BenchmarkRegistries.registry(metricCount, samplesPerMetric);
+      ScheduledNewRelicReporter.Builder builder = ScheduledNewRelicReporter.newBuilder(registry);
+      EnumSet<MetricField> sampledFields = MetricField.setFromString("median,p75,p95,p98,p99,p999,max,mean,min,std,1m_rate,count");
+      EnumSet<MetricField> meteredFields = MetricField.setFromString("1m_rate,5m_rate,15m_rate,mean_rate,count");
+      EnumSet<MetricField> valueFields = EnumSet.of(MetricField.VALUE);
+      registry.getHistograms().keySet().forEach(name -> builder.addReportedMetric(name, sampledFields));
+      registry.getTimers().keySet().forEach(name -> builder.addReportedMetric(name, sampledFields));
+      registry.getMeters().keySet().forEach(name -> builder.addReportedMetric(name, meteredFields));
+      registry.getCounters().keySet().forEach(name -> builder.addReportedMetric(name, valueFields));
+      registry.getGauges().keySet().forEach(name -> builder.addReportedMetric(name, valueFields));
+      reporter = builder.build();
+   }
+
+   @Benchmark
+   public void report() {
+      reporter.report();
+   }
+
+   @Benchmark
+   public void snapshotPerField(final Blackhole bh) {
+      for(Histogram histogram : registry.getHistograms().values()) {
+         snapshotPerField(histogram, bh);
+      }
+      for(Timer timer : registry.getTimers().values()) {
+         snapshotPerField(timer, bh);
+      }
+   }
+
+   private static void snapshotPerField(final Sampling sampled, final Blackhole bh) {
+      bh.consume(sampled.getSnapshot().getMedian());
+      bh.consume(sampled.getSnapshot().getMax());
+      bh.consume(sampled.getSnapshot().getMin());
+      bh.consume(sampled.getSnapshot().get75thPercentile());
+      bh.consume(sampled.getSnapshot().get95thPercentile());
+      bh.consume(sampled.getSnapshot().get98thPercentile());
+      bh.consume(sampled.getSnapshot().get99thPercentile());
+      bh.consume(sampled.getSnapshot().get999thPercentile());
+      bh.consume(sampled.getSnapshot().getStdDev());
+   }
+
+   private MetricRegistry registry;
+   private ScheduledNewRelicReporter reporter;
+}
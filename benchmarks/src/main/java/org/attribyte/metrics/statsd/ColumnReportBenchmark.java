@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.statsd;
+
+import com.codahale.metrics.MetricRegistry;
+import org.attribyte.metrics.BenchmarkRegistries;
+import org.attribyte.metrics.MetricColumns;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a complete collect and report cycle, to a StatsD socket, using a registry snapshot
+ * with the same cycle using reusable columns.
+ * <p>
+ *    Run with <code>-prof gc</code>. For the 'primitive' registry (counters, meters and primitive gauges),
+ *    <code>gc.alloc.rate.norm</code> for <code>columns</code> should be close to zero bytes/op.
+ *    The 'mixed' registry adds histograms and timers, which allocate a snapshot for each metric.
+ * </p>
+ * <p>
+ *    The socket is never read, so once its buffer is full datagrams are dropped.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnReportBenchmark {
+
+   @Param({"1000", "10000", "100000"})
+   public int metricCount;
+
+   @Param({"primitive", "mixed"})
+   public String registryType;
+
+   @Setup(Level.Trial)
+   public void setup() throws IOException {
+      channel = DatagramChannel.open();
+      channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      registry = registryType.equals("primitive") ?
+              BenchmarkRegistries.primitiveRegistry(metricCount) : BenchmarkRegistries.registry(metricCount, 128);
+      reporter = ScheduledStatsDReporter.newBuilder(registry, (InetSocketAddress)channel.getLocalAddress())
+              .setPrefix("benchmark.")
+              .build();
+      columns = new MetricColumns(registry, null);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws IOException {
+      columns.close();
+      reporter.stop();
+      channel.close();
+   }
+
+   @Benchmark
+   public void snapshot() {
+      RegistrySnapshot.collect(registry, null).report(reporter);
+   }
+
+   @Benchmark
+   public void columns() {
+      columns.collect();
+      reporter.report(columns);
+   }
+
+   private DatagramChannel channel;
+   private MetricRegistry registry;
+   private ScheduledStatsDReporter reporter;
+   private MetricColumns columns;
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.attribyte.util.InitUtil;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Limits the number of series reported for each name prefix.
+ * <p>
+ *    The prefix is the first segments of a name. For example, with two prefix segments,
+ *    the prefix of <code>http.users.1234.latency</code> is <code>http.users</code>. When a prefix
+ *    has more series than its limit, only the most active series are reported. The rest are folded into
+ *    a counter, <code>[prefix].__other__</code>, with the total activity of series folded since the
+ *    prefix was first limited, and a gauge, <code>[prefix].__other__.series</code>, with the number of folded series.
+ *    The counter never decreases, so it may be reported as a change, like any other counter.
+ * </p>
+ * <p>
+ *    Activity is the increase in count (for counters, meters, histograms and timers) since the
+ *    previous snapshot. The exact previous count is kept for each name in a limited prefix,
+ *    and discarded when the name is missing from a snapshot. The first count seen for a name is a baseline,
+ *    so a series is not credited with activity recorded before it was first seen. A lower count is a reset,
+ *    and is also a baseline. The most active series for each limited prefix are selected with
+ *    a space-saving summary, sized to twice the limit.
+ *    Activity halves every {@link #HALF_LIFE_MILLIS}, so series that become active
+ *    displace series that no longer are. If fewer series than the limit have recorded activity,
+ *    the remainder are filled in name order.
+ * </p>
+ * <p>
+ *    Snapshots limited with different keys, for example, by different collectors, have independent history.
+ * </p>
+ */
+public class CardinalityLimiter implements MetricSet {
+
+   /**
+    * The maximum number of series reported for each prefix ('maxSeries'). Default '0', no limit.
+    */
+   public static final String MAX_SERIES_PROPERTY = "maxSeries";
+
+   /**
+    * The prefix for the maximum number of series for a specific prefix ('maxSeries.').
+    * For example: <code>maxSeries.http.users=100</code>.
+    */
+   public static final String PREFIX_MAX_SERIES_PREFIX = "maxSeries.";
+
+   /**
+    * The number of name segments in a prefix ('prefixSegments'). Default '1'.
+    */
+   public static final String PREFIX_SEGMENTS_PROPERTY = "prefixSegments";
+
+   /**
+    * The name added to a prefix for folded series ('__other__').
+    */
+   public static final String OTHER_NAME = "__other__";
+
+   /**
+    * The time after which activity is halved (5 minutes).
+    */
+   public static final long HALF_LIFE_MILLIS = 300000L;
+
+   /**
+    * Creates a limiter from properties.
+    * @param props The properties.
+    * @return The limiter or <code>null</code> if no limit is configured.
+    * @throws NumberFormatException if a limit is invalid.
+    */
+   public static CardinalityLimiter fromProperties(final Properties props) {
+      InitUtil init = new InitUtil("", props, false);
+      int maxSeries = Integer.parseInt(init.getProperty(MAX_SERIES_PROPERTY, "0").trim());
+      int prefixSegments = Integer.parseInt(init.getProperty(PREFIX_SEGMENTS_PROPERTY, "1").trim());
+      Properties prefixProps = new InitUtil(PREFIX_MAX_SERIES_PREFIX, props, false).getProperties();
+      ImmutableMap.Builder<String, Integer> prefixLimits = ImmutableMap.builder();
+      for(String prefix : prefixProps.stringPropertyNames()) {
+         prefixLimits.put(prefix, Integer.parseInt(prefixProps.getProperty(prefix).trim()));
+      }
+      ImmutableMap<String, Integer> builtLimits = prefixLimits.build();
+      return maxSeries > 0 || !builtLimits.isEmpty() ? new CardinalityLimiter(maxSeries, prefixSegments, builtLimits) : null;
+   }
+
+   /**
+    * Creates a limiter.
+    * @param maxSeries The maximum number of series for each prefix. If zero, only configured prefixes are limited.
+    * @param prefixSegments The number of name segments in a prefix.
+    * @param prefixLimits The maximum number of series for specific prefixes.
+    */
+   public CardinalityLimiter(final int maxSeries, final int prefixSegments, final Map<String, Integer> prefixLimits) {
+      this.maxSeries = maxSeries;
+      this.prefixSegments = Math.max(prefixSegments, 1);
+      this.prefixLimits = ImmutableMap.copyOf(prefixLimits);
+   }
+
+   /**
+    * Limits the series in a snapshot.
+    * @param snapshot The snapshot.
+    * @return The limited snapshot, or the snapshot if no prefix is over its limit.
+    */
+   public RegistrySnapshot limit(final RegistrySnapshot snapshot) {
+      return limit(this, snapshot);
+   }
+
+   /**
+    * Limits the series in a snapshot with the history recorded for a key.
+    * @param key The key.
+    * @param snapshot The snapshot.
+    * @return The limited snapshot, or the snapshot if no prefix is over its limit.
+    */
+   @SuppressWarnings("rawtypes")
+   public synchronized RegistrySnapshot limit(final Object key, final RegistrySnapshot snapshot) {
+
+      final History history = histories.computeIfAbsent(key, k -> new History(snapshot.getTimestamp()));
+      final Map<String, TopSeries> topSeries = history.topSeries;
+      if(snapshot.getTimestamp() - history.lastDecayMillis >= HALF_LIFE_MILLIS) {
+         for(TopSeries top : topSeries.values()) {
+            top.decay();
+         }
+         history.lastDecayMillis = snapshot.getTimestamp();
+      }
+
+      Map<String, Integer> seriesCount = Maps.newHashMap();
+      count(snapshot.getGauges(), seriesCount);
+      count(snapshot.getCounters(), seriesCount);
+      count(snapshot.getHistograms(), seriesCount);
+      count(snapshot.getMeters(), seriesCount);
+      count(snapshot.getTimers(), seriesCount);
+
+      Map<String, Integer> limitedPrefixes = Maps.newHashMap();
+      for(Map.Entry<String, Integer> prefix : seriesCount.entrySet()) {
+         int limit = limit(prefix.getKey());
+         if(limit > 0 && prefix.getValue() > limit) {
+            limitedPrefixes.put(prefix.getKey(), limit);
+         }
+      }
+      topSeries.keySet().retainAll(limitedPrefixes.keySet());
+
+      //Previous counts are kept only for names in limited prefixes that are in this snapshot...
+      final Map<String, Long> previousCounts = history.previousCounts;
+      final Map<String, Long> counts = Maps.newHashMapWithExpectedSize(previousCounts.size());
+      recordActivity(snapshot.getCounters(), limitedPrefixes, history, counts);
+      recordActivity(snapshot.getHistograms(), limitedPrefixes, history, counts);
+      recordActivity(snapshot.getMeters(), limitedPrefixes, history, counts);
+      recordActivity(snapshot.getTimers(), limitedPrefixes, history, counts);
+      history.previousCounts = counts;
+
+      if(limitedPrefixes.isEmpty()) {
+         return snapshot;
+      }
+
+      Map<String, Set<String>> admitted = Maps.newHashMap();
+      for(Map.Entry<String, Integer> prefix : limitedPrefixes.entrySet()) {
+         TopSeries top = topSeries.get(prefix.getKey());
+         admitted.put(prefix.getKey(), top != null ? top.top(prefix.getValue()) : Sets.newHashSet());
+      }
+      fill(snapshot.getGauges(), admitted, limitedPrefixes);
+      fill(snapshot.getCounters(), admitted, limitedPrefixes);
+      fill(snapshot.getHistograms(), admitted, limitedPrefixes);
+      fill(snapshot.getMeters(), admitted, limitedPrefixes);
+      fill(snapshot.getTimers(), admitted, limitedPrefixes);
+
+      Map<String, long[]> folded = Maps.newTreeMap(); //Activity, series...
+      SortedMap<String, Gauge> gauges = limit(snapshot.getGauges(), admitted, folded, previousCounts);
+      SortedMap<String, Counter> counters = limit(snapshot.getCounters(), admitted, folded, previousCounts);
+      SortedMap<String, Histogram> histograms = limit(snapshot.getHistograms(), admitted, folded, previousCounts);
+      SortedMap<String, Meter> meters = limit(snapshot.getMeters(), admitted, folded, previousCounts);
+      SortedMap<String, Timer> timers = limit(snapshot.getTimers(), admitted, folded, previousCounts);
+
+      for(Map.Entry<String, long[]> prefix : folded.entrySet()) {
+         String otherName = prefix.getKey() + "." + OTHER_NAME;
+         Counter other = new Counter();
+         other.inc(history.otherCounts.merge(prefix.getKey(), prefix.getValue()[0], Long::sum));
+         counters.put(otherName, other);
+         final long series = prefix.getValue()[1];
+         gauges.put(otherName + ".series", (Gauge<Long>)() -> series);
+         foldedSeries.inc(series);
+      }
+      limitedPrefixCount = folded.size();
+      return RegistrySnapshot.of(snapshot.getTimestamp(), gauges, counters, histograms, meters, timers);
+   }
+
+   /**
+    * Releases the history recorded for a key.
+    * @param key The key.
+    */
+   public synchronized void release(final Object key) {
+      histories.remove(key);
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Gets the prefix for a name.
+    * @param name The name.
+    * @return The prefix.
+    */
+   String prefix(final String name) {
+      int index = -1;
+      for(int i = 0; i < prefixSegments; i++) {
+         index = name.indexOf('.', index + 1);
+         if(index < 0) {
+            return name;
+         }
+      }
+      return name.substring(0, index);
+   }
+
+   /**
+    * Gets the limit for a prefix.
+    * @param prefix The prefix.
+    * @return The limit or zero if the prefix is not limited.
+    */
+   private int limit(final String prefix) {
+      Integer limit = prefixLimits.get(prefix);
+      return limit != null ? limit : maxSeries;
+   }
+
+   private void count(final SortedMap<String, ?> metrics, final Map<String, Integer> seriesCount) {
+      for(String name : metrics.keySet()) {
+         seriesCount.merge(prefix(name), 1, Integer::sum);
+      }
+   }
+
+   private <T extends Counting> void recordActivity(final SortedMap<String, T> metrics, final Map<String, Integer> limitedPrefixes,
+                                                    final History history, final Map<String, Long> counts) {
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         String prefix = prefix(metric.getKey());
+         Integer limit = limitedPrefixes.get(prefix);
+         if(limit == null) {
+            continue;
+         }
+         long count = metric.getValue().getCount();
+         counts.put(metric.getKey(), count);
+         long activity = activity(metric.getKey(), count, history.previousCounts);
+         if(activity > 0L) {
+            history.topSeries.computeIfAbsent(prefix, p -> new TopSeries(limit * 2)).add(metric.getKey(), activity);
+         }
+      }
+   }
+
+   /**
+    * Gets the activity of a series since the previous snapshot.
+    * @param name The name.
+    * @param count The current count.
+    * @param previousCounts The count of each name in the previous snapshot.
+    * @return The activity, or zero if first seen or reset.
+    */
+   private static long activity(final String name, final long count, final Map<String, Long> previousCounts) {
+      Long previous = previousCounts.get(name);
+      return previous != null && count > previous ? count - previous : 0L;
+   }
+
+   /**
+    * Admits series in name order until each limited prefix reaches its limit.
+    */
+   private void fill(final SortedMap<String, ?> metrics, final Map<String, Set<String>> admitted,
+                     final Map<String, Integer> limitedPrefixes) {
+      for(String name : metrics.keySet()) {
+         String prefix = prefix(name);
+         Set<String> prefixAdmitted = admitted.get(prefix);
+         if(prefixAdmitted != null && prefixAdmitted.size() < limitedPrefixes.get(prefix)) {
+            prefixAdmitted.add(name);
+         }
+      }
+   }
+
+   private <T extends Metric> SortedMap<String, T> limit(final SortedMap<String, T> metrics,
+                                                          final Map<String, Set<String>> admitted,
+                                                          final Map<String, long[]> folded,
+                                                          final Map<String, Long> previousCounts) {
+      SortedMap<String, T> limited = new TreeMap<>();
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         String prefix = prefix(metric.getKey());
+         Set<String> prefixAdmitted = admitted.get(prefix);
+         if(prefixAdmitted == null || prefixAdmitted.contains(metric.getKey())) {
+            limited.put(metric.getKey(), metric.getValue());
+         } else {
+            long[] prefixFolded = folded.computeIfAbsent(prefix, p -> new long[2]);
+            if(metric.getValue() instanceof Counting) {
+               prefixFolded[0] += activity(metric.getKey(), ((Counting)metric.getValue()).getCount(), previousCounts);
+            }
+            prefixFolded[1]++;
+         }
+      }
+      return limited;
+   }
+
+   /**
+    * A space-saving summary of the most active series for a prefix.
+    */
+   static final class TopSeries {
+
+      TopSeries(final int capacity) {
+         this.capacity = Math.max(capacity, 1);
+      }
+
+      /**
+       * Adds activity for a series.
+       * @param name The series name.
+       * @param activity The activity.
+       */
+      void add(final String name, final long activity) {
+         Entry entry = entries.get(name);
+         if(entry != null) {
+            ordered.remove(entry);
+            entry.count += activity;
+         } else if(entries.size() < capacity) {
+            entry = new Entry(name, activity);
+            entries.put(name, entry);
+         } else {
+            Entry min = ordered.pollFirst();
+            entries.remove(min.name);
+            entry = new Entry(name, min.count + activity); //Inherits the evicted count as the maximum error...
+            entries.put(name, entry);
+         }
+         ordered.add(entry);
+      }
+
+      /**
+       * Gets the most active series.
+       * @param count The maximum number of series.
+       * @return The names.
+       */
+      Set<String> top(final int count) {
+         Set<String> top = Sets.newHashSetWithExpectedSize(count);
+         for(Entry entry : ordered.descendingSet()) {
+            if(top.size() == count) {
+               break;
+            }
+            top.add(entry.name);
+         }
+         return top;
+      }
+
+      /**
+       * Halves all activity.
+       */
+      void decay() {
+         for(Entry entry : entries.values()) {
+            entry.count /= 2L;
+         }
+      }
+
+      private static final class Entry {
+
+         Entry(final String name, final long count) {
+            this.name = name;
+            this.count = count;
+         }
+
+         final String name;
+         long count;
+      }
+
+      private final int capacity;
+      private final Map<String, Entry> entries = Maps.newHashMap();
+      private final TreeSet<Entry> ordered = new TreeSet<>(
+              Comparator.<Entry>comparingLong(entry -> entry.count).thenComparing(entry -> entry.name));
+   }
+
+   private final int maxSeries;
+   private final int prefixSegments;
+   private final ImmutableMap<String, Integer> prefixLimits;
+
+   /**
+    * The history recorded for a key.
+    */
+   private static final class History {
+
+      History(final long timestampMillis) {
+         this.lastDecayMillis = timestampMillis;
+      }
+
+      /**
+       * The most active series for each limited prefix.
+       */
+      final Map<String, TopSeries> topSeries = Maps.newHashMap();
+
+      /**
+       * The count of each name in a limited prefix in the previous snapshot.
+       */
+      Map<String, Long> previousCounts = Maps.newHashMap();
+
+      /**
+       * The total activity of folded series for each prefix.
+       */
+      final Map<String, Long> otherCounts = Maps.newHashMap();
+
+      long lastDecayMillis;
+   }
+
+   /**
+    * The history for each key.
+    */
+   private final Map<Object, History> histories = Maps.newHashMap();
+
+   /**
+    * Counts series folded into an aggregate.
+    */
+   private final Counter foldedSeries = new Counter();
+
+   /**
+    * The number of prefixes over their limit in the last snapshot.
+    */
+   private volatile int limitedPrefixCount;
+
+   private final ImmutableMap<String, Metric> metrics = ImmutableMap.of(
+           "folded-series", foldedSeries,
+           "limited-prefixes", (Gauge<Integer>)() -> limitedPrefixCount
+   );
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+
+import java.util.Objects;
+
+/**
+ * A filter that matches only metrics that have changed since they were last matched.
+ * <p>
+ *    Counters, meters, histograms and timers have changed if their count has changed.
+ *    Gauges have changed if their value has changed. Every metric is matched at least once
+ *    per heartbeat interval, even if unchanged, so idle metrics are still reported periodically.
+ * </p>
+ * <p>
+ *    The last value and the last match time for each name are kept in parallel primitive arrays,
+ *    indexed by open addressing. Names not matched for two heartbeat intervals are
+ *    assumed to be removed from the registry and are discarded when the table grows.
+ * </p>
+ * <p>
+ *    The filter records a match as a report, so each filter must be used by a single reporter.
+ * </p>
+ */
+public class ChangeFilter implements MetricFilter {
+
+   /**
+    * Creates a filter.
+    * @param heartbeatMillis The maximum time between reports of an unchanged metric.
+    * @throws IllegalArgumentException if the heartbeat is not positive.
+    */
+   public ChangeFilter(final long heartbeatMillis) {
+      if(heartbeatMillis <= 0L) {
+         throw new IllegalArgumentException("The heartbeat must be > 0");
+      }
+      this.heartbeatMillis = heartbeatMillis;
+      allocate(INITIAL_CAPACITY);
+   }
+
+   @Override
+   public boolean matches(final String name, final Metric metric) {
+      return matches(name, metric, System.currentTimeMillis());
+   }
+
+   /**
+    * Creates a snapshot that contains only changed metrics.
+    * @param snapshot The snapshot.
+    * @return The filtered snapshot.
+    */
+   public RegistrySnapshot filter(final RegistrySnapshot snapshot) {
+      final long timestamp = snapshot.getTimestamp();
+      return snapshot.filter((name, metric) -> matches(name, metric, timestamp));
+   }
+
+   /**
+    * Determines if a metric has changed or is due for a heartbeat, recording the report if it has.
+    * @param name The metric name.
+    * @param metric The metric.
+    * @param nowMillis The current time.
+    * @return Should the metric be reported?
+    */
+   synchronized boolean matches(final String name, final Metric metric, final long nowMillis) {
+
+      final long value = value(metric);
+      int index = index(name);
+      if(keys[index] == null) {
+         if(size + 1 > capacity * 3 / 4) {
+            rebuild(nowMillis);
+            index = index(name);
+         }
+         keys[index] = name;
+         values[index] = value;
+         reportedMillis[index] = nowMillis;
+         size++;
+         return true;
+      } else if(values[index] != value || nowMillis - reportedMillis[index] >= heartbeatMillis) {
+         values[index] = value;
+         reportedMillis[index] = nowMillis;
+         return true;
+      } else {
+         return false;
+      }
+   }
+
+   /**
+    * Gets the value compared to detect a change.
+    * @param metric The metric.
+    * @return The value.
+    */
+   @SuppressWarnings("rawtypes")
+   private static long value(final Metric metric) {
+      if(metric instanceof Counting) {
+         return ((Counting)metric).getCount();
+      } else if(metric instanceof Gauge) {
+         Object value = ((Gauge)metric).getValue();
+         if(value instanceof Number) {
+            return Double.doubleToLongBits(((Number)value).doubleValue());
+         } else {
+            return Objects.hashCode(value);
+         }
+      } else {
+         return 0L;
+      }
+   }
+
+   /**
+    * Gets the index of a name or the empty slot where it belongs.
+    * @param name The name.
+    * @return The index.
+    */
+   private int index(final String name) {
+      int mask = capacity - 1;
+      int index = mix(name.hashCode()) & mask;
+      while(keys[index] != null && !keys[index].equals(name)) {
+         index = (index + 1) & mask;
+      }
+      return index;
+   }
+
+   /**
+    * Rebuilds the table, discarding names not reported for two heartbeat intervals
+    * and doubling the capacity if still required.
+    * @param nowMillis The current time.
+    */
+   private void rebuild(final long nowMillis) {
+      String[] oldKeys = keys;
+      long[] oldValues = values;
+      long[] oldReportedMillis = reportedMillis;
+
+      int live = 0;
+      for(int i = 0; i < oldKeys.length; i++) {
+         if(oldKeys[i] != null && nowMillis - oldReportedMillis[i] < heartbeatMillis * 2L) {
+            live++;
+         }
+      }
+
+      allocate(live + 1 > capacity / 2 ? capacity * 2 : capacity);
+      for(int i = 0; i < oldKeys.length; i++) {
+         if(oldKeys[i] != null && nowMillis - oldReportedMillis[i] < heartbeatMillis * 2L) {
+            int index = index(oldKeys[i]);
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+            reportedMillis[index] = oldReportedMillis[i];
+            size++;
+         }
+      }
+   }
+
+   /**
+    * Allocates empty arrays.
+    * @param capacity The capacity. Must be a power of two.
+    */
+   private void allocate(final int capacity) {
+      this.capacity = capacity;
+      this.keys = new String[capacity];
+      this.values = new long[capacity];
+      this.reportedMillis = new long[capacity];
+      this.size = 0;
+   }
+
+   /**
+    * Spreads the bits of a hash code.
+    * @param hash The hash code.
+    * @return The mixed hash.
+    */
+   private static int mix(final int hash) {
+      int h = hash * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }
+
+   /**
+    * Gets the number of names currently tracked.
+    * @return The number of names.
+    */
+   synchronized int size() {
+      return size;
+   }
+
+   private static final int INITIAL_CAPACITY = 256;
+
+   /**
+    * The maximum time between reports of an unchanged metric.
+    */
+   private final long heartbeatMillis;
+
+   private int capacity;
+   private int size;
+   private String[] keys;
+   private long[] values;
+   private long[] reportedMillis;
+}
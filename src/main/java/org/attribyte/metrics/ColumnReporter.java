@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+/**
+ * A reporter that can report values collected into {@link MetricColumns}, without allocation.
+ * <p>
+ *    Used instead of snapshot reports when reporting is configured to be allocation-free.
+ * </p>
+ */
+public interface ColumnReporter extends SnapshotReporter {
+
+   /**
+    * Reports collected columns.
+    * @param columns The columns.
+    */
+   public void report(MetricColumns columns);
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Suppliers for timers and histograms backed by an {@link HdrReservoir}.
+ * <p>
+ *    For example: <code>registry.timer("requests", HdrMetrics.timers())</code>.
+ *    Reporters read exact interval percentiles from these metrics through their snapshots.
+ * </p>
+ */
+public class HdrMetrics {
+
+   /**
+    * Gets a supplier for timers with the default precision and minimum interval.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Timer> timers() {
+      return TIMERS;
+   }
+
+   /**
+    * Gets a supplier for timers.
+    * @param significantDigits The number of significant decimal digits recorded (0-5).
+    * @param minIntervalMillis The minimum time between interval swaps.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Timer> timers(final int significantDigits, final long minIntervalMillis) {
+      return () -> new Timer(new HdrReservoir(significantDigits, minIntervalMillis));
+   }
+
+   /**
+    * Gets a supplier for histograms with the default precision and minimum interval.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Histogram> histograms() {
+      return HISTOGRAMS;
+   }
+
+   /**
+    * Gets a supplier for histograms.
+    * @param significantDigits The number of significant decimal digits recorded (0-5).
+    * @param minIntervalMillis The minimum time between interval swaps.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Histogram> histograms(final int significantDigits, final long minIntervalMillis) {
+      return () -> new Histogram(new HdrReservoir(significantDigits, minIntervalMillis));
+   }
+
+   private static final MetricRegistry.MetricSupplier<Timer> TIMERS = () -> new Timer(new HdrReservoir());
+   private static final MetricRegistry.MetricSupplier<Histogram> HISTOGRAMS = () -> new Histogram(new HdrReservoir());
+
+   private HdrMetrics() {
+   }
+}
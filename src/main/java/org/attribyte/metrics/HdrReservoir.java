@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A reservoir that records every value in a double-buffered HDR histogram.
+ * <p>
+ *    Values are recorded without locks. A snapshot swaps the recording histogram,
+ *    so it contains exactly the values recorded since the previous snapshot (the interval).
+ *    Snapshots requested within the minimum interval of the last swap return the
+ *    same values, so reporters that report at (about) the same time see the same interval.
+ *    A reporter that reports less often than others sees only the values recorded
+ *    since the last report by any reporter, so reporters with different frequencies
+ *    should not share these metrics.
+ * </p>
+ * <p>
+ *    Negative values are recorded as zero.
+ * </p>
+ */
+public class HdrReservoir implements Reservoir {
+
+   /**
+    * The default number of significant decimal digits (2).
+    */
+   public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+   /**
+    * The default minimum time between interval swaps (1s).
+    */
+   public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000L;
+
+   /**
+    * Creates a reservoir with the default precision and minimum interval.
+    */
+   public HdrReservoir() {
+      this(DEFAULT_SIGNIFICANT_DIGITS, DEFAULT_MIN_INTERVAL_MILLIS);
+   }
+
+   /**
+    * Creates a reservoir.
+    * @param significantDigits The number of significant decimal digits recorded (0-5).
+    * @param minIntervalMillis The minimum time between interval swaps.
+    */
+   public HdrReservoir(final int significantDigits, final long minIntervalMillis) {
+      this.recorder = new Recorder(significantDigits); //Auto-resizing...
+      this.minIntervalMillis = minIntervalMillis;
+      this.snapshot = new HdrSnapshot(recorder.getIntervalHistogram());
+   }
+
+   /**
+    * Gets the number of values in the last interval, without swapping.
+    * @return The number of values.
+    */
+   @Override
+   public synchronized int size() {
+      return snapshot.size();
+   }
+
+   @Override
+   public void update(final long value) {
+      recorder.recordValue(value > 0L ? value : 0L);
+   }
+
+   @Override
+   public synchronized Snapshot getSnapshot() {
+      long now = System.currentTimeMillis();
+      if(now - snapshotMillis >= minIntervalMillis) {
+         Histogram interval = recorder.getIntervalHistogram(); //Not recycled: the previous snapshot may still be in use...
+         snapshot = new HdrSnapshot(interval);
+         snapshotMillis = now;
+      }
+      return snapshot;
+   }
+
+   private final Recorder recorder;
+   private final long minIntervalMillis;
+   private HdrSnapshot snapshot;
+   private long snapshotMillis = Long.MIN_VALUE / 2L;
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A snapshot of the values recorded by an HDR histogram.
+ * <p>
+ *    Quantiles, the mean, minimum and maximum are computed from every recorded value,
+ *    to the histogram's precision, not from a sample.
+ * </p>
+ */
+public class HdrSnapshot extends Snapshot {
+
+   /**
+    * The maximum number of values returned by <code>getValues</code>.
+    */
+   public static final int MAX_VALUES = 65536;
+
+   /**
+    * Creates a snapshot.
+    * @param histogram The histogram. Must not be modified after the snapshot is created.
+    */
+   public HdrSnapshot(final Histogram histogram) {
+      this.histogram = histogram;
+   }
+
+   /**
+    * Gets the histogram.
+    * @return The histogram. Must not be modified.
+    */
+   public Histogram getHistogram() {
+      return histogram;
+   }
+
+   @Override
+   public double getValue(final double quantile) {
+      if(quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+         throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      return histogram.getTotalCount() > 0L ? histogram.getValueAtPercentile(quantile * 100.0) : 0.0;
+   }
+
+   /**
+    * Gets the values at several quantiles, in a single pass over the histogram.
+    * Values are the same as those returned by {@link #getValue(double)}.
+    * @param quantiles The quantiles in [0..1], in ascending order.
+    * @param values An array for the values, at least as long as the quantiles.
+    * @throws IllegalArgumentException if a quantile is not in [0..1] or quantiles are not in order.
+    */
+   public void getValues(final double[] quantiles, final double[] values) {
+      double lastQuantile = 0.0;
+      for(double quantile : quantiles) {
+         if(quantile < lastQuantile || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1] or out of order");
+         }
+         lastQuantile = quantile;
+      }
+
+      long total = histogram.getTotalCount();
+      int index = 0;
+      if(total > 0L) {
+         long cumulativeCount = 0L;
+         for(HistogramIterationValue value : histogram.recordedValues()) {
+            cumulativeCount += value.getCountAtValueIteratedTo();
+            while(index < quantiles.length && cumulativeCount >= countAtQuantile(quantiles[index], total)) {
+               long valueAtIndex = value.getValueIteratedTo();
+               values[index] = quantiles[index] == 0.0 ?
+                       histogram.lowestEquivalentValue(valueAtIndex) : histogram.highestEquivalentValue(valueAtIndex);
+               index++;
+            }
+         }
+      }
+      while(index < quantiles.length) {
+         values[index++] = total > 0L ? histogram.getMaxValue() : 0.0;
+      }
+   }
+
+   /**
+    * Gets the count at or below the value at a quantile, as computed by the histogram.
+    * @param quantile The quantile.
+    * @param total The total count.
+    * @return The count.
+    */
+   private static long countAtQuantile(final double quantile, final long total) {
+      double percentile = Math.min(Math.max(Math.nextAfter(quantile * 100.0, Double.NEGATIVE_INFINITY), 0.0), 100.0);
+      return Math.max((long)Math.ceil(percentile * total / 100.0), 1L);
+   }
+
+   /**
+    * Gets the values, in order. If more than {@link #MAX_VALUES} values were recorded,
+    * the values are evenly spaced by rank.
+    * @return The values.
+    */
+   @Override
+   public long[] getValues() {
+      long total = histogram.getTotalCount();
+      int size = (int)Math.min(total, MAX_VALUES);
+      long[] values = new long[size];
+      int index = 0;
+      long cumulativeCount = 0L;
+      for(HistogramIterationValue value : histogram.recordedValues()) {
+         cumulativeCount += value.getCountAtValueIteratedTo();
+         long equivalentValue = histogram.highestEquivalentValue(value.getValueIteratedTo());
+         while(index < size && (index * total) / size < cumulativeCount) {
+            values[index++] = equivalentValue;
+         }
+      }
+      return values;
+   }
+
+   @Override
+   public int size() {
+      return (int)Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+   }
+
+   @Override
+   public long getMax() {
+      return histogram.getTotalCount() > 0L ? histogram.getMaxValue() : 0L;
+   }
+
+   @Override
+   public double getMean() {
+      return histogram.getTotalCount() > 0L ? histogram.getMean() : 0.0;
+   }
+
+   @Override
+   public long getMin() {
+      return histogram.getTotalCount() > 0L ? histogram.getMinValue() : 0L;
+   }
+
+   @Override
+   public double getStdDev() {
+      return histogram.getTotalCount() > 1L ? histogram.getStdDeviation() : 0.0;
+   }
+
+   @Override
+   public void dump(final OutputStream output) {
+      try(PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+         for(long value : getValues()) {
+            out.printf("%d%n", value);
+         }
+      }
+   }
+
+   private final Histogram histogram;
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Collects registry values into reusable primitive columns, one row per metric.
+ * <p>
+ *    Rows are assigned as metrics are added to the registry, so collection reads each metric
+ *    directly into its row without building maps. After the first collection, collecting and
+ *    reading values allocates nothing, with two exceptions: each histogram and timer
+ *    allocates its reservoir snapshot and gauges that return boxed values allocate the value.
+ *    Gauges that implement {@link DoubleGauge} are read without boxing.
+ * </p>
+ * <p>
+ *    Values are in the registry's units: rates are per second and timer values are nanoseconds.
+ *    Fields that don't apply to a metric's type are <code>NaN</code>.
+ * </p>
+ * <p>
+ *    Rows and values may be read only by the thread that collects, between collections.
+ * </p>
+ */
+public class MetricColumns implements MetricRegistryListener, Closeable {
+
+   /**
+    * The metric type for a row.
+    */
+   public enum Type {
+      GAUGE,
+      COUNTER,
+      HISTOGRAM,
+      METER,
+      TIMER
+   }
+
+   /**
+    * A gauge with a primitive value, read without boxing.
+    */
+   public interface DoubleGauge extends Gauge<Double> {
+
+      /**
+       * Gets the value.
+       * @return The value.
+       */
+      public double getDoubleValue();
+
+      @Override
+      default Double getValue() {
+         return getDoubleValue();
+      }
+   }
+
+   /**
+    * Creates columns for a registry.
+    * @param registry The registry.
+    * @param filter A filter applied once, when each metric is added. May be <code>null</code>.
+    */
+   public MetricColumns(final MetricRegistry registry, final MetricFilter filter) {
+      this.registry = registry;
+      this.filter = filter != null ? filter : MetricFilter.ALL;
+      registry.addListener(this); //Existing metrics are added immediately...
+   }
+
+   /**
+    * Reads the current value of every metric into its row.
+    */
+   public synchronized void collect() {
+      timestamp = System.currentTimeMillis();
+      for(int row = 0; row < rowCount; row++) {
+         Type type = types[row];
+         if(type == null) {
+            continue;
+         }
+         try {
+            switch(type) {
+               case GAUGE:
+                  collectGauge(row, (Gauge<?>)metrics[row]);
+                  break;
+               case COUNTER:
+                  counts[row] = ((Counter)metrics[row]).getCount();
+                  values[MetricField.COUNT.ordinal()][row] = counts[row];
+                  values[MetricField.VALUE.ordinal()][row] = counts[row];
+                  break;
+               case METER:
+                  collectMetered(row, (Meter)metrics[row]);
+                  break;
+               case HISTOGRAM:
+                  Histogram histogram = (Histogram)metrics[row];
+                  counts[row] = histogram.getCount();
+                  values[MetricField.COUNT.ordinal()][row] = counts[row];
+                  collectSampled(row, histogram.getSnapshot());
+                  break;
+               case TIMER:
+                  Timer timer = (Timer)metrics[row];
+                  collectMetered(row, timer);
+                  collectSampled(row, timer.getSnapshot());
+                  break;
+            }
+         } catch(RuntimeException re) {
+            //A failing metric must not prevent collection of everything else...
+            values[MetricField.VALUE.ordinal()][row] = Double.NaN;
+         }
+      }
+   }
+
+   /**
+    * Removes the registry listener. Rows are no longer added or removed.
+    */
+   @Override
+   public void close() {
+      registry.removeListener(this);
+   }
+
+   /**
+    * Gets the time of the last collection.
+    * @return The timestamp in milliseconds.
+    */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /**
+    * Gets the number of rows, including empty rows.
+    * @return The number of rows.
+    */
+   public int getRowCount() {
+      return rowCount;
+   }
+
+   /**
+    * Gets the type of the metric in a row.
+    * @param row The row.
+    * @return The type or <code>null</code> if the row is empty.
+    */
+   public Type getType(final int row) {
+      return types[row];
+   }
+
+   /**
+    * Gets the name of the metric in a row.
+    * @param row The row.
+    * @return The name or <code>null</code> if the row is empty.
+    */
+   public String getName(final int row) {
+      return names[row];
+   }
+
+   /**
+    * Gets the metric in a row.
+    * @param row The row.
+    * @return The metric or <code>null</code> if the row is empty.
+    */
+   public Metric getMetric(final int row) {
+      return metrics[row];
+   }
+
+   /**
+    * Gets the generation of a row. The generation changes when a row is reused for another metric.
+    * @param row The row.
+    * @return The generation.
+    */
+   public int getGeneration(final int row) {
+      return generations[row];
+   }
+
+   /**
+    * Gets the snapshot collected for a histogram or timer.
+    * @param row The row.
+    * @return The snapshot or <code>null</code> if the row is not a histogram or timer or has not been collected.
+    */
+   public Snapshot getSnapshot(final int row) {
+      return snapshots[row];
+   }
+
+   /**
+    * Gets the count for a counter, meter, histogram or timer.
+    * @param row The row.
+    * @return The count.
+    */
+   public long getCount(final int row) {
+      return counts[row];
+   }
+
+   /**
+    * Gets the collected value of a field.
+    * @param row The row.
+    * @param field The field.
+    * @return The value or <code>NaN</code> if the field does not apply.
+    */
+   public double get(final int row, final MetricField field) {
+      return values[field.ordinal()][row];
+   }
+
+   private void collectGauge(final int row, final Gauge<?> gauge) {
+      final double value;
+      if(gauge instanceof DoubleGauge) {
+         value = ((DoubleGauge)gauge).getDoubleValue();
+      } else {
+         Object objValue = gauge.getValue();
+         value = objValue instanceof Number ? ((Number)objValue).doubleValue() : Double.NaN;
+      }
+      values[MetricField.VALUE.ordinal()][row] = value;
+   }
+
+   private void collectMetered(final int row, final Metered meter) {
+      counts[row] = meter.getCount();
+      values[MetricField.COUNT.ordinal()][row] = counts[row];
+      values[MetricField.ONE_MINUTE_RATE.ordinal()][row] = meter.getOneMinuteRate();
+      values[MetricField.FIVE_MINUTE_RATE.ordinal()][row] = meter.getFiveMinuteRate();
+      values[MetricField.FIFTEEN_MINUTE_RATE.ordinal()][row] = meter.getFifteenMinuteRate();
+      values[MetricField.MEAN_RATE.ordinal()][row] = meter.getMeanRate();
+   }
+
+   private void collectSampled(final int row, final Snapshot snapshot) {
+      snapshots[row] = snapshot;
+      values[MetricField.MEDIAN.ordinal()][row] = snapshot.getMedian();
+      values[MetricField.P75.ordinal()][row] = snapshot.get75thPercentile();
+      values[MetricField.P95.ordinal()][row] = snapshot.get95thPercentile();
+      values[MetricField.P98.ordinal()][row] = snapshot.get98thPercentile();
+      values[MetricField.P99.ordinal()][row] = snapshot.get99thPercentile();
+      values[MetricField.P999.ordinal()][row] = snapshot.get999thPercentile();
+      values[MetricField.MAX.ordinal()][row] = snapshot.getMax();
+      values[MetricField.MEAN.ordinal()][row] = snapshot.getMean();
+      values[MetricField.MIN.ordinal()][row] = snapshot.getMin();
+      values[MetricField.STD.ordinal()][row] = snapshot.getStdDev();
+   }
+
+   /**
+    * Adds a row for a metric, if it matches the filter.
+    * @param name The name.
+    * @param metric The metric.
+    * @param type The type.
+    */
+   private synchronized void addRow(final String name, final Metric metric, final Type type) {
+      if(!filter.matches(name, metric) || rows.containsKey(name)) {
+         return;
+      }
+
+      final int row;
+      if(freeCount > 0) {
+         row = freeRows[--freeCount];
+      } else {
+         if(rowCount == types.length) {
+            grow(types.length * 2);
+         }
+         row = rowCount++;
+      }
+
+      rows.put(name, row);
+      names[row] = name;
+      metrics[row] = metric;
+      types[row] = type;
+      generations[row]++;
+      counts[row] = 0L;
+      snapshots[row] = null;
+      for(double[] column : values) {
+         column[row] = Double.NaN;
+      }
+   }
+
+   /**
+    * Removes the row for a metric.
+    * @param name The name.
+    */
+   private synchronized void removeRow(final String name) {
+      Integer row = rows.remove(name);
+      if(row != null) {
+         names[row] = null;
+         metrics[row] = null;
+         types[row] = null;
+         snapshots[row] = null;
+         if(freeCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeRows.length * 2);
+         }
+         freeRows[freeCount++] = row;
+      }
+   }
+
+   /**
+    * Grows all columns.
+    * @param capacity The new capacity.
+    */
+   private void grow(final int capacity) {
+      names = Arrays.copyOf(names, capacity);
+      metrics = Arrays.copyOf(metrics, capacity);
+      types = Arrays.copyOf(types, capacity);
+      generations = Arrays.copyOf(generations, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+      snapshots = Arrays.copyOf(snapshots, capacity);
+      for(int i = 0; i < values.length; i++) {
+         values[i] = Arrays.copyOf(values[i], capacity);
+      }
+   }
+
+   @Override
+   public void onGaugeAdded(final String name, final Gauge<?> gauge) {
+      addRow(name, gauge, Type.GAUGE);
+   }
+
+   @Override
+   public void onGaugeRemoved(final String name) {
+      removeRow(name);
+   }
+
+   @Override
+   public void onCounterAdded(final String name, final Counter counter) {
+      addRow(name, counter, Type.COUNTER);
+   }
+
+   @Override
+   public void onCounterRemoved(final String name) {
+      removeRow(name);
+   }
+
+   @Override
+   public void onHistogramAdded(final String name, final Histogram histogram) {
+      addRow(name, histogram, Type.HISTOGRAM);
+   }
+
+   @Override
+   public void onHistogramRemoved(final String name) {
+      removeRow(name);
+   }
+
+   @Override
+   public void onMeterAdded(final String name, final Meter meter) {
+      addRow(name, meter, Type.METER);
+   }
+
+   @Override
+   public void onMeterRemoved(final String name) {
+      removeRow(name);
+   }
+
+   @Override
+   public void onTimerAdded(final String name, final Timer timer) {
+      addRow(name, timer, Type.TIMER);
+   }
+
+   @Override
+   public void onTimerRemoved(final String name) {
+      removeRow(name);
+   }
+
+   /**
+    * The initial number of rows.
+    */
+   private static final int INITIAL_CAPACITY = 64;
+
+   private final MetricRegistry registry;
+   private final MetricFilter filter;
+
+   /**
+    * The row for each metric name.
+    */
+   private final Map<String, Integer> rows = Maps.newHashMap();
+
+   /**
+    * Rows emptied by removed metrics, reused before new rows are added.
+    */
+   private int[] freeRows = new int[16];
+   private int freeCount;
+
+   private int rowCount;
+   private String[] names = new String[INITIAL_CAPACITY];
+   private Metric[] metrics = new Metric[INITIAL_CAPACITY];
+   private Type[] types = new Type[INITIAL_CAPACITY];
+   private int[] generations = new int[INITIAL_CAPACITY];
+   private long[] counts = new long[INITIAL_CAPACITY];
+   private Snapshot[] snapshots = new Snapshot[INITIAL_CAPACITY];
+
+   /**
+    * A column for every field, indexed by field ordinal.
+    */
+   private final double[][] values = new double[MetricField.values().length][INITIAL_CAPACITY];
+
+   private volatile long timestamp;
+}
@@ -85,6 +85,12 @@ public enum MetricField {
     */
    P999,
 
+   /**
+    * Any other percentile, like <code>p90</code> or <code>p99.99</code>.
+    * The percentile is carried by {@link ReportedFields}.
+    */
+   PERCENTILE,
+
    /**
     * The maximum value.
     */
@@ -105,6 +111,12 @@ public enum MetricField {
     */
    STD,
 
+   /**
+    * A mergeable quantile sketch of the sampled values.
+    * Reported only for histograms and timers with a {@link SketchSnapshot}.
+    */
+   SKETCH,
+
    //Gauge, counter
 
    /**
@@ -134,13 +146,104 @@ public enum MetricField {
       );
    }
 
+   /**
+    * Gets the percentile for one of the fixed percentile fields.
+    * @return The percentile in (0..100] or <code>NaN</code> if this is not a fixed percentile field.
+    */
+   public final double getPercentile() {
+      switch(this) {
+         case MEDIAN: return 50.0;
+         case P75: return 75.0;
+         case P95: return 95.0;
+         case P98: return 98.0;
+         case P99: return 99.0;
+         case P999: return 99.9;
+         default: return Double.NaN;
+      }
+   }
+
+   /**
+    * Gets the percentile from a string value.
+    * <p>
+    *    Percentiles are named like the fixed percentile fields, with any number.
+    *    For example: <code>p90</code>, <code>p99.99</code>, <code>99.5th</code> or <code>99.99th percentile</code>.
+    *    Like <code>p999</code>, a <code>p</code> followed by more than 100 without a decimal point
+    *    has a decimal point after the first two digits, so <code>p9999</code> is the 99.99th percentile.
+    *    After a <code>p</code>, <code>_</code> may be used as the decimal point, so <code>p9_99</code> is the 9.99th percentile.
+    * </p>
+    * @param str The string value.
+    * @return The percentile in (0..100] or <code>NaN</code> if the value is not a percentile.
+    */
+   public static final double parsePercentile(final String str) {
+      String key = normalize(str);
+      MetricField field = fromNormalized(key);
+      return field == PERCENTILE ? parseOtherPercentile(key) : field.getPercentile();
+   }
+
    /**
     * Gets a metric field from a string value.
     * @param str The string value.
     * @return The metric field or <code>UNKNOWN</code>.
     */
    public static final MetricField fromString(final String str) {
-      switch(Strings.nullToEmpty(str).trim().toLowerCase().replace('-', '_').replace(' ', '_')) {
+      return fromNormalized(normalize(str));
+   }
+
+   /**
+    * Normalizes a field string.
+    * @param str The string value.
+    * @return The trimmed, lower-case value with '-' and ' ' replaced by '_'.
+    */
+   private static String normalize(final String str) {
+      return Strings.nullToEmpty(str).trim().toLowerCase().replace('-', '_').replace(' ', '_');
+   }
+
+   /**
+    * Parses a percentile that is not one of the fixed percentile fields.
+    * @param key The normalized string value.
+    * @return The percentile or <code>NaN</code>.
+    */
+   private static double parseOtherPercentile(final String key) {
+      final String number;
+      if(key.startsWith("p")) {
+         number = key.substring(1).replace('_', '.');
+      } else if(key.endsWith("th_percentile")) {
+         number = key.substring(0, key.length() - "th_percentile".length());
+      } else if(key.endsWith("th_%")) {
+         number = key.substring(0, key.length() - "th_%".length());
+      } else if(key.endsWith("th")) {
+         number = key.substring(0, key.length() - "th".length());
+      } else {
+         return Double.NaN;
+      }
+
+      int pointCount = 0;
+      for(int i = 0; i < number.length(); i++) {
+         char ch = number.charAt(i);
+         if(ch == '.') {
+            pointCount++;
+         } else if(ch < '0' || ch > '9') {
+            return Double.NaN;
+         }
+      }
+      if(number.isEmpty() || pointCount > 1 || number.equals(".")) {
+         return Double.NaN;
+      }
+
+      double percentile = Double.parseDouble(number);
+      if(percentile > 100.0 && pointCount == 0 && key.startsWith("p")) {
+         percentile = Double.parseDouble(number.substring(0, 2) + "." + number.substring(2));
+      }
+      return percentile > 0.0 && percentile <= 100.0 ? percentile : Double.NaN;
+   }
+
+   /**
+    * Gets a metric field from a normalized string value.
+    * @param key The normalized string value.
+    * @return The metric field or <code>UNKNOWN</code>.
+    */
+   private static MetricField fromNormalized(final String key) {
+      switch(key) {
          case "count":
             return COUNT;
          case "one_minute_rate":
@@ -195,10 +298,27 @@ public enum MetricField {
          case "std":
          case "standard_deviation":
             return STD;
+         case "sketch":
+         case "ddsketch":
+            return SKETCH;
          case "value":
             return VALUE;
          default:
-            return UNKNOWN;
+            double percentile = parseOtherPercentile(key);
+            if(Double.isNaN(percentile)) {
+               return UNKNOWN;
+            }
+            for(MetricField field : FIXED_PERCENTILES) {
+               if(field.getPercentile() == percentile) {
+                  return field; //For example, 'p99.9'...
+               }
+            }
+            return PERCENTILE;
       }
    }
-}
\ No newline at end of file
+
+   /**
+    * The fixed percentile fields.
+    */
+   private static final MetricField[] FIXED_PERCENTILES = {MEDIAN, P75, P95, P98, P99, P999};
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Strings;
+
+import java.util.function.Supplier;
+
+/**
+ * Suppliers for timers and histograms with a configured reservoir.
+ * <p>
+ *    Reservoirs are selected by name:
+ *    <ul>
+ *       <li><code>exponential</code> - The standard exponentially decaying reservoir. The default.</li>
+ *       <li><code>striped</code> - A {@link StripedReservoir}, for timers recorded by many threads.</li>
+ *       <li><code>hdr</code> - An {@link HdrReservoir}, with exact interval percentiles.</li>
+ *       <li><code>sketch</code> - A {@link SketchReservoir}, with mergeable interval quantile sketches.</li>
+ *    </ul>
+ * </p>
+ */
+public class MetricSuppliers {
+
+   /**
+    * Gets a reservoir supplier by name.
+    * @param name The name. If empty, the default, 'exponential'.
+    * @return The supplier.
+    * @throws IllegalArgumentException if the name is unknown.
+    */
+   public static Supplier<Reservoir> reservoir(final String name) {
+      switch(Strings.nullToEmpty(name).trim().toLowerCase()) {
+         case "":
+         case "exponential":
+            return ExponentiallyDecayingReservoir::new;
+         case "striped":
+            return StripedReservoir::new;
+         case "hdr":
+            return HdrReservoir::new;
+         case "sketch":
+            return SketchReservoir::new;
+         default:
+            throw new IllegalArgumentException("Unknown reservoir, '" + name + "'");
+      }
+   }
+
+   /**
+    * Gets a supplier for timers.
+    * @param reservoir Supplies the reservoir for each timer.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Timer> timers(final Supplier<Reservoir> reservoir) {
+      return () -> new Timer(reservoir.get());
+   }
+
+   /**
+    * Gets a supplier for histograms.
+    * @param reservoir Supplies the reservoir for each histogram.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Histogram> histograms(final Supplier<Reservoir> reservoir) {
+      return () -> new Histogram(reservoir.get());
+   }
+
+   /**
+    * Gets a supplier for timers with a striped reservoir.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Timer> stripedTimers() {
+      return STRIPED_TIMERS;
+   }
+
+   /**
+    * Gets a supplier for histograms with a striped reservoir.
+    * @return The supplier.
+    */
+   public static MetricRegistry.MetricSupplier<Histogram> stripedHistograms() {
+      return STRIPED_HISTOGRAMS;
+   }
+
+   private static final MetricRegistry.MetricSupplier<Timer> STRIPED_TIMERS = () -> new Timer(new StripedReservoir());
+   private static final MetricRegistry.MetricSupplier<Histogram> STRIPED_HISTOGRAMS = () -> new Histogram(new StripedReservoir());
+
+   private MetricSuppliers() {
+   }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Interns registry names, assigning each a stable integer id, and caches the name
+ * each reporter ("sink") sends for it.
+ * <p>
+ *    A sink is registered once with a function that encodes a registry name. Encoded names,
+ *    as a string and as UTF-8, are computed when a metric is added to the registry
+ *    (or when the sink is registered), so reporting looks up names without building strings.
+ *    Names reported but not registered (for example, renamed names) are interned on first use.
+ * </p>
+ * <p>
+ *    A name keeps its id until its metric is removed from the registry.
+ * </p>
+ */
+public class NameTable implements MetricRegistryListener {
+
+   /**
+    * Gets the shared table for a registry, creating it if required.
+    * @param registry The registry.
+    * @return The table.
+    */
+   public static NameTable forRegistry(final MetricRegistry registry) {
+      NameTable table = tables.get(registry);
+      if(table == null) {
+         synchronized(tables) {
+            table = tables.get(registry);
+            if(table == null) {
+               table = new NameTable();
+               registry.addListener(table); //Existing metrics are added immediately...
+               tables.put(registry, table);
+            }
+         }
+      }
+      return table;
+   }
+
+   /**
+    * Creates an empty table not attached to any registry.
+    */
+   public NameTable() {
+   }
+
+   /**
+    * Registers a sink, or gets a sink registered with the same key.
+    * @param key A key that identifies the encoding. Sinks with the same key share names.
+    * @param encoder Encodes a registry name.
+    * @return The sink id.
+    */
+   public synchronized int sink(final String key, final Function<String, String> encoder) {
+      Integer sink = sinkIds.get(key);
+      if(sink != null) {
+         return sink;
+      }
+      int id = encoders.size();
+      List<Function<String, String>> newEncoders = Lists.newArrayList(encoders);
+      newEncoders.add(encoder);
+      encoders = newEncoders;
+      sinkIds.put(key, id);
+      for(Entry entry : entries.values()) {
+         entry.encode(id, encoder);
+      }
+      return id;
+   }
+
+   /**
+    * Gets the id for a name.
+    * @param name The registry name.
+    * @return The id.
+    */
+   public int id(final String name) {
+      return entry(name).id;
+   }
+
+   /**
+    * Gets the name sent by a sink.
+    * @param sink The sink id.
+    * @param name The registry name.
+    * @return The encoded name.
+    */
+   public String name(final int sink, final String name) {
+      return entry(name).name(sink, encoders);
+   }
+
+   /**
+    * Gets the UTF-8 encoded name sent by a sink.
+    * <p>
+    *    The returned array is shared and must not be modified.
+    * </p>
+    * @param sink The sink id.
+    * @param name The registry name.
+    * @return The encoded name.
+    */
+   public byte[] bytes(final int sink, final String name) {
+      return entry(name).bytes(sink, encoders);
+   }
+
+   /**
+    * Gets the number of interned names.
+    * @return The number of names.
+    */
+   public int size() {
+      return entries.size();
+   }
+
+   /**
+    * Gets the entry for a name, interning the name if required.
+    * @param name The name.
+    * @return The entry.
+    */
+   private Entry entry(final String name) {
+      Entry entry = entries.get(name);
+      return entry != null ? entry : intern(name);
+   }
+
+   /**
+    * Interns a name, encoding it for every sink.
+    * @param name The name.
+    * @return The entry.
+    */
+   private Entry intern(final String name) {
+      return entries.computeIfAbsent(name, key -> {
+         Entry entry = new Entry(nextId.getAndIncrement(), key);
+         List<Function<String, String>> encoders = this.encoders;
+         for(int i = 0; i < encoders.size(); i++) {
+            entry.encode(i, encoders.get(i));
+         }
+         return entry;
+      });
+   }
+
+   /**
+    * An interned name with the names sent by each sink.
+    */
+   private static final class Entry {
+
+      Entry(final int id, final String name) {
+         this.id = id;
+         this.name = name;
+      }
+
+      /**
+       * Encodes the name for a sink.
+       * @param sink The sink id.
+       * @param encoder The encoder.
+       */
+      synchronized void encode(final int sink, final Function<String, String> encoder) {
+         if(sink >= names.length) {
+            String[] newNames = new String[sink + 1];
+            byte[][] newBytes = new byte[sink + 1][];
+            System.arraycopy(names, 0, newNames, 0, names.length);
+            System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+            String encoded = encoder.apply(name);
+            newNames[sink] = encoded;
+            newBytes[sink] = encoded.getBytes(StandardCharsets.UTF_8);
+            bytes = newBytes;
+            names = newNames; //Published last...
+         } else if(names[sink] == null) {
+            String encoded = encoder.apply(name);
+            bytes[sink] = encoded.getBytes(StandardCharsets.UTF_8);
+            names[sink] = encoded;
+         }
+      }
+
+      String name(final int sink, final List<Function<String, String>> encoders) {
+         String[] names = this.names;
+         if(sink >= names.length || names[sink] == null) {
+            encode(sink, encoders.get(sink));
+            names = this.names;
+         }
+         return names[sink];
+      }
+
+      byte[] bytes(final int sink, final List<Function<String, String>> encoders) {
+         String[] names = this.names;
+         if(sink >= names.length || names[sink] == null) {
+            encode(sink, encoders.get(sink));
+         }
+         return bytes[sink];
+      }
+
+      final int id;
+      final String name;
+      volatile String[] names = new String[0];
+      volatile byte[][] bytes = new byte[0][];
+   }
+
+   @Override
+   public void onGaugeAdded(final String name, final Gauge<?> gauge) {
+      intern(name);
+   }
+
+   @Override
+   public void onGaugeRemoved(final String name) {
+      entries.remove(name);
+   }
+
+   @Override
+   public void onCounterAdded(final String name, final Counter counter) {
+      intern(name);
+   }
+
+   @Override
+   public void onCounterRemoved(final String name) {
+      entries.remove(name);
+   }
+
+   @Override
+   public void onHistogramAdded(final String name, final Histogram histogram) {
+      intern(name);
+   }
+
+   @Override
+   public void onHistogramRemoved(final String name) {
+      entries.remove(name);
+   }
+
+   @Override
+   public void onMeterAdded(final String name, final Meter meter) {
+      intern(name);
+   }
+
+   @Override
+   public void onMeterRemoved(final String name) {
+      entries.remove(name);
+   }
+
+   @Override
+   public void onTimerAdded(final String name, final Timer timer) {
+      intern(name);
+   }
+
+   @Override
+   public void onTimerRemoved(final String name) {
+      entries.remove(name);
+   }
+
+   /**
+    * Shared tables by registry, released when the registry is collected.
+    */
+   private static final ConcurrentMap<MetricRegistry, NameTable> tables = new MapMaker().weakKeys().makeMap();
+
+   private final ConcurrentMap<String, Entry> entries = Maps.newConcurrentMap();
+   private final AtomicInteger nextId = new AtomicInteger();
+   private final Map<String, Integer> sinkIds = Maps.newHashMap();
+
+   /**
+    * The encoder for each sink, by sink id. Replaced when a sink is added.
+    */
+   private volatile List<Function<String, String>> encoders = Lists.newArrayList();
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Translates metric names with exact, glob and regular expression rules.
+ * <p>
+ *    Rules are configured as properties:
+ *    <ul>
+ *       <li><code>[name]=[new name]</code> translates a single name.</li>
+ *       <li><code>glob.[pattern]=[replacement]</code> translates names that match a glob pattern.
+ *       Each <code>*</code> matches any characters other than <code>.</code> and may be referenced
+ *       in the replacement as <code>$1</code>, <code>$2</code>, ...
+ *       For example: <code>glob.http.*.latency=api_$1_latency</code></li>
+ *       <li><code>re.[regex]=[replacement]</code> translates names that match a regular expression
+ *       with capture groups referenced as <code>$1</code>, <code>$2</code>, ...
+ *       For example: <code>re.http\\.(\\w+)\\.latency=api_$1_latency</code>.
+ *       Note that backslashes must be escaped in a properties file.</li>
+ *    </ul>
+ *    An exact rule always wins. Otherwise, the pattern with the longest literal prefix
+ *    that matches the entire name is used. Patterns with equal literal prefixes
+ *    are tried in the lexical order of their configuration.
+ * </p>
+ * <p>
+ *    Patterns are indexed by their literal prefix in a trie, so only patterns that
+ *    could match a name are evaluated, and the translation for each name is remembered.
+ * </p>
+ */
+public class NameTranslator implements Function<String, String> {
+
+   /**
+    * The prefix for glob pattern rules ('glob.').
+    */
+   public static final String GLOB_PREFIX = "glob.";
+
+   /**
+    * The prefix for regular expression rules ('re.').
+    */
+   public static final String REGEX_PREFIX = "re.";
+
+   /**
+    * The maximum number of remembered translations.
+    */
+   static final int MAX_REMEMBERED_NAMES = 65536;
+
+   /**
+    * Compiles the translation rules.
+    * @param props The rules.
+    * @return The translator.
+    * @throws java.util.regex.PatternSyntaxException if a regular expression is invalid.
+    */
+   public static NameTranslator compile(final Properties props) {
+      ImmutableMap.Builder<String, String> exact = ImmutableMap.builder();
+      Node root = new Node();
+      for(String key : new TreeSet<>(props.stringPropertyNames())) {
+         String replacement = props.getProperty(key).trim();
+         if(key.startsWith(GLOB_PREFIX)) {
+            String glob = key.substring(GLOB_PREFIX.length());
+            root.add(globPrefix(glob), new Rule(globToPattern(glob), replacement));
+         } else if(key.startsWith(REGEX_PREFIX)) {
+            String regex = key.substring(REGEX_PREFIX.length());
+            root.add(regexPrefix(regex), new Rule(Pattern.compile(regex), replacement));
+         } else {
+            exact.put(key, replacement);
+         }
+      }
+      return new NameTranslator(exact.build(), root);
+   }
+
+   private NameTranslator(final ImmutableMap<String, String> exact, final Node root) {
+      this.exact = exact;
+      this.root = root;
+   }
+
+   /**
+    * Translates a name.
+    * @param name The name.
+    * @return The translated name or <code>null</code> if the name is not translated.
+    */
+   @Override
+   public String apply(final String name) {
+      String translated = translations.get(name);
+      if(translated == null) {
+         translated = translate(name);
+         if(translations.size() < MAX_REMEMBERED_NAMES) {
+            translations.put(name, translated != null ? translated : NOT_TRANSLATED);
+         }
+         return translated;
+      } else {
+         return translated != NOT_TRANSLATED ? translated : null;
+      }
+   }
+
+   /**
+    * Are there no rules?
+    * @return Is the translator empty?
+    */
+   public boolean isEmpty() {
+      return exact.isEmpty() && root.isEmpty();
+   }
+
+   /**
+    * Translates a name by evaluating the rules.
+    * @param name The name.
+    * @return The translated name or <code>null</code>.
+    */
+   private String translate(final String name) {
+
+      String translated = exact.get(name);
+      if(translated != null) {
+         return translated;
+      }
+
+      List<List<Rule>> candidates = Lists.newArrayListWithCapacity(4);
+      Node node = root;
+      int index = 0;
+      while(node != null) {
+         if(node.rules != null) {
+            candidates.add(node.rules);
+         }
+         node = index < name.length() ? node.child(name.charAt(index++)) : null;
+      }
+
+      //Longest literal prefix first...
+      for(int i = candidates.size() - 1; i >= 0; i--) {
+         for(Rule rule : candidates.get(i)) {
+            translated = rule.apply(name);
+            if(translated != null) {
+               return translated;
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Gets the literal prefix of a glob pattern.
+    * @param glob The pattern.
+    * @return The prefix.
+    */
+   static String globPrefix(final String glob) {
+      int index = glob.indexOf('*');
+      return index < 0 ? glob : glob.substring(0, index);
+   }
+
+   /**
+    * Converts a glob pattern to a regular expression with a group for each wildcard.
+    * @param glob The glob pattern.
+    * @return The compiled pattern.
+    */
+   static Pattern globToPattern(final String glob) {
+      StringBuilder buf = new StringBuilder();
+      int start = 0;
+      int index;
+      while((index = glob.indexOf('*', start)) >= 0) {
+         if(index > start) {
+            buf.append(Pattern.quote(glob.substring(start, index)));
+         }
+         buf.append("([^.]*)");
+         start = index + 1;
+      }
+      if(start < glob.length()) {
+         buf.append(Pattern.quote(glob.substring(start)));
+      }
+      return Pattern.compile(buf.toString());
+   }
+
+   /**
+    * Gets the literal prefix every name matched by a regular expression must start with.
+    * @param regex The regular expression.
+    * @return The prefix. May be empty.
+    */
+   static String regexPrefix(final String regex) {
+      if(regex.indexOf('|') >= 0) {
+         return "";
+      }
+      StringBuilder buf = new StringBuilder();
+      int index = regex.startsWith("^") ? 1 : 0;
+      while(index < regex.length()) {
+         char ch = regex.charAt(index);
+         if(ch == '\\') {
+            if(index + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(index + 1))) {
+               ch = regex.charAt(index + 1);
+               index += 2;
+            } else {
+               break;
+            }
+         } else if(META_CHARS.indexOf(ch) >= 0) {
+            break;
+         } else {
+            index++;
+         }
+
+         if(index < regex.length() && QUANTIFIER_CHARS.indexOf(regex.charAt(index)) >= 0) {
+            break; //The character is optional or repeated...
+         }
+         buf.append(ch);
+      }
+      return buf.toString();
+   }
+
+   /**
+    * A pattern rule.
+    */
+   private static final class Rule {
+
+      Rule(final Pattern pattern, final String replacement) {
+         this.pattern = pattern;
+         this.replacement = replacement;
+      }
+
+      /**
+       * Translates a name if it matches.
+       * @param name The name.
+       * @return The translated name or <code>null</code> if no match.
+       */
+      String apply(final String name) {
+         Matcher matcher = pattern.matcher(name);
+         if(matcher.matches()) {
+            StringBuffer buf = new StringBuffer();
+            matcher.appendReplacement(buf, replacement);
+            return buf.toString();
+         } else {
+            return null;
+         }
+      }
+
+      private final Pattern pattern;
+      private final String replacement;
+   }
+
+   /**
+    * A node in the literal prefix trie.
+    */
+   private static final class Node {
+
+      /**
+       * Adds a rule.
+       * @param prefix The literal prefix.
+       * @param rule The rule.
+       */
+      void add(final String prefix, final Rule rule) {
+         Node node = this;
+         for(int i = 0; i < prefix.length(); i++) {
+            if(node.children == null) {
+               node.children = Maps.newHashMap();
+            }
+            node = node.children.computeIfAbsent(prefix.charAt(i), ch -> new Node());
+         }
+         if(node.rules == null) {
+            node.rules = Lists.newArrayListWithCapacity(2);
+         }
+         node.rules.add(rule);
+      }
+
+      /**
+       * Gets a child node.
+       * @param ch The character.
+       * @return The child or <code>null</code>.
+       */
+      Node child(final char ch) {
+         return children != null ? children.get(ch) : null;
+      }
+
+      /**
+       * Are there no rules in this node or any child?
+       * @return Is the node empty?
+       */
+      boolean isEmpty() {
+         return rules == null && children == null;
+      }
+
+      private Map<Character, Node> children;
+      private List<Rule> rules;
+   }
+
+   /**
+    * Regular expression characters that end a literal prefix.
+    */
+   private static final String META_CHARS = "^$.|?*+()[]{}";
+
+   /**
+    * Regular expression characters that make the preceding character optional or repeated.
+    */
+   private static final String QUANTIFIER_CHARS = "?*+{";
+
+   /**
+    * Marks a remembered name that is not translated.
+    */
+   @SuppressWarnings("RedundantStringConstructorCall")
+   private static final String NOT_TRANSLATED = new String("");
+
+   /**
+    * Exact name translations.
+    */
+   private final ImmutableMap<String, String> exact;
+
+   /**
+    * The root of the pattern trie.
+    */
+   private final Node root;
+
+   /**
+    * Remembered translations.
+    */
+   private final ConcurrentHashMap<String, String> translations = new ConcurrentHashMap<>();
+}
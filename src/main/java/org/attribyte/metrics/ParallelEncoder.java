@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Encodes large snapshots in parallel, as chunks, on a bounded fork-join pool.
+ * <p>
+ *    A snapshot is partitioned into chunks of sorted metrics and each chunk is encoded
+ *    by a worker thread. Encoded chunks are returned in snapshot order, so a reporter
+ *    can concatenate them, or send them in order, after encoding is complete.
+ *    Snapshots no larger than the chunk size are encoded on the calling thread.
+ * </p>
+ * <p>
+ *    An encoder may be shared by reporters. The encoding function must not modify state shared between chunks,
+ *    unless the state is thread-safe.
+ * </p>
+ * @see RegistrySnapshot#partition(int)
+ */
+public class ParallelEncoder implements MetricSet {
+
+   /**
+    * The default maximum number of metrics in a chunk (4096).
+    */
+   public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+   /**
+    * Creates an encoder from the 'encodeParallelism' and 'encodeChunkSize' properties.
+    * @param parallelism The parallelism property value. May be empty.
+    * @param chunkSize The chunk size property value. May be empty.
+    * @return The encoder or <code>null</code> if the parallelism is unspecified or less than two.
+    * @throws IllegalArgumentException if a value is invalid.
+    */
+   public static ParallelEncoder fromProperties(final String parallelism, final String chunkSize) {
+      final int threads;
+      final int size;
+      try {
+         threads = parallelism.trim().isEmpty() ? 1 : Integer.parseInt(parallelism.trim());
+         size = chunkSize.trim().isEmpty() ? DEFAULT_CHUNK_SIZE : Integer.parseInt(chunkSize.trim());
+      } catch(NumberFormatException nfe) {
+         throw new IllegalArgumentException("The 'encodeParallelism' and 'encodeChunkSize' must be integers");
+      }
+      return threads > 1 ? new ParallelEncoder(threads, size) : null;
+   }
+
+   /**
+    * Creates an encoder.
+    * @param parallelism The maximum number of chunks encoded at once.
+    * @param chunkSize The maximum number of metrics in a chunk.
+    * @throws IllegalArgumentException if the parallelism or chunk size is not positive.
+    */
+   public ParallelEncoder(final int parallelism, final int chunkSize) {
+      if(parallelism < 1) {
+         throw new IllegalArgumentException("The 'encodeParallelism' must be positive");
+      }
+      if(chunkSize < 1) {
+         throw new IllegalArgumentException("The 'encodeChunkSize' must be positive");
+      }
+      this.parallelism = parallelism;
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Encodes a snapshot.
+    * @param snapshot The snapshot.
+    * @param encoder The function that encodes a chunk.
+    * @param <T> The encoded type.
+    * @return The encoded chunks, in snapshot order.
+    * @throws RuntimeException if encoding any chunk fails.
+    */
+   public <T> List<T> encode(final RegistrySnapshot snapshot, final Function<RegistrySnapshot, T> encoder) {
+      final long startNanos = System.nanoTime();
+      try {
+         List<RegistrySnapshot> chunks = snapshot.partition(chunkSize);
+         chunkCount.inc(chunks.size());
+         if(chunks.size() == 1 || parallelism == 1) {
+            List<T> encoded = new ArrayList<>(chunks.size());
+            for(RegistrySnapshot chunk : chunks) {
+               encoded.add(encoder.apply(chunk));
+            }
+            return encoded;
+         } else {
+            Object[] encoded = new Object[chunks.size()];
+            pool().invoke(new EncodeChunks<>(chunks, encoder, encoded, 0, encoded.length));
+            @SuppressWarnings("unchecked")
+            List<T> ordered = (List<T>)Arrays.asList(encoded);
+            return ordered;
+         }
+      } finally {
+         encodeTimer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      }
+   }
+
+   /**
+    * Gets the maximum number of chunks encoded at once.
+    * @return The parallelism.
+    */
+   public int getParallelism() {
+      return parallelism;
+   }
+
+   /**
+    * Gets the maximum number of metrics in a chunk.
+    * @return The chunk size.
+    */
+   public int getChunkSize() {
+      return chunkSize;
+   }
+
+   /**
+    * Shuts down the worker threads. Encoding in progress is completed.
+    * <p>
+    *    New threads are started if another snapshot is encoded.
+    * </p>
+    */
+   public synchronized void shutdown() {
+      if(pool != null) {
+         pool.shutdown();
+         pool = null;
+      }
+   }
+
+   /**
+    * Gets the pool, creating it if required.
+    * @return The pool.
+    */
+   private synchronized ForkJoinPool pool() {
+      if(pool == null) {
+         pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("metrics-encoder-" + thread.getPoolIndex());
+            return thread;
+         }, null, false);
+      }
+      return pool;
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Encodes a range of chunks, splitting the range until a single chunk remains.
+    */
+   private static final class EncodeChunks<T> extends RecursiveAction {
+
+      EncodeChunks(final List<RegistrySnapshot> chunks, final Function<RegistrySnapshot, T> encoder,
+                   final Object[] encoded, final int from, final int to) {
+         this.chunks = chunks;
+         this.encoder = encoder;
+         this.encoded = encoded;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if(to - from == 1) {
+            encoded[from] = encoder.apply(chunks.get(from));
+         } else {
+            int mid = (from + to) >>> 1;
+            invokeAll(new EncodeChunks<>(chunks, encoder, encoded, from, mid),
+                    new EncodeChunks<>(chunks, encoder, encoded, mid, to));
+         }
+      }
+
+      private static final long serialVersionUID = 1L;
+
+      private final List<RegistrySnapshot> chunks;
+      private final Function<RegistrySnapshot, T> encoder;
+      private final Object[] encoded;
+      private final int from;
+      private final int to;
+   }
+
+   private final int parallelism;
+   private final int chunkSize;
+
+   /**
+    * The worker pool. Created when first required.
+    */
+   private ForkJoinPool pool;
+
+   /**
+    * Times the encoding of each snapshot.
+    */
+   private final Timer encodeTimer = new Timer();
+
+   /**
+    * Counts the chunks encoded.
+    */
+   private final Counter chunkCount = new Counter();
+
+   private final ImmutableMap<String, Metric> metrics = ImmutableMap.of(
+           "encode", encodeTimer,
+           "chunks", chunkCount
+   );
+}
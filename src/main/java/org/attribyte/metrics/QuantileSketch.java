@@ -0,0 +1,492 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A mergeable quantile sketch with relative accuracy guarantees (DDSketch).
+ * <p>
+ *    Positive values are counted in logarithmically-sized buckets so that any quantile
+ *    is returned with a relative error no greater than the configured accuracy. Zero and
+ *    negative values are counted as zero. Sketches with the same accuracy can be merged,
+ *    exactly, so quantiles may be computed for values recorded by many hosts.
+ * </p>
+ * <p>
+ *    Memory is bounded by the maximum number of buckets. If the range of recorded values needs more,
+ *    the lowest buckets are collapsed, so only the accuracy of the lowest quantiles is lost.
+ * </p>
+ * <p>
+ *    Not thread-safe.
+ * </p>
+ */
+public class QuantileSketch {
+
+   /**
+    * The default relative accuracy (0.01).
+    */
+   public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+   /**
+    * The default maximum number of buckets (2048).
+    * With the default accuracy, values over a range of about 18 orders of magnitude are counted without collapse.
+    */
+   public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+   /**
+    * Creates a sketch with the default accuracy and maximum number of buckets.
+    */
+   public QuantileSketch() {
+      this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+   }
+
+   /**
+    * Creates a sketch.
+    * @param relativeAccuracy The relative accuracy of quantiles, greater than 0 and less than 1.
+    * @param maxBuckets The maximum number of buckets.
+    * @throws IllegalArgumentException if the accuracy or maximum number of buckets is invalid.
+    */
+   public QuantileSketch(final double relativeAccuracy, final int maxBuckets) {
+      if(!(relativeAccuracy > 0.0 && relativeAccuracy < 1.0)) {
+         throw new IllegalArgumentException("The relative accuracy must be in (0..1)");
+      }
+      if(maxBuckets < 1) {
+         throw new IllegalArgumentException("The maximum number of buckets must be positive");
+      }
+      this.relativeAccuracy = relativeAccuracy;
+      this.maxBuckets = maxBuckets;
+      this.gamma = (1.0 + relativeAccuracy) / (1.0 - relativeAccuracy);
+      this.logGamma = Math.log(gamma);
+   }
+
+   /**
+    * Adds a value.
+    * @param value The value.
+    */
+   public void add(final double value) {
+      add(value, 1L);
+   }
+
+   /**
+    * Adds a value more than once.
+    * @param value The value.
+    * @param count The number of times the value is added.
+    */
+   public void add(final double value, final long count) {
+      if(count <= 0L || Double.isNaN(value)) {
+         return;
+      }
+      final double recordedValue;
+      if(value > MIN_INDEXABLE_VALUE) {
+         recordedValue = value;
+         addToBucket(index(value), count);
+      } else {
+         recordedValue = 0.0;
+         zeroCount += count;
+      }
+      if(this.count == 0L) {
+         min = max = recordedValue;
+      } else {
+         min = Math.min(min, recordedValue);
+         max = Math.max(max, recordedValue);
+      }
+      this.count += count;
+      sum += recordedValue * count;
+      sumOfSquares += recordedValue * recordedValue * count;
+   }
+
+   /**
+    * Merges another sketch into this sketch.
+    * @param other The other sketch.
+    * @throws IllegalArgumentException if the other sketch has a different accuracy.
+    */
+   public void merge(final QuantileSketch other) {
+      if(other.relativeAccuracy != relativeAccuracy) {
+         throw new IllegalArgumentException("Sketches with different accuracy can't be merged");
+      }
+      if(other.count == 0L) {
+         return;
+      }
+      for(int index = other.lowestBucket(); index <= other.highestBucket(); index++) {
+         long bucketCount = other.getBucketCount(index);
+         if(bucketCount > 0L) {
+            addToBucket(index, bucketCount);
+         }
+      }
+      zeroCount += other.zeroCount;
+      if(count == 0L) {
+         min = other.min;
+         max = other.max;
+      } else {
+         min = Math.min(min, other.min);
+         max = Math.max(max, other.max);
+      }
+      count += other.count;
+      sum += other.sum;
+      sumOfSquares += other.sumOfSquares;
+   }
+
+   /**
+    * Gets the value at a quantile. The values at 0 and 1 are the exact minimum and maximum.
+    * @param quantile The quantile in [0..1].
+    * @return The value, or <code>0</code> if the sketch is empty.
+    * @throws IllegalArgumentException if the quantile is not in [0..1].
+    */
+   public double quantile(final double quantile) {
+      if(quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+         throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      if(count == 0L) {
+         return 0.0;
+      } else if(quantile == 0.0) {
+         return min;
+      } else if(quantile == 1.0) {
+         return max;
+      }
+      double rank = quantile * (count - 1);
+      long cumulativeCount = zeroCount;
+      if(cumulativeCount > rank) {
+         return 0.0;
+      }
+      for(int index = minIndex; index <= maxIndex; index++) {
+         cumulativeCount += counts[index - offset];
+         if(cumulativeCount > rank) {
+            return Math.max(min, Math.min(max, getBucketValue(index)));
+         }
+      }
+      return max;
+   }
+
+   /**
+    * Gets the values at several quantiles, in a single pass.
+    * @param quantiles The quantiles in [0..1], in ascending order.
+    * @param values An array for the values, at least as long as the quantiles.
+    * @throws IllegalArgumentException if a quantile is not in [0..1] or quantiles are not in order.
+    */
+   public void quantiles(final double[] quantiles, final double[] values) {
+      long cumulativeCount = zeroCount;
+      double currentValue = 0.0;
+      int index = minIndex;
+      double lastQuantile = 0.0;
+      for(int i = 0; i < quantiles.length; i++) {
+         double quantile = quantiles[i];
+         if(quantile < lastQuantile || quantile > 1.0 || Double.isNaN(quantile)) {
+            throw new IllegalArgumentException(quantile + " is not in [0..1] or out of order");
+         }
+         lastQuantile = quantile;
+         if(count == 0L) {
+            values[i] = 0.0;
+         } else if(quantile == 0.0) {
+            values[i] = min;
+         } else if(quantile == 1.0) {
+            values[i] = max;
+         } else {
+            double rank = quantile * (count - 1);
+            while(cumulativeCount <= rank && index <= maxIndex) {
+               cumulativeCount += counts[index - offset];
+               currentValue = getBucketValue(index);
+               index++;
+            }
+            values[i] = cumulativeCount > rank ? Math.max(min, Math.min(max, currentValue)) : max;
+         }
+      }
+   }
+
+   /**
+    * Gets the number of values.
+    * @return The number of values.
+    */
+   public long getCount() {
+      return count;
+   }
+
+   /**
+    * Gets the sum of all values.
+    * @return The sum.
+    */
+   public double getSum() {
+      return sum;
+   }
+
+   /**
+    * Gets the sum of the squares of all values.
+    * @return The sum of squares.
+    */
+   public double getSumOfSquares() {
+      return sumOfSquares;
+   }
+
+   /**
+    * Gets the minimum value.
+    * @return The minimum value, or <code>0</code> if the sketch is empty.
+    */
+   public double getMin() {
+      return min;
+   }
+
+   /**
+    * Gets the maximum value.
+    * @return The maximum value, or <code>0</code> if the sketch is empty.
+    */
+   public double getMax() {
+      return max;
+   }
+
+   /**
+    * Gets the relative accuracy.
+    * @return The accuracy.
+    */
+   public double getRelativeAccuracy() {
+      return relativeAccuracy;
+   }
+
+   /**
+    * Gets the number of zero (or negative) values.
+    * @return The number of values.
+    */
+   public long getZeroCount() {
+      return zeroCount;
+   }
+
+   /**
+    * Gets the index of the lowest bucket. If the sketch has no buckets,
+    * the lowest bucket is greater than the highest bucket.
+    * @return The bucket index.
+    */
+   public int lowestBucket() {
+      return minIndex;
+   }
+
+   /**
+    * Gets the index of the highest bucket.
+    * @return The bucket index.
+    */
+   public int highestBucket() {
+      return maxIndex;
+   }
+
+   /**
+    * Gets the number of values in a bucket.
+    * @param index The bucket index.
+    * @return The number of values.
+    */
+   public long getBucketCount(final int index) {
+      return index >= minIndex && index <= maxIndex ? counts[index - offset] : 0L;
+   }
+
+   /**
+    * Gets the value that represents all values in a bucket.
+    * @param index The bucket index.
+    * @return The value.
+    */
+   public double getBucketValue(final int index) {
+      return 2.0 * Math.pow(gamma, index) / (gamma + 1.0);
+   }
+
+   /**
+    * Encodes the sketch.
+    * <p>
+    *    Non-empty buckets are encoded as variable-length differences from the previous
+    *    bucket index with a variable-length count, so sketches of similar values are small.
+    * </p>
+    * @return The encoded sketch.
+    * @see #decode(byte[])
+    */
+   public byte[] encode() {
+      ByteBuffer buf = ByteBuffer.allocate(64 + 20 * (maxIndex >= minIndex ? maxIndex - minIndex + 1 : 0));
+      buf.put(ENCODING_VERSION);
+      buf.putDouble(relativeAccuracy);
+      putVarLong(buf, maxBuckets);
+      putVarLong(buf, count);
+      putVarLong(buf, zeroCount);
+      buf.putDouble(sum);
+      buf.putDouble(sumOfSquares);
+      buf.putDouble(min);
+      buf.putDouble(max);
+      int lastIndex = 0;
+      for(int index = minIndex; index <= maxIndex; index++) {
+         long bucketCount = counts[index - offset];
+         if(bucketCount > 0L) {
+            putVarLong(buf, zigZag(index - lastIndex));
+            putVarLong(buf, bucketCount);
+            lastIndex = index;
+         }
+      }
+      return Arrays.copyOf(buf.array(), buf.position());
+   }
+
+   /**
+    * Decodes a sketch.
+    * @param bytes The encoded sketch.
+    * @return The sketch.
+    * @throws IllegalArgumentException if the bytes are not a valid sketch.
+    */
+   public static QuantileSketch decode(final byte[] bytes) {
+      try {
+         ByteBuffer buf = ByteBuffer.wrap(bytes);
+         if(buf.get() != ENCODING_VERSION) {
+            throw new IllegalArgumentException("Unsupported sketch encoding");
+         }
+         double relativeAccuracy = buf.getDouble();
+         QuantileSketch sketch = new QuantileSketch(relativeAccuracy, (int)Math.min(getVarLong(buf), Integer.MAX_VALUE));
+         sketch.count = getVarLong(buf);
+         sketch.zeroCount = getVarLong(buf);
+         sketch.sum = buf.getDouble();
+         sketch.sumOfSquares = buf.getDouble();
+         sketch.min = buf.getDouble();
+         sketch.max = buf.getDouble();
+         int index = 0;
+         while(buf.hasRemaining()) {
+            index += unZigZag(getVarLong(buf));
+            sketch.addToBucket(index, getVarLong(buf));
+         }
+         return sketch;
+      } catch(BufferUnderflowException bue) {
+         throw new IllegalArgumentException("Truncated sketch");
+      }
+   }
+
+   /**
+    * Gets the bucket index for a positive value.
+    * @param value The value.
+    * @return The index.
+    */
+   private int index(final double value) {
+      return (int)Math.ceil(Math.log(value) / logGamma);
+   }
+
+   /**
+    * Adds to the count for a bucket, collapsing the lowest buckets if the maximum number is exceeded.
+    * @param index The bucket index.
+    * @param bucketCount The count to add.
+    */
+   private void addToBucket(int index, final long bucketCount) {
+      if(minIndex > maxIndex) { //Empty...
+         if(counts == null) {
+            counts = new long[Math.min(INITIAL_BUCKETS, maxBuckets)];
+         }
+         offset = index - counts.length / 2;
+         minIndex = maxIndex = index;
+      } else if(index < minIndex || index > maxIndex) {
+         int newMax = Math.max(maxIndex, index);
+         int newMin = Math.min(minIndex, index);
+         if((long)newMax - newMin + 1L > maxBuckets) {
+            newMin = newMax - maxBuckets + 1;
+         }
+         long collapsedCount = 0L;
+         for(int i = minIndex; i < newMin && i <= maxIndex; i++) {
+            collapsedCount += counts[i - offset];
+            counts[i - offset] = 0L;
+         }
+         ensureRange(newMin, newMax);
+         minIndex = newMin;
+         maxIndex = newMax;
+         counts[newMin - offset] += collapsedCount;
+         index = Math.max(index, newMin);
+      }
+      counts[index - offset] += bucketCount;
+   }
+
+   /**
+    * Ensures that the bucket array covers a range of indexes, moving the existing counts if required.
+    * Counts outside the range must be zero.
+    * @param low The lowest index.
+    * @param high The highest index.
+    */
+   private void ensureRange(final int low, final int high) {
+      if(low >= offset && high < offset + counts.length) {
+         return;
+      }
+      int span = high - low + 1;
+      int length = counts.length;
+      while(length < span) {
+         length = length * 2;
+      }
+      length = Math.max(span, Math.min(length, maxBuckets));
+      long[] newCounts = new long[length];
+      int newOffset = low - (length - span) / 2;
+      for(int i = Math.max(minIndex, low); i <= Math.min(maxIndex, high); i++) {
+         newCounts[i - newOffset] = counts[i - offset];
+      }
+      counts = newCounts;
+      offset = newOffset;
+   }
+
+   private static long zigZag(final long value) {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   private static long unZigZag(final long value) {
+      return (value >>> 1) ^ -(value & 1L);
+   }
+
+   private static void putVarLong(final ByteBuffer buf, long value) {
+      while((value & ~0x7FL) != 0L) {
+         buf.put((byte)((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      buf.put((byte)value);
+   }
+
+   private static long getVarLong(final ByteBuffer buf) {
+      long value = 0L;
+      for(int shift = 0; shift < 64; shift += 7) {
+         byte b = buf.get();
+         value |= (long)(b & 0x7F) << shift;
+         if((b & 0x80) == 0) {
+            return value;
+         }
+      }
+      throw new IllegalArgumentException("Invalid variable-length value");
+   }
+
+   /**
+    * The smallest value counted in a bucket. Smaller values are counted as zero.
+    */
+   private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+   /**
+    * The initial number of buckets.
+    */
+   private static final int INITIAL_BUCKETS = 128;
+
+   /**
+    * The encoding version.
+    */
+   private static final byte ENCODING_VERSION = 1;
+
+   private final double relativeAccuracy;
+   private final double gamma;
+   private final double logGamma;
+   private final int maxBuckets;
+
+   /**
+    * Bucket counts. The count for bucket index <code>i</code> is at <code>i - offset</code>.
+    */
+   private long[] counts;
+   private int offset;
+   private int minIndex = Integer.MAX_VALUE;
+   private int maxIndex = Integer.MIN_VALUE;
+
+   private long zeroCount;
+   private long count;
+   private double sum;
+   private double sumOfSquares;
+   private double min;
+   private double max;
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * An immutable snapshot of a (filtered) registry, taken once and reported
+ * to any number of reporters.
+ * <p>
+ *    Gauge values and histogram/timer snapshots are captured when the snapshot is collected,
+ *    so reporting the same snapshot to several reporters computes each value just once.
+ *    Counters and meters are cheap to read and are reported as-is.
+ *    Histograms and timers that are subclasses of the standard implementations
+ *    may carry state a reporter inspects directly, so they are also reported as-is.
+ * </p>
+ */
+@SuppressWarnings("rawtypes")
+public class RegistrySnapshot {
+
+   /**
+    * Collects a snapshot of a registry.
+    * @param registry The registry.
+    * @param filter A filter applied to the registry. May be <code>null</code>.
+    * @return The snapshot.
+    */
+   public static RegistrySnapshot collect(final MetricRegistry registry, final MetricFilter filter) {
+
+      final MetricFilter useFilter = filter != null ? filter : MetricFilter.ALL;
+      final long timestamp = System.currentTimeMillis();
+
+      SortedMap<String, Gauge> gauges = new TreeMap<>();
+      for(Map.Entry<String, Gauge> gauge : registry.getGauges(useFilter).entrySet()) {
+         try {
+            gauges.put(gauge.getKey(), new SnapshotGauge(gauge.getValue().getValue()));
+         } catch(RuntimeException re) {
+            //A failing gauge must not prevent reporting of everything else...
+         }
+      }
+
+      SortedMap<String, Histogram> histograms = new TreeMap<>();
+      for(Map.Entry<String, Histogram> histogram : registry.getHistograms(useFilter).entrySet()) {
+         Histogram curr = histogram.getValue();
+         histograms.put(histogram.getKey(), curr.getClass() == Histogram.class ? new SnapshotHistogram(curr) : curr);
+      }
+
+      SortedMap<String, Timer> timers = new TreeMap<>();
+      for(Map.Entry<String, Timer> timer : registry.getTimers(useFilter).entrySet()) {
+         Timer curr = timer.getValue();
+         timers.put(timer.getKey(), curr.getClass() == Timer.class ? new SnapshotTimer(curr) : curr);
+      }
+
+      return new RegistrySnapshot(timestamp, gauges, registry.getCounters(useFilter),
+              histograms, registry.getMeters(useFilter), timers);
+   }
+
+   /**
+    * Creates a snapshot from collected metrics.
+    * @param timestamp The time when the metrics were collected.
+    * @param gauges The gauges, with captured values.
+    * @param counters The counters.
+    * @param histograms The histograms.
+    * @param meters The meters.
+    * @param timers The timers.
+    * @return The snapshot.
+    */
+   static RegistrySnapshot of(final long timestamp,
+                              final SortedMap<String, Gauge> gauges,
+                              final SortedMap<String, Counter> counters,
+                              final SortedMap<String, Histogram> histograms,
+                              final SortedMap<String, Meter> meters,
+                              final SortedMap<String, Timer> timers) {
+      return new RegistrySnapshot(timestamp, gauges, counters, histograms, meters, timers);
+   }
+
+   private RegistrySnapshot(final long timestamp,
+                            final SortedMap<String, Gauge> gauges,
+                            final SortedMap<String, Counter> counters,
+                            final SortedMap<String, Histogram> histograms,
+                            final SortedMap<String, Meter> meters,
+                            final SortedMap<String, Timer> timers) {
+      this.timestamp = timestamp;
+      this.gauges = Collections.unmodifiableSortedMap(gauges);
+      this.counters = Collections.unmodifiableSortedMap(counters);
+      this.histograms = Collections.unmodifiableSortedMap(histograms);
+      this.meters = Collections.unmodifiableSortedMap(meters);
+      this.timers = Collections.unmodifiableSortedMap(timers);
+   }
+
+   /**
+    * Creates a snapshot with every metric renamed.
+    * <p>
+    *    Metrics for which the function returns <code>null</code> are dropped.
+    * </p>
+    * @param nameFunction The function that returns the new name for a metric.
+    * @return The renamed snapshot.
+    */
+   public RegistrySnapshot rename(final Function<String, String> nameFunction) {
+      return new RegistrySnapshot(timestamp,
+              rename(gauges, nameFunction),
+              rename(counters, nameFunction),
+              rename(histograms, nameFunction),
+              rename(meters, nameFunction),
+              rename(timers, nameFunction));
+   }
+
+   /**
+    * Renames all metrics in a map.
+    * @param metrics The metrics.
+    * @param nameFunction The function that returns the new name.
+    * @param <T> The metric type.
+    * @return The renamed metrics.
+    */
+   private static <T> SortedMap<String, T> rename(final SortedMap<String, T> metrics,
+                                                  final Function<String, String> nameFunction) {
+      SortedMap<String, T> renamed = new TreeMap<>();
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         String name = nameFunction.apply(metric.getKey());
+         if(name != null) {
+            renamed.put(name, metric.getValue());
+         }
+      }
+      return renamed;
+   }
+
+   /**
+    * Creates a snapshot with only the metrics that match a filter.
+    * @param filter The filter.
+    * @return The filtered snapshot.
+    */
+   public RegistrySnapshot filter(final MetricFilter filter) {
+      return new RegistrySnapshot(timestamp,
+              filter(gauges, filter),
+              filter(counters, filter),
+              filter(histograms, filter),
+              filter(meters, filter),
+              filter(timers, filter));
+   }
+
+   /**
+    * Filters all metrics in a map.
+    * @param metrics The metrics.
+    * @param filter The filter.
+    * @param <T> The metric type.
+    * @return The matching metrics.
+    */
+   private static <T extends Metric> SortedMap<String, T> filter(final SortedMap<String, T> metrics,
+                                                                 final MetricFilter filter) {
+      SortedMap<String, T> filtered = new TreeMap<>();
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         if(filter.matches(metric.getKey(), metric.getValue())) {
+            filtered.put(metric.getKey(), metric.getValue());
+         }
+      }
+      return filtered;
+   }
+
+   /**
+    * Merges a later snapshot of the same registry into this snapshot.
+    * <p>
+    *    Gauges, counters and meters are read from the later snapshot. Their values
+    *    are current or cumulative, so the later value includes everything recorded before.
+    *    Histograms and timers captured from interval reservoirs record only the values since the previous
+    *    snapshot, so interval snapshots of the same metric are combined. Sketch snapshots are merged and HDR snapshots
+    *    are added. All other histogram and timer snapshots are read from the later snapshot.
+    * </p>
+    * @param later The later snapshot.
+    * @return The merged snapshot, with the time of the later snapshot.
+    */
+   public RegistrySnapshot merge(final RegistrySnapshot later) {
+      SortedMap<String, Histogram> mergedHistograms = new TreeMap<>(later.histograms);
+      for(Map.Entry<String, Histogram> histogram : mergedHistograms.entrySet()) {
+         Histogram earlier = histograms.get(histogram.getKey());
+         if(earlier instanceof SnapshotHistogram && histogram.getValue() instanceof SnapshotHistogram) {
+            Snapshot merged = merge(earlier.getSnapshot(), histogram.getValue().getSnapshot());
+            if(merged != null) {
+               histogram.setValue(new SnapshotHistogram(merged, histogram.getValue().getCount()));
+            }
+         }
+      }
+
+      SortedMap<String, Timer> mergedTimers = new TreeMap<>(later.timers);
+      for(Map.Entry<String, Timer> timer : mergedTimers.entrySet()) {
+         Timer earlier = timers.get(timer.getKey());
+         if(earlier instanceof SnapshotTimer && timer.getValue() instanceof SnapshotTimer) {
+            Snapshot merged = merge(earlier.getSnapshot(), timer.getValue().getSnapshot());
+            if(merged != null) {
+               SnapshotTimer laterTimer = (SnapshotTimer)timer.getValue();
+               timer.setValue(new SnapshotTimer(laterTimer.timer, merged, laterTimer.count));
+            }
+         }
+      }
+
+      return new RegistrySnapshot(later.timestamp, new TreeMap<>(later.gauges), new TreeMap<>(later.counters),
+              mergedHistograms, new TreeMap<>(later.meters), mergedTimers);
+   }
+
+   /**
+    * Merges two interval snapshots.
+    * @param earlier The earlier snapshot.
+    * @param later The later snapshot.
+    * @return The merged snapshot or <code>null</code> if the snapshots can't be merged.
+    */
+   private static Snapshot merge(final Snapshot earlier, final Snapshot later) {
+      if(earlier == later) {
+         return null; //Not swapped between snapshots...
+      } else if(earlier instanceof SketchSnapshot && later instanceof SketchSnapshot) {
+         QuantileSketch earlierSketch = ((SketchSnapshot)earlier).getSketch();
+         QuantileSketch laterSketch = ((SketchSnapshot)later).getSketch();
+         try {
+            QuantileSketch merged = QuantileSketch.decode(laterSketch.encode());
+            merged.merge(earlierSketch);
+            return new SketchSnapshot(merged);
+         } catch(IllegalArgumentException iae) {
+            return null; //Accuracy changed...
+         }
+      } else if(earlier instanceof HdrSnapshot && later instanceof HdrSnapshot) {
+         org.HdrHistogram.Histogram merged = ((HdrSnapshot)later).getHistogram().copy();
+         merged.setAutoResize(true);
+         merged.add(((HdrSnapshot)earlier).getHistogram());
+         return new HdrSnapshot(merged);
+      } else {
+         return null;
+      }
+   }
+
+   /**
+    * Partitions this snapshot into chunks, in report order.
+    * <p>
+    *    Each chunk holds a contiguous range of the sorted metrics of one type,
+    *    so reporting the chunks in order reports the metrics in the same order as the snapshot.
+    *    Chunks are views, so no metrics are copied.
+    * </p>
+    * @param chunkSize The maximum number of metrics in a chunk.
+    * @return The chunks. If the snapshot is no larger than the chunk size, a list with only this snapshot.
+    * @throws IllegalArgumentException if the chunk size is not positive.
+    */
+   public List<RegistrySnapshot> partition(final int chunkSize) {
+      if(chunkSize < 1) {
+         throw new IllegalArgumentException("The 'chunkSize' must be positive");
+      }
+      if(size() <= chunkSize) {
+         return Collections.singletonList(this);
+      }
+      List<RegistrySnapshot> chunks = new ArrayList<>(size() / chunkSize + 5);
+      for(SortedMap<String, Gauge> chunk : partition(gauges, chunkSize)) {
+         chunks.add(new RegistrySnapshot(timestamp, chunk, Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap()));
+      }
+      for(SortedMap<String, Counter> chunk : partition(counters, chunkSize)) {
+         chunks.add(new RegistrySnapshot(timestamp, Collections.emptySortedMap(), chunk, Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap()));
+      }
+      for(SortedMap<String, Histogram> chunk : partition(histograms, chunkSize)) {
+         chunks.add(new RegistrySnapshot(timestamp, Collections.emptySortedMap(), Collections.emptySortedMap(), chunk, Collections.emptySortedMap(), Collections.emptySortedMap()));
+      }
+      for(SortedMap<String, Meter> chunk : partition(meters, chunkSize)) {
+         chunks.add(new RegistrySnapshot(timestamp, Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap(), chunk, Collections.emptySortedMap()));
+      }
+      for(SortedMap<String, Timer> chunk : partition(timers, chunkSize)) {
+         chunks.add(new RegistrySnapshot(timestamp, Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap(), Collections.emptySortedMap(), chunk));
+      }
+      return chunks;
+   }
+
+   /**
+    * Partitions sorted metrics into views of contiguous ranges.
+    * @param metrics The metrics.
+    * @param chunkSize The maximum number of metrics in each range.
+    * @return The ranges, in order. Empty if there are no metrics.
+    */
+   private static <T> List<SortedMap<String, T>> partition(final SortedMap<String, T> metrics, final int chunkSize) {
+      if(metrics.isEmpty()) {
+         return Collections.emptyList();
+      } else if(metrics.size() <= chunkSize) {
+         return Collections.singletonList(metrics);
+      }
+      List<SortedMap<String, T>> chunks = new ArrayList<>(metrics.size() / chunkSize + 1);
+      String from = null;
+      int count = 0;
+      for(String name : metrics.keySet()) {
+         if(count == chunkSize) {
+            chunks.add(from == null ? metrics.headMap(name) : metrics.subMap(from, name));
+            from = name;
+            count = 0;
+         }
+         count++;
+      }
+      chunks.add(metrics.tailMap(from));
+      return chunks;
+   }
+
+   /**
+    * Reports this snapshot with a scheduled reporter.
+    * @param reporter The reporter.
+    */
+   public void report(final ScheduledReporter reporter) {
+      reporter.report(gauges, counters, histograms, meters, timers);
+   }
+
+   /**
+    * Gets the time when the snapshot was collected.
+    * @return The timestamp in milliseconds.
+    */
+   public long getTimestamp() {
+      return timestamp;
+   }
+
+   /**
+    * Gets the gauges with their values at the time of the snapshot.
+    * @return The gauges.
+    */
+   public SortedMap<String, Gauge> getGauges() {
+      return gauges;
+   }
+
+   /**
+    * Gets the counters.
+    * @return The counters.
+    */
+   public SortedMap<String, Counter> getCounters() {
+      return counters;
+   }
+
+   /**
+    * Gets the histograms.
+    * @return The histograms.
+    */
+   public SortedMap<String, Histogram> getHistograms() {
+      return histograms;
+   }
+
+   /**
+    * Gets the meters.
+    * @return The meters.
+    */
+   public SortedMap<String, Meter> getMeters() {
+      return meters;
+   }
+
+   /**
+    * Gets the timers.
+    * @return The timers.
+    */
+   public SortedMap<String, Timer> getTimers() {
+      return timers;
+   }
+
+   /**
+    * Gets the total number of metrics in the snapshot.
+    * @return The number of metrics.
+    */
+   public int size() {
+      return gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size();
+   }
+
+   /**
+    * A gauge with a value captured when the snapshot was collected.
+    */
+   private static final class SnapshotGauge implements Gauge<Object> {
+
+      SnapshotGauge(final Object value) {
+         this.value = value;
+      }
+
+      @Override
+      public Object getValue() {
+         return value;
+      }
+
+      private final Object value;
+   }
+
+   /**
+    * A histogram with a snapshot captured when the registry snapshot was collected.
+    */
+   private static final class SnapshotHistogram extends Histogram {
+
+      SnapshotHistogram(final Histogram histogram) {
+         this(histogram.getSnapshot(), histogram.getCount());
+      }
+
+      SnapshotHistogram(final Snapshot snapshot, final long count) {
+         super(EMPTY_RESERVOIR);
+         this.snapshot = snapshot;
+         this.count = count;
+      }
+
+      @Override
+      public void update(final long value) {
+         throw new UnsupportedOperationException("A snapshot histogram may not be updated");
+      }
+
+      @Override
+      public long getCount() {
+         return count;
+      }
+
+      @Override
+      public Snapshot getSnapshot() {
+         return snapshot;
+      }
+
+      private final Snapshot snapshot;
+      private final long count;
+   }
+
+   /**
+    * A timer with a snapshot captured when the registry snapshot was collected.
+    * Rates are read from the timer.
+    */
+   private static final class SnapshotTimer extends Timer {
+
+      SnapshotTimer(final Timer timer) {
+         this(timer, timer.getSnapshot(), timer.getCount());
+      }
+
+      SnapshotTimer(final Timer timer, final Snapshot snapshot, final long count) {
+         super(EMPTY_RESERVOIR);
+         this.timer = timer;
+         this.snapshot = snapshot;
+         this.count = count;
+      }
+
+      @Override
+      public void update(final long duration, final java.util.concurrent.TimeUnit unit) {
+         throw new UnsupportedOperationException("A snapshot timer may not be updated");
+      }
+
+      @Override
+      public long getCount() {
+         return count;
+      }
+
+      @Override
+      public double getFifteenMinuteRate() {
+         return timer.getFifteenMinuteRate();
+      }
+
+      @Override
+      public double getFiveMinuteRate() {
+         return timer.getFiveMinuteRate();
+      }
+
+      @Override
+      public double getMeanRate() {
+         return timer.getMeanRate();
+      }
+
+      @Override
+      public double getOneMinuteRate() {
+         return timer.getOneMinuteRate();
+      }
+
+      @Override
+      public Snapshot getSnapshot() {
+         return snapshot;
+      }
+
+      private final Timer timer;
+      private final Snapshot snapshot;
+      private final long count;
+   }
+
+   /**
+    * A reservoir that records nothing, for the snapshot histograms and timers.
+    */
+   private static final Reservoir EMPTY_RESERVOIR = new Reservoir() {
+      @Override
+      public int size() {
+         return 0;
+      }
+
+      @Override
+      public void update(final long value) {
+      }
+
+      @Override
+      public Snapshot getSnapshot() {
+         throw new UnsupportedOperationException();
+      }
+   };
+
+   private final long timestamp;
+   private final SortedMap<String, Gauge> gauges;
+   private final SortedMap<String, Counter> counters;
+   private final SortedMap<String, Histogram> histograms;
+   private final SortedMap<String, Meter> meters;
+   private final SortedMap<String, Timer> timers;
+}
@@ -25,6 +25,7 @@ import com.codahale.metrics.Timer;
 import org.attribyte.util.InitUtil;
 
 import java.util.Properties;
+import java.util.function.Function;
 
 /**
  * Builds a new registry from an existing one
@@ -33,22 +34,85 @@ import java.util.Properties;
  * for targets like CloudWatch where format
  * and number of metrics are critical.
  * For example: cloudwatch.translate.
+ * <p>
+ *    Names may also be translated with glob or regular expression rules.
+ *    For example: <code>cloudwatch.translate.re.http\\.(\\w+)\\.latency=api_$1_latency</code>.
+ * </p>
+ * <p>
+ *    Metrics may also be merged, many-to-one, into derived metrics with rollup rules.
+ *    For example: <code>rollup.pool.*.latency=pool.all.latency</code>. See {@link Rollups}.
+ * </p>
  */
 public class RegistryTranslation {
 
    public static final String TRANSLATE_PREFIX = "translate.";
 
+   /**
+    * The prefix for rollup rules ('rollup.').
+    */
+   public static final String ROLLUP_PREFIX = "rollup.";
+
+   /**
+    * Are metrics merged by a rollup also reported individually ('keepRollupSources')? Default 'false'.
+    */
+   public static final String KEEP_ROLLUP_SOURCES_PROPERTY = "keepRollupSources";
+
+   /**
+    * Creates a function that returns the translated name for a metric name.
+    * <p>
+    *    In addition to exact names, rules may be glob or regular expression patterns.
+    *    For example: <code>translate.glob.http.*.latency=api_$1_latency</code>.
+    *    See {@link NameTranslator}.
+    * </p>
+    * @param props The properties.
+    * @return The function. Returns <code>null</code> if a name is not translated.
+    */
+   public static Function<String, String> translator(final Properties props) {
+      return NameTranslator.compile(new InitUtil(TRANSLATE_PREFIX, props, false).getProperties());
+   }
+
+   /**
+    * Translates the names in a registry snapshot.
+    * @param translator The function returned by {@link #translator(Properties)}.
+    * @param snapshot The snapshot.
+    * @return The snapshot with only the translated metrics.
+    */
+   public static RegistrySnapshot translate(final Function<String, String> translator, final RegistrySnapshot snapshot) {
+      return snapshot.rename(translator);
+   }
+
+   /**
+    * Creates the rollups configured with <code>rollup.</code> rules.
+    * @param props The properties.
+    * @return The rollups or <code>null</code> if no rules are configured.
+    */
+   public static Rollups rollups(final Properties props) {
+      InitUtil init = new InitUtil("", props, false);
+      return Rollups.compile(new InitUtil(ROLLUP_PREFIX, props, false).getProperties(),
+              init.getProperty(KEEP_ROLLUP_SOURCES_PROPERTY, "false").equalsIgnoreCase("true"));
+   }
+
+   /**
+    * Merges metrics in a registry snapshot into derived metrics.
+    * @param rollups The rollups returned by {@link #rollups(Properties)}.
+    * @param snapshot The snapshot.
+    * @return The snapshot with derived metrics.
+    */
+   public static RegistrySnapshot rollup(final Rollups rollups, final RegistrySnapshot snapshot) {
+      return rollups.apply(snapshot);
+   }
+
    public static MetricRegistry translate(final Properties props, final MetricRegistry registry) {
 
       final MetricRegistry translateRegistry = new MetricRegistry();
-      final Properties kvProps = new InitUtil(TRANSLATE_PREFIX, props, false).getProperties();
+      final Function<String, String> translator = translator(props);
 
       //When this listener is added, it is notified of all existing metrics.
 
       registry.addListener(new MetricRegistryListener() {
          @Override
          public void onGaugeAdded(final String s, final Gauge<?> gauge) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.register(translateName, gauge);
             }
@@ -56,7 +120,7 @@ public class RegistryTranslation {
 
          @Override
          public void onGaugeRemoved(final String s) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.remove(translateName);
             }
@@ -64,7 +128,7 @@ public class RegistryTranslation {
 
          @Override
          public void onCounterAdded(final String s, final Counter counter) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.register(translateName, counter);
             }
@@ -72,7 +136,7 @@ public class RegistryTranslation {
 
          @Override
          public void onCounterRemoved(final String s) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.remove(translateName);
             }
@@ -80,7 +144,7 @@ public class RegistryTranslation {
 
          @Override
          public void onHistogramAdded(final String s, final Histogram histogram) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.register(translateName, histogram);
             }
@@ -88,7 +152,7 @@ public class RegistryTranslation {
 
          @Override
          public void onHistogramRemoved(final String s) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.remove(translateName);
             }
@@ -96,7 +160,7 @@ public class RegistryTranslation {
 
          @Override
          public void onMeterAdded(final String s, final Meter meter) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.register(translateName, meter);
             }
@@ -104,7 +168,7 @@ public class RegistryTranslation {
 
          @Override
          public void onMeterRemoved(final String s) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.remove(translateName);
             }
@@ -112,7 +176,7 @@ public class RegistryTranslation {
 
          @Override
          public void onTimerAdded(final String s, final Timer timer) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.register(translateName, timer);
             }
@@ -120,7 +184,7 @@ public class RegistryTranslation {
 
          @Override
          public void onTimerRemoved(final String s) {
-            String translateName = kvProps.getProperty(s);
+            String translateName = translator.apply(s);
             if(translateName != null) {
                translateRegistry.remove(translateName);
             }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricFilter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import org.attribyte.util.InitUtil;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Report frequencies for metrics that match a name or pattern, configured with
+ * reporter properties like <code>frequency.http.*=10s</code>.
+ * <p>
+ *    Patterns that contain <code>*</code> are glob patterns. Regular expressions
+ *    may be configured with the prefix <code>re.</code>. For example: <code>frequency.re.http\\..+=10s</code>.
+ *    Names are matched as in {@link NameTranslator}. Metrics that match no pattern
+ *    are reported at the reporter frequency.
+ * </p>
+ */
+public class ReportFrequencies {
+
+   /**
+    * The prefix for frequency rules ('frequency.').
+    */
+   public static final String FREQUENCY_PREFIX = "frequency.";
+
+   /**
+    * Creates frequencies from reporter properties.
+    * @param props The properties.
+    * @return The frequencies or <code>null</code> if none are configured.
+    * @throws IllegalArgumentException if a frequency is invalid.
+    */
+   public static ReportFrequencies fromProperties(final Properties props) {
+      Properties rules = new InitUtil(FREQUENCY_PREFIX, props, false).getProperties();
+      if(rules.isEmpty()) {
+         return null;
+      }
+
+      Properties translateRules = new Properties();
+      Map<String, Long> frequencies = Maps.newHashMap();
+      for(String key : rules.stringPropertyNames()) {
+         String frequency = rules.getProperty(key).trim();
+         long frequencyMillis = InitUtil.millisFromTime(frequency);
+         if(frequencyMillis <= 0L) {
+            throw new IllegalArgumentException("The frequency for '" + key + "' must be positive");
+         }
+         String millis = Long.toString(frequencyMillis);
+         frequencies.put(millis, frequencyMillis);
+         if(key.startsWith(NameTranslator.GLOB_PREFIX) || key.startsWith(NameTranslator.REGEX_PREFIX) || key.indexOf('*') < 0) {
+            translateRules.setProperty(key, millis);
+         } else {
+            translateRules.setProperty(NameTranslator.GLOB_PREFIX + key, millis);
+         }
+      }
+      return new ReportFrequencies(NameTranslator.compile(translateRules), ImmutableMap.copyOf(frequencies));
+   }
+
+   private ReportFrequencies(final NameTranslator rules, final Map<String, Long> frequencies) {
+      this.rules = rules;
+      this.frequencies = frequencies;
+   }
+
+   /**
+    * Gets the report frequency for a metric.
+    * @param name The metric name.
+    * @param defaultFrequencyMillis The frequency for metrics that match no rule.
+    * @return The frequency in milliseconds.
+    */
+   public long getFrequencyMillis(final String name, final long defaultFrequencyMillis) {
+      String millis = rules.apply(name);
+      if(millis == null) {
+         return defaultFrequencyMillis;
+      }
+      Long frequencyMillis = frequencies.get(millis);
+      return frequencyMillis != null ? frequencyMillis : defaultFrequencyMillis;
+   }
+
+   /**
+    * Gets all frequencies.
+    * @param defaultFrequencyMillis The frequency for metrics that match no rule.
+    * @return The frequencies, including the default.
+    */
+   public ImmutableSortedSet<Long> getFrequencies(final long defaultFrequencyMillis) {
+      return ImmutableSortedSet.<Long>naturalOrder().addAll(frequencies.values()).add(defaultFrequencyMillis).build();
+   }
+
+   /**
+    * Creates a filter that matches metrics reported at a frequency.
+    * @param frequencyMillis The frequency.
+    * @param defaultFrequencyMillis The frequency for metrics that match no rule.
+    * @return The filter.
+    */
+   public MetricFilter filter(final long frequencyMillis, final long defaultFrequencyMillis) {
+      return (name, metric) -> getFrequencyMillis(name, defaultFrequencyMillis) == frequencyMillis;
+   }
+
+   /**
+    * Frequency (in milliseconds, as a string) for each name or pattern.
+    */
+   private final NameTranslator rules;
+
+   /**
+    * The frequency for each string returned by the rules.
+    */
+   private final Map<String, Long> frequencies;
+}
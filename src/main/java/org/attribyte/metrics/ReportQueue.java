@@ -0,0 +1,309 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of snapshots waiting to be reported to one reporter, with its own reporting thread.
+ * <p>
+ *    Collection offers each snapshot to the queue and returns immediately, so a slow reporter
+ *    never delays collection or reports to other reporters. A snapshot is due within the
+ *    deadline (the reporting frequency) after it was collected. When a snapshot arrives while
+ *    the queue is full, or a queued snapshot is past its deadline, the overrun policy decides what is reported.
+ * </p>
+ */
+class ReportQueue implements MetricSet {
+
+   /**
+    * What happens when a reporter can't keep up.
+    */
+   enum Overrun {
+
+      /**
+       * A snapshot that arrives when the queue is full is dropped.
+       * A queued snapshot past its deadline is dropped.
+       */
+      SKIP,
+
+      /**
+       * A snapshot that arrives when the queue is full replaces the oldest queued snapshot.
+       * A queued snapshot past its deadline is dropped if a later snapshot is queued.
+       */
+      COALESCE,
+
+      /**
+       * A snapshot that arrives when the queue is full is merged with the latest queued snapshot.
+       * A queued snapshot past its deadline is merged into the next, if a later snapshot is queued.
+       * @see RegistrySnapshot#merge(RegistrySnapshot)
+       */
+      MERGE;
+
+      /**
+       * Gets the policy from a string.
+       * @param str The string. If empty, the default policy, <code>COALESCE</code>, is returned.
+       * @return The policy.
+       * @throws IllegalArgumentException if the policy is unknown.
+       */
+      static Overrun fromString(final String str) {
+         switch(str.trim().toLowerCase()) {
+            case "": return COALESCE;
+            case "skip": return SKIP;
+            case "coalesce": return COALESCE;
+            case "merge": return MERGE;
+            default:
+               throw new IllegalArgumentException("The 'overrun' must be 'skip', 'coalesce' or 'merge'");
+         }
+      }
+   }
+
+   /**
+    * Creates a queue.
+    * @param reporter The reporter.
+    * @param capacity The maximum number of queued snapshots.
+    * @param overrun The overrun policy.
+    * @param deadlineMillis The time after collection when a snapshot is due.
+    * @param reportErrors Counts reports that failed.
+    */
+   ReportQueue(final SnapshotReporter reporter, final int capacity, final Overrun overrun,
+               final long deadlineMillis, final Counter reportErrors) {
+      this.reporter = reporter;
+      this.reportLock = SnapshotCollector.reportLock(reporter);
+      this.capacity = Math.max(capacity, 1);
+      this.overrun = overrun;
+      this.deadlineMillis = deadlineMillis;
+      this.reportErrors = reportErrors;
+      this.metrics = ImmutableMap.<String, Metric>builder()
+              .put("queued", queuedTimer)
+              .put("report", reportTimer)
+              .put("dropped", dropped)
+              .put("merged", merged)
+              .put("deadline-missed", deadlineMissed)
+              .put("queue-size", (Gauge<Integer>)this::size)
+              .build();
+   }
+
+   /**
+    * Offers a snapshot for report.
+    * @param snapshot The snapshot.
+    */
+   synchronized void offer(final RegistrySnapshot snapshot) {
+      final long now = System.nanoTime();
+      if(queue.size() < capacity) {
+         queue.add(new Queued(snapshot, now));
+      } else {
+         switch(overrun) {
+            case SKIP:
+               dropped.inc();
+               break;
+            case COALESCE:
+               queue.poll();
+               queue.add(new Queued(snapshot, now));
+               dropped.inc();
+               break;
+            case MERGE:
+               Queued latest = queue.pollLast();
+               queue.add(new Queued(latest.snapshot.merge(snapshot), latest.queuedNanos));
+               merged.inc();
+               break;
+         }
+      }
+
+      if(!isDraining) {
+         if(executor == null) {
+            executor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("metrics-report-" + reporter.getName() + "-%d").setDaemon(true).build()
+            );
+         }
+         try {
+            executor.execute(this::drain);
+            isDraining = true;
+         } catch(RejectedExecutionException re) {
+            queue.clear();
+         }
+      }
+   }
+
+   /**
+    * Stops the reporting thread. A report in progress is allowed to complete.
+    * The thread is started again if another snapshot is offered.
+    */
+   synchronized void close() {
+      queue.clear();
+      if(executor != null) {
+         executor.shutdown();
+         executor = null;
+      }
+   }
+
+   /**
+    * Gets the number of queued snapshots.
+    * @return The number of snapshots.
+    */
+   synchronized int size() {
+      return queue.size();
+   }
+
+   /**
+    * Gets the reporter.
+    * @return The reporter.
+    */
+   SnapshotReporter getReporter() {
+      return reporter;
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Reports queued snapshots until the queue is empty.
+    */
+   private void drain() {
+      Queued next;
+      while((next = next()) != null) {
+         queuedTimer.update(System.nanoTime() - next.queuedNanos, TimeUnit.NANOSECONDS);
+         final Timer.Context ctx = reportTimer.time();
+         try {
+            synchronized(reportLock) { //Reports for other buckets may be queued for this reporter...
+               reporter.report(next.snapshot);
+            }
+         } catch(RuntimeException re) {
+            //Never allow one report to stop reports that follow...
+            reportErrors.inc();
+         } finally {
+            ctx.stop();
+         }
+      }
+   }
+
+   /**
+    * Removes the next snapshot to report, applying the overrun policy to snapshots past their deadline.
+    * @return The snapshot or <code>null</code> if the queue is empty.
+    */
+   private synchronized Queued next() {
+      Queued next = queue.poll();
+      while(next != null && System.currentTimeMillis() - next.snapshot.getTimestamp() > deadlineMillis) {
+         deadlineMissed.inc();
+         if(overrun == Overrun.SKIP) {
+            dropped.inc();
+            next = queue.poll();
+         } else if(!queue.isEmpty()) {
+            Queued later = queue.poll();
+            if(overrun == Overrun.MERGE) {
+               next = new Queued(next.snapshot.merge(later.snapshot), next.queuedNanos);
+               merged.inc();
+            } else {
+               next = later;
+               dropped.inc();
+            }
+         } else {
+            break; //Late, but the latest...
+         }
+      }
+
+      if(next == null) {
+         isDraining = false;
+      }
+      return next;
+   }
+
+   /**
+    * A queued snapshot.
+    */
+   private static final class Queued {
+
+      Queued(final RegistrySnapshot snapshot, final long queuedNanos) {
+         this.snapshot = snapshot;
+         this.queuedNanos = queuedNanos;
+      }
+
+      final RegistrySnapshot snapshot;
+
+      /**
+       * When the (first) snapshot was queued.
+       */
+      final long queuedNanos;
+   }
+
+   private final SnapshotReporter reporter;
+
+   /**
+    * The lock held while reporting, shared with collectors that report to the same reporter.
+    */
+   private final Object reportLock;
+   private final int capacity;
+   private final Overrun overrun;
+   private final long deadlineMillis;
+   private final Counter reportErrors;
+
+   /**
+    * Runs reports, one at a time. Created when the first snapshot is offered.
+    */
+   private ExecutorService executor;
+
+   /**
+    * The queued snapshots, oldest first.
+    */
+   private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+
+   /**
+    * Is a drain scheduled or running?
+    */
+   private boolean isDraining;
+
+   /**
+    * Times how long snapshots wait in the queue.
+    */
+   private final Timer queuedTimer = new Timer();
+
+   /**
+    * Times reports.
+    */
+   private final Timer reportTimer = new Timer();
+
+   /**
+    * Counts snapshots dropped without report.
+    */
+   private final Counter dropped = new Counter();
+
+   /**
+    * Counts snapshots merged into another.
+    */
+   private final Counter merged = new Counter();
+
+   /**
+    * Counts snapshots still queued after their deadline.
+    */
+   private final Counter deadlineMissed = new Counter();
+
+   private final ImmutableMap<String, Metric> metrics;
+}
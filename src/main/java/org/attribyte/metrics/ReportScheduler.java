@@ -0,0 +1,249 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single scheduler for all reports.
+ * <p>
+ *    Ticks may be aligned to wall-clock interval boundaries, so a one minute report
+ *    runs at the start of every minute on every host. A per-host offset, derived from the
+ *    host name, may be added to aligned ticks so a fleet does not report at the same instant.
+ * </p>
+ * <p>
+ *    The scheduler thread only triggers ticks. Reports run on a new virtual thread, if enabled and
+ *    available, or on a small, fixed pool of report threads, so a slow reporter does not delay others.
+ *    A report that is still running (or waiting for a report thread) when its next tick
+ *    arrives is not run again for that tick, so at most one run of each report is ever queued.
+ * </p>
+ */
+class ReportScheduler {
+
+   /**
+    * Creates a scheduler.
+    * @param alignTicks Should ticks be aligned to interval boundaries?
+    * @param offsetMillis The offset added to aligned ticks.
+    * @param virtualThreads Should each report run on a new virtual thread, if available?
+    * @param reportThreads The number of threads that run reports, if not run on virtual threads.
+    * @param skippedTicks Counts ticks skipped because the previous report was still running.
+    */
+   ReportScheduler(final boolean alignTicks, final long offsetMillis,
+                   final boolean virtualThreads, final int reportThreads,
+                   final Counter skippedTicks) {
+      this.alignTicks = alignTicks;
+      this.offsetMillis = offsetMillis;
+      this.skippedTicks = skippedTicks;
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder().setNameFormat("metrics-reporting-%d").setDaemon(true).build()
+      );
+      ExecutorService virtualThreadExecutor = virtualThreads ? newVirtualThreadExecutor() : null;
+      this.reportExecutor = virtualThreadExecutor != null ? virtualThreadExecutor : newReportExecutor(reportThreads);
+   }
+
+   /**
+    * Schedules a report.
+    * @param report The report.
+    * @param frequencyMillis The report frequency.
+    * @return The scheduled report.
+    */
+   ScheduledReport schedule(final Runnable report, final long frequencyMillis) {
+      ScheduledReport scheduledReport = new ScheduledReport(report, frequencyMillis);
+      long now = System.currentTimeMillis();
+      scheduledReport.scheduleNext(alignTicks ? nextTick(now, frequencyMillis, offsetMillis) : now + frequencyMillis);
+      return scheduledReport;
+   }
+
+   /**
+    * Shuts down the scheduler. Reports that are running are allowed to complete.
+    */
+   void shutdown() {
+      scheduler.shutdown();
+      reportExecutor.shutdown();
+   }
+
+   /**
+    * Gets the first tick after a time.
+    * @param nowMillis The time.
+    * @param frequencyMillis The frequency.
+    * @param offsetMillis The offset from the interval boundary.
+    * @return The time of the next tick.
+    */
+   static long nextTick(final long nowMillis, final long frequencyMillis, final long offsetMillis) {
+      long offset = offsetMillis % frequencyMillis;
+      return (Math.floorDiv(nowMillis - offset, frequencyMillis) + 1L) * frequencyMillis + offset;
+   }
+
+   /**
+    * Gets a stable offset for a host.
+    * @param host The host name.
+    * @param maxOffsetMillis The maximum offset.
+    * @return The offset, between zero and the maximum.
+    */
+   static long hostOffset(final String host, final long maxOffsetMillis) {
+      if(maxOffsetMillis <= 0L) {
+         return 0L;
+      }
+      return Math.floorMod(Hashing.murmur3_32().hashString(host, StandardCharsets.UTF_8).padToLong(), maxOffsetMillis);
+   }
+
+   /**
+    * Creates an executor that runs each task on a new virtual thread.
+    * @return The executor or <code>null</code> if virtual threads are not available in this JVM.
+    */
+   static ExecutorService newVirtualThreadExecutor() {
+      try {
+         return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch(ReflectiveOperationException | RuntimeException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Creates a fixed pool of daemon threads that run reports.
+    * <p>
+    *    The queue is not bounded, but holds at most one run of each scheduled report.
+    *    Idle threads exit.
+    * </p>
+    * @param reportThreads The number of threads.
+    * @return The executor.
+    */
+   static ExecutorService newReportExecutor(final int reportThreads) {
+      int threads = Math.max(reportThreads, 1);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              new ThreadFactoryBuilder().setNameFormat("metrics-report-%d").setDaemon(true).build()
+      );
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   /**
+    * A report rescheduled after every tick.
+    */
+   final class ScheduledReport implements Runnable {
+
+      ScheduledReport(final Runnable report, final long frequencyMillis) {
+         this.report = report;
+         this.frequencyMillis = frequencyMillis;
+      }
+
+      /**
+       * Schedules the next tick.
+       * @param tickMillis The time of the next tick.
+       */
+      synchronized void scheduleNext(final long tickMillis) {
+         if(isCancelled) {
+            return;
+         }
+         this.tickMillis = tickMillis;
+         try {
+            next = scheduler.schedule(this, Math.max(0L, tickMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+         } catch(RejectedExecutionException re) {
+            //Shutdown...
+         }
+      }
+
+      /**
+       * Cancels all future ticks. A report that is running is allowed to complete.
+       */
+      synchronized void cancel() {
+         isCancelled = true;
+         if(next != null) {
+            next.cancel(false);
+            next = null;
+         }
+      }
+
+      @Override
+      public void run() {
+         try {
+            if(isRunning.compareAndSet(false, true)) {
+               reportExecutor.execute(this::report);
+            } else {
+               skippedTicks.inc();
+            }
+         } catch(RejectedExecutionException re) {
+            isRunning.set(false);
+         } finally {
+            long now = System.currentTimeMillis();
+            long next = tickMillis + frequencyMillis;
+            if(alignTicks) {
+               next = nextTick(Math.max(now, tickMillis), frequencyMillis, offsetMillis);
+            } else if(next <= now) {
+               next = nextTick(now, frequencyMillis, tickMillis); //Skip missed ticks, keeping the phase...
+            }
+            scheduleNext(next);
+         }
+      }
+
+      /**
+       * Runs the report.
+       */
+      private void report() {
+         try {
+            report.run();
+         } finally {
+            isRunning.set(false);
+         }
+      }
+
+      private final Runnable report;
+      private final long frequencyMillis;
+      private final AtomicBoolean isRunning = new AtomicBoolean(false);
+      private volatile long tickMillis;
+      private ScheduledFuture<?> next;
+      private boolean isCancelled;
+   }
+
+   /**
+    * Are ticks aligned to interval boundaries?
+    */
+   private final boolean alignTicks;
+
+   /**
+    * The offset added to aligned ticks.
+    */
+   private final long offsetMillis;
+
+   /**
+    * Counts skipped ticks.
+    */
+   private final Counter skippedTicks;
+
+   /**
+    * Triggers all reports.
+    */
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * Runs reports.
+    */
+   private final ExecutorService reportExecutor;
+}
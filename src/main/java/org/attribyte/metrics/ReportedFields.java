@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Snapshot;
+import com.google.common.base.Splitter;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable set of reported fields, including any number of percentiles.
+ * <p>
+ *    Every requested percentile, fixed (like <code>p99</code>) or not (like <code>p99.99</code>),
+ *    is available as a quantile, in ascending order, so all may be computed at once
+ *    with {@link #getQuantileValues(Snapshot, double[])}.
+ * </p>
+ */
+public final class ReportedFields {
+
+   /**
+    * Creates fields from a comma-separated string. For example: <code>count,p90,p99.99,max</code>.
+    * @param str The string.
+    * @return The fields.
+    * @see MetricField#fromString(String)
+    * @see MetricField#parsePercentile(String)
+    */
+   public static ReportedFields fromString(final String str) {
+      EnumSet<MetricField> fields = EnumSet.noneOf(MetricField.class);
+      TreeSet<Double> percentiles = new TreeSet<>();
+      for(String field : Splitter.on(',').omitEmptyStrings().trimResults().split(str)) {
+         fields.add(MetricField.fromString(field));
+         double percentile = MetricField.parsePercentile(field);
+         if(!Double.isNaN(percentile)) {
+            percentiles.add(percentile);
+         }
+      }
+      return new ReportedFields(fields, percentiles);
+   }
+
+   /**
+    * Creates fields from a set of fields.
+    * @param fields The fields.
+    * @return The reported fields.
+    */
+   public static ReportedFields of(final Set<MetricField> fields) {
+      EnumSet<MetricField> fieldSet = EnumSet.noneOf(MetricField.class);
+      fieldSet.addAll(fields);
+      TreeSet<Double> percentiles = new TreeSet<>();
+      for(MetricField field : fieldSet) {
+         if(!Double.isNaN(field.getPercentile())) {
+            percentiles.add(field.getPercentile());
+         }
+      }
+      return new ReportedFields(fieldSet, percentiles);
+   }
+
+   /**
+    * Creates fields that include all fields and percentiles from both sets.
+    * @param first The first set of fields.
+    * @param second The second set of fields.
+    * @return The combined fields.
+    */
+   public static ReportedFields union(final ReportedFields first, final ReportedFields second) {
+      EnumSet<MetricField> fields = EnumSet.copyOf(first.fields);
+      fields.addAll(second.fields);
+      TreeSet<Double> percentiles = new TreeSet<>();
+      for(double percentile : first.percentiles) {
+         percentiles.add(percentile);
+      }
+      for(double percentile : second.percentiles) {
+         percentiles.add(percentile);
+      }
+      return new ReportedFields(fields, percentiles);
+   }
+
+   private ReportedFields(final EnumSet<MetricField> fields, final TreeSet<Double> percentiles) {
+      this.fields = fields;
+      this.percentiles = new double[percentiles.size()];
+      this.quantiles = new double[percentiles.size()];
+      this.quantileFields = new MetricField[percentiles.size()];
+      this.quantileLabels = new String[percentiles.size()];
+      int index = 0;
+      for(double percentile : percentiles) {
+         MetricField field = MetricField.fromString("p" + BigDecimal.valueOf(percentile).toPlainString());
+         this.percentiles[index] = percentile;
+         quantiles[index] = percentile / 100.0;
+         quantileFields[index] = field;
+         quantileLabels[index] = label(percentile);
+         index++;
+      }
+   }
+
+   /**
+    * Is a field reported?
+    * @param field The field.
+    * @return Is the field reported?
+    */
+   public boolean contains(final MetricField field) {
+      return fields.contains(field);
+   }
+
+   /**
+    * Are no fields reported?
+    * @return Is the set of fields empty?
+    */
+   public boolean isEmpty() {
+      return fields.isEmpty();
+   }
+
+   /**
+    * Gets the fields.
+    * @return The unmodifiable set of fields.
+    */
+   public Set<MetricField> getFields() {
+      return Collections.unmodifiableSet(fields);
+   }
+
+   /**
+    * Gets the number of reported quantiles.
+    * @return The number of quantiles.
+    */
+   public int getQuantileCount() {
+      return quantiles.length;
+   }
+
+   /**
+    * Gets a quantile.
+    * @param index The index. Quantiles are in ascending order.
+    * @return The quantile in (0..1].
+    */
+   public double getQuantile(final int index) {
+      return quantiles[index];
+   }
+
+   /**
+    * Gets the field for a quantile.
+    * @param index The index.
+    * @return The fixed percentile field or {@link MetricField#PERCENTILE}.
+    */
+   public MetricField getQuantileField(final int index) {
+      return quantileFields[index];
+   }
+
+   /**
+    * Gets the label for a quantile, <code>p</code> followed by the percentile without a decimal point.
+    * For example: <code>p50</code>, <code>p999</code> or <code>p9999</code>. If the label would be read
+    * as a different percentile, the decimal point is replaced with <code>_</code>. For example, <code>p9_99</code>.
+    * Labels are unique and are parsed as the percentile they label.
+    * @param index The index.
+    * @return The label.
+    */
+   public String getQuantileLabel(final int index) {
+      return quantileLabels[index];
+   }
+
+   /**
+    * Computes the values for all quantiles.
+    * <p>
+    *    Values are computed in a single pass over HDR and sketch snapshots.
+    *    Other snapshots are sorted when created, so each value is read directly.
+    * </p>
+    * @param snapshot The snapshot.
+    * @param values An array for the values, at least as long as the number of quantiles.
+    */
+   public void getQuantileValues(final Snapshot snapshot, final double[] values) {
+      if(quantiles.length == 0) {
+         return;
+      }
+      if(snapshot instanceof SketchSnapshot) {
+         ((SketchSnapshot)snapshot).getSketch().quantiles(quantiles, values);
+      } else if(snapshot instanceof HdrSnapshot) {
+         ((HdrSnapshot)snapshot).getValues(quantiles, values);
+      } else {
+         for(int i = 0; i < quantiles.length; i++) {
+            values[i] = snapshot.getValue(quantiles[i]);
+         }
+      }
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder buf = new StringBuilder();
+      for(MetricField field : fields) {
+         if(field != MetricField.PERCENTILE && Double.isNaN(field.getPercentile())) {
+            buf.append(buf.length() > 0 ? "," : "").append(field.name().toLowerCase());
+         }
+      }
+      for(String label : quantileLabels) {
+         buf.append(buf.length() > 0 ? "," : "").append(label);
+      }
+      return buf.toString();
+   }
+
+   /**
+    * Creates the label for a percentile.
+    * @param percentile The percentile.
+    * @return The label.
+    */
+   private static String label(final double percentile) {
+      String number = BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+      String label = "p" + number.replace(".", "");
+      //Without a decimal point, 9.99 would be read as 99.9...
+      return MetricField.parsePercentile(label) == percentile ? label : "p" + number.replace('.', '_');
+   }
+
+   private final EnumSet<MetricField> fields;
+   private final double[] percentiles;
+   private final double[] quantiles;
+   private final MetricField[] quantileFields;
+   private final String[] quantileLabels;
+}
@@ -15,6 +15,7 @@
 
 package org.attribyte.metrics;
 
+import com.codahale.metrics.MetricFilter;
 import org.attribyte.util.InitUtil;
 
 import java.net.UnknownHostException;
@@ -30,6 +31,37 @@ public abstract class ReporterBase implements Reporter {
     */
    public static String FREQUENCY_PROPERTY = "frequency";
 
+   /**
+    * The prefix for report frequencies for metrics that match a name or pattern ('frequency.').
+    * For example: <code>frequency.http.*=10s</code>. Applies when reporting is driven by {@link Reporting}.
+    * @see ReportFrequencies
+    */
+   public static String FREQUENCY_PATTERN_PREFIX = ReportFrequencies.FREQUENCY_PREFIX;
+
+   /**
+    * The prefix for rules that merge metrics into derived metrics ('rollup.').
+    * For example: <code>rollup.pool.*.latency=pool.all.latency</code>. Applies when reporting is driven by {@link Reporting}.
+    * @see Rollups
+    */
+   public static String ROLLUP_PREFIX = RegistryTranslation.ROLLUP_PREFIX;
+
+   /**
+    * The maximum number of threads that encode a report in parallel ('encodeParallelism').
+    * <p>
+    *    If greater than one, large snapshots are partitioned into chunks that are encoded in parallel and sent in order,
+    *    by reporters that support it. If unspecified, the encoder configured for {@link Reporting}, if any, is used.
+    *    Applies when the reporter is run by the shared scheduler of {@link Reporting}.
+    * </p>
+    * @see ParallelEncoder
+    */
+   public static String ENCODE_PARALLELISM_PROPERTY = "encodeParallelism";
+
+   /**
+    * The maximum number of metrics in a chunk encoded in parallel ('encodeChunkSize').
+    * Default '4096'.
+    */
+   public static String ENCODE_CHUNK_SIZE_PROPERTY = "encodeChunkSize";
+
    /**
     * The report duration unit ('durationUnit').
     * For example: MILLISECONDS
@@ -42,6 +74,18 @@ public abstract class ReporterBase implements Reporter {
     */
    public static String RATE_UNIT_PROPERTY = "rateUnit";
 
+   /**
+    * Should metrics that have not changed since the last report be skipped ('skipUnchanged').
+    * Default 'false'.
+    */
+   public static String SKIP_UNCHANGED_PROPERTY = "skipUnchanged";
+
+   /**
+    * The maximum time between reports of an unchanged metric when unchanged metrics are skipped ('heartbeat').
+    * Default is ten minutes.
+    */
+   public static String HEARTBEAT_PROPERTY = "heartbeat";
+
    @Override
    public String getName() {
       return name;
@@ -55,6 +99,74 @@ public abstract class ReporterBase implements Reporter {
    protected void init(final String name, final Properties props) {
       init = new InitUtil("", props, false);
       this.name = name;
+      if(init.getProperty(SKIP_UNCHANGED_PROPERTY, "false").equalsIgnoreCase("true")) {
+         changeFilter = new ChangeFilter(InitUtil.millisFromTime(init.getProperty(HEARTBEAT_PROPERTY, "10m")));
+      }
+      reportFrequencies = ReportFrequencies.fromProperties(init.getProperties());
+      rollups = RegistryTranslation.rollups(init.getProperties());
+      encoder = ParallelEncoder.fromProperties(init.getProperty(ENCODE_PARALLELISM_PROPERTY, ""),
+              init.getProperty(ENCODE_CHUNK_SIZE_PROPERTY, ""));
+      ownsEncoder = encoder != null;
+   }
+
+   /**
+    * Sets a shared encoder, unless the reporter has configured its own.
+    * @param encoder The encoder. May be <code>null</code>.
+    */
+   void setSharedEncoder(final ParallelEncoder encoder) {
+      if(!ownsEncoder) {
+         this.encoder = encoder;
+      }
+   }
+
+   /**
+    * Shuts down the encoder, if owned by this reporter.
+    */
+   protected void shutdownEncoder() {
+      if(ownsEncoder) {
+         encoder.shutdown();
+      }
+   }
+
+   /**
+    * Merges metrics into derived metrics, if rollups are configured.
+    * @param snapshot The snapshot.
+    * @return The snapshot with derived metrics or the original snapshot.
+    */
+   protected RegistrySnapshot rollup(final RegistrySnapshot snapshot) {
+      return rollups != null ? RegistryTranslation.rollup(rollups, snapshot) : snapshot;
+   }
+
+   /**
+    * Gets the frequencies for metrics reported more or less often than the reporter frequency.
+    * @return The frequencies or <code>null</code> if none are configured.
+    */
+   public ReportFrequencies getReportFrequencies() {
+      return reportFrequencies;
+   }
+
+   /**
+    * Adds the filter for unchanged metrics, if configured, to a filter.
+    * @param filter The filter. May be <code>null</code>.
+    * @return The combined filter or <code>null</code> if neither is configured.
+    */
+   protected MetricFilter skipUnchanged(final MetricFilter filter) {
+      if(changeFilter == null) {
+         return filter;
+      } else if(filter == null) {
+         return changeFilter;
+      } else {
+         return (name, metric) -> filter.matches(name, metric) && changeFilter.matches(name, metric);
+      }
+   }
+
+   /**
+    * Removes unchanged metrics from a snapshot, if configured.
+    * @param snapshot The snapshot.
+    * @return The snapshot with only changed metrics or the original snapshot.
+    */
+   protected RegistrySnapshot skipUnchanged(final RegistrySnapshot snapshot) {
+      return changeFilter != null ? changeFilter.filter(snapshot) : snapshot;
    }
 
    /**
@@ -69,6 +181,31 @@ public abstract class ReporterBase implements Reporter {
       }
    }
 
+   /**
+    * Matches only changed metrics. <code>null</code> if unchanged metrics are reported.
+    */
+   protected ChangeFilter changeFilter;
+
+   /**
+    * Frequencies for metrics that match a pattern. <code>null</code> if none are configured.
+    */
+   protected ReportFrequencies reportFrequencies;
+
+   /**
+    * Merges metrics into derived metrics before a snapshot is reported. <code>null</code> if none are configured.
+    */
+   protected Rollups rollups;
+
+   /**
+    * Encodes large snapshots in parallel. <code>null</code> if snapshots are encoded by the reporting thread.
+    */
+   protected volatile ParallelEncoder encoder;
+
+   /**
+    * Was the encoder configured for this reporter, rather than shared?
+    */
+   private boolean ownsEncoder;
+
    protected InitUtil init;
    protected String name;
    protected final AtomicBoolean isInit = new AtomicBoolean(false);
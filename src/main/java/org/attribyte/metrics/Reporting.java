@@ -15,25 +15,173 @@
 
 package org.attribyte.metrics;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.attribyte.api.InitializationException;
 import org.attribyte.util.InitUtil;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * Manages the configuration and lifecycle of metrics reporters.
+ * <p>
+ *    Properties that configure reporting, rather than an individual reporter,
+ *    are grouped under the reserved name, <code>reporting</code>. For example:
+ *    <code>metrics-reporting.reporting.sharedSnapshot=true</code>
+ * </p>
+ * <p>
+ *    Reporting may be reconfigured while running. Only reporters with changed properties are replaced.
+ * </p>
  */
 public class Reporting implements MetricSet {
 
+   /**
+    * The reserved name for properties that configure reporting itself ('reporting').
+    */
+   public static final String REPORTING_PROPERTIES_NAME = "reporting";
+
+   /**
+    * Should reporters with the same frequency report a single, shared registry
+    * snapshot ('sharedSnapshot')? Default 'false'.
+    * <p>
+    *    When enabled, histogram and timer snapshots and gauge values are computed
+    *    once per interval, instead of once per reporter.
+    * </p>
+    */
+   public static final String SHARED_SNAPSHOT_PROPERTY = "sharedSnapshot";
+
+   /**
+    * Should all reporters be run by a single scheduler ('sharedScheduler')? Default 'false'.
+    * <p>
+    *    Otherwise, each reporter runs on its own thread. A shared scheduler
+    *    is always used if reporters share a snapshot. Reporters that do not
+    *    implement {@link SnapshotReporter} always run on their own thread.
+    * </p>
+    */
+   public static final String SHARED_SCHEDULER_PROPERTY = "sharedScheduler";
+
+   /**
+    * Should reports be aligned to wall-clock interval boundaries ('alignTicks')? Default 'false'.
+    * <p>
+    *    For example, a one minute report runs at the start of each minute.
+    *    Requires a shared scheduler.
+    * </p>
+    */
+   public static final String ALIGN_TICKS_PROPERTY = "alignTicks";
+
+   /**
+    * The maximum offset added to aligned reports, as a time ('jitter'). For example, <code>5s</code>.
+    * <p>
+    *    The offset is fixed for a host, so a host always reports at the same point
+    *    in the interval, but hosts in a fleet do not report at the same instant. Default is no offset.
+    * </p>
+    */
+   public static final String JITTER_PROPERTY = "jitter";
+
+   /**
+    * Should each scheduled report run on a new virtual thread ('virtualThreads')? Default 'false'.
+    * <p>
+    *    Ignored if virtual threads are not available (before JDK 21).
+    *    Otherwise, reports run on a fixed pool of report threads.
+    * </p>
+    * @see #REPORT_THREADS_PROPERTY
+    */
+   public static final String VIRTUAL_THREADS_PROPERTY = "virtualThreads";
+
+   /**
+    * The number of threads that run scheduled reports, if not run on virtual threads ('reportThreads'). Default '4'.
+    * <p>
+    *    The scheduler thread only triggers reports, so a slow reporter delays
+    *    others only if every report thread is busy.
+    * </p>
+    */
+   public static final String REPORT_THREADS_PROPERTY = "reportThreads";
+
+   /**
+    * Should reports be allocation-free, where supported ('zeroAllocation')? Default 'false'.
+    * <p>
+    *    Reporters that implement {@link ColumnReporter} report values collected into
+    *    reusable {@link MetricColumns}, instead of a snapshot. Implies a shared scheduler.
+    * </p>
+    */
+   public static final String ZERO_ALLOCATION_PROPERTY = "zeroAllocation";
+
+   /**
+    * The maximum number of snapshots queued for each reporter ('queueSize'). Default '0'.
+    * <p>
+    *    If greater than zero, each reporter that accepts a snapshot reports on its own thread,
+    *    from a bounded queue, so a slow reporter never delays collection or other reporters.
+    *    A snapshot is due within the reporter's frequency after it is collected.
+    *    The time snapshots wait in each queue and the time to report are exposed as
+    *    metrics, with the number of snapshots dropped, merged or late. Implies a shared scheduler.
+    * </p>
+    * @see #OVERRUN_PROPERTY
+    */
+   public static final String QUEUE_SIZE_PROPERTY = "queueSize";
+
+   /**
+    * What happens when a reporter's queue is full or a queued snapshot is past its deadline ('overrun').
+    * <p>
+    *    One of 'skip' (the new or late snapshot is dropped), 'coalesce' (only the latest snapshot is kept)
+    *    or 'merge' (snapshots are merged, combining interval histograms). Default 'coalesce'.
+    * </p>
+    */
+   public static final String OVERRUN_PROPERTY = "overrun";
+
+   /**
+    * The prefix for properties that limit the number of series reported for each name prefix ('cardinality.').
+    * <p>
+    *    For example, <code>cardinality.maxSeries=1000</code> and <code>cardinality.prefixSegments=2</code>.
+    *    Series over the limit are folded into a <code>__other__</code> aggregate. Applies to reporters
+    *    run by the shared scheduler and implies a shared scheduler.
+    * </p>
+    * @see CardinalityLimiter
+    */
+   public static final String CARDINALITY_PREFIX = "cardinality.";
+
+   /**
+    * The maximum number of threads, shared by all reporters, that encode reports in parallel ('encodeParallelism').
+    * <p>
+    *    If greater than one, snapshots larger than the chunk size are partitioned into chunks
+    *    of sorted metrics, encoded in parallel on a bounded fork-join pool, then sent in chunk order,
+    *    by reporters that support it. A reporter may configure its own encoder with the same property.
+    *    Implies a shared scheduler. Default '1' (snapshots are encoded by the reporting thread).
+    * </p>
+    * @see ParallelEncoder
+    * @see #ENCODE_CHUNK_SIZE_PROPERTY
+    */
+   public static final String ENCODE_PARALLELISM_PROPERTY = "encodeParallelism";
+
+   /**
+    * The maximum number of metrics in a chunk encoded in parallel ('encodeChunkSize'). Default '4096'.
+    */
+   public static final String ENCODE_CHUNK_SIZE_PROPERTY = "encodeChunkSize";
+
+   /**
+    * The reservoir for timers and histograms created with the suppliers from
+    * {@link #timers()} and {@link #histograms()} ('reservoir').
+    * One of 'exponential', 'striped', 'hdr' or 'sketch'. Default 'exponential'.
+    * @see MetricSuppliers#reservoir(String)
+    */
+   public static final String RESERVOIR_PROPERTY = "reservoir";
+
    /**
     * Creates an instance that creates and configures metrics reporters.
     * @param prefix The prefix applied to property names.
@@ -58,26 +206,19 @@ public class Reporting implements MetricSet {
     */
    public Reporting(final String prefix, final Properties props,
                     final MetricRegistry registry, final MetricFilter filter) throws Exception {
-
-      Map<String, Properties> reporterProperties = new InitUtil(prefix, props, false).split();
-      ImmutableMap.Builder<String, Metric> reporterMetrics = ImmutableMap.builder();
-
-      for(String name : reporterProperties.keySet()) {
-         Properties currProps = reporterProperties.get(name);
-         InitUtil reporterInit = new InitUtil("", currProps, false);
-         Reporter reporter = (Reporter)reporterInit.initClass("class", Reporter.class);
-         if(reporter != null) {
-            reporter.init(name, reporterInit.getProperties(), registry, filter);
-            reporters.add(reporter);
-            Map<String, Metric> metrics = reporter.getMetrics();
-            if(metrics != null && metrics.size() > 0) {
-               reporterMetrics.put(reporter.getName(), reporter);
-            }
-         } else {
-            throw new InitializationException("The 'class' must be specified for metrics reporter, '" + name + "'");
-         }
+      this.prefix = prefix;
+      this.registry = registry;
+      this.filter = filter;
+      Map<String, Properties> reporterProperties = Maps.newLinkedHashMap(new InitUtil(prefix, props, false).split());
+      this.options = new Options(reporterProperties.remove(REPORTING_PROPERTIES_NAME));
+      this.limiter = options.limiter();
+      this.encoder = options.encoder();
+      for(Map.Entry<String, Properties> entry : reporterProperties.entrySet()) {
+         reporters.put(entry.getKey(), createReporter(entry.getKey(), entry.getValue(), encoder));
       }
-      this.metrics = reporterMetrics.build();
+      this.reporterProperties = reporterProperties;
+      this.collectors = collectors(reporters.values(), options);
+      this.metrics = buildMetrics();
    }
 
    /**
@@ -85,12 +226,15 @@ public class Reporting implements MetricSet {
     * @return The number of configured reporters.
     * @throws Exception on start error.
     */
-   public int start() throws Exception {
+   public synchronized int start() throws Exception {
       if(isStarted.compareAndSet(false, true)) {
          try {
-            for(Reporter reporter : reporters) {
-               reporter.start();
+            for(Reporter reporter : reporters.values()) {
+               if(!isScheduled(reporter, options)) {
+                  reporter.start();
+               }
             }
+            schedule(collectors);
          } catch(Exception e) {
             stop();
             throw e;
@@ -102,23 +246,162 @@ public class Reporting implements MetricSet {
    /**
     * Stops all reporting.
     */
-   public void stop() {
+   public synchronized void stop() {
       if(isStarted.compareAndSet(true, false)) {
-         for(Reporter reporter : reporters) {
+         if(scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+            scheduledReports.clear();
+         }
+         for(SnapshotCollector collector : collectors) {
+            collector.close();
+         }
+         for(Reporter reporter : reporters.values()) {
+            reporter.stop();
+         }
+         if(encoder != null) {
+            encoder.shutdown(); //Restarted, if required...
+         }
+      }
+   }
+
+   /**
+    * Changes the configuration, without restarting reporters that are unchanged.
+    * <p>
+    *    The new properties are compared with the current properties for each reporter name.
+    *    Reporters that are no longer configured are stopped. New reporters are added.
+    *    A reporter with any changed property, for example, <code>frequency</code>,
+    *    <code>report.*</code> or <code>translate.*</code>, is replaced by a new reporter
+    *    that is started before the current reporter is stopped.
+    *    Unchanged reporters continue to report on their current schedule.
+    * </p>
+    * <p>
+    *    All new reporters are initialized before any change is made, so if initialization
+    *    fails, the current configuration is unchanged. Changes to the reservoir apply only
+    *    to timers and histograms created after the change.
+    * </p>
+    * @param props The properties, with the same prefix as the initial properties.
+    * @return The number of configured reporters.
+    * @throws Exception on initialization or start error.
+    */
+   public synchronized int reconfigure(final Properties props) throws Exception {
+
+      Map<String, Properties> newProperties = Maps.newLinkedHashMap(new InitUtil(prefix, props, false).split());
+      Options newOptions = new Options(newProperties.remove(REPORTING_PROPERTIES_NAME));
+      CardinalityLimiter newLimiter = newOptions.cardinality.equals(options.cardinality) ? limiter : newOptions.limiter();
+      ParallelEncoder newEncoder = newOptions.sameEncoding(options) ? encoder : newOptions.encoder();
+
+      Map<String, Reporter> newReporters = Maps.newLinkedHashMap();
+      List<Reporter> addedReporters = Lists.newArrayList();
+      try {
+         for(Map.Entry<String, Properties> entry : newProperties.entrySet()) {
+            Reporter current = reporters.get(entry.getKey());
+            if(current != null && entry.getValue().equals(reporterProperties.get(entry.getKey())) &&
+                    isScheduled(current, options) == isScheduled(current, newOptions)) {
+               newReporters.put(entry.getKey(), current);
+            } else {
+               Reporter reporter = createReporter(entry.getKey(), entry.getValue(), newEncoder);
+               addedReporters.add(reporter);
+               newReporters.put(entry.getKey(), reporter);
+            }
+         }
+
+         if(isStarted.get()) {
+            for(Reporter reporter : addedReporters) {
+               if(!isScheduled(reporter, newOptions)) {
+                  reporter.start();
+               }
+            }
+         }
+      } catch(Exception e) {
+         for(Reporter reporter : addedReporters) {
             reporter.stop();
          }
+         throw e;
       }
+
+      this.limiter = newLimiter;
+      ParallelEncoder removedEncoder = newEncoder != encoder ? encoder : null;
+      if(removedEncoder != null) {
+         for(Reporter reporter : newReporters.values()) {
+            if(reporter instanceof ReporterBase) {
+               ((ReporterBase)reporter).setSharedEncoder(newEncoder);
+            }
+         }
+         this.encoder = newEncoder;
+      }
+      List<SnapshotCollector> newCollectors = collectors(newReporters.values(), newOptions);
+      List<SnapshotCollector> removedCollectors = Lists.newArrayList(collectors);
+      removedCollectors.removeAll(newCollectors);
+      List<Reporter> removedReporters = Lists.newArrayList(reporters.values());
+      removedReporters.removeAll(newReporters.values());
+
+      boolean schedulerChanged = newOptions.alignTicks != options.alignTicks ||
+              newOptions.tickOffsetMillis != options.tickOffsetMillis ||
+              newOptions.virtualThreads != options.virtualThreads ||
+              newOptions.reportThreads != options.reportThreads;
+
+      this.options = newOptions;
+      if(isStarted.get()) {
+         if(schedulerChanged && scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+            scheduledReports.clear();
+         }
+         for(SnapshotCollector collector : removedCollectors) {
+            ReportScheduler.ScheduledReport scheduledReport = scheduledReports.remove(collector);
+            if(scheduledReport != null) {
+               scheduledReport.cancel();
+            }
+         }
+         schedule(newCollectors);
+      }
+
+      for(SnapshotCollector collector : removedCollectors) {
+         collector.close(); //Waits for a report in progress...
+      }
+      for(Reporter reporter : removedReporters) {
+         reporter.stop();
+      }
+      if(removedEncoder != null) {
+         removedEncoder.shutdown();
+      }
+
+      this.reporters = newReporters;
+      this.reporterProperties = newProperties;
+      this.collectors = newCollectors;
+      this.metrics = buildMetrics();
+      return reporters.size();
    }
 
+   /**
+    * Gets the metrics for reporting and for each reporter.
+    * <p>
+    *    The metrics change when reporting is reconfigured.
+    * </p>
+    * @return The metrics.
+    */
    @Override
    public Map<String, Metric> getMetrics() {
       return metrics;
    }
 
    /**
-    * Individual reporter metrics.
+    * Gets a supplier for timers with the configured reservoir.
+    * For example: <code>registry.timer("requests", reporting.timers())</code>.
+    * @return The supplier.
+    */
+   public MetricRegistry.MetricSupplier<Timer> timers() {
+      return MetricSuppliers.timers(options.reservoir);
+   }
+
+   /**
+    * Gets a supplier for histograms with the configured reservoir.
+    * @return The supplier.
     */
-   private final ImmutableMap<String, Metric> metrics;
+   public MetricRegistry.MetricSupplier<Histogram> histograms() {
+      return MetricSuppliers.histograms(options.reservoir);
+   }
 
    /**
     * Is reporting running?
@@ -129,12 +412,384 @@ public class Reporting implements MetricSet {
    }
 
    /**
-    * All initialized reporters.
+    * Creates and initializes a reporter.
+    * @param name The reporter name.
+    * @param props The reporter properties.
+    * @param encoder The shared encoder. May be <code>null</code>.
+    * @return The reporter.
+    * @throws Exception on initialization error.
+    */
+   private Reporter createReporter(final String name, final Properties props,
+                                   final ParallelEncoder encoder) throws Exception {
+      InitUtil reporterInit = new InitUtil("", props, false);
+      Reporter reporter = (Reporter)reporterInit.initClass("class", Reporter.class);
+      if(reporter == null) {
+         throw new InitializationException("The 'class' must be specified for metrics reporter, '" + name + "'");
+      }
+      reporter.init(name, reporterInit.getProperties(), registry, filter);
+      if(reporter instanceof ReporterBase) {
+         ((ReporterBase)reporter).setSharedEncoder(encoder);
+      }
+      return reporter;
+   }
+
+   /**
+    * Is a reporter run by the shared scheduler, instead of its own schedule?
+    * <p>
+    *    Reporters with frequencies for some metrics are always run by the shared scheduler.
+    * </p>
+    * @param reporter The reporter.
+    * @param options The reporting options.
+    * @return Is the reporter scheduled?
+    */
+   private static boolean isScheduled(final Reporter reporter, final Options options) {
+      return reporter instanceof SnapshotReporter &&
+              (options.sharedScheduler || ((SnapshotReporter)reporter).getReportFrequencies() != null);
+   }
+
+   /**
+    * Creates the collectors for all scheduled reporters.
+    * <p>
+    *    A reporter with frequencies for some metrics has a bucket of metrics for each
+    *    frequency, and each bucket is collected only when it is due.
+    *    A current collector is kept if it has the same frequency and reporters
+    *    and the options for collection are unchanged, so its schedule is not interrupted.
+    * </p>
+    * @param reporters The reporters.
+    * @param newOptions The options.
+    * @return The collectors.
+    */
+   private List<SnapshotCollector> collectors(final Collection<Reporter> reporters, final Options newOptions) {
+
+      Map<Long, List<SnapshotReporter>> sharedReporters = Maps.newTreeMap();
+      Map<Long, Map<SnapshotReporter, MetricFilter>> sharedBuckets = Maps.newTreeMap();
+      List<SnapshotCollector> newCollectors = Lists.newArrayListWithExpectedSize(4);
+      List<SnapshotCollector> individualCollectors = Lists.newArrayListWithExpectedSize(4);
+
+      for(Reporter reporter : reporters) {
+         if(!isScheduled(reporter, newOptions)) {
+            continue;
+         }
+         SnapshotReporter snapshotReporter = (SnapshotReporter)reporter;
+         long reporterFrequencyMillis = snapshotReporter.getFrequencyMillis();
+         ReportFrequencies frequencies = snapshotReporter.getReportFrequencies();
+         Map<Long, MetricFilter> buckets = Maps.newTreeMap();
+         if(frequencies != null) {
+            for(long frequencyMillis : frequencies.getFrequencies(reporterFrequencyMillis)) {
+               buckets.put(frequencyMillis, frequencies.filter(frequencyMillis, reporterFrequencyMillis));
+            }
+         } else {
+            buckets.put(reporterFrequencyMillis, null);
+         }
+
+         for(Map.Entry<Long, MetricFilter> bucket : buckets.entrySet()) {
+            if(newOptions.sharedSnapshot) {
+               sharedReporters.computeIfAbsent(bucket.getKey(), frequency -> Lists.newArrayList()).add(snapshotReporter);
+               if(bucket.getValue() != null) {
+                  sharedBuckets.computeIfAbsent(bucket.getKey(), frequency -> Maps.newIdentityHashMap())
+                          .put(snapshotReporter, bucket.getValue());
+               }
+            } else {
+               individualCollectors.add(collector(bucket.getKey(), ImmutableList.of(snapshotReporter),
+                       bucket.getValue() != null ? ImmutableMap.of(snapshotReporter, bucket.getValue()) : ImmutableMap.of(),
+                       newOptions));
+            }
+         }
+      }
+
+      for(Map.Entry<Long, List<SnapshotReporter>> group : sharedReporters.entrySet()) {
+         Map<SnapshotReporter, MetricFilter> buckets = sharedBuckets.get(group.getKey());
+         newCollectors.add(collector(group.getKey(), group.getValue(),
+                 buckets != null ? buckets : ImmutableMap.of(), newOptions));
+      }
+      newCollectors.addAll(individualCollectors);
+      return newCollectors;
+   }
+
+   /**
+    * Gets the current collector for a group of reporters or creates a new collector.
+    * @param frequencyMillis The frequency.
+    * @param reporters The reporters.
+    * @param bucketFilters The filters for reporters that report only some metrics at this frequency.
+    * @param newOptions The options.
+    * @return The collector.
+    */
+   private SnapshotCollector collector(final long frequencyMillis, final List<SnapshotReporter> reporters,
+                                       final Map<SnapshotReporter, MetricFilter> bucketFilters,
+                                       final Options newOptions) {
+      if(collectors != null && newOptions.sameCollection(options)) {
+         for(SnapshotCollector collector : collectors) {
+            if(collector.frequencyMillis == frequencyMillis && collector.getReporters().equals(reporters)) {
+               return collector;
+            }
+         }
+      }
+      return new SnapshotCollector(registry, filter, frequencyMillis, reporters, bucketFilters,
+              newOptions.zeroAllocation, newOptions.queueSize, newOptions.overrun, limiter, collectTimer, reportErrors);
+   }
+
+   /**
+    * Schedules collectors that are not already scheduled, creating the scheduler, if required.
+    * @param collectors The collectors.
+    */
+   private void schedule(final List<SnapshotCollector> collectors) {
+      for(SnapshotCollector collector : collectors) {
+         if(!scheduledReports.containsKey(collector)) {
+            if(scheduler == null) {
+               scheduler = new ReportScheduler(options.alignTicks, options.tickOffsetMillis,
+                       options.virtualThreads, options.reportThreads, skippedTicks);
+            }
+            scheduledReports.put(collector, scheduler.schedule(collector, collector.frequencyMillis));
+         }
+      }
+   }
+
+   /**
+    * Builds the metrics for reporting and for each reporter.
+    * @return The metrics.
+    */
+   private ImmutableMap<String, Metric> buildMetrics() {
+      ImmutableMap.Builder<String, Metric> reporterMetrics = ImmutableMap.builder();
+      for(Reporter reporter : reporters.values()) {
+         Map<String, Metric> metrics = reporter.getMetrics();
+         if(metrics != null && metrics.size() > 0) {
+            reporterMetrics.put(reporter.getName(), reporter);
+         }
+      }
+
+      if(!collectors.isEmpty()) {
+         ImmutableMap.Builder<String, Metric> reportingMetrics = ImmutableMap.builder();
+         reportingMetrics.put("collect", collectTimer);
+         reportingMetrics.put("report-errors", reportErrors);
+         reportingMetrics.put("skipped-ticks", skippedTicks);
+         for(SnapshotCollector collector : collectors) {
+            for(ReportQueue queue : collector.getQueues()) {
+               SnapshotReporter reporter = queue.getReporter();
+               reportingMetrics.put("queue." + reporter.getName() +
+                       (reporter.getReportFrequencies() != null ? "." + collector.frequencyMillis + "ms" : ""), queue);
+            }
+         }
+         if(limiter != null) {
+            reportingMetrics.put("cardinality", limiter);
+         }
+         if(encoder != null) {
+            reportingMetrics.put("encoder", encoder);
+         }
+         ImmutableMap<String, Metric> builtMetrics = reportingMetrics.build();
+         reporterMetrics.put(REPORTING_PROPERTIES_NAME, (MetricSet)() -> builtMetrics);
+      }
+      return reporterMetrics.build();
+   }
+
+   /**
+    * Gets the hostname.
+    * @return The hostname.
+    */
+   private static String getHostname() {
+      try {
+         return InetAddress.getLocalHost().getHostName();
+      } catch(UnknownHostException ue) {
+         return "[unknown]";
+      }
+   }
+
+   /**
+    * Options that configure reporting, rather than an individual reporter.
+    */
+   private static final class Options {
+
+      /**
+       * Creates options from properties.
+       * @param props The properties. May be <code>null</code>.
+       * @throws InitializationException on invalid property.
+       */
+      Options(final Properties props) throws InitializationException {
+         InitUtil reportingInit = new InitUtil("", props != null ? props : new Properties(), false);
+         final boolean parallelEncoding;
+         this.sharedSnapshot = reportingInit.getProperty(SHARED_SNAPSHOT_PROPERTY, "false").equalsIgnoreCase("true");
+         this.zeroAllocation = reportingInit.getProperty(ZERO_ALLOCATION_PROPERTY, "false").equalsIgnoreCase("true");
+         try {
+            this.queueSize = Integer.parseInt(reportingInit.getProperty(QUEUE_SIZE_PROPERTY, "0").trim());
+            this.reportThreads = Integer.parseInt(reportingInit.getProperty(REPORT_THREADS_PROPERTY, "4").trim());
+            this.overrun = ReportQueue.Overrun.fromString(reportingInit.getProperty(OVERRUN_PROPERTY, ""));
+            this.reservoir = MetricSuppliers.reservoir(reportingInit.getProperty(RESERVOIR_PROPERTY, ""));
+            this.cardinality = new InitUtil(CARDINALITY_PREFIX, reportingInit.getProperties(), false).getProperties();
+            limiter(); //Validate...
+            this.encodeParallelism = reportingInit.getProperty(ENCODE_PARALLELISM_PROPERTY, "");
+            this.encodeChunkSize = reportingInit.getProperty(ENCODE_CHUNK_SIZE_PROPERTY, "");
+            parallelEncoding = encoder() != null; //Validate...
+         } catch(IllegalArgumentException iae) {
+            throw new InitializationException(iae.getMessage());
+         }
+         this.sharedScheduler = sharedSnapshot || zeroAllocation || queueSize > 0 || !cardinality.isEmpty() || parallelEncoding ||
+                 reportingInit.getProperty(SHARED_SCHEDULER_PROPERTY, "false").equalsIgnoreCase("true");
+         this.alignTicks = reportingInit.getProperty(ALIGN_TICKS_PROPERTY, "false").equalsIgnoreCase("true");
+         String jitter = reportingInit.getProperty(JITTER_PROPERTY, "").trim();
+         this.tickOffsetMillis = jitter.isEmpty() ? 0L : ReportScheduler.hostOffset(getHostname(), InitUtil.millisFromTime(jitter));
+         this.virtualThreads = reportingInit.getProperty(VIRTUAL_THREADS_PROPERTY, "false").equalsIgnoreCase("true");
+      }
+
+      /**
+       * Creates the cardinality limiter.
+       * @return The limiter or <code>null</code> if series are not limited.
+       */
+      CardinalityLimiter limiter() {
+         return CardinalityLimiter.fromProperties(cardinality);
+      }
+
+      /**
+       * Creates the shared encoder.
+       * @return The encoder or <code>null</code> if reports are not encoded in parallel.
+       */
+      ParallelEncoder encoder() {
+         return ParallelEncoder.fromProperties(encodeParallelism, encodeChunkSize);
+      }
+
+      /**
+       * Are reports encoded the same way as with other options?
+       * @param other The other options.
+       * @return Is encoding the same?
+       */
+      boolean sameEncoding(final Options other) {
+         return encodeParallelism.trim().equals(other.encodeParallelism.trim()) &&
+                 encodeChunkSize.trim().equals(other.encodeChunkSize.trim());
+      }
+
+      /**
+       * Are snapshots collected and reported the same way as with other options?
+       * @param other The other options.
+       * @return Is collection the same?
+       */
+      boolean sameCollection(final Options other) {
+         return sharedSnapshot == other.sharedSnapshot && zeroAllocation == other.zeroAllocation &&
+                 queueSize == other.queueSize && overrun == other.overrun && cardinality.equals(other.cardinality);
+      }
+
+      final boolean sharedSnapshot;
+      final boolean zeroAllocation;
+      final boolean sharedScheduler;
+      final int queueSize;
+      final ReportQueue.Overrun overrun;
+
+      /**
+       * Properties for the cardinality limiter.
+       */
+      final Properties cardinality;
+
+      /**
+       * The 'encodeParallelism' property value.
+       */
+      final String encodeParallelism;
+
+      /**
+       * The 'encodeChunkSize' property value.
+       */
+      final String encodeChunkSize;
+
+      /**
+       * Supplies the reservoir for timers and histograms.
+       */
+      final Supplier<Reservoir> reservoir;
+
+      /**
+       * Should ticks be aligned to interval boundaries?
+       */
+      final boolean alignTicks;
+
+      /**
+       * The offset added to aligned ticks for this host.
+       */
+      final long tickOffsetMillis;
+
+      /**
+       * Should reports run on virtual threads?
+       */
+      final boolean virtualThreads;
+
+      /**
+       * The number of threads that run reports, if not run on virtual threads.
+       */
+      final int reportThreads;
+   }
+
+   /**
+    * The prefix for properties.
+    */
+   private final String prefix;
+
+   /**
+    * The registry.
+    */
+   private final MetricRegistry registry;
+
+   /**
+    * The filter applied to the registry. May be <code>null</code>.
+    */
+   private final MetricFilter filter;
+
+   /**
+    * The current reporting options.
+    */
+   private volatile Options options;
+
+   /**
+    * All initialized reporters, by name.
+    */
+   private Map<String, Reporter> reporters = Maps.newLinkedHashMap();
+
+   /**
+    * The properties for each reporter, compared when reconfigured.
+    */
+   private Map<String, Properties> reporterProperties;
+
+   /**
+    * Collectors run by the shared scheduler. Reporters that share a snapshot have
+    * one collector for each frequency. Otherwise, each reporter has its own collector.
+    */
+   private List<SnapshotCollector> collectors;
+
+   /**
+    * Limits the series reported by collectors. May be <code>null</code>.
+    */
+   private CardinalityLimiter limiter;
+
+   /**
+    * Encodes reports in parallel for reporters that do not configure their own encoder. May be <code>null</code>.
+    */
+   private ParallelEncoder encoder;
+
+   /**
+    * The scheduled report for each collector, while started.
+    */
+   private final Map<SnapshotCollector, ReportScheduler.ScheduledReport> scheduledReports = Maps.newHashMap();
+
+   /**
+    * Reporting and individual reporter metrics.
+    */
+   private volatile ImmutableMap<String, Metric> metrics;
+
+   /**
+    * Times snapshot collection.
+    */
+   private final Timer collectTimer = new Timer();
+
+   /**
+    * Counts reporters that failed to report a snapshot.
+    */
+   private final Counter reportErrors = new Counter();
+
+   /**
+    * Counts ticks skipped because the previous report had not completed.
+    */
+   private final Counter skippedTicks = new Counter();
+
+   /**
+    * The shared scheduler. Created on start.
     */
-   private final List<Reporter> reporters = Lists.newArrayListWithExpectedSize(8);
+   private ReportScheduler scheduler;
 
    /**
     * Ensure started once.
     */
    private final AtomicBoolean isStarted = new AtomicBoolean(false);
-}
\ No newline at end of file
+}
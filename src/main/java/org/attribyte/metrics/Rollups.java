@@ -0,0 +1,404 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Sampling;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.codahale.metrics.UniformSnapshot;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges metrics that match a name or pattern into a single derived metric before they are reported.
+ * For example: <code>rollup.pool.*.latency=pool.all.latency</code>.
+ * <p>
+ *    Rules are matched as in {@link NameTranslator}: patterns that contain <code>*</code> are glob
+ *    patterns and regular expressions are configured with the prefix <code>re.</code>. The derived name
+ *    may refer to wildcard groups. Metrics of the same type with the same derived name are merged:
+ * </p>
+ * <ul>
+ *    <li>Counters and numeric gauges are summed.</li>
+ *    <li>Meter counts and rates are summed.</li>
+ *    <li>Histogram and timer counts and rates are summed and snapshots are merged.
+ *    Sketch snapshots are merged exactly, HDR snapshots are added, and other snapshots are
+ *    combined into a uniform snapshot of all their values.</li>
+ * </ul>
+ * <p>
+ *    Merged metrics are not reported individually unless sources are kept.
+ * </p>
+ */
+@SuppressWarnings("rawtypes")
+public class Rollups {
+
+   /**
+    * Compiles rollup rules.
+    * @param props The rules, without prefix.
+    * @param keepSources Are merged metrics also reported individually?
+    * @return The rollups or <code>null</code> if there are no rules.
+    */
+   public static Rollups compile(final Properties props, final boolean keepSources) {
+      if(props.isEmpty()) {
+         return null;
+      }
+      Properties rules = new Properties();
+      for(String key : props.stringPropertyNames()) {
+         String derivedName = props.getProperty(key).trim();
+         if(key.startsWith(NameTranslator.GLOB_PREFIX) || key.startsWith(NameTranslator.REGEX_PREFIX) || key.indexOf('*') < 0) {
+            rules.setProperty(key, derivedName);
+         } else {
+            rules.setProperty(NameTranslator.GLOB_PREFIX + key, derivedName);
+         }
+      }
+      return new Rollups(NameTranslator.compile(rules), keepSources);
+   }
+
+   private Rollups(final NameTranslator rules, final boolean keepSources) {
+      this.rules = rules;
+      this.keepSources = keepSources;
+   }
+
+   /**
+    * Applies the rollups to a snapshot.
+    * @param snapshot The snapshot.
+    * @return The snapshot with derived metrics or the snapshot if no metric matches a rule.
+    */
+   public RegistrySnapshot apply(final RegistrySnapshot snapshot) {
+
+      Map<String, List<Gauge>> gaugeGroups = group(snapshot.getGauges());
+      Map<String, List<Counter>> counterGroups = group(snapshot.getCounters());
+      Map<String, List<Histogram>> histogramGroups = group(snapshot.getHistograms());
+      Map<String, List<Meter>> meterGroups = group(snapshot.getMeters());
+      Map<String, List<Timer>> timerGroups = group(snapshot.getTimers());
+      if(gaugeGroups.isEmpty() && counterGroups.isEmpty() && histogramGroups.isEmpty() &&
+              meterGroups.isEmpty() && timerGroups.isEmpty()) {
+         return snapshot;
+      }
+
+      SortedMap<String, Gauge> gauges = sources(snapshot.getGauges());
+      for(Map.Entry<String, List<Gauge>> group : gaugeGroups.entrySet()) {
+         double sum = 0.0;
+         for(Gauge gauge : group.getValue()) {
+            Object value = gauge.getValue();
+            if(value instanceof Number) {
+               sum += ((Number)value).doubleValue();
+            }
+         }
+         final double value = sum;
+         gauges.put(group.getKey(), (Gauge<Double>)() -> value);
+      }
+
+      SortedMap<String, Counter> counters = sources(snapshot.getCounters());
+      for(Map.Entry<String, List<Counter>> group : counterGroups.entrySet()) {
+         Counter counter = new Counter();
+         for(Counter source : group.getValue()) {
+            counter.inc(source.getCount());
+         }
+         counters.put(group.getKey(), counter);
+      }
+
+      SortedMap<String, Histogram> histograms = sources(snapshot.getHistograms());
+      for(Map.Entry<String, List<Histogram>> group : histogramGroups.entrySet()) {
+         long count = 0L;
+         for(Histogram source : group.getValue()) {
+            count += source.getCount();
+         }
+         histograms.put(group.getKey(), new RollupHistogram(merge(group.getValue()), count));
+      }
+
+      SortedMap<String, Meter> meters = sources(snapshot.getMeters());
+      for(Map.Entry<String, List<Meter>> group : meterGroups.entrySet()) {
+         meters.put(group.getKey(), new RollupMeter(new Rates(group.getValue())));
+      }
+
+      SortedMap<String, Timer> timers = sources(snapshot.getTimers());
+      for(Map.Entry<String, List<Timer>> group : timerGroups.entrySet()) {
+         timers.put(group.getKey(), new RollupTimer(new Rates(group.getValue()), merge(group.getValue())));
+      }
+
+      return RegistrySnapshot.of(snapshot.getTimestamp(), gauges, counters, histograms, meters, timers);
+   }
+
+   /**
+    * Groups metrics by derived name.
+    * @param metrics The metrics.
+    * @param <T> The metric type.
+    * @return The metrics for each derived name.
+    */
+   private <T> Map<String, List<T>> group(final SortedMap<String, T> metrics) {
+      Map<String, List<T>> groups = Maps.newTreeMap();
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         String derivedName = rules.apply(metric.getKey());
+         if(derivedName != null) {
+            groups.computeIfAbsent(derivedName, name -> Lists.newArrayList()).add(metric.getValue());
+         }
+      }
+      return groups;
+   }
+
+   /**
+    * Gets the metrics reported individually.
+    * @param metrics The metrics.
+    * @param <T> The metric type.
+    * @return The metrics that are not merged, or all metrics if sources are kept.
+    */
+   private <T> SortedMap<String, T> sources(final SortedMap<String, T> metrics) {
+      SortedMap<String, T> sources = new TreeMap<>();
+      for(Map.Entry<String, T> metric : metrics.entrySet()) {
+         if(keepSources || rules.apply(metric.getKey()) == null) {
+            sources.put(metric.getKey(), metric.getValue());
+         }
+      }
+      return sources;
+   }
+
+   /**
+    * Merges the snapshots of sampled metrics.
+    * @param sampled The metrics.
+    * @return The merged snapshot.
+    */
+   static Snapshot merge(final List<? extends Sampling> sampled) {
+      List<Snapshot> snapshots = Lists.newArrayListWithCapacity(sampled.size());
+      boolean allSketch = true;
+      boolean allHdr = true;
+      for(Sampling source : sampled) {
+         Snapshot snapshot = source.getSnapshot();
+         snapshots.add(snapshot);
+         allSketch &= snapshot instanceof SketchSnapshot;
+         allHdr &= snapshot instanceof HdrSnapshot;
+      }
+
+      if(snapshots.size() == 1) {
+         return snapshots.get(0);
+      } else if(allSketch) {
+         try {
+            QuantileSketch merged = QuantileSketch.decode(((SketchSnapshot)snapshots.get(0)).getSketch().encode());
+            for(int i = 1; i < snapshots.size(); i++) {
+               merged.merge(((SketchSnapshot)snapshots.get(i)).getSketch());
+            }
+            return new SketchSnapshot(merged);
+         } catch(IllegalArgumentException iae) {
+            //Different accuracy. Combine values...
+         }
+      } else if(allHdr) {
+         org.HdrHistogram.Histogram merged = ((HdrSnapshot)snapshots.get(0)).getHistogram().copy();
+         merged.setAutoResize(true);
+         for(int i = 1; i < snapshots.size(); i++) {
+            merged.add(((HdrSnapshot)snapshots.get(i)).getHistogram());
+         }
+         return new HdrSnapshot(merged);
+      }
+
+      int size = 0;
+      List<long[]> values = Lists.newArrayListWithCapacity(snapshots.size());
+      for(Snapshot snapshot : snapshots) {
+         long[] snapshotValues = snapshot.getValues();
+         values.add(snapshotValues);
+         size += snapshotValues.length;
+      }
+      long[] combined = new long[size];
+      int pos = 0;
+      for(long[] snapshotValues : values) {
+         System.arraycopy(snapshotValues, 0, combined, pos, snapshotValues.length);
+         pos += snapshotValues.length;
+      }
+      return new UniformSnapshot(combined);
+   }
+
+   /**
+    * The summed counts and rates of metered metrics.
+    */
+   private static final class Rates {
+
+      Rates(final List<? extends Metered> metered) {
+         long count = 0L;
+         double oneMinuteRate = 0.0;
+         double fiveMinuteRate = 0.0;
+         double fifteenMinuteRate = 0.0;
+         double meanRate = 0.0;
+         for(Metered meter : metered) {
+            count += meter.getCount();
+            oneMinuteRate += meter.getOneMinuteRate();
+            fiveMinuteRate += meter.getFiveMinuteRate();
+            fifteenMinuteRate += meter.getFifteenMinuteRate();
+            meanRate += meter.getMeanRate();
+         }
+         this.count = count;
+         this.oneMinuteRate = oneMinuteRate;
+         this.fiveMinuteRate = fiveMinuteRate;
+         this.fifteenMinuteRate = fifteenMinuteRate;
+         this.meanRate = meanRate;
+      }
+
+      final long count;
+      final double oneMinuteRate;
+      final double fiveMinuteRate;
+      final double fifteenMinuteRate;
+      final double meanRate;
+   }
+
+   /**
+    * A histogram merged from others.
+    */
+   private static final class RollupHistogram extends Histogram {
+
+      RollupHistogram(final Snapshot snapshot, final long count) {
+         super(NO_RESERVOIR);
+         this.snapshot = snapshot;
+         this.count = count;
+      }
+
+      @Override
+      public void update(final long value) {
+         throw new UnsupportedOperationException("A rollup histogram may not be updated");
+      }
+
+      @Override
+      public long getCount() {
+         return count;
+      }
+
+      @Override
+      public Snapshot getSnapshot() {
+         return snapshot;
+      }
+
+      private final Snapshot snapshot;
+      private final long count;
+   }
+
+   /**
+    * A meter merged from others.
+    */
+   private static final class RollupMeter extends Meter {
+
+      RollupMeter(final Rates rates) {
+         this.rates = rates;
+      }
+
+      @Override
+      public void mark(final long n) {
+         throw new UnsupportedOperationException("A rollup meter may not be updated");
+      }
+
+      @Override
+      public long getCount() {
+         return rates.count;
+      }
+
+      @Override
+      public double getFifteenMinuteRate() {
+         return rates.fifteenMinuteRate;
+      }
+
+      @Override
+      public double getFiveMinuteRate() {
+         return rates.fiveMinuteRate;
+      }
+
+      @Override
+      public double getMeanRate() {
+         return rates.meanRate;
+      }
+
+      @Override
+      public double getOneMinuteRate() {
+         return rates.oneMinuteRate;
+      }
+
+      private final Rates rates;
+   }
+
+   /**
+    * A timer merged from others.
+    */
+   private static final class RollupTimer extends Timer {
+
+      RollupTimer(final Rates rates, final Snapshot snapshot) {
+         super(NO_RESERVOIR);
+         this.rates = rates;
+         this.snapshot = snapshot;
+      }
+
+      @Override
+      public void update(final long duration, final TimeUnit unit) {
+         throw new UnsupportedOperationException("A rollup timer may not be updated");
+      }
+
+      @Override
+      public long getCount() {
+         return rates.count;
+      }
+
+      @Override
+      public double getFifteenMinuteRate() {
+         return rates.fifteenMinuteRate;
+      }
+
+      @Override
+      public double getFiveMinuteRate() {
+         return rates.fiveMinuteRate;
+      }
+
+      @Override
+      public double getMeanRate() {
+         return rates.meanRate;
+      }
+
+      @Override
+      public double getOneMinuteRate() {
+         return rates.oneMinuteRate;
+      }
+
+      @Override
+      public Snapshot getSnapshot() {
+         return snapshot;
+      }
+
+      private final Rates rates;
+      private final Snapshot snapshot;
+   }
+
+   /**
+    * The (unused) reservoir for rollup histograms and timers.
+    */
+   private static final Reservoir NO_RESERVOIR = new UniformReservoir(1);
+
+   /**
+    * The derived name for each rule.
+    */
+   private final NameTranslator rules;
+
+   /**
+    * Are merged metrics also reported individually?
+    */
+   private final boolean keepSources;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A reservoir that records every value in a mergeable {@link QuantileSketch}.
+ * <p>
+ *    A snapshot replaces the recording sketch, so it contains exactly the values recorded
+ *    since the previous snapshot (the interval). As with {@link HdrReservoir}, snapshots requested
+ *    within the minimum interval of the last swap return the same values, and reporters with
+ *    different frequencies should not share these metrics.
+ * </p>
+ * <p>
+ *    Negative values are recorded as zero.
+ * </p>
+ */
+public class SketchReservoir implements Reservoir {
+
+   /**
+    * The default minimum time between interval swaps (1s).
+    */
+   public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000L;
+
+   /**
+    * Creates a reservoir with the default accuracy and minimum interval.
+    */
+   public SketchReservoir() {
+      this(QuantileSketch.DEFAULT_RELATIVE_ACCURACY, QuantileSketch.DEFAULT_MAX_BUCKETS, DEFAULT_MIN_INTERVAL_MILLIS);
+   }
+
+   /**
+    * Creates a reservoir.
+    * @param relativeAccuracy The relative accuracy of quantiles.
+    * @param maxBuckets The maximum number of sketch buckets.
+    * @param minIntervalMillis The minimum time between interval swaps.
+    */
+   public SketchReservoir(final double relativeAccuracy, final int maxBuckets, final long minIntervalMillis) {
+      this.relativeAccuracy = relativeAccuracy;
+      this.maxBuckets = maxBuckets;
+      this.minIntervalMillis = minIntervalMillis;
+      this.recording = new QuantileSketch(relativeAccuracy, maxBuckets);
+      this.snapshot = new SketchSnapshot(new QuantileSketch(relativeAccuracy, maxBuckets));
+   }
+
+   /**
+    * Gets the number of values in the last interval, without swapping.
+    * @return The number of values.
+    */
+   @Override
+   public synchronized int size() {
+      return snapshot.size();
+   }
+
+   @Override
+   public synchronized void update(final long value) {
+      recording.add(value > 0L ? value : 0L);
+   }
+
+   @Override
+   public synchronized Snapshot getSnapshot() {
+      long now = System.currentTimeMillis();
+      if(now - snapshotMillis >= minIntervalMillis) {
+         snapshot = new SketchSnapshot(recording); //Not recycled: the previous snapshot may still be in use...
+         recording = new QuantileSketch(relativeAccuracy, maxBuckets);
+         snapshotMillis = now;
+      }
+      return snapshot;
+   }
+
+   private final double relativeAccuracy;
+   private final int maxBuckets;
+   private final long minIntervalMillis;
+   private QuantileSketch recording;
+   private SketchSnapshot snapshot;
+   private long snapshotMillis = Long.MIN_VALUE / 2L;
+}
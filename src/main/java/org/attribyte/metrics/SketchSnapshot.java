@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Snapshot;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A snapshot of the values recorded by a {@link QuantileSketch}.
+ * <p>
+ *    Any quantile is computed from every recorded value, to the sketch's relative accuracy.
+ *    The mean, minimum and maximum are exact. Reporters that report the {@link MetricField#SKETCH SKETCH}
+ *    field send the sketch itself, so quantiles may be computed after merging sketches from many hosts.
+ * </p>
+ */
+public class SketchSnapshot extends Snapshot {
+
+   /**
+    * The maximum number of values returned by <code>getValues</code>.
+    */
+   public static final int MAX_VALUES = 65536;
+
+   /**
+    * Creates a snapshot.
+    * @param sketch The sketch. Must not be modified after the snapshot is created.
+    */
+   public SketchSnapshot(final QuantileSketch sketch) {
+      this.sketch = sketch;
+   }
+
+   /**
+    * Gets the sketch.
+    * @return The sketch. Must not be modified.
+    */
+   public QuantileSketch getSketch() {
+      return sketch;
+   }
+
+   @Override
+   public double getValue(final double quantile) {
+      return sketch.quantile(quantile);
+   }
+
+   /**
+    * Gets the values, in order, as the value that represents each bucket. If more than
+    * {@link #MAX_VALUES} values were recorded, the values are evenly spaced by rank.
+    * @return The values.
+    */
+   @Override
+   public long[] getValues() {
+      long total = sketch.getCount();
+      int size = (int)Math.min(total, MAX_VALUES);
+      long[] values = new long[size];
+      int index = 0;
+      long cumulativeCount = sketch.getZeroCount();
+      while(index < size && (index * total) / size < cumulativeCount) {
+         values[index++] = 0L;
+      }
+      for(int bucket = sketch.lowestBucket(); bucket <= sketch.highestBucket(); bucket++) {
+         long count = sketch.getBucketCount(bucket);
+         if(count > 0L) {
+            cumulativeCount += count;
+            long value = Math.round(sketch.getBucketValue(bucket));
+            while(index < size && (index * total) / size < cumulativeCount) {
+               values[index++] = value;
+            }
+         }
+      }
+      return values;
+   }
+
+   @Override
+   public int size() {
+      return (int)Math.min(sketch.getCount(), Integer.MAX_VALUE);
+   }
+
+   @Override
+   public long getMax() {
+      return Math.round(sketch.getMax());
+   }
+
+   @Override
+   public double getMean() {
+      long count = sketch.getCount();
+      return count > 0L ? sketch.getSum() / count : 0.0;
+   }
+
+   @Override
+   public long getMin() {
+      return Math.round(sketch.getMin());
+   }
+
+   @Override
+   public double getStdDev() {
+      long count = sketch.getCount();
+      if(count < 2L) {
+         return 0.0;
+      }
+      double sum = sketch.getSum();
+      double variance = (sketch.getSumOfSquares() - sum * sum / count) / (count - 1);
+      return variance > 0.0 ? Math.sqrt(variance) : 0.0;
+   }
+
+   @Override
+   public void dump(final OutputStream output) {
+      try(PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+         for(long value : getValues()) {
+            out.printf("%d%n", value);
+         }
+      }
+   }
+
+   private final QuantileSketch sketch;
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects a single registry snapshot and reports it to a group of reporters.
+ * <p>
+ *    If configured, reporters that implement {@link ColumnReporter} are instead
+ *    reported values collected into reusable {@link MetricColumns}, and a snapshot
+ *    is collected only if other reporters require it.
+ * </p>
+ * <p>
+ *    If configured, snapshots are offered to a bounded {@link ReportQueue} for each reporter,
+ *    instead of being reported on the collecting thread. Columns are reused by the next collection,
+ *    so column reporters always report on the collecting thread.
+ * </p>
+ * <p>
+ *    A reporter may report only a bucket of metrics at the collector's frequency.
+ *    If every reporter reports a bucket, only metrics in some bucket are collected.
+ *    Reporters with a bucket are never reported from columns.
+ *    A reporter with several buckets is in several collectors, so each report is made
+ *    while holding a lock for the reporter, and reports to one reporter never run concurrently.
+ * </p>
+ * <p>
+ *    If configured, the series in each snapshot are limited by a {@link CardinalityLimiter}.
+ *    Columns are not limited.
+ * </p>
+ */
+class SnapshotCollector implements Runnable {
+
+   /**
+    * Creates a collector.
+    * @param registry The registry.
+    * @param filter The filter applied to the registry. May be <code>null</code>.
+    * @param frequencyMillis The frequency shared by all reporters.
+    * @param reporters The reporters.
+    * @param bucketFilters Filters for reporters that report only some metrics at this frequency.
+    * @param useColumns Should column reporters be reported from columns?
+    * @param queueSize The maximum number of snapshots queued for each reporter. If zero, snapshots are not queued.
+    * @param overrun The policy applied when a queue is full or a queued snapshot is past its deadline.
+    * @param limiter Limits the series in each reporter's view of a snapshot. May be <code>null</code>.
+    * @param collectTimer Times snapshot collection.
+    * @param reportErrors Counts reporters that failed to report a snapshot.
+    */
+   SnapshotCollector(final MetricRegistry registry, final MetricFilter filter,
+                     final long frequencyMillis,
+                     final List<SnapshotReporter> reporters,
+                     final Map<SnapshotReporter, MetricFilter> bucketFilters,
+                     final boolean useColumns,
+                     final int queueSize, final ReportQueue.Overrun overrun,
+                     final CardinalityLimiter limiter,
+                     final Timer collectTimer, final Counter reportErrors) {
+      this.registry = registry;
+      this.filter = filter;
+      this.frequencyMillis = frequencyMillis;
+      this.allReporters = ImmutableList.copyOf(reporters);
+      this.limiter = limiter;
+      ImmutableList.Builder<SnapshotReporter> snapshotReporters = ImmutableList.builder();
+      ImmutableList.Builder<ColumnReporter> columnReporters = ImmutableList.builder();
+      ImmutableList.Builder<ReportQueue> queues = ImmutableList.builder();
+      List<MetricFilter> snapshotBuckets = Lists.newArrayList();
+      for(SnapshotReporter reporter : reporters) {
+         MetricFilter bucketFilter = bucketFilters.get(reporter);
+         if(useColumns && reporter instanceof ColumnReporter && bucketFilter == null) {
+            columnReporters.add((ColumnReporter)reporter);
+         } else {
+            if(queueSize > 0) {
+               queues.add(new ReportQueue(reporter, queueSize, overrun, frequencyMillis, reportErrors));
+            } else {
+               snapshotReporters.add(reporter);
+            }
+            snapshotBuckets.add(bucketFilter);
+         }
+      }
+      this.reporters = snapshotReporters.build();
+      this.reportLocks = ImmutableList.copyOf(Lists.transform(this.reporters, SnapshotCollector::reportLock));
+      this.queues = queues.build();
+
+      if(!snapshotBuckets.isEmpty() && !snapshotBuckets.contains(null)) {
+         //Collect only metrics in some bucket...
+         final MetricFilter baseFilter = filter != null ? filter : MetricFilter.ALL;
+         final ImmutableList<MetricFilter> buckets = ImmutableList.copyOf(snapshotBuckets);
+         this.snapshotFilter = (name, metric) -> {
+            if(!baseFilter.matches(name, metric)) {
+               return false;
+            }
+            for(int i = 0; i < buckets.size(); i++) {
+               if(buckets.get(i).matches(name, metric)) {
+                  return true;
+               }
+            }
+            return false;
+         };
+      } else {
+         this.snapshotFilter = filter;
+      }
+
+      ImmutableList.Builder<MetricFilter> viewFilters = ImmutableList.builder();
+      for(MetricFilter bucketFilter : snapshotBuckets) {
+         //A single bucket is exactly the collected metrics...
+         viewFilters.add(bucketFilter != null && snapshotBuckets.size() > 1 ? bucketFilter : MetricFilter.ALL);
+      }
+      this.viewFilters = viewFilters.build();
+      this.viewIndex = new int[this.viewFilters.size()];
+      final Object[] limiterKeys = new Object[viewIndex.length];
+      for(int i = 0; i < viewIndex.length; i++) {
+         //Reporters with the same filter share a view...
+         viewIndex[i] = this.viewFilters.indexOf(this.viewFilters.get(i));
+         limiterKeys[i] = viewIndex[i] < i ? limiterKeys[viewIndex[i]] : new Object();
+      }
+      this.limiterKeys = ImmutableList.copyOf(limiterKeys);
+      this.columnReporters = columnReporters.build();
+      this.collectTimer = collectTimer;
+      this.reportErrors = reportErrors;
+   }
+
+   @Override
+   public synchronized void run() {
+      if(!columnReporters.isEmpty()) {
+         if(columns == null) {
+            columns = new MetricColumns(registry, filter);
+         }
+         final Timer.Context ctx = collectTimer.time();
+         try {
+            columns.collect();
+         } finally {
+            ctx.stop();
+         }
+
+         for(int i = 0; i < columnReporters.size(); i++) {
+            try {
+               columnReporters.get(i).report(columns);
+            } catch(RuntimeException re) {
+               reportErrors.inc();
+            }
+         }
+      }
+
+      if(!reporters.isEmpty() || !queues.isEmpty()) {
+         final RegistrySnapshot[] views = new RegistrySnapshot[viewFilters.size()];
+         final Timer.Context ctx = collectTimer.time();
+         try {
+            RegistrySnapshot collected = RegistrySnapshot.collect(registry, snapshotFilter);
+            for(int i = 0; i < views.length; i++) {
+               views[i] = viewIndex[i] < i ? views[viewIndex[i]] : limit(i, view(collected, viewFilters.get(i)));
+            }
+         } finally {
+            ctx.stop();
+         }
+
+         for(int i = 0; i < reporters.size(); i++) {
+            try {
+               synchronized(reportLocks.get(i)) {
+                  reporters.get(i).report(views[i]);
+               }
+            } catch(RuntimeException re) {
+               //Never allow one reporter to prevent reports to others or cancel the schedule...
+               reportErrors.inc();
+            }
+         }
+
+         for(int i = 0; i < queues.size(); i++) {
+            queues.get(i).offer(views[i]);
+         }
+      }
+   }
+
+   /**
+    * Gets the metrics in a reporter's bucket.
+    * @param snapshot The snapshot.
+    * @param viewFilter The filter for the reporter's bucket.
+    * @return The snapshot with only metrics in the bucket.
+    */
+   private static RegistrySnapshot view(final RegistrySnapshot snapshot, final MetricFilter viewFilter) {
+      return viewFilter == MetricFilter.ALL ? snapshot : snapshot.filter(viewFilter);
+   }
+
+   /**
+    * Limits the series in a view.
+    * <p>
+    *    Each view is limited with its own history, after its filter is applied,
+    *    so the aggregate of folded series is never removed by the filter.
+    * </p>
+    * @param index The view index.
+    * @param view The view.
+    * @return The limited view.
+    */
+   private RegistrySnapshot limit(final int index, final RegistrySnapshot view) {
+      return limiter != null ? limiter.limit(limiterKeys.get(index), view) : view;
+   }
+
+   /**
+    * Gets the lock held while reporting to a reporter.
+    * @param reporter The reporter.
+    * @return The lock, the same for every collector and queue that reports to the reporter.
+    */
+   static Object reportLock(final SnapshotReporter reporter) {
+      return REPORT_LOCKS.getUnchecked(reporter);
+   }
+
+   /**
+    * The lock for each reporter. Reporters are compared by identity.
+    */
+   private static final LoadingCache<SnapshotReporter, Object> REPORT_LOCKS =
+           CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(reporter -> new Object()));
+
+   /**
+    * Gets all reporters, in the order they were configured.
+    * @return The reporters.
+    */
+   ImmutableList<SnapshotReporter> getReporters() {
+      return allReporters;
+   }
+
+   /**
+    * Gets the report queues.
+    * @return The queues. Empty if snapshots are not queued.
+    */
+   ImmutableList<ReportQueue> getQueues() {
+      return queues;
+   }
+
+   /**
+    * Releases the columns, if any, releases the history recorded by the limiter, and stops the report queues.
+    * Columns are created again if the collector runs.
+    */
+   synchronized void close() {
+      if(limiter != null) {
+         for(Object key : limiterKeys) {
+            limiter.release(key);
+         }
+      }
+      for(ReportQueue queue : queues) {
+         queue.close();
+      }
+      if(columns != null) {
+         columns.close();
+         columns = null;
+      }
+   }
+
+   /**
+    * The registry.
+    */
+   private final MetricRegistry registry;
+
+   /**
+    * The filter. May be <code>null</code>.
+    */
+   private final MetricFilter filter;
+
+   /**
+    * Limits the series in each view. May be <code>null</code>.
+    */
+   private final CardinalityLimiter limiter;
+
+   /**
+    * The filter applied when collecting a snapshot. May be <code>null</code>.
+    */
+   private final MetricFilter snapshotFilter;
+
+   /**
+    * The filter applied to the snapshot for each reporter or queue, in order, or <code>ALL</code>.
+    */
+   private final ImmutableList<MetricFilter> viewFilters;
+
+   /**
+    * The index of the first view with the same filter as each view.
+    */
+   private final int[] viewIndex;
+
+   /**
+    * The key for the history recorded by the limiter for each view.
+    */
+   private final ImmutableList<Object> limiterKeys;
+
+   /**
+    * The reporting frequency.
+    */
+   final long frequencyMillis;
+
+   /**
+    * All reporters.
+    */
+   private final ImmutableList<SnapshotReporter> allReporters;
+
+   /**
+    * The reporters that report a snapshot on the collecting thread.
+    */
+   private final ImmutableList<SnapshotReporter> reporters;
+
+   /**
+    * The lock held while reporting to each reporter.
+    */
+   private final ImmutableList<Object> reportLocks;
+
+   /**
+    * The queues for reporters that report a snapshot on their own thread.
+    */
+   private final ImmutableList<ReportQueue> queues;
+
+   /**
+    * The reporters that report columns.
+    */
+   private final ImmutableList<ColumnReporter> columnReporters;
+
+   /**
+    * The columns, created on the first run. Only used by column reporters.
+    */
+   private MetricColumns columns;
+
+   /**
+    * Times snapshot collection.
+    */
+   private final Timer collectTimer;
+
+   /**
+    * Counts report errors.
+    */
+   private final Counter reportErrors;
+}
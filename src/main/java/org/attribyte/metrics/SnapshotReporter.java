@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+/**
+ * A reporter that can report a registry snapshot collected on its behalf.
+ * <p>
+ *    When reporting is driven by {@link Reporting}, <code>start</code> is not called.
+ *    Instead, the reporter must accept snapshots any time after <code>init</code>
+ *    and <code>stop</code> must release any resources held by the reporter.
+ * </p>
+ */
+public interface SnapshotReporter extends Reporter {
+
+   /**
+    * Gets the reporting frequency.
+    * @return The frequency in milliseconds.
+    */
+   public long getFrequencyMillis();
+
+   /**
+    * Gets the frequencies for metrics reported more or less often than the reporter frequency.
+    * <p>
+    *    When reporting is driven by {@link Reporting}, each snapshot reported
+    *    contains only the metrics due at the snapshot's frequency.
+    * </p>
+    * @return The frequencies or <code>null</code> if all metrics are reported at the reporter frequency.
+    */
+   public default ReportFrequencies getReportFrequencies() {
+      return null;
+   }
+
+   /**
+    * Reports a registry snapshot.
+    * @param snapshot The snapshot.
+    */
+   public void report(RegistrySnapshot snapshot);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free reservoir that keeps the most recent values recorded by each of several stripes.
+ * <p>
+ *    Each thread records to one stripe, selected by its id, so threads contend only
+ *    with others that share a stripe. Each stripe is a ring buffer of its most recent values,
+ *    with the time each was recorded. Stripes are merged only when a snapshot is requested.
+ * </p>
+ * <p>
+ *    A snapshot is a sample of the most recent values from every stripe, recorded within the window
+ *    (by default, one minute) before the snapshot. Older values are never reported, so values recorded by
+ *    a thread that is now idle expire. Stripes used by busier threads are not weighted more heavily.
+ * </p>
+ */
+public class StripedReservoir implements Reservoir {
+
+   /**
+    * The default number of values kept by each stripe (128).
+    */
+   public static final int DEFAULT_STRIPE_SIZE = 128;
+
+   /**
+    * The maximum default number of stripes (64).
+    */
+   public static final int MAX_DEFAULT_STRIPES = 64;
+
+   /**
+    * The default time values are kept (one minute).
+    */
+   public static final long DEFAULT_WINDOW_MILLIS = 60000L;
+
+   /**
+    * Creates a reservoir with a stripe for each processor (up to 64), the default stripe size and window.
+    */
+   public StripedReservoir() {
+      this(Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_STRIPES), DEFAULT_STRIPE_SIZE);
+   }
+
+   /**
+    * Creates a reservoir with the default window.
+    * @param stripeCount The number of stripes. Rounded up to a power of two.
+    * @param stripeSize The number of values kept by each stripe.
+    */
+   public StripedReservoir(final int stripeCount, final int stripeSize) {
+      this(stripeCount, stripeSize, DEFAULT_WINDOW_MILLIS, Clock.defaultClock());
+   }
+
+   /**
+    * Creates a reservoir.
+    * @param stripeCount The number of stripes. Rounded up to a power of two.
+    * @param stripeSize The number of values kept by each stripe.
+    * @param windowMillis The time values are kept.
+    * @param clock The clock.
+    */
+   public StripedReservoir(final int stripeCount, final int stripeSize, final long windowMillis, final Clock clock) {
+      int count = Integer.highestOneBit(Math.max(stripeCount, 1) - 1) << 1;
+      if(count <= 0) {
+         count = 1;
+      }
+      this.stripes = new AtomicLongArray[count];
+      this.ticks = new AtomicLongArray[count];
+      for(int i = 0; i < count; i++) {
+         stripes[i] = new AtomicLongArray(Math.max(stripeSize, 1));
+         ticks[i] = new AtomicLongArray(Math.max(stripeSize, 1));
+      }
+      this.indexes = new AtomicLongArray(count * INDEX_SPACING);
+      this.mask = count - 1;
+      this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, 1L));
+      this.clock = clock;
+   }
+
+   /**
+    * Gets the number of values recorded within the window.
+    * @return The number of values.
+    */
+   @Override
+   public int size() {
+      final long minTick = clock.getTick() - windowNanos;
+      int size = 0;
+      for(int stripe = 0; stripe < stripes.length; stripe++) {
+         AtomicLongArray stripeTicks = ticks[stripe];
+         int count = (int)Math.min(indexes.get(stripe * INDEX_SPACING), stripeTicks.length());
+         for(int i = 0; i < count; i++) {
+            if(stripeTicks.get(i) - minTick >= 0L) {
+               size++;
+            }
+         }
+      }
+      return size;
+   }
+
+   @Override
+   public void update(final long value) {
+      int stripe = stripe(Thread.currentThread().getId());
+      AtomicLongArray values = stripes[stripe];
+      long index = indexes.getAndIncrement(stripe * INDEX_SPACING);
+      int slot = (int)(index % values.length());
+      values.lazySet(slot, value);
+      ticks[stripe].lazySet(slot, clock.getTick());
+   }
+
+   @Override
+   public Snapshot getSnapshot() {
+      final long minTick = clock.getTick() - windowNanos;
+      int capacity = 0;
+      for(int stripe = 0; stripe < stripes.length; stripe++) {
+         capacity += (int)Math.min(indexes.get(stripe * INDEX_SPACING), stripes[stripe].length());
+      }
+
+      long[] values = new long[capacity];
+      int pos = 0;
+      for(int stripe = 0; stripe < stripes.length; stripe++) {
+         AtomicLongArray stripeValues = stripes[stripe];
+         AtomicLongArray stripeTicks = ticks[stripe];
+         int count = (int)Math.min(indexes.get(stripe * INDEX_SPACING), stripeValues.length());
+         for(int i = 0; i < count && pos < values.length; i++) {
+            if(stripeTicks.get(i) - minTick >= 0L) { //Recorded within the window...
+               values[pos++] = stripeValues.get(i);
+            }
+         }
+      }
+      if(pos < values.length) {
+         long[] copy = new long[pos];
+         System.arraycopy(values, 0, copy, 0, pos);
+         values = copy;
+      }
+      return new UniformSnapshot(values);
+   }
+
+   /**
+    * Gets the stripe for a thread.
+    * @param threadId The thread id.
+    * @return The stripe index.
+    */
+   private int stripe(final long threadId) {
+      long h = threadId * 0x9E3779B97F4A7C15L;
+      return (int)(h >>> 32) & mask;
+   }
+
+   /**
+    * The spacing between stripe indexes, so each is on its own cache line.
+    */
+   private static final int INDEX_SPACING = 16;
+
+   /**
+    * A ring buffer of the most recent values recorded by each stripe.
+    */
+   private final AtomicLongArray[] stripes;
+
+   /**
+    * The time each value in the ring buffers was recorded, from the clock tick.
+    */
+   private final AtomicLongArray[] ticks;
+
+   /**
+    * The total number of values recorded by each stripe, at <code>stripe * INDEX_SPACING</code>.
+    */
+   private final AtomicLongArray indexes;
+
+   private final int mask;
+
+   /**
+    * The time values are kept.
+    */
+   private final long windowNanos;
+
+   private final Clock clock;
+}
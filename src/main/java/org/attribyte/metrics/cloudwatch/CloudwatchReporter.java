@@ -23,17 +23,21 @@ import com.blacklocus.metrics.CloudWatchReporter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
 import com.google.common.collect.ImmutableMap;
 import org.attribyte.api.InitializationException;
+import org.attribyte.metrics.ParallelEncoder;
+import org.attribyte.metrics.RegistrySnapshot;
 import org.attribyte.metrics.RegistryTranslation;
-import org.attribyte.metrics.Reporter;
 import org.attribyte.metrics.ReporterBase;
+import org.attribyte.metrics.SnapshotReporter;
 import org.attribyte.util.InitUtil;
 
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 /**
  * Reports metrics to CloudWatch.
@@ -49,8 +53,12 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *      So be wary of metrics explosions."
  *    If you really want to use the full registry set: <code>metrics-reporting.cloudwatch.disableTranslate=true</code>
  * </p>
+ * <p>
+ *    To reduce the number of requests, set <code>metrics-reporting.cloudwatch.engine=statisticSet</code>.
+ *    Timers and histograms are then sent as a single statistic set and datums are packed into as few requests as possible.
+ * </p>
  */
-public class CloudwatchReporter extends ReporterBase implements Reporter {
+public class CloudwatchReporter extends ReporterBase implements SnapshotReporter {
 
    /**
     * The AWS access key id ('accessKeyId').
@@ -82,6 +90,20 @@ public class CloudwatchReporter extends ReporterBase implements Reporter {
     */
    public static final String USE_DEFAULT_PROVIDER_CHAIN_PROPERTY = "useDefaultProviderChain";
 
+   /**
+    * The engine that builds and sends requests ('engine'): 'blacklocus' or 'statisticSet'.
+    * The 'statisticSet' engine sends one datum for each metric, with timers and histograms
+    * sent as statistic sets, and packs datums into as few requests as possible.
+    * If unspecified, 'blacklocus' is used.
+    */
+   public static final String ENGINE_PROPERTY = "engine";
+
+   /**
+    * The maximum number of datums sent in a single request by the 'statisticSet' engine ('maxDatumsPerRequest').
+    * If unspecified, '20' is used.
+    */
+   public static final String MAX_DATUMS_PER_REQUEST_PROPERTY = "maxDatumsPerRequest";
+
    @Override
    public void init(final String name,
                     final Properties _props, final MetricRegistry registry,
@@ -116,11 +138,32 @@ public class CloudwatchReporter extends ReporterBase implements Reporter {
 
          boolean disableTranslate = init.getProperty(DISABLE_TRANSLATE_PROPERTY, "false").equalsIgnoreCase("true");
 
+         final MetricRegistry reportedRegistry;
          if(disableTranslate) {
-            reporter = new CloudWatchReporter(registry, cloudwatchNamespace, client);
+            reportedRegistry = registry;
          } else {
-            MetricRegistry filteredRegistry = RegistryTranslation.translate(init.getProperties(), registry);
-            reporter = new CloudWatchReporter(filteredRegistry, cloudwatchNamespace, client);
+            translator = RegistryTranslation.translator(init.getProperties());
+            reportedRegistry = RegistryTranslation.translate(init.getProperties(), registry);
+         }
+
+         MetricFilter reportFilter = skipUnchanged(disableTranslate ? filter : null);
+         String engine = init.getProperty(ENGINE_PROPERTY, "blacklocus").trim();
+         if(engine.equalsIgnoreCase("statisticSet")) {
+            StatisticSetReporter.Builder builder = StatisticSetReporter.newBuilder(reportedRegistry, client)
+                    .setNamespace(cloudwatchNamespace)
+                    .setMaxDatumsPerRequest(init.getIntProperty(MAX_DATUMS_PER_REQUEST_PROPERTY, StatisticSetReporter.DEFAULT_MAX_DATUMS_PER_REQUEST))
+                    .convertDurationsTo(TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase()));
+            if(reportFilter != null) {
+               builder.filter(reportFilter);
+            }
+            StatisticSetReporter statisticSetReporter = builder.build();
+            metrics = statisticSetReporter.getMetrics();
+            reporter = statisticSetReporter;
+         } else if(engine.equalsIgnoreCase("blacklocus")) {
+            reporter = new CloudWatchReporter(reportedRegistry, cloudwatchNamespace,
+                    reportFilter != null ? reportFilter : MetricFilter.ALL, client);
+         } else {
+            throw new InitializationException("The 'engine' must be 'blacklocus' or 'statisticSet'");
          }
       }
    }
@@ -139,18 +182,50 @@ public class CloudwatchReporter extends ReporterBase implements Reporter {
    public void stop() {
       if(isRunning.compareAndSet(true, false)) {
          reporter.stop();
+      }
+      shutdownEncoder();
+      if(isShutdown.compareAndSet(false, true)) {
          client.shutdown();
       }
    }
 
+   @Override
+   public long getFrequencyMillis() {
+      return frequencyMillis;
+   }
+
+   @Override
+   public void report(final RegistrySnapshot snapshot) {
+      final RegistrySnapshot reported = translator != null ?
+              skipUnchanged(RegistryTranslation.translate(translator, rollup(snapshot))) : skipUnchanged(rollup(snapshot));
+      final ParallelEncoder encoder = this.encoder;
+      if(encoder != null && reporter instanceof StatisticSetReporter && reported.size() > encoder.getChunkSize()) {
+         ((StatisticSetReporter)reporter).report(reported, encoder);
+      } else {
+         reported.report(reporter);
+      }
+   }
+
    @Override
    public Map<String, Metric> getMetrics() {
-      return ImmutableMap.of();
+      return metrics;
    }
 
-   private CloudWatchReporter reporter;
+   private ScheduledReporter reporter;
    private long frequencyMillis;
 
+   /**
+    * Translates names when reporting a snapshot. <code>null</code> if translation is disabled.
+    */
+   private Function<String, String> translator;
+
    private AmazonCloudWatchAsyncClient client;
+
+   /**
+    * Metrics for the reporter, if available.
+    */
+   private Map<String, Metric> metrics = ImmutableMap.of();
+
    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
 }
\ No newline at end of file
@@ -0,0 +1,457 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.cloudwatch;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.attribyte.metrics.ParallelEncoder;
+import org.attribyte.metrics.QuantileSketch;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.SketchSnapshot;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduled reporter that sends metrics to CloudWatch with one datum for each metric.
+ * <p>
+ *    Each timer and histogram is sent as a single <code>StatisticSet</code>:
+ *    the number of values recorded since the last report, their sum, estimated from the snapshot mean,
+ *    and the snapshot minimum and maximum. For sketch-backed metrics, the count and sum are
+ *    exact for the sketch interval. Counters and meters are sent as the change in count since the last report.
+ *    A counter may change by a negative amount.
+ *    Numeric gauges are sent as values.
+ * </p>
+ * <p>
+ *    Datums are packed into as few <code>PutMetricData</code> requests as allowed,
+ *    and all requests for a report are issued concurrently with the asynchronous client.
+ *    A report never waits for a response.
+ * </p>
+ */
+public class StatisticSetReporter extends ScheduledReporter implements MetricSet {
+
+   /**
+    * The default maximum number of datums in a single request (20).
+    */
+   public static final int DEFAULT_MAX_DATUMS_PER_REQUEST = 20;
+
+   /**
+    * Creates a builder.
+    * @param registry the registry to report
+    * @param client The CloudWatch client.
+    * @return The builder.
+    */
+   public static Builder newBuilder(final MetricRegistry registry, final AmazonCloudWatchAsync client) {
+      return new Builder(registry, client);
+   }
+
+   public static class Builder {
+
+      /**
+       * Creates a builder.
+       * @param registry The registry to report.
+       * @param client The CloudWatch client.
+       */
+      private Builder(final MetricRegistry registry, final AmazonCloudWatchAsync client) {
+         this.registry = registry;
+         this.client = client;
+         this.filter = MetricFilter.ALL;
+      }
+
+      /**
+       * Configures the duration conversion. Default is milliseconds.
+       * @param durationUnit The duration unit.
+       * @return A self-reference.
+       */
+      public Builder convertDurationsTo(final TimeUnit durationUnit) {
+         this.durationUnit = durationUnit;
+         return this;
+      }
+
+      /**
+       * Applies a filter to the registry before reporting.
+       * @param filter The filter.
+       * @return A self-reference.
+       */
+      public Builder filter(final MetricFilter filter) {
+         this.filter = filter;
+         return this;
+      }
+
+      /**
+       * Sets the CloudWatch namespace.
+       * @param namespace The namespace.
+       * @return A self-reference.
+       */
+      public Builder setNamespace(final String namespace) {
+         this.namespace = namespace;
+         return this;
+      }
+
+      /**
+       * Sets the maximum number of datums sent in a single request.
+       * @param maxDatumsPerRequest The maximum number of datums.
+       * @return A self-reference.
+       */
+      public Builder setMaxDatumsPerRequest(final int maxDatumsPerRequest) {
+         this.maxDatumsPerRequest = maxDatumsPerRequest;
+         return this;
+      }
+
+      /**
+       * Builds an immutable reporter instance.
+       * @return The immutable reporter.
+       */
+      public StatisticSetReporter build() {
+         return new StatisticSetReporter(registry, filter, durationUnit, client, namespace, maxDatumsPerRequest);
+      }
+
+      private final MetricRegistry registry;
+      private final AmazonCloudWatchAsync client;
+
+      private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+      private MetricFilter filter;
+      private String namespace;
+      private int maxDatumsPerRequest = DEFAULT_MAX_DATUMS_PER_REQUEST;
+   }
+
+   protected StatisticSetReporter(final MetricRegistry registry,
+                                  final MetricFilter filter,
+                                  final TimeUnit durationUnit,
+                                  final AmazonCloudWatchAsync client,
+                                  final String namespace,
+                                  final int maxDatumsPerRequest) {
+      super(registry, "cloudwatch-reporter", filter, TimeUnit.SECONDS, durationUnit);
+      this.client = client;
+      this.namespace = namespace;
+      this.maxDatumsPerRequest = maxDatumsPerRequest > 0 ? maxDatumsPerRequest : DEFAULT_MAX_DATUMS_PER_REQUEST;
+      this.durationUnit = toStandardUnit(durationUnit);
+      this.registry = registry;
+      registry.addListener(pruner);
+   }
+
+   @Override
+   public void stop() {
+      try {
+         super.stop();
+      } finally {
+         registry.removeListener(pruner);
+      }
+   }
+
+   @Override
+   public void report(SortedMap<String, Gauge> gauges,
+                      SortedMap<String, Counter> counters,
+                      SortedMap<String, Histogram> histograms,
+                      SortedMap<String, Meter> meters,
+                      SortedMap<String, Timer> timers) {
+
+      List<MetricDatum> datums = datums(gauges, counters, histograms, meters, timers, new Date());
+      lastDatumCount = datums.size();
+      send(datums);
+   }
+
+   /**
+    * Reports a snapshot with datums created in parallel.
+    * <p>
+    *    Datums for each chunk of the snapshot are created by the encoder, then sent in chunk order.
+    * </p>
+    * @param snapshot The snapshot.
+    * @param encoder The encoder.
+    */
+   public void report(final RegistrySnapshot snapshot, final ParallelEncoder encoder) {
+      final Date timestamp = new Date();
+      List<List<MetricDatum>> chunks = encoder.encode(snapshot, chunk ->
+              datums(chunk.getGauges(), chunk.getCounters(), chunk.getHistograms(), chunk.getMeters(), chunk.getTimers(), timestamp));
+      List<MetricDatum> datums = Lists.newArrayListWithCapacity(snapshot.size());
+      for(List<MetricDatum> chunk : chunks) {
+         datums.addAll(chunk);
+      }
+      lastDatumCount = datums.size();
+      send(datums);
+   }
+
+   /**
+    * Creates the datums for metrics.
+    * @param gauges The gauges.
+    * @param counters The counters.
+    * @param histograms The histograms.
+    * @param meters The meters.
+    * @param timers The timers.
+    * @param timestamp The timestamp.
+    * @return The datums.
+    */
+   private List<MetricDatum> datums(final SortedMap<String, Gauge> gauges,
+                                    final SortedMap<String, Counter> counters,
+                                    final SortedMap<String, Histogram> histograms,
+                                    final SortedMap<String, Meter> meters,
+                                    final SortedMap<String, Timer> timers,
+                                    final Date timestamp) {
+
+      final List<MetricDatum> datums = Lists.newArrayListWithCapacity(
+              gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size()
+      );
+
+      for(Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+         Object val = gauge.getValue().getValue();
+         if(val instanceof Number) {
+            double value = ((Number)val).doubleValue();
+            if(!Double.isNaN(value) && !Double.isInfinite(value)) {
+               datums.add(datum(gauge.getKey(), timestamp, StandardUnit.None).withValue(value));
+            }
+         }
+      }
+
+      for(Map.Entry<String, Counter> counter : counters.entrySet()) {
+         String name = counter.getKey();
+         datums.add(datum(name, timestamp, StandardUnit.Count).withValue((double)change(name, counter.getValue().getCount())));
+      }
+
+      for(Map.Entry<String, Meter> meter : meters.entrySet()) {
+         String name = meter.getKey();
+         datums.add(datum(name, timestamp, StandardUnit.Count).withValue((double)delta(name, meter.getValue().getCount())));
+      }
+
+      for(Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+         String name = histogram.getKey();
+         Histogram value = histogram.getValue();
+         StatisticSet statistics = statistics(delta(name, value.getCount()), value.getSnapshot(), 1.0);
+         if(statistics != null) {
+            datums.add(datum(name, timestamp, StandardUnit.None).withStatisticValues(statistics));
+         }
+      }
+
+      for(Map.Entry<String, Timer> timer : timers.entrySet()) {
+         String name = timer.getKey();
+         Timer value = timer.getValue();
+         StatisticSet statistics = statistics(delta(name, value.getCount()), value.getSnapshot(), convertDuration(1.0));
+         if(statistics != null) {
+            datums.add(datum(name, timestamp, durationUnit).withStatisticValues(statistics));
+         }
+      }
+
+      return datums;
+   }
+
+   /**
+    * Issues all requests for a report without waiting for responses.
+    * @param datums The datums.
+    */
+   private void send(final List<MetricDatum> datums) {
+      for(List<MetricDatum> partition : Lists.partition(datums, maxDatumsPerRequest)) {
+         PutMetricDataRequest request = new PutMetricDataRequest()
+                 .withNamespace(namespace)
+                 .withMetricData(Lists.newArrayList(partition));
+         requests.inc();
+         try {
+            client.putMetricDataAsync(request, responseHandler);
+         } catch(RuntimeException re) {
+            failedRequests.inc();
+         }
+      }
+   }
+
+   /**
+    * Creates a statistic set for the values recorded since the last report.
+    * @param count The number of values recorded since the last report.
+    * @param snapshot The snapshot.
+    * @param factor Converts snapshot values to the reported unit.
+    * @return The statistic set or <code>null</code> if no values were recorded.
+    */
+   static StatisticSet statistics(final long count, final Snapshot snapshot, final double factor) {
+      if(count <= 0L || snapshot.size() == 0) {
+         return null;
+      }
+      if(snapshot instanceof SketchSnapshot) { //Exact interval count and sum...
+         QuantileSketch sketch = ((SketchSnapshot)snapshot).getSketch();
+         return new StatisticSet()
+                 .withSampleCount((double)sketch.getCount())
+                 .withSum(sketch.getSum() * factor)
+                 .withMinimum(sketch.getMin() * factor)
+                 .withMaximum(sketch.getMax() * factor);
+      }
+      return new StatisticSet()
+              .withSampleCount((double)count)
+              .withSum(snapshot.getMean() * factor * count)
+              .withMinimum(snapshot.getMin() * factor)
+              .withMaximum(snapshot.getMax() * factor);
+   }
+
+   /**
+    * Gets the change in a monotonic count since the last report.
+    * @param name The metric name.
+    * @param count The current count.
+    * @return The change, or the count if first reported or reset.
+    */
+   private long delta(final String name, final long count) {
+      Long last = lastCounts.put(name, count);
+      return last == null || last > count ? count : count - last;
+   }
+
+   /**
+    * Gets the signed change in a counter since the last report.
+    * <p>
+    *    Counters may be decremented, so a lower count is a negative change, not a reset.
+    * </p>
+    * @param name The metric name.
+    * @param count The current count.
+    * @return The change, or the count if first reported.
+    */
+   private long change(final String name, final long count) {
+      Long last = lastCounts.put(name, count);
+      return last == null ? count : count - last;
+   }
+
+   /**
+    * Creates a datum.
+    * @param name The metric name.
+    * @param timestamp The timestamp.
+    * @param unit The unit.
+    * @return The datum.
+    */
+   private static MetricDatum datum(final String name, final Date timestamp, final StandardUnit unit) {
+      return new MetricDatum().withMetricName(name).withTimestamp(timestamp).withUnit(unit);
+   }
+
+   /**
+    * Converts a duration unit to the CloudWatch unit.
+    * @param unit The duration unit.
+    * @return The CloudWatch unit.
+    */
+   private static StandardUnit toStandardUnit(final TimeUnit unit) {
+      switch(unit) {
+         case SECONDS: return StandardUnit.Seconds;
+         case MILLISECONDS: return StandardUnit.Milliseconds;
+         case MICROSECONDS: return StandardUnit.Microseconds;
+         default: return StandardUnit.None;
+      }
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Counts failed requests. Responses arrive on client threads.
+    */
+   private final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> responseHandler =
+           new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
+              @Override
+              public void onError(final Exception exception) {
+                 failedRequests.inc();
+              }
+
+              @Override
+              public void onSuccess(final PutMetricDataRequest request, final PutMetricDataResult result) {
+              }
+           };
+
+   /**
+    * The CloudWatch client.
+    */
+   private final AmazonCloudWatchAsync client;
+
+   /**
+    * The CloudWatch namespace.
+    */
+   private final String namespace;
+
+   /**
+    * The maximum number of datums in a request.
+    */
+   private final int maxDatumsPerRequest;
+
+   /**
+    * The CloudWatch unit for durations.
+    */
+   private final StandardUnit durationUnit;
+
+   /**
+    * The count for each metric at the last report. Chunks encoded in parallel never share a name.
+    * <p>
+    *    A metric missing from a report, for example, because it is unchanged, keeps its last count.
+    *    The last count is discarded only when the metric is removed from the registry.
+    * </p>
+    */
+   private final Map<String, Long> lastCounts = Maps.newConcurrentMap();
+
+   /**
+    * Discards the last count for metrics removed from the registry.
+    */
+   private final MetricRegistryListener pruner = new MetricRegistryListener.Base() {
+
+      @Override
+      public void onCounterRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onHistogramRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onMeterRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onTimerRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+   };
+
+   private final MetricRegistry registry;
+
+   /**
+    * The number of datums last reported.
+    */
+   private volatile int lastDatumCount;
+
+   private final Counter requests = new Counter();
+   private final Counter failedRequests = new Counter();
+
+   private final ImmutableMap<String, Metric> metrics =
+           ImmutableMap.of(
+                   "requests", requests,
+                   "failed-requests", failedRequests,
+                   "report-count", (Gauge<Integer>)() -> lastDatumCount
+           );
+}
@@ -18,13 +18,16 @@ package org.attribyte.metrics.essem;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
 import org.attribyte.api.InitializationException;
 import org.attribyte.essem.reporter.Proto3Builder;
 import org.attribyte.essem.reporter.Proto3Reporter;
-import org.attribyte.metrics.Reporter;
+import org.attribyte.metrics.RegistrySnapshot;
 import org.attribyte.metrics.ReporterBase;
+import org.attribyte.metrics.SnapshotReporter;
 import org.attribyte.util.InitUtil;
 
+import java.io.File;
 import java.net.URI;
 import java.util.Map;
 import java.util.Properties;
@@ -32,7 +35,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 
-public class EssemReporter extends ReporterBase implements Reporter {
+public class EssemReporter extends ReporterBase implements SnapshotReporter {
 
    /**
     * The graphite host ('url').
@@ -71,9 +74,33 @@ public class EssemReporter extends ReporterBase implements Reporter {
 
    /**
     * Should unchanged metrics (since last report) be skipped ('skipUnchanged'). Default 'false'.
+    * Unchanged metrics are still reported once per 'heartbeat'.
+    * @see ReporterBase#SKIP_UNCHANGED_PROPERTY
     */
    public static final String SKIP_UNCHANGED__PROPERTY = "skipUnchanged";
 
+   /**
+    * A directory for spooled reports ('spool.dir').
+    * If specified, reports are stored in a memory-mapped spool and sent, in order, when the server is available.
+    */
+   public static final String SPOOL_DIR_PROPERTY = "spool.dir";
+
+   /**
+    * The size, in bytes, of each spool segment file ('spool.segmentSize'). Default 16 MB.
+    */
+   public static final String SPOOL_SEGMENT_SIZE_PROPERTY = "spool.segmentSize";
+
+   /**
+    * The maximum number of spool segments ('spool.maxSegments'). Default '16'.
+    * When exceeded, the oldest segment is discarded.
+    */
+   public static final String SPOOL_MAX_SEGMENTS_PROPERTY = "spool.maxSegments";
+
+   /**
+    * The maximum rate, in reports per second, for sending spooled reports ('spool.replayRate'). Default '10'.
+    */
+   public static final String SPOOL_REPLAY_RATE_PROPERTY = "spool.replayRate";
+
    /**
     * Identifies the HDR histogram/timer report mode ('none', 'total', 'snapshot').
     * <p>
@@ -93,11 +120,21 @@ public class EssemReporter extends ReporterBase implements Reporter {
          }
 
          URI uri = new URI(init.getProperty(SERVER_URL_PROPERTY));
+         String spoolDir = init.getProperty(SPOOL_DIR_PROPERTY, "").trim();
+         if(!spoolDir.isEmpty()) {
+            ReportSpool spool = new ReportSpool(new File(spoolDir),
+                    init.getIntProperty(SPOOL_SEGMENT_SIZE_PROPERTY, ReportSpool.DEFAULT_SEGMENT_SIZE),
+                    init.getIntProperty(SPOOL_MAX_SEGMENTS_PROPERTY, ReportSpool.DEFAULT_MAX_SEGMENTS));
+            relay = new SpoolingRelay(uri, spool,
+                    Double.parseDouble(init.getProperty(SPOOL_REPLAY_RATE_PROPERTY, Double.toString(SpoolingRelay.DEFAULT_REPLAY_RATE))));
+            uri = relay.start();
+         }
          Proto3Builder builder =
                  Proto3Reporter.newBuilder(uri, registry);
 
-         if(filter != null) {
-            builder.filter(filter);
+         MetricFilter reportFilter = skipUnchanged(filter);
+         if(reportFilter != null) {
+            builder.filter(reportFilter);
          }
 
          String username = init.getProperty(SERVER_USERNAME_PROPERTY, "");
@@ -114,7 +151,6 @@ public class EssemReporter extends ReporterBase implements Reporter {
 
          builder.convertDurationsTo(TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase()));
          builder.convertRatesTo(TimeUnit.valueOf(init.getProperty(RATE_UNIT_PROPERTY, "SECONDS").toUpperCase()));
-         builder.skipUnchangedMetrics(init.getProperty(SKIP_UNCHANGED__PROPERTY, "false").equalsIgnoreCase("true"));
 
          String hdrMode = init.getProperty(HDR_REPORT_PROPERTY, "snapshot");
          switch(hdrMode.toLowerCase()) {
@@ -152,14 +188,38 @@ public class EssemReporter extends ReporterBase implements Reporter {
       if(isRunning.compareAndSet(true, false)) {
          this.reporter.stop();
       }
+      if(relay != null) {
+         relay.stop();
+      }
+   }
+
+   @Override
+   public long getFrequencyMillis() {
+      return frequencyMillis;
+   }
+
+   @Override
+   public void report(final RegistrySnapshot snapshot) {
+      skipUnchanged(rollup(snapshot)).report(reporter);
    }
 
    @Override
    public final Map<String, Metric> getMetrics() {
-      return reporter.getMetrics();
+      if(relay == null) {
+         return reporter.getMetrics();
+      }
+      ImmutableMap.Builder<String, Metric> metrics = ImmutableMap.builder();
+      metrics.putAll(reporter.getMetrics());
+      relay.getMetrics().forEach((name, metric) -> metrics.put("spool." + name, metric));
+      return metrics.build();
    }
 
    private org.attribyte.essem.reporter.EssemReporter reporter;
    private long frequencyMillis;
+
+   /**
+    * The relay that spools reports, if configured.
+    */
+   private SpoolingRelay relay;
    private final AtomicBoolean isRunning = new AtomicBoolean(false);
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.essem;
+
+import com.google.common.collect.Lists;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * An append-only, size-capped spool of records stored in memory-mapped segment files.
+ * <p>
+ *    Records are appended to the newest segment and read, in order, from the oldest.
+ *    Each record is a four byte length followed by the record. A consumed record is marked
+ *    by negating its length in place, so pending records survive a restart.
+ *    A segment is deleted when every record in it has been consumed. When the maximum number
+ *    of segments is reached, the oldest segment is evicted, with any pending records.
+ * </p>
+ * <p>
+ *    Records are buffered in the page cache, not the heap. Writes are not forced to disk, so
+ *    records appended just before a system (not process) crash may be lost.
+ * </p>
+ */
+public class ReportSpool implements Closeable {
+
+   /**
+    * The default segment size (16 MB).
+    */
+   public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+   /**
+    * The default maximum number of segments (16).
+    */
+   public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+   /**
+    * Opens a spool, recovering any pending records.
+    * @param dir The directory for segment files. Created if it does not exist.
+    * @param segmentSize The size of each segment in bytes.
+    * @param maxSegments The maximum number of segments.
+    * @throws IOException if the directory or segments could not be opened.
+    */
+   public ReportSpool(final File dir, final int segmentSize, final int maxSegments) throws IOException {
+      if(!dir.exists() && !dir.mkdirs()) {
+         throw new IOException("Unable to create '" + dir.getAbsolutePath() + "'");
+      }
+      this.dir = dir;
+      this.segmentSize = Math.max(segmentSize, 64);
+      this.maxSegments = Math.max(maxSegments, 2);
+
+      File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+      List<File> segmentFiles = files != null ? Lists.newArrayList(files) : Lists.newArrayList();
+      segmentFiles.sort((f1, f2) -> f1.getName().compareTo(f2.getName()));
+      for(File file : segmentFiles) {
+         Segment segment = new Segment(file, sequence(file), Math.max((int)file.length(), this.segmentSize));
+         segment.recover();
+         segments.addLast(segment);
+         pending += segment.pending;
+      }
+
+      if(segments.isEmpty()) {
+         addSegment();
+      }
+   }
+
+   /**
+    * Appends a record.
+    * @param record The record.
+    * @return Was the record appended? <code>false</code> if larger than a segment.
+    * @throws IOException if a new segment could not be created.
+    */
+   public synchronized boolean append(final byte[] record) throws IOException {
+      if(record.length + HEADER_SIZE > segmentSize) {
+         return false;
+      }
+
+      Segment segment = segments.peekLast();
+      if(segment == null) {
+         throw new IOException("The spool is closed");
+      } else if(segment.writePosition + HEADER_SIZE + record.length > segment.capacity) {
+         segment = addSegment();
+      }
+
+      MappedByteBuffer buf = segment.buf;
+      buf.position(segment.writePosition + HEADER_SIZE);
+      buf.put(record);
+      buf.putInt(segment.writePosition, record.length); //Length last, so a partial write is not read...
+      segment.writePosition += HEADER_SIZE + record.length;
+      segment.pending++;
+      pending++;
+      return true;
+   }
+
+   /**
+    * A record read from the spool.
+    */
+   public static final class Record {
+
+      private Record(final byte[] data, final long sequence, final int position) {
+         this.data = data;
+         this.sequence = sequence;
+         this.position = position;
+      }
+
+      /**
+       * Gets the record data.
+       * @return The data.
+       */
+      public byte[] getData() {
+         return data;
+      }
+
+      private final byte[] data;
+
+      /**
+       * The sequence number of the segment that holds the record.
+       */
+      private final long sequence;
+
+      /**
+       * The position of the record in the segment.
+       */
+      private final int position;
+   }
+
+   /**
+    * Gets the oldest pending record without consuming it.
+    * @return The record or <code>null</code> if there are no pending records.
+    */
+   public synchronized Record peek() {
+      Segment segment = readSegment();
+      if(segment != null) {
+         byte[] data = new byte[segment.buf.getInt(segment.readPosition)];
+         MappedByteBuffer buf = segment.buf;
+         buf.position(segment.readPosition + HEADER_SIZE);
+         buf.get(data);
+         return new Record(data, segment.sequence, segment.readPosition);
+      } else {
+         return null;
+      }
+   }
+
+   /**
+    * Consumes a record returned by <code>peek</code>.
+    * <p>
+    *    If the record was evicted after it was read, no other record is consumed.
+    * </p>
+    * @param record The record.
+    * @return Was the record consumed? <code>false</code> if it was evicted or already consumed.
+    */
+   public synchronized boolean remove(final Record record) {
+      Segment segment = readSegment();
+      if(segment != null && segment.sequence == record.sequence && segment.readPosition == record.position) {
+         int length = segment.buf.getInt(segment.readPosition);
+         segment.buf.putInt(segment.readPosition, -length);
+         segment.readPosition += HEADER_SIZE + length;
+         segment.pending--;
+         pending--;
+         return true;
+      } else {
+         return false;
+      }
+   }
+
+   /**
+    * Gets the segment with the oldest pending record at its read position,
+    * skipping consumed records and deleting consumed segments.
+    * @return The segment or <code>null</code> if there are no pending records.
+    */
+   private Segment readSegment() {
+      while(true) {
+         Segment segment = segments.peekFirst();
+         if(segment == null) {
+            return null;
+         }
+
+         int length = segment.readPosition + HEADER_SIZE <= segment.capacity ? segment.buf.getInt(segment.readPosition) : 0;
+         if(length > 0) {
+            return segment;
+         } else if(length < 0) {
+            segment.readPosition += HEADER_SIZE - length; //Consumed before a restart...
+         } else if(segment == segments.peekLast()) {
+            return null;
+         } else {
+            segments.removeFirst().delete();
+         }
+      }
+   }
+
+   /**
+    * Gets the number of pending records.
+    * @return The number of records.
+    */
+   public synchronized long getPending() {
+      return pending;
+   }
+
+   /**
+    * Gets the number of records evicted before they were consumed.
+    * @return The number of records.
+    */
+   public synchronized long getEvicted() {
+      return evicted;
+   }
+
+   /**
+    * Gets the total capacity of all current segments.
+    * @return The size in bytes.
+    */
+   public synchronized long getSize() {
+      long size = 0L;
+      for(Segment segment : segments) {
+         size += segment.capacity;
+      }
+      return size;
+   }
+
+   /**
+    * Releases all segments. Pending records remain in the segment files.
+    */
+   @Override
+   public synchronized void close() {
+      for(Segment segment : segments) {
+         segment.buf.force();
+      }
+      segments.clear();
+   }
+
+   /**
+    * Adds a new segment, evicting the oldest if the maximum is exceeded.
+    * @return The new segment.
+    * @throws IOException if the segment could not be created.
+    */
+   private Segment addSegment() throws IOException {
+      Segment last = segments.peekLast();
+      long sequence = last != null ? last.sequence + 1L : 0L;
+      File file = new File(dir, String.format("%020d", sequence) + SEGMENT_SUFFIX);
+      Segment segment = new Segment(file, sequence, segmentSize);
+      segments.addLast(segment);
+      while(segments.size() > maxSegments) {
+         Segment oldest = segments.removeFirst();
+         evicted += oldest.pending;
+         pending -= oldest.pending;
+         oldest.delete();
+      }
+      return segment;
+   }
+
+   /**
+    * Gets the sequence number from a segment file name.
+    * @param file The file.
+    * @return The sequence number.
+    * @throws IOException if the name is invalid.
+    */
+   private static long sequence(final File file) throws IOException {
+      String name = file.getName();
+      try {
+         return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      } catch(NumberFormatException nfe) {
+         throw new IOException("Invalid segment name '" + name + "'");
+      }
+   }
+
+   /**
+    * A memory-mapped segment file.
+    */
+   private static final class Segment {
+
+      Segment(final File file, final long sequence, final int capacity) throws IOException {
+         this.file = file;
+         this.sequence = sequence;
+         this.capacity = capacity;
+         try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(capacity);
+            this.buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+         }
+      }
+
+      /**
+       * Finds the write position and counts pending records after a restart.
+       */
+      void recover() {
+         int position = 0;
+         while(position + HEADER_SIZE <= capacity) {
+            int length = buf.getInt(position);
+            if(length == 0) {
+               break;
+            } else if(length > 0) {
+               pending++;
+            }
+            position += HEADER_SIZE + Math.abs(length);
+         }
+         writePosition = Math.min(position, capacity);
+      }
+
+      /**
+       * Deletes the segment file. The mapping is released when collected.
+       */
+      void delete() {
+         if(!file.delete()) {
+            file.deleteOnExit();
+         }
+      }
+
+      final File file;
+      final long sequence;
+      final int capacity;
+      final MappedByteBuffer buf;
+      int writePosition;
+      int readPosition;
+      int pending;
+   }
+
+   /**
+    * The size of the record length.
+    */
+   private static final int HEADER_SIZE = 4;
+
+   /**
+    * The suffix for segment files.
+    */
+   private static final String SEGMENT_SUFFIX = ".spool";
+
+   private final File dir;
+   private final int segmentSize;
+   private final int maxSegments;
+   private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+   private long pending;
+   private long evicted;
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.essem;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.RateLimiter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * A local HTTP relay that spools reports before they are sent to the Essem endpoint.
+ * <p>
+ *    The Essem reporter sends reports to the relay, on the loopback interface.
+ *    Each report (the deflated protobuf and the headers required to send it)
+ *    is appended to a {@link ReportSpool} and acknowledged immediately.
+ *    A forwarding thread sends spooled reports to the endpoint, in order, at no more than
+ *    the configured rate. A report is removed from the spool only when the endpoint accepts
+ *    (or permanently rejects) it, so reports collected while the endpoint is unavailable are
+ *    sent when it recovers.
+ * </p>
+ */
+public class SpoolingRelay implements MetricSet {
+
+   /**
+    * The default maximum rate, in reports per second, for sending spooled reports (10).
+    */
+   public static final double DEFAULT_REPLAY_RATE = 10.0;
+
+   /**
+    * Creates a relay.
+    * @param endpoint The Essem endpoint.
+    * @param spool The spool.
+    * @param replayRate The maximum rate, in reports per second, for sending reports.
+    */
+   public SpoolingRelay(final URI endpoint, final ReportSpool spool, final double replayRate) {
+      this.endpoint = endpoint;
+      this.spool = spool;
+      this.rateLimiter = RateLimiter.create(replayRate > 0.0 ? replayRate : DEFAULT_REPLAY_RATE);
+      this.metrics = ImmutableMap.<String, Metric>builder()
+              .put("spooled", spooled)
+              .put("sent", sent)
+              .put("rejected", rejected)
+              .put("send-failures", sendFailures)
+              .put("pending", (Gauge<Long>)spool::getPending)
+              .put("evicted", (Gauge<Long>)spool::getEvicted)
+              .build();
+   }
+
+   /**
+    * Starts the relay.
+    * @return The URI to which reports should be sent.
+    * @throws IOException if the relay could not be started.
+    */
+   public synchronized URI start() throws IOException {
+      if(server == null) {
+         server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+         server.createContext("/", this::receive);
+         server.start();
+         forwarder = new Thread(this::forward, "essem-spool-forwarder");
+         forwarder.setDaemon(true);
+         forwarder.start();
+      }
+      String path = endpoint.getRawPath() != null && !endpoint.getRawPath().isEmpty() ? endpoint.getRawPath() : "/";
+      return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" +
+              server.getAddress().getPort() + path);
+   }
+
+   /**
+    * Stops the relay and closes the spool. Reports not yet sent remain in the spool.
+    */
+   public synchronized void stop() {
+      if(server != null) {
+         server.stop(0);
+         forwarder.interrupt();
+         try {
+            forwarder.join(1000L); //A send in progress may not be interruptible...
+         } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+         }
+         server = null;
+         forwarder = null;
+      }
+      synchronized(spoolLock) {
+         spool.close();
+      }
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Spools a report sent to the relay.
+    * @param exchange The HTTP exchange.
+    * @throws IOException on read or write error.
+    */
+   private void receive(final HttpExchange exchange) throws IOException {
+      try {
+         byte[] body;
+         try(InputStream is = exchange.getRequestBody()) {
+            body = ByteStreams.toByteArray(is);
+         }
+
+         ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 256);
+         DataOutputStream dos = new DataOutputStream(record);
+         int count = 0;
+         for(String header : FORWARDED_HEADERS) {
+            if(exchange.getRequestHeaders().getFirst(header) != null) {
+               count++;
+            }
+         }
+         dos.writeShort(count);
+         for(String header : FORWARDED_HEADERS) {
+            String value = exchange.getRequestHeaders().getFirst(header);
+            if(value != null) {
+               dos.writeUTF(header);
+               dos.writeUTF(value);
+            }
+         }
+         dos.write(body);
+         dos.flush();
+
+         final boolean appended;
+         synchronized(spoolLock) {
+            appended = spool.append(record.toByteArray());
+            spoolLock.notifyAll();
+         }
+
+         if(appended) {
+            spooled.inc();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_ACCEPTED, -1);
+         } else {
+            rejected.inc();
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, -1);
+         }
+      } catch(IOException ioe) {
+         exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAVAILABLE, -1);
+      } finally {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Sends spooled reports until interrupted. Runs on the forwarding thread.
+    */
+   private void forward() {
+      long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+      while(!Thread.currentThread().isInterrupted()) {
+         try {
+            ReportSpool.Record record;
+            synchronized(spoolLock) {
+               while((record = spool.peek()) == null) {
+                  spoolLock.wait();
+               }
+            }
+
+            rateLimiter.acquire();
+            int responseCode = send(record.getData());
+            if(responseCode / 100 == 2) {
+               sent.inc();
+            } else if(responseCode / 100 == 4 && responseCode != 408 && responseCode != 429) {
+               rejected.inc(); //Never accepted, so don't retry...
+            } else {
+               throw new IOException("Server responded with " + responseCode);
+            }
+
+            synchronized(spoolLock) {
+               spool.remove(record); //No-op if evicted while sending...
+            }
+            retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+         } catch(InterruptedException ie) {
+            break;
+         } catch(IOException ioe) {
+            sendFailures.inc();
+            try {
+               Thread.sleep(retryDelayMillis);
+            } catch(InterruptedException ie) {
+               break;
+            }
+            retryDelayMillis = Math.min(retryDelayMillis * 2L, MAX_RETRY_DELAY_MILLIS);
+         }
+      }
+   }
+
+   /**
+    * Sends a spooled report to the endpoint.
+    * @param record The spooled record.
+    * @return The response code.
+    * @throws IOException on send error.
+    */
+   private int send(final byte[] record) throws IOException {
+      DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+      HttpURLConnection conn = (HttpURLConnection)endpoint.toURL().openConnection();
+      try {
+         conn.setRequestMethod("POST");
+         conn.setDoOutput(true);
+         conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+         conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+         int headerCount = dis.readShort();
+         for(int i = 0; i < headerCount; i++) {
+            conn.setRequestProperty(dis.readUTF(), dis.readUTF());
+         }
+         int bodyLength = dis.available();
+         conn.setFixedLengthStreamingMode(bodyLength);
+         try(OutputStream os = conn.getOutputStream()) {
+            ByteStreams.copy(dis, os);
+         }
+         int responseCode = conn.getResponseCode();
+         try(InputStream is = responseCode < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            if(is != null) {
+               ByteStreams.exhaust(is);
+            }
+         }
+         return responseCode;
+      } finally {
+         conn.disconnect();
+      }
+   }
+
+   /**
+    * The request headers stored with each report and sent to the endpoint.
+    */
+   private static final ImmutableList<String> FORWARDED_HEADERS =
+           ImmutableList.of("Content-Type", "Content-Encoding", "Authorization", "Accept", "User-Agent");
+
+   private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+   private static final int READ_TIMEOUT_MILLIS = 30000;
+   private static final long MIN_RETRY_DELAY_MILLIS = 1000L;
+   private static final long MAX_RETRY_DELAY_MILLIS = 60000L;
+
+   private final URI endpoint;
+   private final ReportSpool spool;
+   private final RateLimiter rateLimiter;
+
+   /**
+    * Guards the spool and signals the forwarding thread when a report is added.
+    */
+   private final Object spoolLock = new Object();
+
+   private HttpServer server;
+   private Thread forwarder;
+
+   private final Counter spooled = new Counter();
+   private final Counter sent = new Counter();
+   private final Counter rejected = new Counter();
+   private final Counter sendFailures = new Counter();
+   private final ImmutableMap<String, Metric> metrics;
+}
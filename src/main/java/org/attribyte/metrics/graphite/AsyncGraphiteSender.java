@@ -0,0 +1,396 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends metrics to Graphite (carbon) with the plaintext protocol without
+ * blocking the reporter.
+ * <p>
+ *    Lines are serialized into batches that are added to a bounded queue.
+ *    A dedicated I/O thread drains the queue, connecting as required, and writes
+ *    all queued batches with a single gathering write. If the queue is full, either the oldest
+ *    or the newest batch is dropped. A slow or unavailable relay never delays the next report.
+ * </p>
+ * <p>
+ *    The reporter connects and closes the sender for every report. Closing only queues
+ *    any partial batch, so the I/O thread and its connection outlive each report.
+ *    The I/O thread is stopped by {@link #shutdown()}.
+ * </p>
+ * <p>
+ *    Methods called by the reporter are not thread-safe. Expects to be used by a single reporter.
+ * </p>
+ */
+public class AsyncGraphiteSender implements GraphiteSender, MetricSet {
+
+   /**
+    * Identifies the batch dropped when the queue is full.
+    */
+   public enum DropPolicy {
+
+      /**
+       * Drop the oldest queued batch.
+       */
+      OLDEST,
+
+      /**
+       * Drop the batch being added.
+       */
+      NEWEST
+   }
+
+   /**
+    * The default number of lines in a batch (100).
+    */
+   public static final int DEFAULT_BATCH_SIZE = 100;
+
+   /**
+    * The default maximum number of queued batches (64).
+    */
+   public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+   /**
+    * Creates a sender.
+    * @param hostname The carbon host.
+    * @param port The carbon plaintext port (usually 2003).
+    * @param batchSize The maximum number of lines in a batch.
+    * @param queueCapacity The maximum number of queued batches.
+    * @param dropPolicy The policy for dropping batches when the queue is full.
+    * @param connectTimeoutMillis The connect timeout.
+    */
+   public AsyncGraphiteSender(final String hostname, final int port,
+                              final int batchSize, final int queueCapacity,
+                              final DropPolicy dropPolicy,
+                              final int connectTimeoutMillis) {
+      this.hostname = hostname;
+      this.port = port;
+      this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+      this.queue = new ArrayBlockingQueue<>(queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY);
+      this.dropPolicy = dropPolicy;
+      this.connectTimeoutMillis = connectTimeoutMillis;
+      this.writeBuffers = new ByteBuffer[this.queue.remainingCapacity()];
+      this.metrics = ImmutableMap.of(
+              "queue-depth", (Gauge<Integer>)queuedLines::get,
+              "dropped-lines", droppedLines,
+              "bytes-written", (Gauge<Long>)bytesWritten::get,
+              "connect", connectTimer,
+              "failures", failureCount
+      );
+   }
+
+   /**
+    * Starts the I/O thread, if not started. The connection is made by the I/O thread.
+    * @throws IllegalStateException if the sender is shut down.
+    */
+   @Override
+   public void connect() throws IllegalStateException, IOException {
+      if(isShutdown) {
+         throw new IllegalStateException("The sender is shut down");
+      }
+      synchronized(this) {
+         if(ioThread == null) {
+            ioThread = new Thread(this::drain, "graphite-sender-" + hostname + ":" + port);
+            ioThread.setDaemon(true);
+            ioThread.start();
+         }
+      }
+   }
+
+   /**
+    * Is the sender accepting lines?
+    * @return Has the I/O thread been started?
+    */
+   @Override
+   public boolean isConnected() {
+      return ioThread != null && !isShutdown;
+   }
+
+   @Override
+   public void send(final String name, final String value, final long timestamp) throws IOException {
+      boolean lastWasWhitespace = false;
+      for(int i = 0; i < name.length(); i++) {
+         char ch = name.charAt(i);
+         if(Character.isWhitespace(ch)) {
+            if(!lastWasWhitespace) {
+               line.append('-');
+            }
+            lastWasWhitespace = true;
+         } else {
+            line.append(ch);
+            lastWasWhitespace = false;
+         }
+      }
+      line.append(' ').append(value).append(' ').append(timestamp).append('\n');
+      if(++lineCount >= batchSize) {
+         enqueue();
+      }
+   }
+
+   @Override
+   public void flush() throws IOException {
+      if(lineCount > 0) {
+         enqueue();
+      }
+   }
+
+   @Override
+   public int getFailures() {
+      return (int)failureCount.getCount();
+   }
+
+   /**
+    * Called by the reporter at the end of each report. Queues any partial batch.
+    * The I/O thread continues to send queued batches.
+    */
+   @Override
+   public void close() throws IOException {
+      flush();
+   }
+
+   /**
+    * Stops the I/O thread and closes the connection.
+    * Queued batches, and any partial batch, are discarded and counted as dropped.
+    */
+   public void shutdown() {
+      isShutdown = true;
+      Thread ioThread;
+      synchronized(this) {
+         ioThread = this.ioThread;
+         this.ioThread = null;
+      }
+      if(ioThread != null) {
+         ioThread.interrupt();
+         try {
+            ioThread.join(connectTimeoutMillis + 1000L);
+         } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      Batch batch;
+      while((batch = queue.poll()) != null) {
+         dropped(batch);
+      }
+      if(lineCount > 0) {
+         droppedLines.inc(lineCount);
+         line.setLength(0);
+         lineCount = 0;
+      }
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Adds the current batch to the queue, applying the drop policy if the queue is full.
+    */
+   private void enqueue() {
+      Batch batch = new Batch(ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8)), lineCount);
+      line.setLength(0);
+      lineCount = 0;
+
+      queuedLines.addAndGet(batch.lines);
+      if(dropPolicy == DropPolicy.NEWEST) {
+         if(!queue.offer(batch)) {
+            dropped(batch);
+         }
+      } else {
+         while(!queue.offer(batch)) {
+            Batch oldest = queue.poll();
+            if(oldest != null) {
+               dropped(oldest);
+            }
+         }
+      }
+   }
+
+   /**
+    * Records a dropped batch.
+    * @param batch The batch.
+    */
+   private void dropped(final Batch batch) {
+      queuedLines.addAndGet(-batch.lines);
+      droppedLines.inc(batch.lines);
+   }
+
+   /**
+    * Drains the queue until shut down. Runs on the I/O thread.
+    */
+   private void drain() {
+      SocketChannel channel = null;
+      long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+      Batch[] batches = new Batch[writeBuffers.length];
+      while(!isShutdown) {
+         int count = 0;
+         try {
+            Batch first = queue.take();
+            batches[count++] = first;
+            while(count < batches.length) {
+               Batch next = queue.poll();
+               if(next == null) {
+                  break;
+               }
+               batches[count++] = next;
+            }
+
+            if(channel == null) {
+               channel = connect(channel);
+            }
+
+            for(int i = 0; i < count; i++) {
+               writeBuffers[i] = batches[i].data;
+            }
+            while(batches[count - 1].data.hasRemaining()) {
+               bytesWritten.addAndGet(channel.write(writeBuffers, 0, count));
+            }
+            retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+         } catch(InterruptedException ie) {
+            break;
+         } catch(IOException ioe) {
+            for(int i = 0; i < count; i++) {
+               droppedLines.inc(batches[i].lines);
+            }
+            if(isShutdown) {
+               break; //Interrupted by shutdown...
+            }
+            failureCount.inc();
+            channel = close(channel);
+            try {
+               Thread.sleep(retryDelayMillis);
+            } catch(InterruptedException ie) {
+               break;
+            }
+            retryDelayMillis = Math.min(retryDelayMillis * 2L, MAX_RETRY_DELAY_MILLIS);
+         } finally {
+            for(int i = 0; i < count; i++) {
+               queuedLines.addAndGet(-batches[i].lines);
+               batches[i] = null;
+               writeBuffers[i] = null;
+            }
+         }
+      }
+      close(channel);
+   }
+
+   /**
+    * Opens a connection, timing the connect.
+    * @param channel The current channel, if any.
+    * @return The connected channel.
+    * @throws IOException on connect error.
+    */
+   private SocketChannel connect(final SocketChannel channel) throws IOException {
+      close(channel);
+      //Resolve the address on every connect so a changed address is picked up...
+      InetSocketAddress address = new InetSocketAddress(hostname, port);
+      if(address.isUnresolved()) {
+         throw new IOException("Unable to resolve '" + hostname + "'");
+      }
+      final Timer.Context ctx = connectTimer.time();
+      SocketChannel newChannel = SocketChannel.open();
+      try {
+         newChannel.socket().connect(address, connectTimeoutMillis);
+         return newChannel;
+      } catch(IOException ioe) {
+         close(newChannel);
+         throw ioe;
+      } finally {
+         ctx.stop();
+      }
+   }
+
+   /**
+    * Closes a channel, ignoring errors.
+    * @param channel The channel. May be <code>null</code>.
+    * @return <code>null</code>.
+    */
+   private static SocketChannel close(final SocketChannel channel) {
+      if(channel != null) {
+         try {
+            channel.close();
+         } catch(IOException ioe) {
+            //Ignore...
+         }
+      }
+      return null;
+   }
+
+   /**
+    * A serialized batch of lines.
+    */
+   private static final class Batch {
+
+      Batch(final ByteBuffer data, final int lines) {
+         this.data = data;
+         this.lines = lines;
+      }
+
+      final ByteBuffer data;
+      final int lines;
+   }
+
+   private static final long MIN_RETRY_DELAY_MILLIS = 250L;
+   private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+
+   private final String hostname;
+   private final int port;
+   private final int batchSize;
+   private final DropPolicy dropPolicy;
+   private final int connectTimeoutMillis;
+
+   /**
+    * The queued batches.
+    */
+   private final ArrayBlockingQueue<Batch> queue;
+
+   /**
+    * Buffers for the gathering write. Used only by the I/O thread.
+    */
+   private final ByteBuffer[] writeBuffers;
+
+   /**
+    * The batch being serialized. Used only by the reporter.
+    */
+   private final StringBuilder line = new StringBuilder(8192);
+   private int lineCount;
+
+   private volatile Thread ioThread;
+   private volatile boolean isShutdown;
+
+   private final AtomicInteger queuedLines = new AtomicInteger();
+   private final AtomicLong bytesWritten = new AtomicLong();
+   private final Counter droppedLines = new Counter();
+   private final Counter failureCount = new Counter();
+   private final Timer connectTimer = new Timer();
+   private final ImmutableMap<String, Metric> metrics;
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.graphite.GraphiteSender;
+import org.attribyte.metrics.RegistrySnapshot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes metrics as Graphite lines, named and formatted like the Dropwizard Graphite reporter.
+ * <p>
+ *    Used by the scheduled reporter and to encode chunks of a snapshot in parallel, so both
+ *    send identical lines. Thread-safe.
+ * </p>
+ */
+final class GraphiteLines {
+
+   /**
+    * Creates lines.
+    * @param prefix The prefix added to every name. May be <code>null</code>.
+    * @param rateUnit The rate unit.
+    * @param durationUnit The duration unit.
+    */
+   GraphiteLines(final String prefix, final TimeUnit rateUnit, final TimeUnit durationUnit) {
+      this.prefix = prefix;
+      this.rateFactor = rateUnit.toSeconds(1L);
+      this.durationFactor = 1.0 / durationUnit.toNanos(1L);
+   }
+
+   /**
+    * Encodes all metrics in a snapshot.
+    * @param snapshot The snapshot.
+    * @param timestamp The timestamp, in seconds, sent with every line.
+    * @param sender The sender.
+    * @throws IOException on send error.
+    */
+   void encode(final RegistrySnapshot snapshot, final long timestamp, final GraphiteSender sender) throws IOException {
+      encode(snapshot.getGauges(), snapshot.getCounters(), snapshot.getHistograms(),
+              snapshot.getMeters(), snapshot.getTimers(), timestamp, sender);
+   }
+
+   /**
+    * Encodes metrics.
+    * @param gauges The gauges.
+    * @param counters The counters.
+    * @param histograms The histograms.
+    * @param meters The meters.
+    * @param timers The timers.
+    * @param timestamp The timestamp, in seconds, sent with every line.
+    * @param sender The sender.
+    * @throws IOException on send error.
+    */
+   void encode(final SortedMap<String, Gauge> gauges,
+               final SortedMap<String, Counter> counters,
+               final SortedMap<String, Histogram> histograms,
+               final SortedMap<String, Meter> meters,
+               final SortedMap<String, Timer> timers,
+               final long timestamp, final GraphiteSender sender) throws IOException {
+
+      for(Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+         String value = format(gauge.getValue().getValue());
+         if(value != null) {
+            sender.send(MetricRegistry.name(prefix, gauge.getKey()), value, timestamp);
+         }
+      }
+
+      for(Map.Entry<String, Counter> counter : counters.entrySet()) {
+         send(counter.getKey(), MetricAttribute.COUNT, counter.getValue().getCount(), timestamp, sender);
+      }
+
+      for(Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+         String name = entry.getKey();
+         Histogram histogram = entry.getValue();
+         Snapshot snapshot = histogram.getSnapshot();
+         send(name, MetricAttribute.COUNT, histogram.getCount(), timestamp, sender);
+         send(name, MetricAttribute.MAX, snapshot.getMax(), timestamp, sender);
+         send(name, MetricAttribute.MEAN, snapshot.getMean(), timestamp, sender);
+         send(name, MetricAttribute.MIN, snapshot.getMin(), timestamp, sender);
+         send(name, MetricAttribute.STDDEV, snapshot.getStdDev(), timestamp, sender);
+         send(name, MetricAttribute.P50, snapshot.getMedian(), timestamp, sender);
+         send(name, MetricAttribute.P75, snapshot.get75thPercentile(), timestamp, sender);
+         send(name, MetricAttribute.P95, snapshot.get95thPercentile(), timestamp, sender);
+         send(name, MetricAttribute.P98, snapshot.get98thPercentile(), timestamp, sender);
+         send(name, MetricAttribute.P99, snapshot.get99thPercentile(), timestamp, sender);
+         send(name, MetricAttribute.P999, snapshot.get999thPercentile(), timestamp, sender);
+      }
+
+      for(Map.Entry<String, Meter> meter : meters.entrySet()) {
+         sendMetered(meter.getKey(), meter.getValue(), timestamp, sender);
+      }
+
+      for(Map.Entry<String, Timer> entry : timers.entrySet()) {
+         String name = entry.getKey();
+         Timer timer = entry.getValue();
+         Snapshot snapshot = timer.getSnapshot();
+         send(name, MetricAttribute.MAX, snapshot.getMax() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.MEAN, snapshot.getMean() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.MIN, snapshot.getMin() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.STDDEV, snapshot.getStdDev() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P50, snapshot.getMedian() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P75, snapshot.get75thPercentile() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P95, snapshot.get95thPercentile() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P98, snapshot.get98thPercentile() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P99, snapshot.get99thPercentile() * durationFactor, timestamp, sender);
+         send(name, MetricAttribute.P999, snapshot.get999thPercentile() * durationFactor, timestamp, sender);
+         sendMetered(name, timer, timestamp, sender);
+      }
+   }
+
+   /**
+    * Sends the count and rates of a metered metric.
+    */
+   private void sendMetered(final String name, final Metered metered,
+                            final long timestamp, final GraphiteSender sender) throws IOException {
+      send(name, MetricAttribute.COUNT, metered.getCount(), timestamp, sender);
+      send(name, MetricAttribute.M1_RATE, metered.getOneMinuteRate() * rateFactor, timestamp, sender);
+      send(name, MetricAttribute.M5_RATE, metered.getFiveMinuteRate() * rateFactor, timestamp, sender);
+      send(name, MetricAttribute.M15_RATE, metered.getFifteenMinuteRate() * rateFactor, timestamp, sender);
+      send(name, MetricAttribute.MEAN_RATE, metered.getMeanRate() * rateFactor, timestamp, sender);
+   }
+
+   private void send(final String name, final MetricAttribute attribute, final long value,
+                     final long timestamp, final GraphiteSender sender) throws IOException {
+      sender.send(MetricRegistry.name(prefix, name, attribute.getCode()), Long.toString(value), timestamp);
+   }
+
+   private void send(final String name, final MetricAttribute attribute, final double value,
+                     final long timestamp, final GraphiteSender sender) throws IOException {
+      sender.send(MetricRegistry.name(prefix, name, attribute.getCode()), format(value), timestamp);
+   }
+
+   /**
+    * Formats a gauge value.
+    * @param value The value.
+    * @return The formatted value or <code>null</code> if the value is not numeric.
+    */
+   static String format(final Object value) {
+      if(value instanceof Float || value instanceof Double || value instanceof BigInteger || value instanceof BigDecimal) {
+         return format(((Number)value).doubleValue());
+      } else if(value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+         return Long.toString(((Number)value).longValue());
+      } else if(value instanceof Boolean) {
+         return (Boolean)value ? "1" : "0";
+      } else {
+         return null;
+      }
+   }
+
+   /**
+    * Formats a value with two decimal places.
+    * @param value The value.
+    * @return The formatted value.
+    */
+   static String format(final double value) {
+      return String.format(Locale.US, "%2.2f", value);
+   }
+
+   /**
+    * The prefix added to every name. May be <code>null</code>.
+    */
+   private final String prefix;
+
+   /**
+    * Converts rates (per second) to the rate unit.
+    */
+   private final long rateFactor;
+
+   /**
+    * Converts durations (nanoseconds) to the duration unit.
+    */
+   private final double durationFactor;
+}
@@ -15,25 +15,39 @@
 
 package org.attribyte.metrics.graphite;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
 import com.codahale.metrics.graphite.Graphite;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.codahale.metrics.graphite.GraphiteUDP;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import org.attribyte.api.InitializationException;
-import org.attribyte.metrics.Reporter;
+import org.attribyte.metrics.ParallelEncoder;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.SnapshotReporter;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.SortedMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.attribyte.metrics.ReporterBase;
 import org.attribyte.util.InitUtil;
 
-public class GraphiteReporter extends ReporterBase implements Reporter {
+public class GraphiteReporter extends ReporterBase implements SnapshotReporter {
 
    /**
     * The graphite host ('graphite.host').
@@ -52,6 +66,48 @@ public class GraphiteReporter extends ReporterBase implements Reporter {
     */
    public static final String PORT_PROPERTY = "port";
 
+   /**
+    * The protocol used to send metrics ('protocol'): 'plaintext', 'pickle' or 'udp'.
+    * If unspecified, 'plaintext' is used. The default port for 'pickle' is '2004'.
+    */
+   public static final String PROTOCOL_PROPERTY = "protocol";
+
+   /**
+    * The maximum number of metrics sent in a single pickle or asynchronous batch ('batchSize').
+    * If unspecified, '100' is used.
+    */
+   public static final String BATCH_SIZE_PROPERTY = "batchSize";
+
+   /**
+    * The initial size, in bytes, of the pickle encoding buffer ('bufferSize').
+    * If unspecified, '65536' is used.
+    */
+   public static final String BUFFER_SIZE_PROPERTY = "bufferSize";
+
+   /**
+    * If 'true', plaintext metrics are queued and sent by a dedicated I/O thread ('async').
+    * The reporter never waits for the connection. If unspecified, 'false'.
+    */
+   public static final String ASYNC_PROPERTY = "async";
+
+   /**
+    * The maximum number of batches queued by the asynchronous sender ('queueCapacity').
+    * If unspecified, '64' is used.
+    */
+   public static final String QUEUE_CAPACITY_PROPERTY = "queueCapacity";
+
+   /**
+    * The batch dropped by the asynchronous sender when its queue is full ('dropPolicy'): 'oldest' or 'newest'.
+    * If unspecified, 'oldest' is used.
+    */
+   public static final String DROP_POLICY_PROPERTY = "dropPolicy";
+
+   /**
+    * The connect timeout for the asynchronous sender ('connectTimeout').
+    * If unspecified, '5s' is used.
+    */
+   public static final String CONNECT_TIMEOUT_PROPERTY = "connectTimeout";
+
    @Override
    public void init(final String name,
                     final Properties _props,
@@ -62,26 +118,53 @@ public class GraphiteReporter extends ReporterBase implements Reporter {
          if(graphiteHost.isEmpty()) {
             init.throwRequiredException(HOST_PROPERTY);
          }
-         int graphitePort = init.getIntProperty(PORT_PROPERTY, 2003);
+         String protocol = init.getProperty(PROTOCOL_PROPERTY, "plaintext").trim().toLowerCase();
+         int graphitePort = init.getIntProperty(PORT_PROPERTY, protocol.equals("pickle") ? 2004 : 2003);
 
          String graphitePrefix = init.getProperty(PREFIX_PROPERTY, getHostname()).trim();
-         com.codahale.metrics.graphite.GraphiteReporter.Builder builder =
-                 com.codahale.metrics.graphite.GraphiteReporter
-                         .forRegistry(registry)
-                         .convertDurationsTo(TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase()))
-                         .convertRatesTo(TimeUnit.valueOf(init.getProperty(RATE_UNIT_PROPERTY, "SECONDS").toUpperCase()));
-
-         if(filter != null) {
-            builder.filter(filter);
-         }
+         TimeUnit durationUnit = TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase());
+         TimeUnit rateUnit = TimeUnit.valueOf(init.getProperty(RATE_UNIT_PROPERTY, "SECONDS").toUpperCase());
+         MetricFilter reportFilter = skipUnchanged(filter);
 
-         if(!Strings.isNullOrEmpty(graphitePrefix)) {
-            builder.prefixedWith(graphitePrefix);
+         final boolean async = init.getProperty(ASYNC_PROPERTY, "false").trim().equalsIgnoreCase("true");
+         if(async && !protocol.equals("plaintext")) {
+            throw new InitializationException("The 'async' sender requires the 'plaintext' protocol");
          }
 
-         InetSocketAddress addy = new InetSocketAddress(graphiteHost.trim(), graphitePort);
-         Graphite graphite = new Graphite(addy);
-         reporter = builder.build(graphite);
+         final GraphiteSender sender;
+         switch(protocol) {
+            case "plaintext":
+               if(async) {
+                  final AsyncGraphiteSender.DropPolicy dropPolicy;
+                  try {
+                     dropPolicy = AsyncGraphiteSender.DropPolicy.valueOf(init.getProperty(DROP_POLICY_PROPERTY, "oldest").trim().toUpperCase());
+                  } catch(IllegalArgumentException iae) {
+                     throw new InitializationException("The 'dropPolicy' must be 'oldest' or 'newest'");
+                  }
+                  asyncSender = new AsyncGraphiteSender(graphiteHost.trim(), graphitePort,
+                          init.getIntProperty(BATCH_SIZE_PROPERTY, AsyncGraphiteSender.DEFAULT_BATCH_SIZE),
+                          init.getIntProperty(QUEUE_CAPACITY_PROPERTY, AsyncGraphiteSender.DEFAULT_QUEUE_CAPACITY),
+                          dropPolicy,
+                          (int)InitUtil.millisFromTime(init.getProperty(CONNECT_TIMEOUT_PROPERTY, "5s")));
+                  sender = asyncSender;
+               } else {
+                  sender = new Graphite(new InetSocketAddress(graphiteHost.trim(), graphitePort));
+               }
+               break;
+            case "pickle":
+               sender = new PickleSender(graphiteHost.trim(), graphitePort,
+                       init.getIntProperty(BATCH_SIZE_PROPERTY, PickleSender.DEFAULT_BATCH_SIZE),
+                       init.getIntProperty(BUFFER_SIZE_PROPERTY, PickleSender.DEFAULT_BUFFER_SIZE));
+               break;
+            case "udp":
+               sender = new GraphiteUDP(new InetSocketAddress(graphiteHost.trim(), graphitePort));
+               break;
+            default:
+               throw new InitializationException("The 'protocol' must be 'plaintext', 'pickle' or 'udp'");
+         }
+         this.sender = sender;
+         this.lines = new GraphiteLines(Strings.emptyToNull(graphitePrefix), rateUnit, durationUnit);
+         this.reporter = new LineReporter(registry, reportFilter != null ? reportFilter : MetricFilter.ALL, rateUnit, durationUnit);
          frequencyMillis = InitUtil.millisFromTime(init.getProperty(FREQUENCY_PROPERTY, "1m"));
       }
    }
@@ -101,14 +184,204 @@ public class GraphiteReporter extends ReporterBase implements Reporter {
       if(isRunning.compareAndSet(true, false)) {
          this.reporter.stop();
       }
+      shutdownEncoder();
+      if(asyncSender != null) {
+         asyncSender.shutdown();
+      }
+   }
+
+   @Override
+   public long getFrequencyMillis() {
+      return frequencyMillis;
+   }
+
+   @Override
+   public void report(final RegistrySnapshot snapshot) {
+      final RegistrySnapshot reported = skipUnchanged(rollup(snapshot));
+      final ParallelEncoder encoder = this.encoder;
+      if(encoder == null || reported.size() <= encoder.getChunkSize()) {
+         reported.report(reporter);
+      } else {
+         final long reportTimeMillis = System.currentTimeMillis();
+         send(encoder.encode(reported, chunk -> encode(chunk, reportTimeMillis)));
+      }
+   }
+
+   /**
+    * Encodes a chunk of a snapshot into a buffer, instead of the sender.
+    * @param chunk The chunk.
+    * @param reportTimeMillis The report time, shared by all chunks.
+    * @return The buffered lines.
+    */
+   private BufferedChunk encode(final RegistrySnapshot chunk, final long reportTimeMillis) {
+      final BufferedChunk buffer = new BufferedChunk();
+      try {
+         lines.encode(chunk, reportTimeMillis / 1000L, buffer);
+      } catch(IOException ioe) {
+         //Never thrown by the buffer...
+      }
+      return buffer;
+   }
+
+   /**
+    * Sends encoded chunks, in order.
+    * @param chunks The chunks.
+    */
+   private void send(final List<BufferedChunk> chunks) {
+      send(graphite -> {
+         for(BufferedChunk chunk : chunks) {
+            chunk.sendTo(graphite);
+         }
+      });
+   }
+
+   /**
+    * Writes lines to a connected sender.
+    */
+   private interface LineWriter {
+
+      /**
+       * Writes lines.
+       * @param sender The sender.
+       * @throws IOException on send error.
+       */
+      void writeTo(GraphiteSender sender) throws IOException;
+   }
+
+   /**
+    * Sends lines.
+    * <p>
+    *    The sender is connected for, and closed after, each report.
+    *    Reports that fail to send are counted.
+    * </p>
+    * @param writer Writes the lines.
+    */
+   private void send(final LineWriter writer) {
+      synchronized(sender) {
+         try {
+            if(!sender.isConnected()) {
+               sender.connect();
+            }
+            writer.writeTo(sender);
+            sender.flush();
+         } catch(IOException ioe) {
+            sendFailures.inc();
+         } finally {
+            try {
+               sender.close();
+            } catch(IOException ioe) {
+               //Ignore...
+            }
+         }
+      }
+   }
+
+   /**
+    * A scheduled reporter that sends the registry with the same lines as encoded chunks.
+    */
+   private final class LineReporter extends ScheduledReporter {
+
+      LineReporter(final MetricRegistry registry, final MetricFilter filter,
+                   final TimeUnit rateUnit, final TimeUnit durationUnit) {
+         super(registry, "graphite-reporter", filter, rateUnit, durationUnit);
+      }
+
+      @Override
+      public void report(final SortedMap<String, Gauge> gauges,
+                         final SortedMap<String, Counter> counters,
+                         final SortedMap<String, Histogram> histograms,
+                         final SortedMap<String, Meter> meters,
+                         final SortedMap<String, Timer> timers) {
+         final long timestamp = System.currentTimeMillis() / 1000L;
+         send(graphite -> lines.encode(gauges, counters, histograms, meters, timers, timestamp, graphite));
+      }
+   }
+
+   /**
+    * A sender that buffers lines encoded for a chunk.
+    * <p>
+    *    Every line has the same timestamp, the report time.
+    * </p>
+    */
+   private static final class BufferedChunk implements GraphiteSender {
+
+      @Override
+      public void connect() {
+      }
+
+      @Override
+      public void send(final String name, final String value, final long timestamp) {
+         names.add(name);
+         values.add(value);
+         this.timestamp = timestamp;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public boolean isConnected() {
+         return true;
+      }
+
+      @Override
+      public int getFailures() {
+         return 0;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      /**
+       * Sends all buffered lines.
+       * @param sender The sender.
+       * @throws IOException on send error.
+       */
+      void sendTo(final GraphiteSender sender) throws IOException {
+         for(int i = 0; i < names.size(); i++) {
+            sender.send(names.get(i), values.get(i), timestamp);
+         }
+      }
+
+      private final List<String> names = new ArrayList<>();
+      private final List<String> values = new ArrayList<>();
+      private long timestamp;
    }
 
    @Override
    public Map<String, Metric> getMetrics() {
-      return ImmutableMap.of();
+      if(asyncSender == null) {
+         return ImmutableMap.of("send-failures", sendFailures);
+      }
+      return ImmutableMap.<String, Metric>builder()
+              .putAll(asyncSender.getMetrics())
+              .put("send-failures", sendFailures)
+              .build();
    }
 
-   private com.codahale.metrics.graphite.GraphiteReporter reporter;
+   /**
+    * The asynchronous sender, if configured.
+    */
+   private AsyncGraphiteSender asyncSender;
+
+   private LineReporter reporter;
+
+   /**
+    * The sender used by the reporter.
+    */
+   private GraphiteSender sender;
+
+   /**
+    * Encodes lines for the reporter and for chunks encoded in parallel.
+    */
+   private GraphiteLines lines;
+
+   /**
+    * Counts reports that failed to send.
+    */
+   private final Counter sendFailures = new Counter();
    private long frequencyMillis;
    private final AtomicBoolean isRunning = new AtomicBoolean(false);
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends metrics to Graphite (carbon) with the pickle protocol.
+ * <p>
+ *    Metrics are encoded directly into a reusable direct buffer. When a batch
+ *    is complete, the length header and the batch are sent with a single gathering write.
+ * </p>
+ * <p>
+ *    Not thread-safe. Expects to be used by a single reporter.
+ * </p>
+ */
+public class PickleSender implements GraphiteSender {
+
+   /**
+    * The default number of metrics sent in a batch (100).
+    */
+   public static final int DEFAULT_BATCH_SIZE = 100;
+
+   /**
+    * The default initial size of the encoding buffer (64k).
+    */
+   public static final int DEFAULT_BUFFER_SIZE = 65536;
+
+   /**
+    * Creates a sender.
+    * @param hostname The carbon host.
+    * @param port The carbon pickle port (usually 2004).
+    * @param batchSize The maximum number of metrics sent in a batch.
+    * @param bufferSize The initial encoding buffer size.
+    */
+   public PickleSender(final String hostname, final int port, final int batchSize, final int bufferSize) {
+      this.hostname = hostname;
+      this.port = port;
+      this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+      this.buffers[0] = ByteBuffer.allocateDirect(4);
+      this.buffers[1] = ByteBuffer.allocateDirect(bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE);
+      startBatch();
+   }
+
+   @Override
+   public void connect() throws IllegalStateException, IOException {
+      if(isConnected()) {
+         throw new IllegalStateException("Already connected");
+      }
+      //Resolve the address on every connect so a changed address is picked up...
+      InetSocketAddress address = new InetSocketAddress(hostname, port);
+      if(address.isUnresolved()) {
+         throw new IOException("Unable to resolve '" + hostname + "'");
+      }
+      channel = SocketChannel.open(address);
+   }
+
+   @Override
+   public boolean isConnected() {
+      return channel != null && channel.isConnected();
+   }
+
+   @Override
+   public void send(final String name, final String value, final long timestamp) throws IOException {
+      int maxLength = (name.length() + value.length()) * 3 + 48;
+      ByteBuffer payload = buffers[1];
+      if(payload.remaining() < maxLength + 1) {
+         if(batchCount > 0) {
+            writeBatch();
+            payload = buffers[1];
+         }
+         if(payload.remaining() < maxLength + 1) {
+            payload = ByteBuffer.allocateDirect(payload.capacity() + maxLength * 2);
+            buffers[1] = payload;
+            startBatch();
+         }
+      }
+
+      payload.put(MARK);
+      payload.put(STRING);
+      payload.put(QUOTE);
+      putString(payload, name, true);
+      payload.put(QUOTE);
+      payload.put(LF);
+      payload.put(MARK);
+      payload.put(LONG);
+      putString(payload, Long.toString(timestamp), false);
+      payload.put(LONG);
+      payload.put(LF);
+      payload.put(STRING);
+      payload.put(QUOTE);
+      putString(payload, value, false);
+      payload.put(QUOTE);
+      payload.put(LF);
+      payload.put(TUPLE);
+      payload.put(TUPLE);
+      payload.put(APPEND);
+
+      if(++batchCount >= batchSize) {
+         writeBatch();
+      }
+   }
+
+   @Override
+   public void flush() throws IOException {
+      if(batchCount > 0) {
+         writeBatch();
+      }
+   }
+
+   @Override
+   public int getFailures() {
+      return failures;
+   }
+
+   @Override
+   public void close() throws IOException {
+      startBatch();
+      if(channel != null) {
+         try {
+            channel.close();
+         } finally {
+            channel = null;
+         }
+      }
+   }
+
+   /**
+    * Writes the header and the current batch with a single gathering write, then starts a new batch.
+    * @throws IOException on write error.
+    */
+   private void writeBatch() throws IOException {
+      if(channel == null) {
+         throw new IOException("Not connected");
+      }
+
+      ByteBuffer header = buffers[0];
+      ByteBuffer payload = buffers[1];
+      payload.put(STOP);
+      payload.flip();
+      header.clear();
+      header.putInt(payload.remaining());
+      header.flip();
+
+      try {
+         while(payload.hasRemaining()) {
+            channel.write(buffers);
+         }
+         bytesWritten += header.limit() + payload.limit();
+      } catch(IOException ioe) {
+         failures++;
+         throw ioe;
+      } finally {
+         startBatch();
+      }
+   }
+
+   /**
+    * Clears the buffer and starts a new batch.
+    */
+   private void startBatch() {
+      ByteBuffer payload = buffers[1];
+      payload.clear();
+      payload.put(MARK);
+      payload.put(LIST);
+      batchCount = 0;
+   }
+
+   /**
+    * Puts a string into a buffer, escaped for a pickle string.
+    * @param buf The buffer.
+    * @param str The string.
+    * @param sanitize Should whitespace be replaced with '-', as the plaintext sender does?
+    */
+   private static void putString(final ByteBuffer buf, final String str, final boolean sanitize) {
+      boolean lastWasWhitespace = false;
+      for(int i = 0; i < str.length(); i++) {
+         char ch = str.charAt(i);
+         if(sanitize && Character.isWhitespace(ch)) {
+            if(!lastWasWhitespace) {
+               buf.put((byte)'-');
+            }
+            lastWasWhitespace = true;
+            continue;
+         }
+         lastWasWhitespace = false;
+         if(ch == '\'' || ch == '\\') {
+            buf.put((byte)'\\');
+            buf.put((byte)ch);
+         } else if(ch < 0x80) {
+            buf.put((byte)ch);
+         } else {
+            int codePoint = str.codePointAt(i);
+            buf.put(new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8));
+            i += Character.charCount(codePoint) - 1;
+         }
+      }
+   }
+
+   /**
+    * Gets the total number of bytes written.
+    * @return The number of bytes.
+    */
+   public long getBytesWritten() {
+      return bytesWritten;
+   }
+
+   private static final byte MARK = '(';
+   private static final byte STOP = '.';
+   private static final byte LONG = 'L';
+   private static final byte STRING = 'S';
+   private static final byte APPEND = 'a';
+   private static final byte LIST = 'l';
+   private static final byte TUPLE = 't';
+   private static final byte QUOTE = '\'';
+   private static final byte LF = '\n';
+
+   private final String hostname;
+   private final int port;
+   private final int batchSize;
+
+   /**
+    * The length header and the encoded batch.
+    */
+   private final ByteBuffer[] buffers = new ByteBuffer[2];
+
+   private SocketChannel channel;
+   private int batchCount;
+   private int failures;
+   private long bytesWritten;
+}
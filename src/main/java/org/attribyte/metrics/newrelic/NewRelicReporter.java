@@ -19,12 +19,12 @@ import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import org.attribyte.api.InitializationException;
-import org.attribyte.metrics.MetricField;
-import org.attribyte.metrics.Reporter;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.ReportedFields;
 import org.attribyte.metrics.ReporterBase;
+import org.attribyte.metrics.SnapshotReporter;
 import org.attribyte.util.InitUtil;
 
-import java.util.EnumSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.TimeUnit;
@@ -33,7 +33,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /**
  * Reports metrics to New Relic as custom metrics.
  */
-public class NewRelicReporter extends ReporterBase implements Reporter {
+public class NewRelicReporter extends ReporterBase implements SnapshotReporter {
 
    public static final String REPORT_PREFIX = "report.";
 
@@ -44,7 +44,7 @@ public class NewRelicReporter extends ReporterBase implements Reporter {
          final Properties kvProps = new InitUtil(REPORT_PREFIX, _props, false).getProperties();
          for(Object objKey : kvProps.keySet()) {
             String key = objKey.toString();
-            EnumSet<MetricField> fields = MetricField.setFromString(kvProps.getProperty(key));
+            ReportedFields fields = ReportedFields.fromString(kvProps.getProperty(key));
             if(!fields.isEmpty()) {
                builder.addReportedMetric(key, fields);
             }
@@ -52,8 +52,9 @@ public class NewRelicReporter extends ReporterBase implements Reporter {
          builder.setCategory(init.getProperty("category", "custom"));
          builder.convertDurationsTo(TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase()));
          builder.convertRatesTo(TimeUnit.valueOf(init.getProperty(RATE_UNIT_PROPERTY, "SECONDS").toUpperCase()));
-         if(filter != null) {
-            builder.filter(filter);
+         MetricFilter reportFilter = skipUnchanged(filter);
+         if(reportFilter != null) {
+            builder.filter(reportFilter);
          }
          reporter = builder.build();
          frequencyMillis = InitUtil.millisFromTime(init.getProperty(FREQUENCY_PROPERTY, "1m"));
@@ -72,16 +73,35 @@ public class NewRelicReporter extends ReporterBase implements Reporter {
 
    @Override
    public void stop() {
-      if(isRunning.compareAndSet(true, false)) {
-         reporter.stop();
+      isRunning.set(false);
+      if(reporter != null) {
+         reporter.stop(); //Removes the registry listener, even if reports were scheduled by reporting...
       }
    }
 
+   @Override
+   public long getFrequencyMillis() {
+      return frequencyMillis;
+   }
+
+   @Override
+   public void report(final RegistrySnapshot snapshot) {
+      skipUnchanged(rollup(snapshot)).report(reporter);
+   }
+
    @Override
    public Map<String, Metric> getMetrics() {
       return reporter.getMetrics();
    }
 
+   /**
+    * Gets the reporter that sends metrics to New Relic.
+    * @return The reporter.
+    */
+   ScheduledNewRelicReporter getReporter() {
+      return reporter;
+   }
+
    private ScheduledNewRelicReporter reporter;
    private long frequencyMillis;
    private final AtomicBoolean isRunning = new AtomicBoolean(false);
@@ -23,23 +23,39 @@ import com.codahale.metrics.Metered;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
 import com.codahale.metrics.MetricSet;
 import com.codahale.metrics.Sampling;
 import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.newrelic.api.agent.NewRelic;
 import org.attribyte.metrics.MetricField;
+import org.attribyte.metrics.NameTable;
+import org.attribyte.metrics.ReportedFields;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A scheduled metric reporter that reports to New Relic.
+ * <p>
+ *    A report plan, with pre-built names and the fields read from the metric, is compiled
+ *    when each reported metric is registered. Reports visit only metrics with a plan,
+ *    so their cost depends on the number of reported metrics, not the size of the registry.
+ * </p>
+ * <p>
+ *    Reported metrics found in a snapshot that are never registered, like rollups,
+ *    have a plan compiled when first reported.
+ * </p>
  */
 public class ScheduledNewRelicReporter extends ScheduledReporter implements MetricSet {
 
@@ -100,6 +116,17 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
        * @return A self-reference.
        */
       public Builder addReportedMetric(final String name, final EnumSet<MetricField> fields) {
+         this.reportedMetrics.put(name, ReportedFields.of(fields));
+         return this;
+      }
+
+      /**
+       * Adds a reported metric with fields that may include any percentile.
+       * @param name The name.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder addReportedMetric(final String name, final ReportedFields fields) {
          this.reportedMetrics.put(name, fields);
          return this;
       }
@@ -128,7 +155,7 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
       private TimeUnit rateUnit = TimeUnit.SECONDS;
       private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
       private MetricFilter filter;
-      private final Map<String, EnumSet<MetricField>> reportedMetrics = Maps.newHashMap();
+      private final Map<String, ReportedFields> reportedMetrics = Maps.newHashMap();
       private String category = "custom";
    }
 
@@ -136,13 +163,23 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
                                        final MetricFilter filter,
                                        final TimeUnit rateUnit,
                                        final TimeUnit durationUnit,
-                                       final Map<String, EnumSet<MetricField>> reportedMetrics,
+                                       final Map<String, ReportedFields> reportedMetrics,
                                        final String category) {
       super(registry, "newrelic-reporter", filter, rateUnit, durationUnit);
+      this.registry = registry;
+      this.filter = filter != null ? filter : MetricFilter.ALL;
       this.reportedMetrics = reportedMetrics != null ? ImmutableMap.copyOf(reportedMetrics) : ImmutableMap.of();
       this.category = category;
-      this.rateUnit = "[per " + toLabel(rateUnit) + "]";
-      this.durationUnit = "[" + toLabel(durationUnit) + "]";
+      final String namePrefix = "Custom/" + category + "/";
+      final String rateLabel = "[per " + toLabel(rateUnit) + "]";
+      final String durationLabel = "[" + toLabel(durationUnit) + "]";
+      this.names = NameTable.forRegistry(registry);
+      this.nameSink = names.sink("newrelic:" + namePrefix, name -> namePrefix + name);
+      this.rateSink = names.sink("newrelic:" + namePrefix + ":" + rateLabel, name -> namePrefix + name + rateLabel);
+      this.durationSink = names.sink("newrelic:" + namePrefix + ":" + durationLabel, name -> namePrefix + name + durationLabel);
+      if(!this.reportedMetrics.isEmpty()) {
+         registry.addListener(planner); //Plans are compiled for existing metrics immediately...
+      }
    }
 
    /**
@@ -164,162 +201,426 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
    }
 
    /**
-    * Reports a meter/timer.
+    * The type of a planned metric.
+    */
+   private enum Type {
+      GAUGE,
+      COUNTER,
+      HISTOGRAM,
+      METER,
+      TIMER
+   }
+
+   /**
+    * Reads a field from a meter or timer.
+    */
+   private interface MeteredField {
+      double value(Metered meter);
+   }
+
+   /**
+    * Reads a field from a snapshot.
+    */
+   private interface SampledField {
+      double value(Snapshot snapshot);
+   }
+
+   /**
+    * The compiled report for a metric: its New Relic names and the fields read from it.
+    */
+   private static final class Plan {
+
+      Plan(final String name, final Metric metric, final Type type, final ReportedFields fields,
+           final String valueName, final String rateName,
+           final MeteredField[] meteredFields, final SampledField[] sampledFields, final double sampledFactor) {
+         this.name = name;
+         this.metric = metric;
+         this.type = type;
+         this.fields = fields;
+         this.valueName = valueName;
+         this.rateName = rateName;
+         this.meteredFields = meteredFields;
+         this.sampledFields = sampledFields;
+         this.sampledFactor = sampledFactor;
+      }
+
+      final String name;
+      final Metric metric;
+      final Type type;
+
+      /**
+       * The fields, for quantiles.
+       */
+      final ReportedFields fields;
+
+      /**
+       * The New Relic name for gauge/counter values and sampled fields.
+       */
+      final String valueName;
+
+      /**
+       * The New Relic name for metered fields.
+       */
+      final String rateName;
+
+      final MeteredField[] meteredFields;
+      final SampledField[] sampledFields;
+
+      /**
+       * Converts sampled values to the reported unit.
+       */
+      final double sampledFactor;
+   }
+
+   /**
+    * Compiles the plan for a metric.
     * @param name The name.
-    * @param meter The meter.
+    * @param metric The metric.
+    * @param type The type.
+    * @return The plan or <code>null</code> if the metric is not reported.
     */
-   private void reportMetered(final String name, final Metered meter) {
-      EnumSet<MetricField> fields = reportedMetrics.get(name);
+   private Plan compile(final String name, final Metric metric, final Type type) {
+      ReportedFields fields = reportedMetrics.get(name);
       if(fields == null) {
-         return;
+         return null;
       }
 
-      String nrName = buildRate(name);
+      switch(type) {
+         case GAUGE:
+         case COUNTER:
+            return fields.contains(MetricField.VALUE) ?
+                    new Plan(name, metric, type, fields, buildName(name), null, NO_METERED_FIELDS, NO_SAMPLED_FIELDS, 1.0) : null;
+         case METER:
+            return new Plan(name, metric, type, fields, null, buildRate(name), meteredFields(fields), NO_SAMPLED_FIELDS, 1.0);
+         case HISTOGRAM:
+            return new Plan(name, metric, type, fields, buildName(name), null, NO_METERED_FIELDS, sampledFields(fields), 1.0);
+         case TIMER:
+            return new Plan(name, metric, type, fields, buildDuration(name), buildRate(name),
+                    meteredFields(fields), sampledFields(fields), convertDuration(1.0));
+         default:
+            return null;
+      }
+   }
 
+   /**
+    * Creates the readers for the metered fields.
+    * @param fields The reported fields.
+    * @return The readers, in report order.
+    */
+   private MeteredField[] meteredFields(final ReportedFields fields) {
+      List<MeteredField> meteredFields = Lists.newArrayListWithCapacity(5);
       if(fields.contains(MetricField.ONE_MINUTE_RATE)) {
-         NewRelic.recordMetric(nrName, (float)meter.getOneMinuteRate());
+         meteredFields.add(meter -> convertRate(meter.getOneMinuteRate()));
       }
-
       if(fields.contains(MetricField.FIVE_MINUTE_RATE)) {
-         NewRelic.recordMetric(nrName, (float)meter.getFiveMinuteRate());
+         meteredFields.add(meter -> convertRate(meter.getFiveMinuteRate()));
       }
-
       if(fields.contains(MetricField.FIFTEEN_MINUTE_RATE)) {
-         NewRelic.recordMetric(nrName, (float)meter.getOneMinuteRate());
+         meteredFields.add(meter -> convertRate(meter.getFifteenMinuteRate()));
       }
-
       if(fields.contains(MetricField.MEAN_RATE)) {
-         NewRelic.recordMetric(nrName, (float)meter.getMeanRate());
+         meteredFields.add(meter -> convertRate(meter.getMeanRate()));
       }
-
       if(fields.contains(MetricField.COUNT)) {
-         NewRelic.recordMetric(nrName, (float)meter.getCount());
+         meteredFields.add(Metered::getCount);
       }
+      return meteredFields.toArray(NO_METERED_FIELDS);
    }
 
    /**
-    * Reports a sampling (timer, histogram) metric.
-    * @param name The name.
-    * @param sampled The sampled metric.
-    * @param isDuration Is this a duration.
+    * Creates the readers for the sampled fields other than quantiles.
+    * @param fields The reported fields.
+    * @return The readers, in report order.
     */
-   private void reportSampled(final String name,
-                              final Sampling sampled,
-                              final boolean isDuration) {
-      EnumSet<MetricField> fields = reportedMetrics.get(name);
-      if(fields == null) {
-         return;
-      }
-
-      String nrName = isDuration ? buildDuration(name) : buildName(name);
-
-      if(fields.contains(MetricField.MEDIAN)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().getMedian());
-      }
-
+   private static SampledField[] sampledFields(final ReportedFields fields) {
+      List<SampledField> sampledFields = Lists.newArrayListWithCapacity(4);
       if(fields.contains(MetricField.MAX)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().getMax());
+         sampledFields.add(Snapshot::getMax);
       }
-
       if(fields.contains(MetricField.MIN)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().getMin());
+         sampledFields.add(Snapshot::getMin);
       }
-
-      if(fields.contains(MetricField.P75)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().get75thPercentile());
+      if(fields.contains(MetricField.MEAN)) {
+         sampledFields.add(Snapshot::getMean);
+      }
+      if(fields.contains(MetricField.STD)) {
+         sampledFields.add(Snapshot::getStdDev);
       }
+      return sampledFields.toArray(NO_SAMPLED_FIELDS);
+   }
 
-      if(fields.contains(MetricField.P95)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().get95thPercentile());
+   /**
+    * Reports a metric with its plan.
+    * @param plan The plan.
+    * @param metric The metric. May be a snapshot of the planned metric.
+    */
+   private void report(final Plan plan, final Metric metric) {
+      switch(plan.type) {
+         case GAUGE:
+            Object val = ((Gauge<?>)metric).getValue();
+            if(val instanceof Number) {
+               recordMetric(plan.valueName, ((Number)val).floatValue());
+            }
+            break;
+         case COUNTER:
+            recordMetric(plan.valueName, (float)((Counter)metric).getCount());
+            break;
+         case METER:
+            reportMetered(plan, (Metered)metric);
+            break;
+         case HISTOGRAM:
+            reportSampled(plan, (Sampling)metric);
+            break;
+         case TIMER:
+            reportMetered(plan, (Metered)metric);
+            reportSampled(plan, (Sampling)metric);
+            break;
       }
+   }
 
-      if(fields.contains(MetricField.P98)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().get98thPercentile());
+   /**
+    * Reports a meter/timer.
+    * @param plan The plan.
+    * @param meter The meter.
+    */
+   private void reportMetered(final Plan plan, final Metered meter) {
+      for(MeteredField field : plan.meteredFields) {
+         recordMetric(plan.rateName, (float)field.value(meter));
       }
+   }
 
-      if(fields.contains(MetricField.P99)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().get99thPercentile());
+   /**
+    * Reports a sampling (timer, histogram) metric.
+    * <p>
+    *    All fields are reported from a single snapshot, with all percentiles computed at once.
+    * </p>
+    * @param plan The plan.
+    * @param sampled The sampled metric.
+    */
+   private void reportSampled(final Plan plan, final Sampling sampled) {
+      ReportedFields fields = plan.fields;
+      if(fields.getQuantileCount() == 0 && plan.sampledFields.length == 0) {
+         return;
       }
 
-      if(fields.contains(MetricField.P999)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().get999thPercentile());
+      //Creating a snapshot copies (and may sort) the reservoir, so it is created just once...
+      final Snapshot snapshot = sampled.getSnapshot();
+
+      if(fields.getQuantileCount() > 0) {
+         //Reports may run concurrently, so values are never shared...
+         final double[] quantileValues = new double[fields.getQuantileCount()];
+         fields.getQuantileValues(snapshot, quantileValues);
+         for(double value : quantileValues) {
+            recordMetric(plan.valueName, (float)(value * plan.sampledFactor));
+         }
       }
 
-      if(fields.contains(MetricField.STD)) {
-         NewRelic.recordMetric(nrName, (float)sampled.getSnapshot().getStdDev());
+      for(SampledField field : plan.sampledFields) {
+         recordMetric(plan.valueName, (float)(field.value(snapshot) * plan.sampledFactor));
       }
    }
 
+   /**
+    * Reports planned metrics directly from the registry, without collecting every registered metric.
+    */
+   @Override
+   public void report() {
+      synchronized(this) {
+         int reportedCount = 0;
+         for(Plan plan : plans.values()) {
+            if(filter.matches(plan.name, plan.metric)) {
+               report(plan, plan.metric);
+               reportedCount++;
+            }
+         }
+         lastMetricCount.set(reportedCount);
+      }
+   }
 
+   /**
+    * Reports planned metrics found in the maps. Only reported metrics are visited.
+    */
    @Override
    public void report(SortedMap<String, Gauge> gauges,
                       SortedMap<String, Counter> counters,
                       SortedMap<String, Histogram> histograms,
                       SortedMap<String, Meter> meters,
                       SortedMap<String, Timer> timers) {
+      int reportedCount = 0;
+      for(Plan plan : plans.values()) {
+         final Metric metric;
+         switch(plan.type) {
+            case GAUGE: metric = gauges.get(plan.name); break;
+            case COUNTER: metric = counters.get(plan.name); break;
+            case HISTOGRAM: metric = histograms.get(plan.name); break;
+            case METER: metric = meters.get(plan.name); break;
+            case TIMER: metric = timers.get(plan.name); break;
+            default: metric = null; break;
+         }
+         if(metric != null) {
+            report(plan, metric);
+            reportedCount++;
+         }
+      }
 
-      lastMetricCount.set(gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size());
+      for(String name : reportedMetrics.keySet()) {
+         if(plans.containsKey(name)) {
+            continue;
+         }
 
-      for(Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
-         String name = gauge.getKey();
-         EnumSet<MetricField> fields = reportedMetrics.get(name);
-         if(fields != null && fields.contains(MetricField.VALUE)) {
-            Object val = gauge.getValue().getValue();
-            if(val instanceof Number) {
-               NewRelic.recordMetric(buildName(name), ((Number)val).floatValue());
+         //Not registered, for example, a rollup...
+         Metric metric;
+         final Type type;
+         if((metric = gauges.get(name)) != null) {
+            type = Type.GAUGE;
+         } else if((metric = counters.get(name)) != null) {
+            type = Type.COUNTER;
+         } else if((metric = histograms.get(name)) != null) {
+            type = Type.HISTOGRAM;
+         } else if((metric = meters.get(name)) != null) {
+            type = Type.METER;
+         } else if((metric = timers.get(name)) != null) {
+            type = Type.TIMER;
+         } else {
+            continue;
+         }
+
+         Plan plan = derivedPlans.get(name);
+         if(plan == null || plan.type != type) {
+            plan = compile(name, metric, type);
+            if(plan == null) {
+               continue;
             }
+            derivedPlans.put(name, plan);
          }
+         report(plan, metric);
+         reportedCount++;
+      }
+      lastMetricCount.set(reportedCount);
+   }
+
+   @Override
+   public void stop() {
+      try {
+         super.stop();
+      } finally {
+         registry.removeListener(planner);
       }
+   }
 
-      for(Map.Entry<String, Counter> counter : counters.entrySet()) {
-         String name = counter.getKey();
-         EnumSet<MetricField> fields = reportedMetrics.get(name);
-         if(fields != null && fields.contains(MetricField.VALUE)) {
-            long value = counter.getValue().getCount();
-            NewRelic.recordMetric(buildName(name), (float)value);
+   /**
+    * Compiles plans as metrics are added to the registry and discards them when removed.
+    */
+   private final MetricRegistryListener planner = new MetricRegistryListener() {
+
+      private void add(final String name, final Metric metric, final Type type) {
+         Plan plan = compile(name, metric, type);
+         if(plan != null) {
+            plans.put(name, plan);
          }
       }
 
-      for(Map.Entry<String, Meter> nv : meters.entrySet()) {
-         String name = nv.getKey();
-         Meter meter = nv.getValue();
-         reportMetered(name, meter);
+      @Override
+      public void onGaugeAdded(final String name, final Gauge<?> gauge) {
+         add(name, gauge, Type.GAUGE);
       }
 
-      for(Map.Entry<String, Histogram> nv : histograms.entrySet()) {
-         String name = nv.getKey();
-         Histogram histogram = nv.getValue();
-         reportSampled(name, histogram, false);
+      @Override
+      public void onGaugeRemoved(final String name) {
+         plans.remove(name);
       }
 
-      for(Map.Entry<String, Timer> nv : timers.entrySet()) {
-         final String name = nv.getKey();
-         Timer timer = nv.getValue();
-         reportMetered(name, timer);
-         reportSampled(name, timer, true);
+      @Override
+      public void onCounterAdded(final String name, final Counter counter) {
+         add(name, counter, Type.COUNTER);
       }
-   }
+
+      @Override
+      public void onCounterRemoved(final String name) {
+         plans.remove(name);
+      }
+
+      @Override
+      public void onHistogramAdded(final String name, final Histogram histogram) {
+         add(name, histogram, Type.HISTOGRAM);
+      }
+
+      @Override
+      public void onHistogramRemoved(final String name) {
+         plans.remove(name);
+      }
+
+      @Override
+      public void onMeterAdded(final String name, final Meter meter) {
+         add(name, meter, Type.METER);
+      }
+
+      @Override
+      public void onMeterRemoved(final String name) {
+         plans.remove(name);
+      }
+
+      @Override
+      public void onTimerAdded(final String name, final Timer timer) {
+         add(name, timer, Type.TIMER);
+      }
+
+      @Override
+      public void onTimerRemoved(final String name) {
+         plans.remove(name);
+      }
+   };
+
+   private static final MeteredField[] NO_METERED_FIELDS = new MeteredField[0];
+   private static final SampledField[] NO_SAMPLED_FIELDS = new SampledField[0];
 
    /**
-    * The set of names/fields to report.
+    * The plan for each registered metric that is reported.
+    */
+   private final ConcurrentMap<String, Plan> plans = Maps.newConcurrentMap();
+
+   /**
+    * The plan for each reported metric found only in snapshots.
     */
-   private final ImmutableMap<String, EnumSet<MetricField>> reportedMetrics;
+   private final ConcurrentMap<String, Plan> derivedPlans = Maps.newConcurrentMap();
+
+   private final MetricRegistry registry;
 
    /**
-    * The reported rate unit.
+    * The filter, applied when reporting directly from the registry.
     */
-   private final String rateUnit;
+   private final MetricFilter filter;
 
    /**
-    * The reported duration unit.
+    * The set of names/fields to report.
     */
-   private final String durationUnit;
+   private final ImmutableMap<String, ReportedFields> reportedMetrics;
 
    /**
     * The reported category.
     */
    private final String category;
 
+   /**
+    * The New Relic names.
+    */
+   private final NameTable names;
+
+   /**
+    * The sink for names.
+    */
+   private final int nameSink;
+
+   /**
+    * The sink for rate names.
+    */
+   private final int rateSink;
+
+   /**
+    * The sink for duration names.
+    */
+   private final int durationSink;
+
    @Override
    public Map<String, Metric> getMetrics() {
       return metrics;
@@ -334,13 +635,22 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
                    }
            );
 
+   /**
+    * Records a metric value with the New Relic agent.
+    * @param name The New Relic name.
+    * @param value The value.
+    */
+   void recordMetric(final String name, final float value) {
+      NewRelic.recordMetric(name, value);
+   }
+
    /**
     * Builds the New Relic name.
     * @param name The name.
     * @return The New Relic name.
     */
    private String buildName(final String name) {
-      return "Custom/" + category + "/" + name;
+      return names.name(nameSink, name);
    }
 
    /**
@@ -349,7 +659,7 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
     * @return The New Relic name.
     */
    private String buildRate(final String name) {
-      return "Custom/" + category + "/" + name + rateUnit;
+      return names.name(rateSink, name);
    }
 
    /**
@@ -358,11 +668,11 @@ public class ScheduledNewRelicReporter extends ScheduledReporter implements Metr
     * @return The New Relic Name.
     */
    private String buildDuration(final String name) {
-      return "Custom/" + category + "/" + name + durationUnit;
+      return names.name(durationSink, name);
    }
 
    /**
     * The number of metrics last reported.
     */
    private final AtomicInteger lastMetricCount = new AtomicInteger();
-}
\ No newline at end of file
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.prometheus;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import org.attribyte.metrics.RegistrySnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes a registry snapshot in the Prometheus text or OpenMetrics exposition format.
+ * <p>
+ *    Counters and meters are exposed as counters, numeric gauges as gauges,
+ *    and histograms and timers as summaries with quantiles and a count.
+ *    Output is written into a buffer that is reused for every render.
+ * </p>
+ * <p>
+ *    Not thread-safe.
+ * </p>
+ */
+@SuppressWarnings("rawtypes")
+class Exposition {
+
+   /**
+    * The content type for the text format.
+    */
+   static final String TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+   /**
+    * The content type for the OpenMetrics format.
+    */
+   static final String OPEN_METRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+   /**
+    * Rendered output.
+    */
+   static final class Rendered {
+
+      Rendered(final byte[] bytes, final byte[] gzipBytes, final long renderedMillis) {
+         this.bytes = bytes;
+         this.gzipBytes = gzipBytes;
+         this.renderedMillis = renderedMillis;
+      }
+
+      final byte[] bytes;
+      final byte[] gzipBytes;
+      final long renderedMillis;
+   }
+
+   /**
+    * Creates an exposition encoder.
+    * @param prefix A prefix added to every name. May be empty.
+    * @param durationFactor Converts timer durations (nanoseconds) to the reported unit.
+    */
+   Exposition(final String prefix, final double durationFactor) {
+      this.prefix = prefix;
+      this.durationFactor = durationFactor;
+   }
+
+   /**
+    * Renders a snapshot, with and without compression.
+    * @param snapshot The snapshot.
+    * @param openMetrics Should the OpenMetrics format be used?
+    * @return The rendered output.
+    * @throws IOException on compression error.
+    */
+   Rendered render(final RegistrySnapshot snapshot, final boolean openMetrics) throws IOException {
+      buf.reset();
+      encode(snapshot, openMetrics);
+      byte[] bytes = buf.toByteArray();
+
+      gzipBuf.reset();
+      try(GZIPOutputStream gzos = new GZIPOutputStream(gzipBuf, 8192)) {
+         gzos.write(bytes);
+      }
+
+      if(names.size() > snapshot.size() * 4 + 1024) {
+         names.clear(); //Forget names removed from the registry...
+      }
+
+      return new Rendered(bytes, gzipBuf.toByteArray(), snapshot.getTimestamp());
+   }
+
+   /**
+    * Encodes a snapshot into the buffer.
+    * @param snapshot The snapshot.
+    * @param openMetrics Should the OpenMetrics format be used?
+    */
+   void encode(final RegistrySnapshot snapshot, final boolean openMetrics) {
+
+      for(Map.Entry<String, Gauge> gauge : snapshot.getGauges().entrySet()) {
+         Object value = gauge.getValue().getValue();
+         final double doubleValue;
+         if(value instanceof Number) {
+            doubleValue = ((Number)value).doubleValue();
+         } else if(value instanceof Boolean) {
+            doubleValue = (Boolean)value ? 1.0 : 0.0;
+         } else {
+            continue;
+         }
+         String name = name(gauge.getKey());
+         type(name, "gauge");
+         sample(name, null, doubleValue);
+      }
+
+      for(Map.Entry<String, Counter> counter : snapshot.getCounters().entrySet()) {
+         counter(name(counter.getKey()), counter.getValue().getCount(), openMetrics);
+      }
+
+      for(Map.Entry<String, Meter> meter : snapshot.getMeters().entrySet()) {
+         counter(name(meter.getKey()), meter.getValue().getCount(), openMetrics);
+      }
+
+      for(Map.Entry<String, Histogram> histogram : snapshot.getHistograms().entrySet()) {
+         summary(name(histogram.getKey()), histogram.getValue().getSnapshot(), histogram.getValue().getCount(), 1.0);
+      }
+
+      for(Map.Entry<String, Timer> timer : snapshot.getTimers().entrySet()) {
+         summary(name(timer.getKey()), timer.getValue().getSnapshot(), timer.getValue().getCount(), durationFactor);
+      }
+
+      if(openMetrics) {
+         ascii("# EOF\n");
+      }
+   }
+
+   /**
+    * Encodes a counter.
+    * @param name The name.
+    * @param count The count.
+    * @param openMetrics Is the format OpenMetrics?
+    */
+   private void counter(final String name, final long count, final boolean openMetrics) {
+      String baseName = name.endsWith(TOTAL_SUFFIX) ? name.substring(0, name.length() - TOTAL_SUFFIX.length()) : name;
+      type(openMetrics ? baseName : baseName + TOTAL_SUFFIX, "counter");
+      ascii(baseName);
+      ascii(TOTAL_SUFFIX);
+      buf.write(' ');
+      ascii(Long.toString(count));
+      buf.write('\n');
+   }
+
+   /**
+    * Encodes a summary.
+    * @param name The name.
+    * @param snapshot The snapshot.
+    * @param count The count.
+    * @param factor Converts values to the reported unit.
+    */
+   private void summary(final String name, final Snapshot snapshot, final long count, final double factor) {
+      type(name, "summary");
+      sample(name, "0.5", snapshot.getMedian() * factor);
+      sample(name, "0.75", snapshot.get75thPercentile() * factor);
+      sample(name, "0.95", snapshot.get95thPercentile() * factor);
+      sample(name, "0.98", snapshot.get98thPercentile() * factor);
+      sample(name, "0.99", snapshot.get99thPercentile() * factor);
+      sample(name, "0.999", snapshot.get999thPercentile() * factor);
+      ascii(name);
+      ascii("_count ");
+      ascii(Long.toString(count));
+      buf.write('\n');
+   }
+
+   /**
+    * Encodes a type line.
+    * @param name The name.
+    * @param type The type.
+    */
+   private void type(final String name, final String type) {
+      ascii("# TYPE ");
+      ascii(name);
+      buf.write(' ');
+      ascii(type);
+      buf.write('\n');
+   }
+
+   /**
+    * Encodes a sample.
+    * @param name The name.
+    * @param quantile The quantile label value or <code>null</code>.
+    * @param value The value.
+    */
+   private void sample(final String name, final String quantile, final double value) {
+      ascii(name);
+      if(quantile != null) {
+         ascii("{quantile=\"");
+         ascii(quantile);
+         ascii("\"}");
+      }
+      buf.write(' ');
+      if(Double.isNaN(value)) {
+         ascii("NaN");
+      } else if(Double.isInfinite(value)) {
+         ascii(value > 0 ? "+Inf" : "-Inf");
+      } else if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+         ascii(Long.toString((long)value));
+      } else {
+         ascii(Double.toString(value));
+      }
+      buf.write('\n');
+   }
+
+   /**
+    * Writes an ASCII string to the buffer.
+    * @param str The string.
+    */
+   private void ascii(final String str) {
+      for(int i = 0; i < str.length(); i++) {
+         buf.write(str.charAt(i));
+      }
+   }
+
+   /**
+    * Gets the exposed name for a metric.
+    * @param name The metric name.
+    * @return The exposed name.
+    */
+   private String name(final String name) {
+      String exposedName = names.get(name);
+      if(exposedName == null) {
+         exposedName = sanitize(prefix + name);
+         names.put(name, exposedName);
+      }
+      return exposedName;
+   }
+
+   /**
+    * Replaces characters not allowed in a metric name with '_'.
+    * @param name The name.
+    * @return The sanitized name.
+    */
+   static String sanitize(final String name) {
+      StringBuilder sanitized = new StringBuilder(name.length() + 1);
+      for(int i = 0; i < name.length(); i++) {
+         char ch = name.charAt(i);
+         boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_' || ch == ':' ||
+                 (i > 0 && ch >= '0' && ch <= '9');
+         if(valid) {
+            sanitized.append(ch);
+         } else if(i == 0 && ch >= '0' && ch <= '9') {
+            sanitized.append('_').append(ch);
+         } else {
+            sanitized.append('_');
+         }
+      }
+      return sanitized.toString();
+   }
+
+   /**
+    * The suffix for counter samples.
+    */
+   private static final String TOTAL_SUFFIX = "_total";
+
+   private final String prefix;
+   private final double durationFactor;
+
+   /**
+    * The reusable output buffer.
+    */
+   private final ByteArrayOutputStream buf = new ByteArrayOutputStream(65536);
+
+   /**
+    * The reusable compressed output buffer.
+    */
+   private final ByteArrayOutputStream gzipBuf = new ByteArrayOutputStream(16384);
+
+   /**
+    * Exposed names by metric name.
+    */
+   private final Map<String, String> names = Maps.newHashMap();
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.prometheus;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.attribyte.api.InitializationException;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.ReporterBase;
+import org.attribyte.util.InitUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exposes metrics to Prometheus with a built-in HTTP server.
+ * <p>
+ *    Metrics are rendered in the text exposition format or, if requested by the scraper,
+ *    the OpenMetrics format. Each format is rendered, and compressed, at most once per 'frequency'.
+ *    Scrapes in the same interval are served the cached bytes. A scrape that arrives while
+ *    an expired exposition is being rendered is served the previous exposition.
+ * </p>
+ */
+public class PrometheusReporter extends ReporterBase {
+
+   /**
+    * The port for the HTTP server ('port'). Default '9464'.
+    */
+   public static final String PORT_PROPERTY = "port";
+
+   /**
+    * The address to which the HTTP server binds ('address'). Default is all addresses.
+    */
+   public static final String ADDRESS_PROPERTY = "address";
+
+   /**
+    * The path for the metrics ('path'). Default '/metrics'.
+    */
+   public static final String PATH_PROPERTY = "path";
+
+   /**
+    * A prefix added to every name ('prefix'). Default is no prefix.
+    */
+   public static final String PREFIX_PROPERTY = "prefix";
+
+   /**
+    * The number of threads that serve scrapes ('threads'). Default '2'.
+    */
+   public static final String THREADS_PROPERTY = "threads";
+
+   @Override
+   public void init(final String name,
+                    final Properties _props,
+                    final MetricRegistry registry, final MetricFilter filter) throws Exception {
+      if(isInit.compareAndSet(false, true)) {
+         init(name, _props);
+         this.registry = registry;
+         this.filter = filter;
+         this.port = init.getIntProperty(PORT_PROPERTY, 9464);
+         this.address = init.getProperty(ADDRESS_PROPERTY, "").trim();
+         this.path = init.getProperty(PATH_PROPERTY, "/metrics").trim();
+         this.threads = Math.max(init.getIntProperty(THREADS_PROPERTY, 2), 1);
+         this.frequencyMillis = InitUtil.millisFromTime(init.getProperty(FREQUENCY_PROPERTY, "15s"));
+         TimeUnit durationUnit = TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "SECONDS").toUpperCase());
+         String prefix = init.getProperty(PREFIX_PROPERTY, "").trim();
+         this.textExposition = new Exposition(prefix, 1.0 / durationUnit.toNanos(1L));
+         this.openMetricsExposition = new Exposition(prefix, 1.0 / durationUnit.toNanos(1L));
+      }
+   }
+
+   @Override
+   public void start() throws Exception {
+      if(!isInit.get()) {
+         throw new InitializationException("The reporter must be initialized before start!");
+      }
+      if(isRunning.compareAndSet(false, true)) {
+         server = HttpServer.create(address.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(address, port), 0);
+         executor = Executors.newFixedThreadPool(threads,
+                 new ThreadFactoryBuilder().setNameFormat("prometheus-" + name + "-%d").setDaemon(true).build());
+         server.setExecutor(executor);
+         server.createContext(path, this::scrape);
+         server.start();
+      }
+   }
+
+   @Override
+   public void stop() {
+      if(isRunning.compareAndSet(true, false)) {
+         server.stop(0);
+         executor.shutdown();
+      }
+   }
+
+   /**
+    * Gets the port on which the server is listening.
+    * @return The port or <code>0</code> if not started.
+    */
+   public int getPort() {
+      HttpServer server = this.server;
+      return server != null ? server.getAddress().getPort() : 0;
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Serves a scrape.
+    * @param exchange The HTTP exchange.
+    * @throws IOException on write error.
+    */
+   private void scrape(final HttpExchange exchange) throws IOException {
+      try {
+         scrapes.inc();
+         String accept = exchange.getRequestHeaders().getFirst("Accept");
+         boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+         String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+         boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+
+         final Exposition.Rendered rendered;
+         try {
+            rendered = openMetrics ? get(openMetricsExposition, openMetricsCache, true) :
+                    get(textExposition, textCache, false);
+         } catch(IOException | RuntimeException e) {
+            scrapeErrors.inc();
+            exchange.sendResponseHeaders(500, -1);
+            return;
+         }
+
+         byte[] body = gzip ? rendered.gzipBytes : rendered.bytes;
+         exchange.getResponseHeaders().set("Content-Type",
+                 openMetrics ? Exposition.OPEN_METRICS_CONTENT_TYPE : Exposition.TEXT_CONTENT_TYPE);
+         if(gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+         }
+         if(exchange.getRequestMethod().equalsIgnoreCase("HEAD")) {
+            exchange.sendResponseHeaders(200, -1);
+         } else {
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream os = exchange.getResponseBody()) {
+               os.write(body);
+            }
+         }
+      } finally {
+         exchange.close();
+      }
+   }
+
+   /**
+    * Gets the cached exposition, rendering if expired.
+    * @param exposition The exposition encoder.
+    * @param cache The cache.
+    * @param openMetrics Is the format OpenMetrics?
+    * @return The rendered exposition.
+    * @throws IOException on render error.
+    */
+   private Exposition.Rendered get(final Exposition exposition,
+                                   final AtomicReference<Exposition.Rendered> cache,
+                                   final boolean openMetrics) throws IOException {
+      Exposition.Rendered rendered = cache.get();
+      if(rendered != null && System.currentTimeMillis() - rendered.renderedMillis < frequencyMillis) {
+         return rendered;
+      }
+
+      if(rendered != null) {
+         if(!renderLock.tryLock()) {
+            return rendered; //Another scrape is rendering...
+         }
+      } else {
+         renderLock.lock();
+      }
+
+      try {
+         rendered = cache.get();
+         if(rendered == null || System.currentTimeMillis() - rendered.renderedMillis >= frequencyMillis) {
+            final Timer.Context ctx = renderTimer.time();
+            try {
+               rendered = exposition.render(RegistrySnapshot.collect(registry, filter), openMetrics);
+            } finally {
+               ctx.stop();
+            }
+            cache.set(rendered);
+            lastRenderSize = rendered.bytes.length;
+         }
+         return rendered;
+      } finally {
+         renderLock.unlock();
+      }
+   }
+
+   private MetricRegistry registry;
+   private MetricFilter filter;
+   private int port;
+   private String address;
+   private String path;
+   private int threads;
+   private long frequencyMillis;
+
+   private Exposition textExposition;
+   private Exposition openMetricsExposition;
+   private final AtomicReference<Exposition.Rendered> textCache = new AtomicReference<>();
+   private final AtomicReference<Exposition.Rendered> openMetricsCache = new AtomicReference<>();
+
+   /**
+    * Ensures only one exposition is rendered at a time.
+    */
+   private final ReentrantLock renderLock = new ReentrantLock();
+
+   private volatile HttpServer server;
+   private ExecutorService executor;
+   private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+   private final Counter scrapes = new Counter();
+   private final Counter scrapeErrors = new Counter();
+   private final Timer renderTimer = new Timer();
+   private volatile int lastRenderSize;
+
+   private final ImmutableMap<String, Metric> metrics = ImmutableMap.of(
+           "scrapes", scrapes,
+           "scrape-errors", scrapeErrors,
+           "render", renderTimer,
+           "render-size", (Gauge<Integer>)() -> lastRenderSize
+   );
+}
@@ -0,0 +1,884 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.statsd;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.attribyte.metrics.MetricColumns;
+import org.attribyte.metrics.MetricField;
+import org.attribyte.metrics.NameTable;
+import org.attribyte.metrics.QuantileSketch;
+import org.attribyte.metrics.ReportedFields;
+import org.attribyte.metrics.SketchSnapshot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduled metric reporter that sends metrics to StatsD (or DogStatsD) over UDP.
+ * <p>
+ *    Lines are coalesced into datagrams no larger than the maximum packet size, encoded directly
+ *    into a reused direct buffer and sent with a non-blocking channel. A datagram that can't be sent
+ *    immediately is dropped, so reporting never waits for the network.
+ * </p>
+ * <p>
+ *    Counts (a counter value or the count of a meter, timer or histogram) are sent as StatsD counters,
+ *    with the change since the last report. A counter may change by a negative amount.
+ *    All other fields are sent as gauges.
+ *    The <code>sketch</code> field of a sketch-backed histogram or timer is sent as DogStatsD
+ *    distribution values, so quantiles may be computed by the server across hosts.
+ * </p>
+ */
+public class ScheduledStatsDReporter extends ScheduledReporter implements MetricSet {
+
+   /**
+    * The default maximum datagram size (1432), suitable for a 1500 byte MTU.
+    */
+   public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+   /**
+    * Creates a builder.
+    * @param registry the registry to report
+    * @param address The StatsD address.
+    * @return The builder.
+    */
+   public static Builder newBuilder(final MetricRegistry registry, final InetSocketAddress address) {
+      return new Builder(registry, address);
+   }
+
+   public static class Builder {
+
+      /**
+       * Creates a builder.
+       * @param registry The registry to report.
+       * @param address The StatsD address.
+       */
+      private Builder(final MetricRegistry registry, final InetSocketAddress address) {
+         this.registry = registry;
+         this.address = address;
+         this.filter = MetricFilter.ALL;
+      }
+
+      /**
+       * Configures the rate conversion. Default is seconds.
+       * @param rateUnit The rate unit.
+       * @return A self-reference.
+       */
+      public Builder convertRatesTo(final TimeUnit rateUnit) {
+         this.rateUnit = rateUnit;
+         return this;
+      }
+
+      /**
+       * Configures the duration conversion. Default is milliseconds.
+       * @param durationUnit The duration unit.
+       * @return A self-reference.
+       */
+      public Builder convertDurationsTo(final TimeUnit durationUnit) {
+         this.durationUnit = durationUnit;
+         return this;
+      }
+
+      /**
+       * Applies a filter to the registry before reporting.
+       * @param filter The filter.
+       * @return A self-reference.
+       */
+      public Builder filter(final MetricFilter filter) {
+         this.filter = filter;
+         return this;
+      }
+
+      /**
+       * Sets the reported fields for a metric, replacing the default fields.
+       * @param name The name.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder addReportedMetric(final String name, final EnumSet<MetricField> fields) {
+         return addReportedMetric(name, ReportedFields.of(fields));
+      }
+
+      /**
+       * Sets the reported fields for a metric, including any percentile, replacing the default fields.
+       * @param name The name.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder addReportedMetric(final String name, final ReportedFields fields) {
+         this.reportedMetrics.put(name, fields);
+         return this;
+      }
+
+      /**
+       * Sets the fields reported for histograms and timers without reported fields.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder setDefaultSampledFields(final EnumSet<MetricField> fields) {
+         return setDefaultSampledFields(ReportedFields.of(fields));
+      }
+
+      /**
+       * Sets the fields, including any percentile, reported for histograms and timers without reported fields.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder setDefaultSampledFields(final ReportedFields fields) {
+         this.defaultSampledFields = fields;
+         return this;
+      }
+
+      /**
+       * Sets the fields reported for meters and timers without reported fields.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder setDefaultMeteredFields(final EnumSet<MetricField> fields) {
+         return setDefaultMeteredFields(ReportedFields.of(fields));
+      }
+
+      /**
+       * Sets the fields reported for meters and timers without reported fields.
+       * @param fields The fields.
+       * @return A self-reference.
+       */
+      public Builder setDefaultMeteredFields(final ReportedFields fields) {
+         this.defaultMeteredFields = fields;
+         return this;
+      }
+
+      /**
+       * Sets a prefix added to all names.
+       * @param prefix The prefix.
+       * @return A self-reference.
+       */
+      public Builder setPrefix(final String prefix) {
+         this.prefix = prefix;
+         return this;
+      }
+
+      /**
+       * Sets DogStatsD tags added to every line.
+       * @param tags The tags.
+       * @return A self-reference.
+       */
+      public Builder setTags(final List<String> tags) {
+         this.tags = tags;
+         return this;
+      }
+
+      /**
+       * Sets the maximum size of a datagram.
+       * @param maxPacketSize The maximum size in bytes.
+       * @return A self-reference.
+       */
+      public Builder setMaxPacketSize(final int maxPacketSize) {
+         this.maxPacketSize = maxPacketSize;
+         return this;
+      }
+
+      /**
+       * Builds an immutable reporter instance.
+       * @return The immutable reporter.
+       * @throws IOException if the channel could not be opened.
+       */
+      public ScheduledStatsDReporter build() throws IOException {
+         return new ScheduledStatsDReporter(registry, filter, rateUnit, durationUnit, address,
+                 reportedMetrics, defaultSampledFields, defaultMeteredFields, prefix, tags, maxPacketSize);
+      }
+
+      private final MetricRegistry registry;
+      private final InetSocketAddress address;
+
+      private TimeUnit rateUnit = TimeUnit.SECONDS;
+      private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
+      private MetricFilter filter;
+      private final Map<String, ReportedFields> reportedMetrics = Maps.newHashMap();
+      private ReportedFields defaultSampledFields = ReportedFields.fromString("count,median,p95,p99,max,min,mean");
+      private ReportedFields defaultMeteredFields = ReportedFields.fromString("count,1m_rate");
+      private String prefix = "";
+      private List<String> tags = ImmutableList.of();
+      private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+   }
+
+   protected ScheduledStatsDReporter(final MetricRegistry registry,
+                                     final MetricFilter filter,
+                                     final TimeUnit rateUnit,
+                                     final TimeUnit durationUnit,
+                                     final InetSocketAddress address,
+                                     final Map<String, ReportedFields> reportedMetrics,
+                                     final ReportedFields defaultSampledFields,
+                                     final ReportedFields defaultMeteredFields,
+                                     final String prefix,
+                                     final List<String> tags,
+                                     final int maxPacketSize) throws IOException {
+      super(registry, "statsd-reporter", filter, rateUnit, durationUnit);
+      this.reportedMetrics = reportedMetrics != null ? ImmutableMap.copyOf(reportedMetrics) : ImmutableMap.of();
+      this.defaultSampledFields = defaultSampledFields;
+      this.defaultMeteredFields = defaultMeteredFields;
+      this.defaultTimerFields = ReportedFields.union(defaultMeteredFields, defaultSampledFields);
+      this.filter = filter != null ? filter : MetricFilter.ALL;
+      final String namePrefix = prefix != null ? prefix : "";
+      this.names = NameTable.forRegistry(registry);
+      this.nameSink = names.sink("statsd:" + namePrefix, name -> encodeName(namePrefix, name));
+      this.tags = tags != null && !tags.isEmpty() ? ("|#" + Joiner.on(',').join(tags)).getBytes(StandardCharsets.UTF_8) : new byte[0];
+      this.buf = ByteBuffer.allocateDirect(maxPacketSize > 0 ? maxPacketSize : DEFAULT_MAX_PACKET_SIZE);
+      this.channel = DatagramChannel.open();
+      this.channel.configureBlocking(false);
+      this.channel.connect(address);
+      this.registry = registry;
+      registry.addListener(pruner);
+   }
+
+   @Override
+   public void report(SortedMap<String, Gauge> gauges,
+                      SortedMap<String, Counter> counters,
+                      SortedMap<String, Histogram> histograms,
+                      SortedMap<String, Meter> meters,
+                      SortedMap<String, Timer> timers) {
+
+      buf.clear();
+
+      for(Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+         String name = gauge.getKey();
+         ReportedFields fields = reportedMetrics.get(name);
+         if(fields == null || fields.contains(MetricField.VALUE)) {
+            Object val = gauge.getValue().getValue();
+            if(val instanceof Number) {
+               line(name, null, ((Number)val).doubleValue(), GAUGE);
+            }
+         }
+      }
+
+      for(Map.Entry<String, Counter> counter : counters.entrySet()) {
+         String name = counter.getKey();
+         ReportedFields fields = reportedMetrics.get(name);
+         if(fields == null || fields.contains(MetricField.VALUE)) {
+            line(name, null, change(name, counter.getValue().getCount()), COUNTER);
+         }
+      }
+
+      for(Map.Entry<String, Meter> meter : meters.entrySet()) {
+         String name = meter.getKey();
+         ReportedFields fields = reportedMetrics.get(name);
+         reportMetered(name, meter.getValue(), fields != null ? fields : defaultMeteredFields);
+      }
+
+      for(Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+         String name = histogram.getKey();
+         ReportedFields fields = reportedMetrics.get(name);
+         if(fields == null) {
+            fields = defaultSampledFields;
+         }
+         if(fields.contains(MetricField.COUNT)) {
+            line(name, "count", delta(name, histogram.getValue().getCount()), COUNTER);
+         }
+         reportSampled(name, histogram.getValue().getSnapshot(), fields, 1.0);
+      }
+
+      for(Map.Entry<String, Timer> timer : timers.entrySet()) {
+         String name = timer.getKey();
+         ReportedFields fields = reportedMetrics.get(name);
+         if(fields == null) {
+            fields = defaultTimerFields;
+         }
+         reportMetered(name, timer.getValue(), fields);
+         reportSampled(name, timer.getValue().getSnapshot(), fields, convertDuration(1.0));
+      }
+
+      flush();
+   }
+
+   /**
+    * Reports collected columns, without allocation.
+    * <p>
+    *    The reporter's filter is applied to each metric.
+    * </p>
+    * @param columns The columns.
+    */
+   public void report(final MetricColumns columns) {
+
+      buf.clear();
+      int rowCount = columns.getRowCount();
+      if(rowCount > lastRowCounts.length) {
+         int capacity = Math.max(rowCount, lastRowCounts.length * 2);
+         lastRowCounts = Arrays.copyOf(lastRowCounts, capacity);
+         lastRowGenerations = Arrays.copyOf(lastRowGenerations, capacity);
+      }
+
+      for(int row = 0; row < rowCount; row++) {
+         MetricColumns.Type type = columns.getType(row);
+         if(type == null) {
+            continue;
+         }
+         String name = columns.getName(row);
+         if(!filter.matches(name, columns.getMetric(row))) {
+            continue;
+         }
+
+         ReportedFields fields = reportedMetrics.get(name);
+         switch(type) {
+            case GAUGE:
+               if(fields == null || fields.contains(MetricField.VALUE)) {
+                  line(name, null, columns.get(row, MetricField.VALUE), GAUGE);
+               }
+               break;
+            case COUNTER:
+               if(fields == null || fields.contains(MetricField.VALUE)) {
+                  line(name, null, change(columns, row), COUNTER);
+               }
+               break;
+            case METER:
+               reportMetered(name, columns, row, fields != null ? fields : defaultMeteredFields);
+               break;
+            case HISTOGRAM:
+               fields = fields != null ? fields : defaultSampledFields;
+               if(fields.contains(MetricField.COUNT)) {
+                  line(name, "count", delta(columns, row), COUNTER);
+               }
+               reportSampled(name, columns, row, fields, 1.0);
+               break;
+            case TIMER:
+               fields = fields != null ? fields : defaultTimerFields;
+               reportMetered(name, columns, row, fields);
+               reportSampled(name, columns, row, fields, convertDuration(1.0));
+               break;
+         }
+      }
+
+      flush();
+   }
+
+   /**
+    * Reports the metered fields of a row.
+    * @param name The name.
+    * @param columns The columns.
+    * @param row The row.
+    * @param fields The reported fields.
+    */
+   private void reportMetered(final String name, final MetricColumns columns, final int row,
+                              final ReportedFields fields) {
+      if(fields.contains(MetricField.COUNT)) {
+         line(name, "count", delta(columns, row), COUNTER);
+      }
+      for(int i = 0; i < METERED_FIELDS.length; i++) {
+         if(fields.contains(METERED_FIELDS[i])) {
+            line(name, METERED_SUFFIXES[i], convertRate(columns.get(row, METERED_FIELDS[i])), GAUGE);
+         }
+      }
+   }
+
+   /**
+    * Reports the sampled fields of a row.
+    * @param name The name.
+    * @param columns The columns.
+    * @param row The row.
+    * @param fields The reported fields.
+    * @param factor Converts values to the reported unit.
+    */
+   private void reportSampled(final String name, final MetricColumns columns, final int row,
+                              final ReportedFields fields, final double factor) {
+      double[] values = quantileValues(fields.getQuantileCount());
+      if(fields.contains(MetricField.PERCENTILE) && columns.getSnapshot(row) != null) {
+         fields.getQuantileValues(columns.getSnapshot(row), values); //Only fixed percentiles are collected...
+      }
+      for(int i = 0; i < fields.getQuantileCount(); i++) {
+         MetricField field = fields.getQuantileField(i);
+         double value = field != MetricField.PERCENTILE ? columns.get(row, field) :
+                 columns.getSnapshot(row) != null ? values[i] : Double.NaN;
+         line(name, fields.getQuantileLabel(i), value * factor, GAUGE);
+      }
+      for(int i = 0; i < SAMPLED_FIELDS.length; i++) {
+         if(fields.contains(SAMPLED_FIELDS[i])) {
+            line(name, SAMPLED_SUFFIXES[i], columns.get(row, SAMPLED_FIELDS[i]) * factor, GAUGE);
+         }
+      }
+      if(fields.contains(MetricField.SKETCH)) {
+         reportSketch(name, columns.getSnapshot(row), factor);
+      }
+   }
+
+   /**
+    * Gets the change in the count for a row since the last report.
+    * @param columns The columns.
+    * @param row The row.
+    * @return The change, or the count if first reported or reset.
+    */
+   private long delta(final MetricColumns columns, final int row) {
+      long count = columns.getCount(row);
+      int generation = columns.getGeneration(row);
+      long last = lastRowCounts[row];
+      boolean isFirst = lastRowGenerations[row] != generation;
+      lastRowCounts[row] = count;
+      lastRowGenerations[row] = generation;
+      return isFirst || last > count ? count : count - last;
+   }
+
+   /**
+    * Gets the signed change in a counter row since the last report.
+    * @param columns The columns.
+    * @param row The row.
+    * @return The change, or the count if first reported.
+    */
+   private long change(final MetricColumns columns, final int row) {
+      long count = columns.getCount(row);
+      int generation = columns.getGeneration(row);
+      long last = lastRowCounts[row];
+      boolean isFirst = lastRowGenerations[row] != generation;
+      lastRowCounts[row] = count;
+      lastRowGenerations[row] = generation;
+      return isFirst ? count : count - last;
+   }
+
+   /**
+    * Reports the fields of a metered metric.
+    * @param name The name.
+    * @param meter The metered metric.
+    * @param fields The reported fields.
+    */
+   private void reportMetered(final String name, final Metered meter, final ReportedFields fields) {
+      if(fields.contains(MetricField.COUNT)) {
+         line(name, "count", delta(name, meter.getCount()), COUNTER);
+      }
+      if(fields.contains(MetricField.ONE_MINUTE_RATE)) {
+         line(name, "m1_rate", convertRate(meter.getOneMinuteRate()), GAUGE);
+      }
+      if(fields.contains(MetricField.FIVE_MINUTE_RATE)) {
+         line(name, "m5_rate", convertRate(meter.getFiveMinuteRate()), GAUGE);
+      }
+      if(fields.contains(MetricField.FIFTEEN_MINUTE_RATE)) {
+         line(name, "m15_rate", convertRate(meter.getFifteenMinuteRate()), GAUGE);
+      }
+      if(fields.contains(MetricField.MEAN_RATE)) {
+         line(name, "mean_rate", convertRate(meter.getMeanRate()), GAUGE);
+      }
+   }
+
+   /**
+    * Reports the fields of a snapshot.
+    * @param name The name.
+    * @param snapshot The snapshot.
+    * @param fields The reported fields.
+    * @param factor Converts snapshot values to the reported unit.
+    */
+   private void reportSampled(final String name, final Snapshot snapshot,
+                              final ReportedFields fields, final double factor) {
+      double[] values = quantileValues(fields.getQuantileCount());
+      fields.getQuantileValues(snapshot, values);
+      for(int i = 0; i < fields.getQuantileCount(); i++) {
+         line(name, fields.getQuantileLabel(i), values[i] * factor, GAUGE);
+      }
+      if(fields.contains(MetricField.MAX)) {
+         line(name, "max", snapshot.getMax() * factor, GAUGE);
+      }
+      if(fields.contains(MetricField.MEAN)) {
+         line(name, "mean", snapshot.getMean() * factor, GAUGE);
+      }
+      if(fields.contains(MetricField.MIN)) {
+         line(name, "min", snapshot.getMin() * factor, GAUGE);
+      }
+      if(fields.contains(MetricField.STD)) {
+         line(name, "stddev", snapshot.getStdDev() * factor, GAUGE);
+      }
+      if(fields.contains(MetricField.SKETCH)) {
+         reportSketch(name, snapshot, factor);
+      }
+   }
+
+   /**
+    * Reports a sketch as DogStatsD distribution values, so quantiles may be computed
+    * by the server across hosts. Each bucket is sent as one value with a sample rate
+    * of one over the number of values in the bucket.
+    * <p>
+    *    Nothing is reported if the snapshot is not a {@link SketchSnapshot}.
+    * </p>
+    * @param name The name.
+    * @param snapshot The snapshot.
+    * @param factor Converts snapshot values to the reported unit.
+    */
+   private void reportSketch(final String name, final Snapshot snapshot, final double factor) {
+      if(!(snapshot instanceof SketchSnapshot)) {
+         return;
+      }
+      QuantileSketch sketch = ((SketchSnapshot)snapshot).getSketch();
+      if(sketch.getZeroCount() > 0L) {
+         line(name, null, 0.0, DISTRIBUTION, sketch.getZeroCount());
+      }
+      for(int bucket = sketch.lowestBucket(); bucket <= sketch.highestBucket(); bucket++) {
+         long count = sketch.getBucketCount(bucket);
+         if(count > 0L) {
+            line(name, null, sketch.getBucketValue(bucket) * factor, DISTRIBUTION, count);
+         }
+      }
+   }
+
+   /**
+    * Gets the array for quantile values, growing it if required. Used only by the reporting thread.
+    * @param size The minimum size.
+    * @return The array.
+    */
+   private double[] quantileValues(final int size) {
+      if(quantileValues.length < size) {
+         quantileValues = new double[size];
+      }
+      return quantileValues;
+   }
+
+   /**
+    * Adds a line to the current datagram, sending the datagram first if the line does not fit.
+    * @param name The metric name.
+    * @param field The field suffix or <code>null</code>.
+    * @param value The value.
+    * @param type The StatsD type.
+    */
+   private void line(final String name, final String field, final double value, final byte type) {
+      line(name, field, value, type, 1L);
+   }
+
+   /**
+    * Adds a line that represents a value recorded more than once, with a sample rate.
+    * @param name The metric name.
+    * @param field The field suffix or <code>null</code>.
+    * @param value The value.
+    * @param type The StatsD type.
+    * @param sampleCount The number of times the value was recorded.
+    */
+   private void line(final String name, final String field, final double value, final byte type, final long sampleCount) {
+      if(Double.isNaN(value) || Double.isInfinite(value)) {
+         return;
+      }
+
+      byte[] nameBytes = names.bytes(nameSink, name);
+      encodeLine(field, value, type, sampleCount);
+      int length = nameBytes.length + lineBuf.length();
+      if(buf.position() > 0 && buf.remaining() < length + 1) {
+         flush();
+      }
+      if(length > buf.capacity()) {
+         droppedLines.inc();
+         return;
+      }
+      if(buf.position() > 0) {
+         buf.put((byte)'\n');
+      }
+      buf.put(nameBytes);
+      for(int i = 0; i < lineBuf.length(); i++) {
+         buf.put((byte)lineBuf.charAt(i));
+      }
+   }
+
+   /**
+    * Encodes the part of a line that follows the name into the reused line buffer.
+    * @param field The field suffix or <code>null</code>.
+    * @param value The value.
+    * @param type The StatsD type.
+    * @param sampleCount The number of times the value was recorded.
+    */
+   private void encodeLine(final String field, final double value, final byte type, final long sampleCount) {
+      lineBuf.setLength(0);
+      if(field != null) {
+         lineBuf.append('.').append(field);
+      }
+      lineBuf.append(':');
+      appendValue(lineBuf, value);
+      lineBuf.append('|').append((char)type);
+      if(sampleCount > 1L) {
+         lineBuf.append("|@").append(1.0 / sampleCount);
+      }
+      for(byte b : tags) {
+         lineBuf.append((char)(b & 0xFF));
+      }
+   }
+
+   /**
+    * Sends the current datagram, if not empty.
+    */
+   private void flush() {
+      if(buf.position() == 0) {
+         return;
+      }
+      buf.flip();
+      try {
+         int length = buf.remaining();
+         if(channel.write(buf) > 0) {
+            packets.inc();
+            bytesSent.inc(length);
+         } else {
+            droppedPackets.inc(); //Socket buffer full...
+         }
+      } catch(IOException ioe) {
+         failures.inc();
+      } finally {
+         buf.clear();
+      }
+   }
+
+   /**
+    * Appends a value without an exponent.
+    * @param buf The buffer.
+    * @param value The value.
+    */
+   static void appendValue(final StringBuilder buf, final double value) {
+      if(value == Math.rint(value) && Math.abs(value) < 1e15) {
+         buf.append((long)value);
+      } else if(Math.abs(value) < 1e9) {
+         long scaled = Math.round(value * 1e6);
+         if(scaled < 0) {
+            buf.append('-');
+            scaled = -scaled;
+         }
+         buf.append(scaled / 1000000L);
+         long fraction = scaled % 1000000L;
+         if(fraction > 0) {
+            buf.append('.');
+            int digits = 6;
+            while(fraction % 10L == 0L) {
+               fraction /= 10L;
+               digits--;
+            }
+            for(long pow = 10L; pow <= fraction; pow *= 10L) {
+               digits--;
+            }
+            for(int i = 1; i < digits; i++) {
+               buf.append('0'); //Leading zeros...
+            }
+            buf.append(fraction);
+         }
+      } else {
+         buf.append(BigDecimal.valueOf(value).toPlainString());
+      }
+   }
+
+   /**
+    * Gets the StatsD name for a metric, with the prefix added and reserved characters replaced.
+    * @param prefix The prefix.
+    * @param name The metric name.
+    * @return The StatsD name.
+    */
+   static String encodeName(final String prefix, final String name) {
+      StringBuilder encoded = new StringBuilder(prefix.length() + name.length());
+      String fullName = prefix + name;
+      for(int i = 0; i < fullName.length(); i++) {
+         char ch = fullName.charAt(i);
+         encoded.append(ch == ':' || ch == '|' || ch == '@' || ch == '#' || Character.isWhitespace(ch) ? '_' : ch);
+      }
+      return encoded.toString();
+   }
+
+   /**
+    * Gets the change in a monotonic count since the last report.
+    * @param name The metric name.
+    * @param count The current count.
+    * @return The change, or the count if first reported or reset.
+    */
+   private long delta(final String name, final long count) {
+      Long last = lastCounts.put(name, count);
+      return last == null || last > count ? count : count - last;
+   }
+
+   /**
+    * Gets the signed change in a counter since the last report.
+    * <p>
+    *    Counters may be decremented, so a lower count is a negative change, not a reset.
+    * </p>
+    * @param name The metric name.
+    * @param count The current count.
+    * @return The change, or the count if first reported.
+    */
+   private long change(final String name, final long count) {
+      Long last = lastCounts.put(name, count);
+      return last == null ? count : count - last;
+   }
+
+   @Override
+   public void stop() {
+      try {
+         super.stop();
+      } finally {
+         registry.removeListener(pruner);
+         try {
+            channel.close();
+         } catch(IOException ioe) {
+            //Ignore...
+         }
+      }
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return metrics;
+   }
+
+   private static final MetricField[] METERED_FIELDS = {
+           MetricField.ONE_MINUTE_RATE, MetricField.FIVE_MINUTE_RATE, MetricField.FIFTEEN_MINUTE_RATE, MetricField.MEAN_RATE
+   };
+
+   private static final String[] METERED_SUFFIXES = {"m1_rate", "m5_rate", "m15_rate", "mean_rate"};
+
+   private static final MetricField[] SAMPLED_FIELDS = {
+           MetricField.MAX, MetricField.MEAN, MetricField.MIN, MetricField.STD
+   };
+
+   private static final String[] SAMPLED_SUFFIXES = {"max", "mean", "min", "stddev"};
+
+   private static final byte GAUGE = 'g';
+   private static final byte COUNTER = 'c';
+   private static final byte DISTRIBUTION = 'd';
+
+   /**
+    * The set of names/fields to report.
+    */
+   private final ImmutableMap<String, ReportedFields> reportedMetrics;
+
+   /**
+    * Fields reported for histograms and timers without reported fields.
+    */
+   private final ReportedFields defaultSampledFields;
+
+   /**
+    * Fields reported for meters and timers without reported fields.
+    */
+   private final ReportedFields defaultMeteredFields;
+
+   /**
+    * Fields reported for timers without reported fields.
+    */
+   private final ReportedFields defaultTimerFields;
+
+   /**
+    * The filter, applied to column reports.
+    */
+   private final MetricFilter filter;
+
+   /**
+    * The StatsD names.
+    */
+   private final NameTable names;
+
+   /**
+    * The sink for StatsD names.
+    */
+   private final int nameSink;
+
+   /**
+    * The encoded tags added to every line.
+    */
+   private final byte[] tags;
+
+   /**
+    * The datagram buffer, reused for every datagram.
+    */
+   private final ByteBuffer buf;
+
+   /**
+    * The line being encoded, after the name, one character per byte.
+    */
+   private final StringBuilder lineBuf = new StringBuilder(256);
+
+   /**
+    * The non-blocking channel.
+    */
+   private final DatagramChannel channel;
+
+   /**
+    * The count for each metric at the last report. Updated only by the reporting thread.
+    * A count is discarded only when its metric is removed from the registry.
+    */
+   private final Map<String, Long> lastCounts = Maps.newConcurrentMap();
+
+   /**
+    * Discards the last count for metrics removed from the registry.
+    */
+   private final MetricRegistryListener pruner = new MetricRegistryListener.Base() {
+
+      @Override
+      public void onCounterRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onHistogramRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onMeterRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+
+      @Override
+      public void onTimerRemoved(final String name) {
+         lastCounts.remove(name);
+      }
+   };
+
+   private final MetricRegistry registry;
+
+   /**
+    * Values computed for reported quantiles, reused for every metric.
+    */
+   private double[] quantileValues = new double[8];
+
+   /**
+    * The count for each column row at the last report. Used only by the reporting thread.
+    */
+   private long[] lastRowCounts = new long[0];
+
+   /**
+    * The row generation for each count in <code>lastRowCounts</code>.
+    */
+   private int[] lastRowGenerations = new int[0];
+
+   private final Counter packets = new Counter();
+   private final Counter bytesSent = new Counter();
+   private final Counter droppedPackets = new Counter();
+   private final Counter droppedLines = new Counter();
+   private final Counter failures = new Counter();
+
+   private final ImmutableMap<String, Metric> metrics = ImmutableMap.of(
+           "packets", packets,
+           "bytes-sent", bytesSent,
+           "dropped-packets", droppedPackets,
+           "dropped-lines", droppedLines,
+           "failures", failures
+   );
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.statsd;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Splitter;
+import org.attribyte.api.InitializationException;
+import org.attribyte.metrics.ColumnReporter;
+import org.attribyte.metrics.MetricColumns;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.ReportedFields;
+import org.attribyte.metrics.ReporterBase;
+import org.attribyte.util.InitUtil;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports metrics to StatsD, or DogStatsD, over UDP.
+ * <p>
+ *    Reported fields are selected as for New Relic: <code>report.[metric name]=[fields]</code>.
+ *    Metrics without a selection report the default fields for their type.
+ * </p>
+ * <p>
+ *    Supports allocation-free reports from {@link MetricColumns}.
+ * </p>
+ */
+public class StatsDReporter extends ReporterBase implements ColumnReporter {
+
+   /**
+    * The prefix for per-metric field selection ('report.').
+    */
+   public static final String REPORT_PREFIX = "report.";
+
+   /**
+    * The StatsD host ('host'). Default 'localhost'.
+    */
+   public static final String HOST_PROPERTY = "host";
+
+   /**
+    * The StatsD port ('port'). Default '8125'.
+    */
+   public static final String PORT_PROPERTY = "port";
+
+   /**
+    * A prefix added to every name ('prefix'). Default is no prefix.
+    */
+   public static final String PREFIX_PROPERTY = "prefix";
+
+   /**
+    * A comma-separated list of DogStatsD tags added to every line ('tags').
+    * Default is no tags. Not supported by plain StatsD.
+    */
+   public static final String TAGS_PROPERTY = "tags";
+
+   /**
+    * The maximum size of a datagram, in bytes ('maxPacketSize'). Default '1432'.
+    */
+   public static final String MAX_PACKET_SIZE_PROPERTY = "maxPacketSize";
+
+   /**
+    * The fields reported for histograms and timers without a selection ('sampledFields').
+    * Default 'count,median,p95,p99,max,min,mean'.
+    */
+   public static final String SAMPLED_FIELDS_PROPERTY = "sampledFields";
+
+   /**
+    * The fields reported for meters and timers without a selection ('meteredFields').
+    * Default 'count,1m_rate'.
+    */
+   public static final String METERED_FIELDS_PROPERTY = "meteredFields";
+
+   @Override
+   public void init(final String name,
+                    final Properties _props,
+                    final MetricRegistry registry, final MetricFilter filter) throws Exception {
+      if(isInit.compareAndSet(false, true)) {
+         init(name, _props);
+
+         String host = init.getProperty(HOST_PROPERTY, "localhost").trim();
+         int port = init.getIntProperty(PORT_PROPERTY, 8125);
+         ScheduledStatsDReporter.Builder builder = ScheduledStatsDReporter.newBuilder(registry, new InetSocketAddress(host, port));
+         final Properties kvProps = new InitUtil(REPORT_PREFIX, _props, false).getProperties();
+         for(Object objKey : kvProps.keySet()) {
+            String key = objKey.toString();
+            ReportedFields fields = ReportedFields.fromString(kvProps.getProperty(key));
+            if(!fields.isEmpty()) {
+               builder.addReportedMetric(key, fields);
+            }
+         }
+
+         String sampledFields = init.getProperty(SAMPLED_FIELDS_PROPERTY, "").trim();
+         if(!sampledFields.isEmpty()) {
+            builder.setDefaultSampledFields(ReportedFields.fromString(sampledFields));
+         }
+         String meteredFields = init.getProperty(METERED_FIELDS_PROPERTY, "").trim();
+         if(!meteredFields.isEmpty()) {
+            builder.setDefaultMeteredFields(ReportedFields.fromString(meteredFields));
+         }
+
+         builder.setPrefix(init.getProperty(PREFIX_PROPERTY, "").trim());
+         builder.setTags(Splitter.on(',').omitEmptyStrings().trimResults().splitToList(init.getProperty(TAGS_PROPERTY, "")));
+         builder.setMaxPacketSize(init.getIntProperty(MAX_PACKET_SIZE_PROPERTY, ScheduledStatsDReporter.DEFAULT_MAX_PACKET_SIZE));
+         builder.convertDurationsTo(TimeUnit.valueOf(init.getProperty(DURATION_UNIT_PROPERTY, "MILLISECONDS").toUpperCase()));
+         builder.convertRatesTo(TimeUnit.valueOf(init.getProperty(RATE_UNIT_PROPERTY, "SECONDS").toUpperCase()));
+         MetricFilter reportFilter = skipUnchanged(filter);
+         if(reportFilter != null) {
+            builder.filter(reportFilter);
+         }
+         reporter = builder.build();
+         frequencyMillis = InitUtil.millisFromTime(init.getProperty(FREQUENCY_PROPERTY, "10s"));
+      }
+   }
+
+   @Override
+   public void start() throws Exception {
+      if(!isInit.get()) {
+         throw new InitializationException("The reporter must be initialized before start!");
+      }
+      if(isRunning.compareAndSet(false, true)) {
+         reporter.start(frequencyMillis, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   @Override
+   public void stop() {
+      isRunning.set(false);
+      if(reporter != null) {
+         reporter.stop(); //Closes the channel, even if never started...
+      }
+   }
+
+   @Override
+   public long getFrequencyMillis() {
+      return frequencyMillis;
+   }
+
+   @Override
+   public void report(final RegistrySnapshot snapshot) {
+      skipUnchanged(rollup(snapshot)).report(reporter);
+   }
+
+   @Override
+   public void report(final MetricColumns columns) {
+      reporter.report(columns); //Unchanged metrics are skipped by the reporter's filter...
+   }
+
+   @Override
+   public Map<String, Metric> getMetrics() {
+      return reporter.getMetrics();
+   }
+
+   private ScheduledStatsDReporter reporter;
+   private long frequencyMillis;
+   private final AtomicBoolean isRunning = new AtomicBoolean(false);
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class CardinalityLimiterTest {
+
+   @Test
+   public void foldLeastActive() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 10; i++) {
+         registry.counter("user." + i + ".requests").inc();
+      }
+      registry.meter("system.load").mark();
+
+      CardinalityLimiter limiter = new CardinalityLimiter(3, 1, ImmutableMap.of());
+      RegistrySnapshot limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      assertEquals(ImmutableSet.of("user.0.requests", "user.1.requests", "user.2.requests", "user.__other__"),
+              limited.getCounters().keySet()); //First counts are a baseline...
+
+      registry.counter("user.7.requests").inc(100);
+      registry.counter("user.3.requests").inc(50);
+      registry.counter("user.5.requests").inc(20);
+      limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      assertEquals(ImmutableSet.of("user.3.requests", "user.5.requests", "user.7.requests", "user.__other__"),
+              limited.getCounters().keySet());
+      assertEquals(0L, limited.getCounters().get("user.__other__").getCount()); //No activity...
+      assertEquals(7L, limited.getGauges().get("user.__other__.series").getValue());
+      assertNotNull(limited.getMeters().get("system.load"));
+      assertEquals(14L, ((Counter)limiter.getMetrics().get("folded-series")).getCount());
+
+      registry.counter("user.1.requests").inc(1000);
+      registry.counter("user.0.requests").inc(4);
+      limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      assertTrue(limited.getCounters().containsKey("user.1.requests")); //Most active since the last snapshot...
+      assertEquals(4, limited.getCounters().size());
+      assertEquals(4L, limited.getCounters().get("user.__other__").getCount());
+
+      limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      assertEquals(4L, limited.getCounters().get("user.__other__").getCount()); //Never decreases...
+   }
+
+   @Test
+   public void hotSeries() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 20000; i++) {
+         registry.counter(String.format("user.idle%05d.requests", i)).inc(1_000_000L * (i + 1));
+      }
+      for(int i = 0; i < 10; i++) {
+         registry.counter("user.session" + i + ".requests");
+      }
+
+      CardinalityLimiter limiter = new CardinalityLimiter(50, 1, ImmutableMap.of());
+      RegistrySnapshot limited = null;
+      for(int tick = 0; tick < 20; tick++) {
+         for(int i = 0; i < 10; i++) {
+            registry.counter("user.session" + i + ".requests").inc(5000L);
+         }
+         limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      }
+      for(int i = 0; i < 10; i++) {
+         assertTrue(limited.getCounters().containsKey("user.session" + i + ".requests"));
+      }
+   }
+
+   @Test
+   public void independentHistory() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 4; i++) {
+         registry.counter("user." + i + ".requests");
+      }
+      CardinalityLimiter limiter = new CardinalityLimiter(1, 1, ImmutableMap.of());
+      Object a = new Object();
+      Object b = new Object();
+      limiter.limit(a, RegistrySnapshot.collect(registry, null));
+      registry.counter("user.3.requests").inc(10);
+      assertTrue(limiter.limit(a, RegistrySnapshot.collect(registry, null)).getCounters().containsKey("user.3.requests"));
+      //First seen with key b, so no activity is credited...
+      assertTrue(limiter.limit(b, RegistrySnapshot.collect(registry, null)).getCounters().containsKey("user.0.requests"));
+      //Limiting a different key leaves the history for a...
+      assertTrue(limiter.limit(a, RegistrySnapshot.collect(registry, null)).getCounters().containsKey("user.3.requests"));
+   }
+
+   @Test
+   public void limitBucketViews() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 3; i++) {
+         registry.counter("user." + i + ".requests").inc();
+      }
+      registry.counter("system.errors");
+      ReportingTest.TestReporter requests = new ReportingTest.TestReporter();
+      ReportingTest.TestReporter system = new ReportingTest.TestReporter();
+      SnapshotCollector collector = new SnapshotCollector(registry, null, 60000L,
+              ImmutableList.of(requests, system),
+              ImmutableMap.of(requests, (name, metric) -> name.endsWith(".requests"),
+                      system, (name, metric) -> name.startsWith("system.")),
+              false, 0, ReportQueue.Overrun.SKIP,
+              new CardinalityLimiter(1, 1, ImmutableMap.of()), new Timer(), new Counter());
+      collector.run();
+      assertEquals(ImmutableSet.of("user.0.requests", "user.__other__"), requests.reportedCounters);
+      assertEquals(ImmutableSet.of("system.errors"), system.reportedCounters);
+      collector.close();
+   }
+
+   @Test
+   public void underLimit() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("a.1");
+      registry.counter("a.2");
+      CardinalityLimiter limiter = new CardinalityLimiter(2, 1, ImmutableMap.of());
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      assertSame(snapshot, limiter.limit(snapshot));
+   }
+
+   @Test
+   public void prefixLimits() {
+      Properties props = new Properties();
+      props.setProperty("prefixSegments", "2");
+      props.setProperty("maxSeries.http.users", "1");
+      CardinalityLimiter limiter = CardinalityLimiter.fromProperties(props);
+      assertNotNull(limiter);
+      assertEquals("http.users", limiter.prefix("http.users.1234.latency"));
+      assertEquals("http", limiter.prefix("http"));
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("http.users.1").inc(2);
+      registry.counter("http.users.2").inc();
+      registry.counter("http.other.1");
+      registry.counter("http.other.2");
+      RegistrySnapshot limited = limiter.limit(RegistrySnapshot.collect(registry, null));
+      assertEquals(ImmutableSet.of("http.users.1", "http.users.__other__", "http.other.1", "http.other.2"),
+              limited.getCounters().keySet());
+
+      assertNull(CardinalityLimiter.fromProperties(new Properties()));
+   }
+
+   @Test
+   public void topSeries() {
+      CardinalityLimiter.TopSeries top = new CardinalityLimiter.TopSeries(2);
+      top.add("a", 10L);
+      top.add("b", 5L);
+      top.add("c", 1L); //Replaces b, with b's count as error...
+      top.add("a", 1L);
+      assertEquals(ImmutableSet.of("a"), top.top(1));
+      assertEquals(ImmutableSet.of("a", "c"), top.top(2));
+   }
+}
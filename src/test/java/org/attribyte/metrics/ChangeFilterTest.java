@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ChangeFilterTest {
+
+   @Test
+   public void skipUnchanged() {
+      ChangeFilter filter = new ChangeFilter(60000L);
+      Counter counter = new Counter();
+      AtomicLong value = new AtomicLong(5L);
+      Gauge<Long> gauge = value::get;
+
+      assertTrue(filter.matches("counter", counter, 1000L));
+      assertTrue(filter.matches("gauge", gauge, 1000L));
+      assertFalse(filter.matches("counter", counter, 2000L));
+      assertFalse(filter.matches("gauge", gauge, 2000L));
+
+      counter.inc();
+      value.set(6L);
+      assertTrue(filter.matches("counter", counter, 3000L));
+      assertTrue(filter.matches("gauge", gauge, 3000L));
+      assertFalse(filter.matches("counter", counter, 4000L));
+
+      //Heartbeat...
+      assertTrue(filter.matches("counter", counter, 63000L));
+      assertFalse(filter.matches("counter", counter, 64000L));
+   }
+
+   @Test
+   public void discardRemoved() {
+      ChangeFilter filter = new ChangeFilter(60000L);
+      Counter counter = new Counter();
+      for(int i = 0; i < 1000; i++) {
+         assertTrue(filter.matches("old-" + i, counter, 1000L));
+      }
+      assertEquals(1000, filter.size());
+      for(int i = 0; i < 1000; i++) {
+         assertTrue(filter.matches("new-" + i, counter, 200000L));
+      }
+      assertTrue(filter.size() < 2000);
+      for(int i = 0; i < 1000; i++) {
+         assertFalse(filter.matches("new-" + i, counter, 201000L));
+      }
+   }
+
+   @Test
+   public void filterSnapshot() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("counter-0").inc();
+      registry.counter("counter-1").inc();
+      ChangeFilter filter = new ChangeFilter(60000L);
+      assertEquals(2, filter.filter(RegistrySnapshot.collect(registry, null)).size());
+      registry.counter("counter-1").inc();
+      RegistrySnapshot snapshot = filter.filter(RegistrySnapshot.collect(registry, null));
+      assertEquals(1, snapshot.size());
+      assertTrue(snapshot.getCounters().containsKey("counter-1"));
+   }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HdrReservoirTest {
+
+   @Test
+   public void exactPercentiles() {
+      HdrReservoir reservoir = new HdrReservoir(3, 0L);
+      for(int i = 1; i <= 10000; i++) {
+         reservoir.update(i);
+      }
+      Snapshot snapshot = reservoir.getSnapshot();
+      assertEquals(10000, snapshot.size());
+      assertEquals(5000.0, snapshot.getMedian(), 5.0);
+      assertEquals(9900.0, snapshot.get99thPercentile(), 10.0);
+      assertEquals(9990.0, snapshot.get999thPercentile(), 10.0);
+      assertEquals(1L, snapshot.getMin());
+      assertEquals(10000.0, snapshot.getMax(), 10.0);
+      assertEquals(5000.5, snapshot.getMean(), 5.0);
+
+      long[] values = snapshot.getValues();
+      assertEquals(10000, values.length);
+      assertEquals(1L, values[0]);
+      assertTrue(values[9999] >= 9990L);
+   }
+
+   @Test
+   public void intervalSwap() {
+      HdrReservoir reservoir = new HdrReservoir(2, 0L);
+      reservoir.update(100);
+      reservoir.update(-5);
+      Snapshot first = reservoir.getSnapshot();
+      assertEquals(2, first.size());
+      assertEquals(0L, first.getMin());
+
+      reservoir.update(1000);
+      Snapshot second = reservoir.getSnapshot();
+      assertEquals(1, second.size()); //Only values since the previous snapshot...
+      assertEquals(1000.0, second.getMin(), 10.0);
+      assertEquals(2, first.size()); //...and the previous snapshot is unchanged.
+
+      assertEquals(0, reservoir.getSnapshot().size());
+   }
+
+   @Test
+   public void minInterval() {
+      HdrReservoir reservoir = new HdrReservoir(2, 60000L);
+      reservoir.update(10);
+      Snapshot first = reservoir.getSnapshot();
+      reservoir.update(20);
+      assertSame(first, reservoir.getSnapshot());
+      assertEquals(1, reservoir.size());
+   }
+
+   @Test
+   public void registryTimer() {
+      MetricRegistry registry = new MetricRegistry();
+      Timer timer = registry.timer("requests", HdrMetrics.timers(2, 0L));
+      assertSame(timer, registry.timer("requests", HdrMetrics.timers()));
+      timer.update(5, TimeUnit.MILLISECONDS);
+      timer.update(15, TimeUnit.MILLISECONDS);
+
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      Snapshot timerSnapshot = snapshot.getTimers().get("requests").getSnapshot();
+      assertEquals(2, timerSnapshot.size());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(15), timerSnapshot.getMax(), TimeUnit.MILLISECONDS.toNanos(1));
+      assertSame(timerSnapshot, snapshot.getTimers().get("requests").getSnapshot()); //Captured once...
+      assertEquals(2L, snapshot.getTimers().get("requests").getCount());
+   }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricColumnsTest {
+
+   @Test
+   public void collect() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("counter").inc(3);
+      registry.register("gauge", (MetricColumns.DoubleGauge)() -> 1.5);
+      registry.register("string-gauge", (com.codahale.metrics.Gauge<String>)() -> "x");
+      Timer timer = registry.timer("timer");
+      timer.update(10, TimeUnit.MILLISECONDS);
+
+      MetricColumns columns = new MetricColumns(registry, (name, metric) -> !name.equals("string-gauge"));
+      registry.meter("meter").mark(2);
+      columns.collect();
+
+      assertEquals(4, columns.getRowCount());
+      int counterRow = row(columns, "counter");
+      assertEquals(MetricColumns.Type.COUNTER, columns.getType(counterRow));
+      assertEquals(3L, columns.getCount(counterRow));
+      assertEquals(1.5, columns.get(row(columns, "gauge"), MetricField.VALUE), 0.0);
+      assertEquals(2L, columns.getCount(row(columns, "meter")));
+      int timerRow = row(columns, "timer");
+      assertEquals(1L, columns.getCount(timerRow));
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(10), columns.get(timerRow, MetricField.MAX), 0.0);
+      assertTrue(Double.isNaN(columns.get(counterRow, MetricField.MAX)));
+      columns.close();
+   }
+
+   @Test
+   public void reuseRows() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("a");
+      MetricColumns columns = new MetricColumns(registry, MetricFilter.ALL);
+      int row = row(columns, "a");
+      int generation = columns.getGeneration(row);
+
+      registry.remove("a");
+      assertNull(columns.getType(row));
+      registry.meter("b");
+      assertEquals(row, row(columns, "b"));
+      assertNotEquals(generation, columns.getGeneration(row));
+      assertEquals(1, columns.getRowCount());
+
+      columns.close();
+      registry.counter("c");
+      assertEquals(-1, row(columns, "c"));
+   }
+
+   @Test
+   public void collectWithoutAllocation() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 100; i++) {
+         registry.counter("counter-" + i).inc(i);
+         registry.meter("meter-" + i).mark(i);
+         final double value = i;
+         registry.register("gauge-" + i, (MetricColumns.DoubleGauge)() -> value);
+      }
+      MetricColumns columns = new MetricColumns(registry, null);
+      for(int i = 0; i < 100; i++) {
+         columns.collect();
+      }
+
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+      long threadId = Thread.currentThread().getId();
+      long overhead = -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+      long start = threads.getThreadAllocatedBytes(threadId);
+      for(int i = 0; i < 1000; i++) {
+         columns.collect();
+      }
+      long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+      assertTrue("Allocated " + allocated + " bytes", allocated < 1000L * 16L);
+      columns.close();
+   }
+
+   private static int row(final MetricColumns columns, final String name) {
+      for(int row = 0; row < columns.getRowCount(); row++) {
+         if(name.equals(columns.getName(row))) {
+            return row;
+         }
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NameTableTest {
+
+   @Test
+   public void encodeOnRegistration() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("existing");
+      NameTable table = NameTable.forRegistry(registry);
+      assertSame(table, NameTable.forRegistry(registry));
+      assertEquals(1, table.size());
+
+      AtomicInteger encodeCount = new AtomicInteger();
+      int sink = table.sink("test", name -> {
+         encodeCount.incrementAndGet();
+         return "app." + name;
+      });
+      assertEquals(sink, table.sink("test", name -> "other." + name));
+      assertEquals(1, encodeCount.get()); //Existing names encoded when the sink is added...
+
+      registry.timer("requests");
+      assertEquals(2, encodeCount.get()); //...and new names when registered.
+
+      String name = table.name(sink, "requests");
+      assertEquals("app.requests", name);
+      assertSame(name, table.name(sink, "requests"));
+      assertArrayEquals("app.requests".getBytes(StandardCharsets.UTF_8), table.bytes(sink, "requests"));
+      assertSame(table.bytes(sink, "requests"), table.bytes(sink, "requests"));
+      assertEquals(2, encodeCount.get());
+   }
+
+   @Test
+   public void stableIds() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.meter("a");
+      registry.meter("b");
+      NameTable table = NameTable.forRegistry(registry);
+      int a = table.id("a");
+      int b = table.id("b");
+      assertNotEquals(a, b);
+      assertEquals(a, table.id("a"));
+
+      registry.remove("a");
+      assertEquals(1, table.size());
+      registry.meter("a");
+      assertNotEquals(a, table.id("a"));
+      assertEquals(b, table.id("b"));
+   }
+
+   @Test
+   public void unregisteredNames() {
+      NameTable table = new NameTable();
+      int first = table.sink("first", name -> "1." + name);
+      assertEquals("1.renamed", table.name(first, "renamed"));
+      int second = table.sink("second", name -> "2." + name);
+      assertEquals("2.renamed", table.name(second, "renamed"));
+      assertEquals(1, table.size());
+   }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ParallelEncoderTest {
+
+   @Test
+   public void encodeInOrder() {
+
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 1000; i++) {
+         registry.counter(String.format("counter-%04d", i)).inc(i);
+      }
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+
+      ParallelEncoder encoder = new ParallelEncoder(4, 64);
+      try {
+         final Set<String> threads = Sets.newConcurrentHashSet();
+         List<String> encoded = encoder.encode(snapshot, chunk -> {
+            threads.add(Thread.currentThread().getName());
+            StringBuilder buf = new StringBuilder();
+            for(Map.Entry<String, Counter> counter : chunk.getCounters().entrySet()) {
+               buf.append(counter.getKey()).append(' ').append(counter.getValue().getCount()).append('\n');
+            }
+            return buf.toString();
+         });
+
+         assertEquals(16, encoded.size());
+         StringBuilder expected = new StringBuilder();
+         for(int i = 0; i < 1000; i++) {
+            expected.append(String.format("counter-%04d", i)).append(' ').append(i).append('\n');
+         }
+         assertEquals(expected.toString(), String.join("", encoded));
+         for(String thread : threads) {
+            assertTrue(thread, thread.startsWith("metrics-encoder-") || thread.equals(Thread.currentThread().getName()));
+         }
+         assertEquals(1L, ((Timer)encoder.getMetrics().get("encode")).getCount());
+         assertEquals(16L, ((Counter)encoder.getMetrics().get("chunks")).getCount());
+
+         //Restarted after shutdown...
+         encoder.shutdown();
+         assertEquals(16, encoder.encode(snapshot, RegistrySnapshot::size).size());
+      } finally {
+         encoder.shutdown();
+      }
+   }
+
+   @Test
+   public void smallSnapshot() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("counter");
+      ParallelEncoder encoder = new ParallelEncoder(4, 64);
+      final List<String> threads = Lists.newArrayList();
+      List<Integer> encoded = encoder.encode(RegistrySnapshot.collect(registry, null), chunk -> {
+         threads.add(Thread.currentThread().getName());
+         return chunk.size();
+      });
+      assertEquals(Lists.newArrayList(1), encoded);
+      assertEquals(Lists.newArrayList(Thread.currentThread().getName()), threads); //Encoded by the caller...
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void encodeFails() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 100; i++) {
+         registry.counter("counter-" + i);
+      }
+      ParallelEncoder encoder = new ParallelEncoder(2, 10);
+      try {
+         encoder.encode(RegistrySnapshot.collect(registry, null), chunk -> {
+            if(chunk.getCounters().containsKey("counter-50")) {
+               throw new IllegalStateException();
+            }
+            return chunk.size();
+         });
+      } finally {
+         encoder.shutdown();
+      }
+   }
+
+   @Test
+   public void fromProperties() {
+      assertNull(ParallelEncoder.fromProperties("", ""));
+      assertNull(ParallelEncoder.fromProperties("1", "100"));
+      ParallelEncoder encoder = ParallelEncoder.fromProperties("8", "");
+      assertEquals(8, encoder.getParallelism());
+      assertEquals(ParallelEncoder.DEFAULT_CHUNK_SIZE, encoder.getChunkSize());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void invalidChunkSize() {
+      ParallelEncoder.fromProperties("4", "0");
+   }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+   @Test
+   public void relativeAccuracy() {
+      QuantileSketch sketch = new QuantileSketch(0.01, QuantileSketch.DEFAULT_MAX_BUCKETS);
+      for(int i = 1; i <= 100000; i++) {
+         sketch.add(i);
+      }
+      assertEquals(100000L, sketch.getCount());
+      assertEquals(5000050000.0, sketch.getSum(), 0.0);
+      for(double q : new double[] {0.1, 0.5, 0.9, 0.99, 0.999, 0.9999}) {
+         double expected = 1.0 + q * 99999.0;
+         assertEquals("q=" + q, expected, sketch.quantile(q), expected * 0.01);
+      }
+      assertEquals(1.0, sketch.quantile(0.0), 0.0);
+      assertEquals(100000.0, sketch.quantile(1.0), 0.0);
+   }
+
+   @Test
+   public void merge() {
+      QuantileSketch a = new QuantileSketch();
+      QuantileSketch b = new QuantileSketch();
+      QuantileSketch all = new QuantileSketch();
+      for(int i = 0; i < 10000; i++) {
+         a.add(i);
+         all.add(i);
+         b.add(i * 100);
+         all.add(i * 100);
+      }
+      a.merge(b);
+      assertEquals(all.getCount(), a.getCount());
+      assertEquals(all.getZeroCount(), a.getZeroCount());
+      assertEquals(all.getMax(), a.getMax(), 0.0);
+      for(double q : new double[] {0.5, 0.9, 0.99}) {
+         assertEquals(all.quantile(q), a.quantile(q), 0.0);
+      }
+
+      try {
+         a.merge(new QuantileSketch(0.05, 100));
+         fail("Expected IllegalArgumentException");
+      } catch(IllegalArgumentException iae) {
+         //Expected...
+      }
+   }
+
+   @Test
+   public void collapseLowest() {
+      QuantileSketch sketch = new QuantileSketch(0.01, 64);
+      for(int i = 1; i <= 1000000; i *= 10) {
+         sketch.add(i);
+      }
+      sketch.add(0.5); //Below the lowest retained bucket...
+      assertTrue(sketch.highestBucket() - sketch.lowestBucket() < 64);
+      assertEquals(8L, sketch.getCount());
+      assertEquals(1000000.0, sketch.quantile(1.0), 0.0);
+      assertEquals(0.5, sketch.quantile(0.0), 0.0); //Exact...
+      double median = sketch.quantile(0.5); //...but lower values are counted in the lowest retained bucket.
+      assertTrue(median > 200000.0 && median < 1000000.0);
+   }
+
+   @Test
+   public void encodeDecode() {
+      QuantileSketch sketch = new QuantileSketch();
+      sketch.add(0.0, 3L);
+      for(int i = 1; i <= 1000; i++) {
+         sketch.add(i * 1000L);
+      }
+      byte[] encoded = sketch.encode();
+      assertTrue(encoded.length < 1000);
+      QuantileSketch decoded = QuantileSketch.decode(encoded);
+      assertEquals(sketch.getCount(), decoded.getCount());
+      assertEquals(sketch.getZeroCount(), decoded.getZeroCount());
+      assertEquals(sketch.getSum(), decoded.getSum(), 0.0);
+      assertEquals(sketch.quantile(0.99), decoded.quantile(0.99), 0.0);
+      assertEquals(sketch.getMin(), decoded.getMin(), 0.0);
+
+      try {
+         QuantileSketch.decode(new byte[] {1, 2, 3});
+         fail("Expected IllegalArgumentException");
+      } catch(IllegalArgumentException iae) {
+         //Expected...
+      }
+   }
+
+   @Test
+   public void registryTimer() {
+      MetricRegistry registry = new MetricRegistry();
+      Timer timer = registry.timer("requests", SketchMetrics.timers(0.01, 0L));
+      timer.update(5, TimeUnit.MILLISECONDS);
+      timer.update(15, TimeUnit.MILLISECONDS);
+
+      Snapshot snapshot = timer.getSnapshot();
+      assertTrue(snapshot instanceof SketchSnapshot);
+      assertEquals(2, snapshot.size());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(15), snapshot.getMax());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(10), snapshot.getMean(), 0.0);
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(5), snapshot.getMedian(), TimeUnit.MILLISECONDS.toNanos(5) * 0.01);
+      assertEquals(2, snapshot.getValues().length);
+      assertEquals(0, timer.getSnapshot().size()); //Values since the previous snapshot...
+   }
+}
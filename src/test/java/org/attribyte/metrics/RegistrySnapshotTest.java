@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RegistrySnapshotTest {
+
+   @Test
+   public void snapshotOnce() {
+
+      final AtomicInteger snapshotCount = new AtomicInteger();
+      final Reservoir reservoir = new UniformReservoir() {
+         @Override
+         public Snapshot getSnapshot() {
+            snapshotCount.incrementAndGet();
+            return super.getSnapshot();
+         }
+      };
+
+      MetricRegistry registry = new MetricRegistry();
+      Histogram histogram = registry.register("histogram-01", new Histogram(reservoir));
+      histogram.update(10L);
+      histogram.update(20L);
+
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      assertEquals(1, snapshotCount.get());
+
+      for(int i = 0; i < 4; i++) {
+         Histogram reported = snapshot.getHistograms().get("histogram-01");
+         assertEquals(2L, reported.getCount());
+         assertEquals(20L, reported.getSnapshot().getMax());
+      }
+      assertEquals(1, snapshotCount.get());
+   }
+
+   @Test
+   public void gaugeValueCaptured() {
+
+      final AtomicInteger value = new AtomicInteger(1);
+      MetricRegistry registry = new MetricRegistry();
+      registry.gauge("gauge-01", () -> value::get);
+
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      value.set(2);
+      assertEquals(1, snapshot.getGauges().get("gauge-01").getValue());
+   }
+
+   @Test
+   public void renameAndFilter() {
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.meter("meter-01");
+      registry.meter("meter-02");
+      registry.counter("counter-01");
+
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, (name, metric) -> !name.equals("meter-01"));
+      assertEquals(2, snapshot.size());
+
+      RegistrySnapshot renamed = snapshot.rename(name -> name.equals("meter-02") ? "renamed-meter-02" : null);
+      assertEquals(1, renamed.size());
+      assertNotNull(renamed.getMeters().get("renamed-meter-02"));
+   }
+
+   @Test
+   public void partition() {
+
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 25; i++) {
+         registry.counter(String.format("counter-%02d", i)).inc(i);
+      }
+      for(int i = 0; i < 5; i++) {
+         registry.meter("meter-" + i).mark();
+      }
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      assertEquals(1, snapshot.partition(30).size());
+      assertSame(snapshot, snapshot.partition(30).get(0));
+
+      List<RegistrySnapshot> chunks = snapshot.partition(10);
+      assertEquals(4, chunks.size()); //Counters: 10, 10, 5. Meters: 5...
+      assertEquals(10, chunks.get(0).getCounters().size());
+      assertEquals(10, chunks.get(1).getCounters().size());
+      assertEquals(5, chunks.get(2).getCounters().size());
+      assertEquals(5, chunks.get(3).getMeters().size());
+      assertEquals(0, chunks.get(3).getCounters().size());
+
+      List<String> names = Lists.newArrayList();
+      for(RegistrySnapshot chunk : chunks) {
+         assertEquals(snapshot.getTimestamp(), chunk.getTimestamp());
+         names.addAll(chunk.getCounters().keySet());
+         names.addAll(chunk.getMeters().keySet());
+      }
+      List<String> expected = Lists.newArrayList(snapshot.getCounters().keySet());
+      expected.addAll(snapshot.getMeters().keySet());
+      assertEquals(expected, names);
+   }
+}
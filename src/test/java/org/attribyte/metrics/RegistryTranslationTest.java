@@ -27,6 +27,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.util.Properties;
+import java.util.function.Function;
 
 import static org.junit.Assert.*;
 
@@ -86,4 +87,62 @@ public class RegistryTranslationTest {
       assertNull(translated.getMeters().get("translated-meter-02"));
    }
 
+   @Test
+   public void translateRegex()  {
+
+      Properties props = new Properties();
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "re.http\\.(\\w+)\\.latency", "api_$1_latency");
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.timer("http.get.latency");
+      registry.timer("http.post.latency");
+      registry.timer("http.get.size");
+
+      MetricRegistry translated = RegistryTranslation.translate(props, registry);
+      assertEquals(2, translated.getTimers().size());
+      assertNotNull(translated.getTimers().get("api_get_latency"));
+      assertNotNull(translated.getTimers().get("api_post_latency"));
+   }
+
+   @Test
+   public void translateGlob()  {
+
+      Properties props = new Properties();
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "glob.pool.*.queue.*", "queue_$2_$1");
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.meter("pool.01.queue.depth");
+      registry.meter("pool.02.queue.depth");
+      registry.meter("pool.02.sub.queue.depth");
+
+      MetricRegistry translated = RegistryTranslation.translate(props, registry);
+      assertEquals(2, translated.getMeters().size());
+      assertNotNull(translated.getMeters().get("queue_depth_01"));
+      assertNotNull(translated.getMeters().get("queue_depth_02"));
+   }
+
+   @Test
+   public void translatePrecedence()  {
+
+      Properties props = new Properties();
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "http.get.latency", "exact");
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "re..*", "any");
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "glob.http.*.latency", "glob_$1");
+      props.put(RegistryTranslation.TRANSLATE_PREFIX + "glob.http.post.*", "longer_$1");
+
+      Function<String, String> translator = RegistryTranslation.translator(props);
+      assertEquals("exact", translator.apply("http.get.latency"));
+      assertEquals("longer_latency", translator.apply("http.post.latency"));
+      assertEquals("glob_put", translator.apply("http.put.latency"));
+      assertEquals("any", translator.apply("other"));
+      assertEquals("any", translator.apply("other")); //Remembered
+   }
+
+   @Test
+   public void regexPrefix() {
+      assertEquals("http.", NameTranslator.regexPrefix("http\\.(\\w+)\\.latency"));
+      assertEquals("a", NameTranslator.regexPrefix("ab?c"));
+      assertEquals("", NameTranslator.regexPrefix("abc|xyz"));
+      assertEquals("abc", NameTranslator.regexPrefix("^abc"));
+   }
 }
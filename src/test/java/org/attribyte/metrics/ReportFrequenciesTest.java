@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.google.common.collect.ImmutableSortedSet;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class ReportFrequenciesTest {
+
+   @Test
+   public void frequencies() {
+      Properties props = new Properties();
+      props.setProperty("frequency", "1m");
+      props.setProperty("frequency.http.*", "10s");
+      props.setProperty("frequency.queue.size", "5s");
+      props.setProperty("frequency.re.db\\..+\\.latency", "10s");
+      ReportFrequencies frequencies = ReportFrequencies.fromProperties(props);
+      assertNotNull(frequencies);
+
+      assertEquals(10000L, frequencies.getFrequencyMillis("http.requests", 60000L));
+      assertEquals(60000L, frequencies.getFrequencyMillis("http.requests.errors", 60000L)); //Glob matches one segment...
+      assertEquals(5000L, frequencies.getFrequencyMillis("queue.size", 60000L));
+      assertEquals(10000L, frequencies.getFrequencyMillis("db.users.latency", 60000L));
+      assertEquals(60000L, frequencies.getFrequencyMillis("other", 60000L));
+      assertEquals(ImmutableSortedSet.of(5000L, 10000L, 60000L), frequencies.getFrequencies(60000L));
+
+      MetricFilter filter = frequencies.filter(10000L, 60000L);
+      assertTrue(filter.matches("http.requests", new Counter()));
+      assertFalse(filter.matches("other", new Counter()));
+      assertTrue(frequencies.filter(60000L, 60000L).matches("other", new Counter()));
+   }
+
+   @Test
+   public void noFrequencies() {
+      Properties props = new Properties();
+      props.setProperty("frequency", "1m");
+      assertNull(ReportFrequencies.fromProperties(props));
+   }
+}
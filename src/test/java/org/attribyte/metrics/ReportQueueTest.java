@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ReportQueueTest {
+
+   @Test
+   public void skip() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      AtomicLong value = gauge(registry);
+      BlockingReporter reporter = new BlockingReporter();
+      ReportQueue queue = new ReportQueue(reporter, 1, ReportQueue.Overrun.SKIP, 60000L, new Counter());
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null)); //Reporting...
+      assertTrue(reporter.started.await(2, TimeUnit.SECONDS));
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null)); //Queued...
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null)); //Dropped...
+      assertEquals(1, queue.size());
+      assertEquals(1L, counter(queue, "dropped").getCount());
+
+      reporter.release.countDown();
+      assertEquals(ImmutableMap.of(0, 1L, 1, 2L), reporter.awaitCounts(2));
+      queue.close();
+   }
+
+   @Test
+   public void coalesce() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      AtomicLong value = gauge(registry);
+      BlockingReporter reporter = new BlockingReporter();
+      ReportQueue queue = new ReportQueue(reporter, 1, ReportQueue.Overrun.COALESCE, 60000L, new Counter());
+      for(int i = 0; i < 3; i++) {
+         value.incrementAndGet();
+         queue.offer(RegistrySnapshot.collect(registry, null));
+         if(i == 0) {
+            assertTrue(reporter.started.await(2, TimeUnit.SECONDS));
+         }
+      }
+      assertEquals(1L, counter(queue, "dropped").getCount());
+      reporter.release.countDown();
+      assertEquals(ImmutableMap.of(0, 1L, 1, 3L), reporter.awaitCounts(2)); //The latest...
+      Timer reportTimer = (Timer)queue.getMetrics().get("report");
+      for(int i = 0; i < 20 && reportTimer.getCount() < 2L; i++) { //Timed after the reporter returns...
+         Thread.sleep(100L);
+      }
+      assertEquals(2L, reportTimer.getCount());
+      queue.close();
+   }
+
+   @Test
+   public void mergeIntervalHistograms() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      Timer timer = registry.timer("timer", SketchMetrics.timers(0.01, 0L));
+      BlockingReporter reporter = new BlockingReporter();
+      ReportQueue queue = new ReportQueue(reporter, 1, ReportQueue.Overrun.MERGE, 60000L, new Counter());
+      queue.offer(RegistrySnapshot.collect(registry, null));
+      assertTrue(reporter.started.await(2, TimeUnit.SECONDS));
+      timer.update(1, TimeUnit.MILLISECONDS);
+      queue.offer(RegistrySnapshot.collect(registry, null));
+      timer.update(2, TimeUnit.MILLISECONDS);
+      timer.update(3, TimeUnit.MILLISECONDS);
+      queue.offer(RegistrySnapshot.collect(registry, null));
+      assertEquals(1L, counter(queue, "merged").getCount());
+
+      reporter.release.countDown();
+      reporter.awaitCounts(2);
+      assertEquals(3, reporter.timerSizes.get(1).intValue()); //Values from both intervals...
+      queue.close();
+   }
+
+   @Test
+   public void lateSnapshotDropped() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      AtomicLong value = gauge(registry);
+      BlockingReporter reporter = new BlockingReporter();
+      ReportQueue queue = new ReportQueue(reporter, 2, ReportQueue.Overrun.COALESCE, 50L, new Counter());
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null));
+      assertTrue(reporter.started.await(2, TimeUnit.SECONDS));
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null));
+      Thread.sleep(100L);
+      value.incrementAndGet();
+      queue.offer(RegistrySnapshot.collect(registry, null));
+
+      reporter.release.countDown();
+      assertEquals(ImmutableMap.of(0, 1L, 1, 3L), reporter.awaitCounts(2));
+      assertTrue(counter(queue, "deadline-missed").getCount() >= 1L);
+      queue.close();
+   }
+
+   @Test
+   public void overrunFromString() {
+      assertEquals(ReportQueue.Overrun.COALESCE, ReportQueue.Overrun.fromString(""));
+      assertEquals(ReportQueue.Overrun.MERGE, ReportQueue.Overrun.fromString(" Merge"));
+      assertEquals(ReportQueue.Overrun.SKIP, ReportQueue.Overrun.fromString("skip"));
+   }
+
+   private static AtomicLong gauge(final MetricRegistry registry) {
+      AtomicLong value = new AtomicLong();
+      registry.register("value", (Gauge<Long>)value::get);
+      return value;
+   }
+
+   private static Counter counter(final ReportQueue queue, final String name) {
+      return (Counter)queue.getMetrics().get(name);
+   }
+
+   /**
+    * Records the reported 'value' and the size of 'timer' and blocks until released.
+    */
+   @SuppressWarnings("rawtypes")
+   private static final class BlockingReporter implements SnapshotReporter {
+
+      @Override
+      public void report(final RegistrySnapshot snapshot) {
+         started.countDown();
+         try {
+            release.await();
+         } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+         }
+         synchronized(this) {
+            Gauge gauge = snapshot.getGauges().get("value");
+            counts.add(gauge != null ? (Long)gauge.getValue() : 0L);
+            Timer timer = snapshot.getTimers().get("timer");
+            timerSizes.add(timer != null ? timer.getSnapshot().size() : 0);
+            notifyAll();
+         }
+      }
+
+      synchronized Map<Integer, Long> awaitCounts(final int expected) throws InterruptedException {
+         long until = System.currentTimeMillis() + 2000L;
+         while(counts.size() < expected && System.currentTimeMillis() < until) {
+            wait(100L);
+         }
+         ImmutableMap.Builder<Integer, Long> reported = ImmutableMap.builder();
+         for(int i = 0; i < counts.size(); i++) {
+            reported.put(i, counts.get(i));
+         }
+         return reported.build();
+      }
+
+      @Override
+      public long getFrequencyMillis() {
+         return 60000L;
+      }
+
+      @Override
+      public void init(final String name, final Properties props, final MetricRegistry registry, final MetricFilter filter) {
+      }
+
+      @Override
+      public void start() {
+      }
+
+      @Override
+      public void stop() {
+      }
+
+      @Override
+      public String getName() {
+         return "blocking";
+      }
+
+      @Override
+      public Map<String, Metric> getMetrics() {
+         return ImmutableMap.of();
+      }
+
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final List<Long> counts = Lists.newArrayList();
+      final List<Integer> timerSizes = Lists.newArrayList();
+   }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReportSchedulerTest {
+
+   @Test
+   public void alignedTicks() {
+      long minute = 60000L;
+      assertEquals(2 * minute, ReportScheduler.nextTick(minute, minute, 0L));
+      assertEquals(2 * minute, ReportScheduler.nextTick(minute + 1L, minute, 0L));
+      assertEquals(2 * minute, ReportScheduler.nextTick(2 * minute - 1L, minute, 0L));
+      assertEquals(minute + 5000L, ReportScheduler.nextTick(minute, minute, 5000L));
+      assertEquals(2 * minute + 5000L, ReportScheduler.nextTick(minute + 5000L, minute, 5000L));
+   }
+
+   @Test
+   public void hostOffset() {
+      long offset = ReportScheduler.hostOffset("web-01.example.com", 10000L);
+      assertTrue(offset >= 0L && offset < 10000L);
+      assertEquals(offset, ReportScheduler.hostOffset("web-01.example.com", 10000L));
+      assertNotEquals(offset, ReportScheduler.hostOffset("web-02.example.com", 10000L));
+      assertEquals(0L, ReportScheduler.hostOffset("web-01.example.com", 0L));
+   }
+
+   @Test
+   public void slowReport() throws Exception {
+      ReportScheduler scheduler = new ReportScheduler(false, 0L, false, 2, new Counter());
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch fastReports = new CountDownLatch(3);
+      try {
+         scheduler.schedule(() -> {
+            try {
+               release.await();
+            } catch(InterruptedException ie) {
+               Thread.currentThread().interrupt();
+            }
+         }, 20L);
+         scheduler.schedule(fastReports::countDown, 20L);
+         assertTrue(fastReports.await(5L, TimeUnit.SECONDS)); //Not delayed by the slow report...
+      } finally {
+         release.countDown();
+         scheduler.shutdown();
+      }
+   }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.UniformSnapshot;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReportedFieldsTest {
+
+   @Test
+   public void parsePercentile() {
+      assertEquals(MetricField.PERCENTILE, MetricField.fromString("p90"));
+      assertEquals(90.0, MetricField.parsePercentile("p90"), 0.0);
+      assertEquals(99.99, MetricField.parsePercentile("p99.99"), 0.0);
+      assertEquals(99.99, MetricField.parsePercentile("p9999"), 0.0);
+      assertEquals(99.5, MetricField.parsePercentile("99.5th percentile"), 0.0);
+      assertEquals(50.0, MetricField.parsePercentile("median"), 0.0);
+      assertEquals(MetricField.P999, MetricField.fromString("p99.9"));
+      assertEquals(MetricField.UNKNOWN, MetricField.fromString("p"));
+      assertEquals(MetricField.UNKNOWN, MetricField.fromString("p1.2.3"));
+      assertEquals(MetricField.UNKNOWN, MetricField.fromString("pmax"));
+      assertTrue(Double.isNaN(MetricField.parsePercentile("p0")));
+      assertTrue(Double.isNaN(MetricField.parsePercentile("max")));
+   }
+
+   @Test
+   public void fromString() {
+      ReportedFields fields = ReportedFields.fromString("count, p99.99, max, median, p90, p99.9");
+      assertTrue(fields.contains(MetricField.COUNT));
+      assertTrue(fields.contains(MetricField.MEDIAN));
+      assertTrue(fields.contains(MetricField.P999));
+      assertTrue(fields.contains(MetricField.PERCENTILE));
+      assertFalse(fields.contains(MetricField.MIN));
+      assertEquals(4, fields.getQuantileCount());
+      assertEquals(0.5, fields.getQuantile(0), 0.0);
+      assertEquals("p50", fields.getQuantileLabel(0));
+      assertEquals(MetricField.MEDIAN, fields.getQuantileField(0));
+      assertEquals("p90", fields.getQuantileLabel(1));
+      assertEquals(MetricField.PERCENTILE, fields.getQuantileField(1));
+      assertEquals("p999", fields.getQuantileLabel(2));
+      assertEquals("p9999", fields.getQuantileLabel(3));
+      assertEquals("count,max,p50,p90,p999,p9999", fields.toString());
+
+      ReportedFields ambiguous = ReportedFields.fromString("p9.9,p9.99,p99,p99.9");
+      assertEquals("p9_9,p9_99,p99,p999", ambiguous.toString()); //Labels are unique...
+      assertEquals(9.99, MetricField.parsePercentile(ambiguous.getQuantileLabel(1)), 0.0);
+      assertEquals(ambiguous.toString(), ReportedFields.fromString(ambiguous.toString()).toString());
+
+      ReportedFields union = ReportedFields.union(fields, ReportedFields.fromString("min,p75,p90"));
+      assertEquals(5, union.getQuantileCount());
+      assertTrue(union.contains(MetricField.MIN));
+   }
+
+   @Test
+   public void quantileValues() {
+      ReportedFields fields = ReportedFields.fromString("p10,p50,p90,p99,p99.99");
+      double[] values = new double[fields.getQuantileCount()];
+
+      long[] sample = new long[1000];
+      HdrReservoir hdr = new HdrReservoir(2, 0L);
+      SketchReservoir sketch = new SketchReservoir(0.01, QuantileSketch.DEFAULT_MAX_BUCKETS, 0L);
+      for(int i = 0; i < sample.length; i++) {
+         sample[i] = i * 37L;
+         hdr.update(sample[i]);
+         sketch.update(sample[i]);
+      }
+
+      for(com.codahale.metrics.Snapshot snapshot :
+              new com.codahale.metrics.Snapshot[] {new UniformSnapshot(sample), hdr.getSnapshot(), sketch.getSnapshot()}) {
+         fields.getQuantileValues(snapshot, values);
+         for(int i = 0; i < fields.getQuantileCount(); i++) {
+            assertEquals(snapshot.getClass().getSimpleName() + " " + fields.getQuantileLabel(i),
+                    snapshot.getValue(fields.getQuantile(i)), values[i], 0.0);
+         }
+      }
+   }
+}
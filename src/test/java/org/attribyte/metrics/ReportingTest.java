@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.attribyte.util.InitUtil;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ReportingTest {
+
+   @Test
+   public void reconfigure() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      Properties props = new Properties();
+      props.setProperty("metrics.reporting.sharedScheduler", "true");
+      props.setProperty("metrics.a.class", TestReporter.class.getName());
+      props.setProperty("metrics.a.frequency", "1m");
+      props.setProperty("metrics.b.class", TestReporter.class.getName());
+      props.setProperty("metrics.b.frequency", "1m");
+      props.setProperty("metrics.c.class", TestReporter.class.getName());
+      props.setProperty("metrics.c.frequency", "1m");
+
+      Reporting reporting = new Reporting("metrics.", props, registry);
+      assertEquals(3, reporting.start());
+      TestReporter a = reporter(reporting, "a");
+      TestReporter b = reporter(reporting, "b");
+      TestReporter c = reporter(reporting, "c");
+
+      Properties newProps = new Properties();
+      newProps.putAll(props);
+      newProps.remove("metrics.c.class");
+      newProps.remove("metrics.c.frequency");
+      newProps.setProperty("metrics.b.frequency", "30s");
+      newProps.setProperty("metrics.d.class", TestReporter.class.getName());
+      newProps.setProperty("metrics.d.frequency", "1m");
+      assertEquals(3, reporting.reconfigure(newProps));
+
+      assertSame(a, reporter(reporting, "a")); //Unchanged...
+      assertFalse(a.isStopped);
+      assertTrue(b.isStopped);
+      assertEquals(30000L, reporter(reporting, "b").getFrequencyMillis());
+      assertTrue(c.isStopped);
+      assertNull(reporting.getMetrics().get("c"));
+      assertNotNull(reporter(reporting, "d"));
+      assertFalse(reporter(reporting, "a").isStarted); //Scheduled, not started...
+
+      reporting.stop();
+      assertTrue(a.isStopped);
+   }
+
+   @Test
+   public void reconfigureError() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      Properties props = new Properties();
+      props.setProperty("metrics.a.class", TestReporter.class.getName());
+      Reporting reporting = new Reporting("metrics.", props, registry);
+      reporting.start();
+      TestReporter a = reporter(reporting, "a");
+      assertTrue(a.isStarted);
+
+      Properties newProps = new Properties();
+      newProps.setProperty("metrics.b.class", TestReporter.class.getName());
+      newProps.setProperty("metrics.c.frequency", "1m"); //No class...
+      try {
+         reporting.reconfigure(newProps);
+         fail("Expected initialization error");
+      } catch(Exception e) {
+         //Expected...
+      }
+      assertSame(a, reporter(reporting, "a"));
+      assertFalse(a.isStopped);
+      reporting.stop();
+   }
+
+   @Test
+   public void reportFrequencies() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("fast.requests");
+      registry.counter("slow.requests");
+      Properties props = new Properties();
+      props.setProperty("metrics.a.class", TestReporter.class.getName());
+      props.setProperty("metrics.a.frequency", "1h");
+      props.setProperty("metrics.a.frequency.fast.*", "1s");
+
+      Reporting reporting = new Reporting("metrics.", props, registry);
+      reporting.start();
+      TestReporter a = reporter(reporting, "a");
+      assertFalse(a.isStarted); //Scheduled by reporting...
+      long until = System.currentTimeMillis() + 5000L;
+      while(a.reports.getCount() == 0L && System.currentTimeMillis() < until) {
+         Thread.sleep(50L);
+      }
+      reporting.stop();
+      assertTrue(a.reports.getCount() > 0L);
+      assertEquals(ImmutableSet.of("fast.requests"), a.reportedCounters);
+   }
+
+   @Test
+   public void serialBucketReports() throws Exception {
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("fast.requests");
+      registry.counter("slow.requests");
+      Properties props = new Properties();
+      props.setProperty("metrics.reporting.queueSize", "2");
+      props.setProperty("metrics.a.class", TestReporter.class.getName());
+      props.setProperty("metrics.a.frequency", "2s");
+      props.setProperty("metrics.a.frequency.fast.*", "1s");
+      props.setProperty("metrics.a.reportMillis", "500");
+
+      Reporting reporting = new Reporting("metrics.", props, registry);
+      reporting.start();
+      TestReporter a = reporter(reporting, "a");
+      long until = System.currentTimeMillis() + 8000L;
+      while(!a.reportedCounters.contains("slow.requests") && System.currentTimeMillis() < until) {
+         Thread.sleep(50L);
+      }
+      Thread.sleep(600L); //Any report of the coincident bucket...
+      reporting.stop();
+      assertTrue(a.reportedCounters.contains("slow.requests"));
+      assertFalse(a.isConcurrent); //Each bucket is reported on its own queue...
+   }
+
+   private static TestReporter reporter(final Reporting reporting, final String name) {
+      return (TestReporter)reporting.getMetrics().get(name);
+   }
+
+   /**
+    * A reporter that records its lifecycle.
+    */
+   public static final class TestReporter implements SnapshotReporter {
+
+      @Override
+      public void init(final String name, final Properties props, final MetricRegistry registry, final MetricFilter filter) {
+         this.name = name;
+         this.frequencyMillis = InitUtil.millisFromTime(new InitUtil("", props, false).getProperty("frequency", "1m"));
+         this.reportFrequencies = ReportFrequencies.fromProperties(props);
+         this.reportMillis = Long.parseLong(props.getProperty("reportMillis", "0"));
+      }
+
+      @Override
+      public void report(final RegistrySnapshot snapshot) {
+         if(inReport.getAndIncrement() > 0) {
+            isConcurrent = true;
+         }
+         try {
+            if(reportMillis > 0L) {
+               Thread.sleep(reportMillis);
+            }
+         } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+         } finally {
+            inReport.decrementAndGet();
+         }
+         reportedCounters.addAll(snapshot.getCounters().keySet());
+         reports.inc();
+      }
+
+      @Override
+      public ReportFrequencies getReportFrequencies() {
+         return reportFrequencies;
+      }
+
+      @Override
+      public long getFrequencyMillis() {
+         return frequencyMillis;
+      }
+
+      @Override
+      public void start() {
+         isStarted = true;
+      }
+
+      @Override
+      public void stop() {
+         isStopped = true;
+      }
+
+      @Override
+      public String getName() {
+         return name;
+      }
+
+      @Override
+      public Map<String, Metric> getMetrics() {
+         return ImmutableMap.of("reports", reports);
+      }
+
+      private String name;
+      private long frequencyMillis;
+      private ReportFrequencies reportFrequencies;
+      private long reportMillis;
+      private final AtomicInteger inReport = new AtomicInteger();
+      volatile boolean isConcurrent;
+      private final Counter reports = new Counter();
+      final Set<String> reportedCounters = Sets.newConcurrentHashSet();
+      volatile boolean isStarted;
+      volatile boolean isStopped;
+   }
+}
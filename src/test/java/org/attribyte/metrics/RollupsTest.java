@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RollupsTest {
+
+   @Test
+   public void mergeTimers() {
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 32; i++) {
+         Timer timer = registry.timer("pool." + i + ".latency", SketchMetrics.timers(0.01, 0L));
+         timer.update(i + 1, TimeUnit.MILLISECONDS);
+         registry.counter("pool." + i + ".requests").inc(i);
+         registry.meter("pool." + i + ".errors").mark(2);
+      }
+      registry.counter("other").inc();
+
+      Properties props = new Properties();
+      props.setProperty("rollup.pool.*.latency", "pool.all.latency");
+      props.setProperty("rollup.pool.*.requests", "pool.all.requests");
+      props.setProperty("rollup.pool.*.errors", "pool.all.errors");
+      Rollups rollups = RegistryTranslation.rollups(props);
+      assertNotNull(rollups);
+
+      RegistrySnapshot snapshot = RegistryTranslation.rollup(rollups, RegistrySnapshot.collect(registry, null));
+      assertEquals(ImmutableSet.of("pool.all.latency"), snapshot.getTimers().keySet());
+      Timer timer = snapshot.getTimers().get("pool.all.latency");
+      assertEquals(32L, timer.getCount());
+      Snapshot timerSnapshot = timer.getSnapshot();
+      assertTrue(timerSnapshot instanceof SketchSnapshot);
+      assertEquals(32, timerSnapshot.size());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(32), timerSnapshot.getMax(), TimeUnit.MILLISECONDS.toNanos(1));
+      assertEquals(ImmutableSet.of("other", "pool.all.requests"), snapshot.getCounters().keySet());
+      assertEquals(496L, snapshot.getCounters().get("pool.all.requests").getCount());
+      assertEquals(64L, snapshot.getMeters().get("pool.all.errors").getCount());
+   }
+
+   @Test
+   public void keepSources() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.histogram("a.1").update(10);
+      registry.histogram("a.2").update(20);
+      registry.histogram("a.2").update(30);
+
+      Properties props = new Properties();
+      props.setProperty("rollup.a.*", "a.all");
+      props.setProperty(RegistryTranslation.KEEP_ROLLUP_SOURCES_PROPERTY, "true");
+      RegistrySnapshot snapshot = RegistryTranslation.rollups(props).apply(RegistrySnapshot.collect(registry, null));
+      assertEquals(ImmutableSet.of("a.1", "a.2", "a.all"), snapshot.getHistograms().keySet());
+      assertEquals(3L, snapshot.getHistograms().get("a.all").getCount());
+      assertEquals(30L, snapshot.getHistograms().get("a.all").getSnapshot().getMax()); //Values combined...
+      assertEquals(10L, snapshot.getHistograms().get("a.all").getSnapshot().getMin());
+   }
+
+   @Test
+   public void noRules() {
+      assertNull(RegistryTranslation.rollups(new Properties()));
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("a");
+      Properties props = new Properties();
+      props.setProperty("rollup.b.*", "b.all");
+      RegistrySnapshot snapshot = RegistrySnapshot.collect(registry, null);
+      assertSame(snapshot, RegistryTranslation.rollups(props).apply(snapshot));
+   }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class StripedReservoirTest {
+
+   @Test
+   public void singleStripe() {
+      StripedReservoir reservoir = new StripedReservoir(1, 4);
+      assertEquals(0, reservoir.size());
+      assertEquals(0, reservoir.getSnapshot().size());
+      reservoir.update(1);
+      reservoir.update(2);
+      assertEquals(2, reservoir.size());
+      for(int i = 3; i <= 10; i++) {
+         reservoir.update(i);
+      }
+      assertEquals(4, reservoir.size()); //Only the most recent values are kept...
+      Snapshot snapshot = reservoir.getSnapshot();
+      assertEquals(7L, snapshot.getMin());
+      assertEquals(10L, snapshot.getMax());
+   }
+
+   @Test
+   public void expireValues() {
+      final AtomicLong tick = new AtomicLong();
+      StripedReservoir reservoir = new StripedReservoir(1, 8, 1000L, new Clock() {
+         @Override
+         public long getTick() {
+            return tick.get();
+         }
+      });
+      reservoir.update(1000L); //A spike...
+      tick.addAndGet(TimeUnit.MILLISECONDS.toNanos(600L));
+      reservoir.update(1L);
+      assertEquals(1000L, reservoir.getSnapshot().getMax());
+
+      tick.addAndGet(TimeUnit.MILLISECONDS.toNanos(600L));
+      assertEquals(1, reservoir.size());
+      assertEquals(1L, reservoir.getSnapshot().getMax()); //The spike expired...
+
+      tick.addAndGet(TimeUnit.MILLISECONDS.toNanos(600L));
+      assertEquals(0, reservoir.getSnapshot().size()); //Idle...
+   }
+
+   @Test
+   public void mergeStripes() throws Exception {
+      final StripedReservoir reservoir = new StripedReservoir(8, 1000);
+      List<Thread> threads = Lists.newArrayList();
+      for(int t = 0; t < 16; t++) {
+         final long value = t;
+         threads.add(new Thread(() -> {
+            for(int i = 0; i < 10; i++) {
+               reservoir.update(value);
+            }
+         }));
+      }
+      for(Thread thread : threads) {
+         thread.start();
+      }
+      for(Thread thread : threads) {
+         thread.join();
+      }
+
+      Snapshot snapshot = reservoir.getSnapshot();
+      assertEquals(160, snapshot.size());
+      assertEquals(0L, snapshot.getMin());
+      assertEquals(15L, snapshot.getMax());
+      assertEquals(7.5, snapshot.getMean(), 0.001);
+   }
+
+   @Test
+   public void suppliers() {
+      assertTrue(MetricSuppliers.reservoir("striped").get() instanceof StripedReservoir);
+      assertTrue(MetricSuppliers.reservoir("HDR").get() instanceof HdrReservoir);
+      assertTrue(MetricSuppliers.reservoir("").get() instanceof ExponentiallyDecayingReservoir);
+      try {
+         MetricSuppliers.reservoir("unknown");
+         fail("Expected IllegalArgumentException");
+      } catch(IllegalArgumentException iae) {
+         //Expected...
+      }
+
+      MetricRegistry registry = new MetricRegistry();
+      Timer timer = registry.timer("requests", MetricSuppliers.stripedTimers());
+      timer.update(5, TimeUnit.MILLISECONDS);
+      assertEquals(1, timer.getSnapshot().size());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(5), timer.getSnapshot().getMax());
+   }
+}
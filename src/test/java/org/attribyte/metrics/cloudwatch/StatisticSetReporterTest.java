@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.cloudwatch;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import org.attribyte.metrics.ChangeFilter;
+import org.attribyte.metrics.ParallelEncoder;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StatisticSetReporterTest {
+
+   @Test
+   public void packStatisticSets() throws Exception {
+
+      final List<PutMetricDataRequest> requests = new CopyOnWriteArrayList<>();
+      StatisticSetReporter reporter = StatisticSetReporter.newBuilder(registry(), mockClient(requests))
+              .setNamespace("test")
+              .setMaxDatumsPerRequest(20)
+              .build();
+      reporter.report();
+
+      //1 gauge, 10 counters, 30 timers = 41 datums...
+      assertEquals(3, requests.size());
+      assertEquals(20, requests.get(0).getMetricData().size());
+      assertEquals(20, requests.get(1).getMetricData().size());
+      assertEquals(1, requests.get(2).getMetricData().size());
+
+      Map<String, MetricDatum> datums = Maps.newHashMap();
+      requests.forEach(request -> {
+         assertEquals("test", request.getNamespace());
+         request.getMetricData().forEach(datum -> datums.put(datum.getMetricName(), datum));
+      });
+
+      MetricDatum timer = datums.get("timer-0");
+      assertEquals("Milliseconds", timer.getUnit());
+      assertEquals(100.0, timer.getStatisticValues().getSampleCount(), 0.0);
+      assertEquals(1.0, timer.getStatisticValues().getMinimum(), 0.0);
+      assertEquals(100.0, timer.getStatisticValues().getMaximum(), 0.0);
+      assertEquals(5050.0, timer.getStatisticValues().getSum(), 0.001);
+
+      MetricDatum counter = datums.get("counter-3");
+      assertEquals("Count", counter.getUnit());
+      assertEquals(3.0, counter.getValue(), 0.0);
+      assertEquals(7.0, datums.get("gauge").getValue(), 0.0);
+
+      //Only changes are reported...
+      requests.clear();
+      reporter.report();
+      assertEquals(1, requests.size());
+      assertEquals(11, requests.get(0).getMetricData().size());
+      assertEquals(0.0, requests.get(0).getMetricData().get(1).getValue(), 0.0);
+      assertEquals(4L, ((Counter)reporter.getMetrics().get("requests")).getCount());
+      assertEquals(0L, ((Counter)reporter.getMetrics().get("failed-requests")).getCount());
+   }
+
+   @Test
+   public void parallelStatisticSets() throws Exception {
+
+      final List<PutMetricDataRequest> serialRequests = new CopyOnWriteArrayList<>();
+      StatisticSetReporter serialReporter = StatisticSetReporter.newBuilder(registry(), mockClient(serialRequests))
+              .setNamespace("test")
+              .build();
+      final List<PutMetricDataRequest> requests = new CopyOnWriteArrayList<>();
+      StatisticSetReporter reporter = StatisticSetReporter.newBuilder(registry(), mockClient(requests))
+              .setNamespace("test")
+              .build();
+      ParallelEncoder encoder = new ParallelEncoder(4, 4);
+      try {
+         serialReporter.report();
+         reporter.report(RegistrySnapshot.collect(registry(), null), encoder);
+      } finally {
+         encoder.shutdown();
+      }
+
+      //Requests are full across chunk boundaries...
+      assertEquals(3, requests.size());
+      assertEquals(20, requests.get(0).getMetricData().size());
+      assertEquals(1, requests.get(2).getMetricData().size());
+      assertEquals("gauge", requests.get(0).getMetricData().get(0).getMetricName());
+
+      Map<String, MetricDatum> datums = Maps.newHashMap();
+      requests.forEach(request -> request.getMetricData().forEach(datum -> datums.put(datum.getMetricName(), datum)));
+      serialRequests.forEach(request -> request.getMetricData().forEach(datum -> {
+         MetricDatum parallelDatum = datums.get(datum.getMetricName());
+         assertNotNull(parallelDatum);
+         assertEquals(datum.getValue(), parallelDatum.getValue());
+         assertEquals(datum.getStatisticValues(), parallelDatum.getStatisticValues());
+      }));
+      assertEquals(41, datums.size());
+   }
+
+   @Test
+   public void counterChanges() throws Exception {
+
+      final List<PutMetricDataRequest> requests = new CopyOnWriteArrayList<>();
+      MetricRegistry registry = new MetricRegistry();
+      StatisticSetReporter reporter = StatisticSetReporter.newBuilder(registry, mockClient(requests))
+              .setNamespace("test")
+              .build();
+      Counter counter = registry.counter("counter");
+      counter.inc(10);
+      reporter.report();
+      assertEquals(10.0, value(requests, "counter"), 0.0);
+
+      requests.clear();
+      counter.dec(4);
+      reporter.report();
+      assertEquals(-4.0, value(requests, "counter"), 0.0); //Not a reset...
+
+      requests.clear();
+      registry.remove("counter");
+      reporter.report();
+      registry.counter("counter").inc(3);
+      reporter.report();
+      assertEquals(3.0, value(requests, "counter"), 0.0); //The last count was removed...
+   }
+
+   @Test
+   public void skipUnchanged() throws Exception {
+
+      final List<PutMetricDataRequest> requests = new CopyOnWriteArrayList<>();
+      MetricRegistry registry = new MetricRegistry();
+      StatisticSetReporter reporter = StatisticSetReporter.newBuilder(registry, mockClient(requests))
+              .setNamespace("test")
+              .filter(new ChangeFilter(TimeUnit.HOURS.toMillis(1L)))
+              .build();
+      Counter idle = registry.counter("idle");
+      Counter busy = registry.counter("busy");
+      idle.inc(100);
+      busy.inc();
+      reporter.report();
+      assertEquals(100.0, value(requests, "idle"), 0.0);
+
+      requests.clear();
+      busy.inc();
+      reporter.report();
+      assertEquals(1, requests.get(0).getMetricData().size()); //Idle is unchanged...
+
+      requests.clear();
+      idle.inc(2);
+      reporter.report();
+      assertEquals(2.0, value(requests, "idle"), 0.0); //Not the full count...
+      reporter.stop();
+   }
+
+   private static double value(final List<PutMetricDataRequest> requests, final String name) {
+      for(PutMetricDataRequest request : requests) {
+         for(MetricDatum datum : request.getMetricData()) {
+            if(datum.getMetricName().equals(name)) {
+               return datum.getValue();
+            }
+         }
+      }
+      throw new AssertionError("No datum for " + name);
+   }
+
+   private static MetricRegistry registry() {
+      MetricRegistry registry = new MetricRegistry();
+      registry.register("gauge", (com.codahale.metrics.Gauge<Integer>)() -> 7);
+      for(int i = 0; i < 10; i++) {
+         registry.counter("counter-" + i).inc(i);
+      }
+      for(int i = 0; i < 30; i++) {
+         Timer timer = registry.timer("timer-" + i);
+         for(int j = 1; j <= 100; j++) {
+            timer.update(j, TimeUnit.MILLISECONDS);
+         }
+      }
+      return registry;
+   }
+
+   /**
+    * Creates a client that records requests and responds immediately.
+    * @param requests The recorded requests.
+    * @return The client.
+    */
+   @SuppressWarnings("unchecked")
+   private static AmazonCloudWatchAsync mockClient(final List<PutMetricDataRequest> requests) {
+      return (AmazonCloudWatchAsync)Proxy.newProxyInstance(AmazonCloudWatchAsync.class.getClassLoader(),
+              new Class<?>[]{AmazonCloudWatchAsync.class}, (proxy, method, args) -> {
+                 if(method.getName().equals("putMetricDataAsync")) {
+                    PutMetricDataRequest request = (PutMetricDataRequest)args[0];
+                    requests.add(request);
+                    PutMetricDataResult result = new PutMetricDataResult();
+                    if(args.length > 1) {
+                       ((AsyncHandler<PutMetricDataRequest, PutMetricDataResult>)args[1]).onSuccess(request, result);
+                    }
+                    return Futures.immediateFuture(result);
+                 }
+                 throw new UnsupportedOperationException(method.getName());
+              });
+   }
+}
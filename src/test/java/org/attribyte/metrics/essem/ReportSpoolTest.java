@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.essem;
+
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ReportSpoolTest {
+
+   @Test
+   public void appendAndRecover() throws Exception {
+      File dir = Files.createTempDir();
+      ReportSpool spool = new ReportSpool(dir, 64, 4);
+      for(int i = 0; i < 6; i++) {
+         assertTrue(spool.append(record(i)));
+      }
+      assertEquals(6L, spool.getPending());
+      ReportSpool.Record record = spool.peek();
+      assertArrayEquals(record(0), record.getData());
+      assertTrue(spool.remove(record));
+      assertFalse(spool.remove(record)); //Already consumed...
+      record = spool.peek();
+      assertArrayEquals(record(1), record.getData());
+      assertTrue(spool.remove(record));
+      spool.close();
+
+      spool = new ReportSpool(dir, 64, 4);
+      assertEquals(4L, spool.getPending());
+      for(int i = 2; i < 6; i++) {
+         record = spool.peek();
+         assertArrayEquals(record(i), record.getData());
+         assertTrue(spool.remove(record));
+      }
+      assertNull(spool.peek());
+      assertEquals(0L, spool.getPending());
+      assertTrue(spool.append(record(6)));
+      assertArrayEquals(record(6), spool.peek().getData());
+      spool.close();
+   }
+
+   @Test
+   public void evictOldest() throws Exception {
+      File dir = Files.createTempDir();
+      ReportSpool spool = new ReportSpool(dir, 64, 2);
+      assertFalse(spool.append(new byte[64]));
+      for(int i = 0; i < 10; i++) {
+         assertTrue(spool.append(record(i)));
+      }
+
+      //Four 14 byte records in each 64 byte segment...
+      assertEquals(4L, spool.getEvicted());
+      assertEquals(6L, spool.getPending());
+      assertArrayEquals(record(4), spool.peek().getData());
+      assertEquals(2, dir.listFiles().length);
+      spool.close();
+   }
+
+   @Test
+   public void evictWhileSending() throws Exception {
+      File dir = Files.createTempDir();
+      ReportSpool spool = new ReportSpool(dir, 64, 2);
+      for(int i = 0; i < 8; i++) {
+         assertTrue(spool.append(record(i)));
+      }
+      ReportSpool.Record sending = spool.peek();
+      assertArrayEquals(record(0), sending.getData());
+      assertTrue(spool.append(record(8))); //Evicts the segment being sent...
+      assertEquals(4L, spool.getEvicted());
+
+      assertFalse(spool.remove(sending));
+      assertEquals(5L, spool.getPending());
+      assertArrayEquals(record(4), spool.peek().getData()); //Never sent, so not consumed...
+      spool.close();
+   }
+
+   private static byte[] record(final int index) {
+      return String.format("record-%03d", index).getBytes(StandardCharsets.UTF_8);
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.essem;
+
+import com.codahale.metrics.Counter;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class SpoolingRelayTest {
+
+   @Test
+   public void replayInOrder() throws Exception {
+
+      final List<String> received = new CopyOnWriteArrayList<>();
+      final boolean[] available = new boolean[1];
+
+      HttpServer endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+      endpoint.createContext("/report", exchange -> {
+         try(InputStream is = exchange.getRequestBody()) {
+            byte[] body = ByteStreams.toByteArray(is);
+            if(available[0]) {
+               received.add(exchange.getRequestHeaders().getFirst("Content-Type") + ":" + new String(body, StandardCharsets.UTF_8));
+               exchange.sendResponseHeaders(200, -1);
+            } else {
+               exchange.sendResponseHeaders(503, -1);
+            }
+         } finally {
+            exchange.close();
+         }
+      });
+      endpoint.start();
+
+      URI endpointURI = URI.create("http://127.0.0.1:" + endpoint.getAddress().getPort() + "/report");
+      SpoolingRelay relay = new SpoolingRelay(endpointURI, new ReportSpool(Files.createTempDir(), 4096, 4), 100.0);
+      URI relayURI = relay.start();
+      assertEquals("/report", relayURI.getPath());
+
+      try {
+         for(int i = 0; i < 3; i++) {
+            assertEquals(202, post(relayURI, "report-" + i));
+         }
+
+         Thread.sleep(200L);
+         assertTrue(received.isEmpty());
+         available[0] = true;
+
+         for(int i = 0; i < 50 && received.size() < 3; i++) {
+            Thread.sleep(100L);
+         }
+         assertEquals(3, received.size());
+         for(int i = 0; i < 3; i++) {
+            assertEquals("application/x-protobuf:report-" + i, received.get(i));
+         }
+         assertEquals(3L, ((Counter)relay.getMetrics().get("sent")).getCount());
+         assertTrue(((Counter)relay.getMetrics().get("send-failures")).getCount() > 0L);
+      } finally {
+         relay.stop();
+         endpoint.stop(0);
+      }
+   }
+
+   private static int post(final URI uri, final String body) throws Exception {
+      HttpURLConnection conn = (HttpURLConnection)uri.toURL().openConnection();
+      conn.setRequestMethod("POST");
+      conn.setDoOutput(true);
+      conn.setRequestProperty("Content-Type", "application/x-protobuf");
+      try(OutputStream os = conn.getOutputStream()) {
+         os.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+      int responseCode = conn.getResponseCode();
+      conn.disconnect();
+      return responseCode;
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class AsyncGraphiteSenderTest {
+
+   @Test
+   public void sendLines() throws Exception {
+
+      final List<String> lines = new CopyOnWriteArrayList<>();
+
+      try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         Thread server = new Thread(() -> {
+            try(Socket socket = serverSocket.accept();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+               for(int i = 0; i < 3; i++) {
+                  lines.add(reader.readLine());
+               }
+            } catch(Exception e) {
+               lines.add(e.toString());
+            }
+         });
+         server.start();
+
+         AsyncGraphiteSender sender = new AsyncGraphiteSender("127.0.0.1", serverSocket.getLocalPort(),
+                 2, 4, AsyncGraphiteSender.DropPolicy.OLDEST, 5000);
+         sender.connect();
+         assertTrue(sender.isConnected());
+         sender.send("app.requests", "12", 1500000000L);
+         sender.send("app.latency p99", "3.5", 1500000000L);
+         sender.send("app.errors", "1", 1500000001L);
+         sender.flush();
+         server.join(5000L);
+         Gauge<?> bytesWritten = (Gauge<?>)sender.getMetrics().get("bytes-written");
+         for(int i = 0; i < 50 && !bytesWritten.getValue().equals(82L); i++) {
+            Thread.sleep(100L); //The server may read before the write returns...
+         }
+         sender.shutdown();
+
+         assertEquals(3, lines.size());
+         assertEquals("app.requests 12 1500000000", lines.get(0));
+         assertEquals("app.latency-p99 3.5 1500000000", lines.get(1));
+         assertEquals("app.errors 1 1500000001", lines.get(2));
+         assertEquals(0, sender.getFailures());
+         assertEquals(0L, ((Counter)sender.getMetrics().get("dropped-lines")).getCount());
+         assertEquals(82L, bytesWritten.getValue());
+      }
+   }
+
+   @Test
+   public void dropWhenFull() throws Exception {
+      for(AsyncGraphiteSender.DropPolicy policy : AsyncGraphiteSender.DropPolicy.values()) {
+         //Not connected, so nothing is drained...
+         AsyncGraphiteSender sender = new AsyncGraphiteSender("127.0.0.1", 2003, 2, 2, policy, 1000);
+         for(int i = 0; i < 10; i++) {
+            sender.send("app.requests", Integer.toString(i), 1500000000L);
+         }
+         sender.flush();
+         assertEquals(4, ((Gauge<?>)sender.getMetrics().get("queue-depth")).getValue());
+         assertEquals(6L, ((Counter)sender.getMetrics().get("dropped-lines")).getCount());
+         sender.close(); //Only queues a partial batch...
+         assertEquals(4, ((Gauge<?>)sender.getMetrics().get("queue-depth")).getValue());
+         sender.shutdown();
+         assertEquals(0, ((Gauge<?>)sender.getMetrics().get("queue-depth")).getValue());
+         assertEquals(10L, ((Counter)sender.getMetrics().get("dropped-lines")).getCount());
+      }
+   }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics.graphite;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.graphite.GraphiteSender;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GraphiteReporterTest {
+
+   @Test
+   public void asyncReports() throws Exception {
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("requests").inc(5);
+      registry.counter("errors").inc();
+
+      try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         List<String> lines = readLines(serverSocket, 6);
+         Properties props = properties(serverSocket);
+         props.setProperty(GraphiteReporter.ASYNC_PROPERTY, "true");
+         GraphiteReporter reporter = new GraphiteReporter();
+         reporter.init("graphite", props, registry, null);
+         try {
+            for(int i = 0; i < 3; i++) { //Each report connects and closes the sender...
+               reporter.report(RegistrySnapshot.collect(registry, null));
+            }
+            waitForLines(lines, 6);
+         } finally {
+            reporter.stop();
+         }
+
+         assertEquals(6, lines.size());
+         for(int i = 0; i < 6; i += 2) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("test.errors.count 1 "));
+            assertTrue(lines.get(i + 1), lines.get(i + 1).startsWith("test.requests.count 5 "));
+         }
+         assertEquals(0L, ((Counter)reporter.getMetrics().get("dropped-lines")).getCount());
+      }
+   }
+
+   @Test
+   public void parallelReports() throws Exception {
+
+      MetricRegistry registry = new MetricRegistry();
+      for(int i = 0; i < 5; i++) {
+         registry.counter("counter-" + i).inc(i);
+      }
+
+      try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         List<String> lines = readLines(serverSocket, 11);
+         Properties props = properties(serverSocket);
+         props.setProperty(GraphiteReporter.ENCODE_PARALLELISM_PROPERTY, "2");
+         props.setProperty(GraphiteReporter.ENCODE_CHUNK_SIZE_PROPERTY, "2");
+         GraphiteReporter reporter = new GraphiteReporter();
+         reporter.init("graphite", props, registry, null);
+         try {
+            reporter.report(RegistrySnapshot.collect(registry, null)); //Chunked...
+            reporter.report(RegistrySnapshot.collect(registry, (name, metric) -> name.equals("counter-2"))); //Not chunked...
+            reporter.report(RegistrySnapshot.collect(registry, null));
+            waitForLines(lines, 11);
+         } finally {
+            reporter.stop();
+         }
+
+         assertEquals(11, lines.size());
+         assertTrue(lines.get(5), lines.get(5).startsWith("test.counter-2.count 2 "));
+         for(int i = 0; i < 5; i++) {
+            String expected = "test.counter-" + i + ".count " + i + " ";
+            assertTrue(lines.get(i), lines.get(i).startsWith(expected));
+            assertTrue(lines.get(i + 6), lines.get(i + 6).startsWith(expected));
+            assertEquals(lines.get(0).substring(lines.get(0).lastIndexOf(' ')), lines.get(i).substring(lines.get(i).lastIndexOf(' ')));
+         }
+         assertEquals(0L, ((Counter)reporter.getMetrics().get("send-failures")).getCount());
+      }
+   }
+
+   @Test
+   public void dropwizardLines() throws Exception {
+
+      final Clock clock = new Clock() {
+         @Override
+         public long getTick() {
+            return 0L;
+         }
+
+         @Override
+         public long getTime() {
+            return 1500000000000L;
+         }
+      };
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.register("ratio", (Gauge<Double>)() -> 0.125);
+      registry.register("size", (Gauge<Integer>)() -> 42);
+      registry.register("enabled", (Gauge<Boolean>)() -> true);
+      registry.register("name", (Gauge<String>)() -> "ignored");
+      registry.counter("requests").inc(5);
+      Histogram histogram = registry.histogram("sizes");
+      Meter meter = registry.register("hits", new Meter(clock));
+      Timer timer = registry.register("latency", new Timer(new ExponentiallyDecayingReservoir(), clock));
+      for(int i = 1; i <= 100; i++) {
+         histogram.update(i);
+         meter.mark(i);
+         timer.update(i, TimeUnit.MILLISECONDS);
+      }
+
+      RecordingSender expected = new RecordingSender();
+      com.codahale.metrics.graphite.GraphiteReporter.forRegistry(registry)
+              .prefixedWith("test")
+              .withClock(clock)
+              .convertDurationsTo(TimeUnit.MICROSECONDS)
+              .convertRatesTo(TimeUnit.MINUTES)
+              .build(expected)
+              .report();
+
+      RecordingSender encoded = new RecordingSender();
+      new GraphiteLines("test", TimeUnit.MINUTES, TimeUnit.MICROSECONDS)
+              .encode(registry.getGauges(), registry.getCounters(), registry.getHistograms(),
+                      registry.getMeters(), registry.getTimers(), clock.getTime() / 1000L, encoded);
+
+      assertEquals(35, expected.lines.size());
+      assertEquals(expected.lines, encoded.lines);
+   }
+
+   /**
+    * Records every line sent.
+    */
+   private static final class RecordingSender implements GraphiteSender {
+
+      @Override
+      public void connect() {
+      }
+
+      @Override
+      public void send(final String name, final String value, final long timestamp) {
+         lines.add(name + " " + value + " " + timestamp);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public boolean isConnected() {
+         return false;
+      }
+
+      @Override
+      public int getFailures() {
+         return 0;
+      }
+
+      @Override
+      public void close() {
+      }
+
+      final List<String> lines = new ArrayList<>();
+   }
+
+   /**
+    * Creates the properties for a reporter that sends to a local server.
+    * @param serverSocket The server socket.
+    * @return The properties.
+    */
+   static Properties properties(final ServerSocket serverSocket) {
+      Properties props = new Properties();
+      props.setProperty(GraphiteReporter.HOST_PROPERTY, "127.0.0.1");
+      props.setProperty(GraphiteReporter.PORT_PROPERTY, Integer.toString(serverSocket.getLocalPort()));
+      props.setProperty(GraphiteReporter.PREFIX_PROPERTY, "test");
+      return props;
+   }
+
+   /**
+    * Reads lines from every connection to a server on a new thread.
+    * @param serverSocket The server socket.
+    * @param maxLines The number of lines read before the thread exits.
+    * @return The lines, as they are read.
+    */
+   static List<String> readLines(final ServerSocket serverSocket, final int maxLines) {
+      final List<String> lines = new CopyOnWriteArrayList<>();
+      Thread server = new Thread(() -> {
+         while(lines.size() < maxLines && !serverSocket.isClosed()) {
+            try(Socket socket = serverSocket.accept();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+               String line;
+               while(lines.size() < maxLines && (line = reader.readLine()) != null) {
+                  lines.add(line);
+               }
+            } catch(Exception e) {
+               //Closed...
+            }
+         }
+      });
+      server.setDaemon(true);
+      server.start();
+      return lines;
+   }
+
+   /**
+    * Waits, for up to five seconds, for lines to be read.
+    * @param lines The lines.
+    * @param count The expected number of lines.
+    * @throws InterruptedException if interrupted.
+    */
+   static void waitForLines(final List<String> lines, final int count) throws InterruptedException {
+      for(int i = 0; i < 50 && lines.size() < count; i++) {
+         Thread.sleep(100L);
+      }
+   }
+}
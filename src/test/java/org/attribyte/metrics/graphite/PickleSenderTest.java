@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.graphite;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class PickleSenderTest {
+
+   @Test
+   public void sendBatches() throws Exception {
+
+      final List<String> frames = new CopyOnWriteArrayList<>();
+
+      try(ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+         Thread server = new Thread(() -> {
+            try(Socket socket = serverSocket.accept();
+                DataInputStream dis = new DataInputStream(socket.getInputStream())) {
+               for(int i = 0; i < 2; i++) {
+                  byte[] frame = new byte[dis.readInt()];
+                  dis.readFully(frame);
+                  frames.add(new String(frame, StandardCharsets.UTF_8));
+               }
+            } catch(Exception e) {
+               frames.add(e.toString());
+            }
+         });
+         server.start();
+
+         PickleSender sender = new PickleSender("127.0.0.1", serverSocket.getLocalPort(), 2, 16);
+         sender.connect();
+         assertTrue(sender.isConnected());
+         sender.send("app.requests", "12", 1500000000L);
+         sender.send("app.latency p99", "3.5", 1500000000L);
+         sender.send("app.o'name", "1", 1500000001L);
+         sender.flush();
+         server.join(5000L);
+         sender.close();
+
+         assertEquals(2, frames.size());
+         assertEquals("(l(S'app.requests'\n(L1500000000L\nS'12'\ntta(S'app.latency-p99'\n(L1500000000L\nS'3.5'\ntta.", frames.get(0));
+         assertEquals("(l(S'app.o\\'name'\n(L1500000001L\nS'1'\ntta.", frames.get(1));
+         assertEquals(0, sender.getFailures());
+      }
+   }
+}
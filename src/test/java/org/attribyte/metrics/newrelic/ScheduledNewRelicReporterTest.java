@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+
+package org.attribyte.metrics.newrelic;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.attribyte.metrics.MetricField;
+import org.attribyte.metrics.RegistrySnapshot;
+import org.attribyte.metrics.ReportedFields;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScheduledNewRelicReporterTest {
+
+   @Test
+   public void reportedValues() {
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.register("requests", new Meter() {
+         @Override
+         public double getOneMinuteRate() {
+            return 1.0;
+         }
+
+         @Override
+         public double getFifteenMinuteRate() {
+            return 15.0;
+         }
+      });
+      registry.timer("latency").update(2, TimeUnit.MILLISECONDS);
+
+      RecordingReporter reporter = new RecordingReporter(registry, ImmutableMap.of(
+              "requests", ReportedFields.of(EnumSet.of(MetricField.ONE_MINUTE_RATE, MetricField.FIFTEEN_MINUTE_RATE)),
+              "latency", ReportedFields.of(EnumSet.of(MetricField.MAX, MetricField.MEAN))
+      ));
+      try {
+         reporter.report();
+      } finally {
+         reporter.stop();
+      }
+
+      //Rates are per minute. Durations are milliseconds...
+      assertEquals(ImmutableList.of(60.0f, 900.0f), reporter.recorded.get("Custom/test/requests[per minute]"));
+      assertEquals(ImmutableList.of(2.0f, 2.0f), reporter.recorded.get("Custom/test/latency[ms]"));
+   }
+
+   @Test
+   public void stopScheduledByReporting() throws Exception {
+
+      MetricRegistry registry = new MetricRegistry();
+      Properties props = new Properties();
+      props.setProperty("report.requests", "value");
+      NewRelicReporter reporter = new NewRelicReporter();
+      reporter.init("newrelic", props, registry, MetricFilter.ALL);
+      reporter.stop(); //Never started...
+
+      registry.counter("requests").inc();
+      reporter.getReporter().report(); //Reports only registered metrics...
+      assertEquals(0, ((Gauge<?>)reporter.getMetrics().get("report-count")).getValue()); //No plan compiled after stop...
+   }
+
+   @Test
+   public void reportRollup() throws Exception {
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("pool.1.requests").inc(2);
+      registry.counter("pool.2.requests").inc(3);
+      Properties props = new Properties();
+      props.setProperty("rollup.pool.*.requests", "pool.all.requests");
+      props.setProperty("report.pool.all.requests", "value");
+      NewRelicReporter reporter = new NewRelicReporter();
+      reporter.init("newrelic", props, registry, MetricFilter.ALL);
+      try {
+         reporter.report(RegistrySnapshot.collect(registry, null));
+         assertEquals(1, ((Gauge<?>)reporter.getMetrics().get("report-count")).getValue()); //Never registered...
+      } finally {
+         reporter.stop();
+      }
+
+      RecordingReporter recordingReporter = new RecordingReporter(registry, ImmutableMap.of(
+              "pool.all.requests", ReportedFields.of(EnumSet.of(MetricField.VALUE))
+      ));
+      try {
+         SortedMap<String, Counter> counters = ImmutableSortedMap.of("pool.all.requests", registry.counter("pool.1.requests"));
+         recordingReporter.report(ImmutableSortedMap.of(), counters, ImmutableSortedMap.of(), ImmutableSortedMap.of(), ImmutableSortedMap.of());
+      } finally {
+         recordingReporter.stop();
+      }
+      assertEquals(ImmutableList.of(2.0f), recordingReporter.recorded.get("Custom/test/pool.all.requests"));
+   }
+
+   /**
+    * Records values instead of sending them to the agent.
+    */
+   private static final class RecordingReporter extends ScheduledNewRelicReporter {
+
+      RecordingReporter(final MetricRegistry registry, final Map<String, ReportedFields> reportedMetrics) {
+         super(registry, MetricFilter.ALL, TimeUnit.MINUTES, TimeUnit.MILLISECONDS, reportedMetrics, "test");
+      }
+
+      @Override
+      void recordMetric(final String name, final float value) {
+         recorded.computeIfAbsent(name, key -> Lists.newArrayList()).add(value);
+      }
+
+      final Map<String, List<Float>> recorded = Maps.newHashMap();
+   }
+}
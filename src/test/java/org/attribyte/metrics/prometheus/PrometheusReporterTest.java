@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.prometheus;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PrometheusReporterTest {
+
+   @Test
+   public void scrape() throws Exception {
+
+      MetricRegistry registry = new MetricRegistry();
+      registry.counter("http.requests").inc(5);
+      registry.register("queue size", (Gauge<Integer>)() -> 3);
+      Timer timer = registry.timer("http.latency");
+      timer.update(250, TimeUnit.MILLISECONDS);
+
+      Properties props = new Properties();
+      props.setProperty(PrometheusReporter.PORT_PROPERTY, "0");
+      props.setProperty(PrometheusReporter.ADDRESS_PROPERTY, "127.0.0.1");
+      props.setProperty(PrometheusReporter.FREQUENCY_PROPERTY, "1h");
+      props.setProperty(PrometheusReporter.PREFIX_PROPERTY, "app_");
+
+      PrometheusReporter reporter = new PrometheusReporter();
+      reporter.init("prometheus", props, registry, null);
+      reporter.start();
+      try {
+         URL url = new URL("http://127.0.0.1:" + reporter.getPort() + "/metrics");
+
+         String text = get(url, null, false);
+         assertTrue(text.contains("# TYPE app_queue_size gauge\napp_queue_size 3\n"));
+         assertTrue(text.contains("# TYPE app_http_requests_total counter\napp_http_requests_total 5\n"));
+         assertTrue(text.contains("# TYPE app_http_latency summary\napp_http_latency{quantile=\"0.5\"} 0.25\n"));
+         assertTrue(text.contains("app_http_latency_count 1\n"));
+         assertFalse(text.contains("# EOF"));
+
+         //Cached until the next interval...
+         registry.counter("http.requests").inc();
+         assertEquals(text, get(url, null, true));
+
+         String openMetrics = get(url, "application/openmetrics-text; version=1.0.0", true);
+         assertTrue(openMetrics.contains("# TYPE app_http_requests counter\napp_http_requests_total 6\n"));
+         assertTrue(openMetrics.endsWith("# EOF\n"));
+
+         assertEquals(3L, ((Counter)reporter.getMetrics().get("scrapes")).getCount());
+         assertEquals(2L, ((Timer)reporter.getMetrics().get("render")).getCount());
+      } finally {
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void sanitize() {
+      assertEquals("http_requests", Exposition.sanitize("http.requests"));
+      assertEquals("_0ms", Exposition.sanitize("0ms"));
+      assertEquals("a:b_c", Exposition.sanitize("a:b-c"));
+   }
+
+   private static String get(final URL url, final String accept, final boolean gzip) throws Exception {
+      HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+      if(accept != null) {
+         conn.setRequestProperty("Accept", accept);
+      }
+      if(gzip) {
+         conn.setRequestProperty("Accept-Encoding", "gzip");
+      }
+      assertEquals(200, conn.getResponseCode());
+      assertEquals(gzip ? "gzip" : null, conn.getHeaderField("Content-Encoding"));
+      try(InputStream is = gzip ? new GZIPInputStream(conn.getInputStream()) : conn.getInputStream()) {
+         return new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8);
+      } finally {
+         conn.disconnect();
+      }
+   }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Attribyte, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.attribyte.metrics.statsd;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.attribyte.metrics.MetricColumns;
+import org.attribyte.metrics.MetricField;
+import org.attribyte.metrics.ReportedFields;
+import org.attribyte.metrics.SketchMetrics;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ScheduledStatsDReporterTest {
+
+   @Test
+   public void reportLines() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         socket.setSoTimeout(2000);
+         MetricRegistry registry = new MetricRegistry();
+         registry.counter("requests").inc(5);
+         registry.register("queue size", (Gauge<Double>)() -> 2.25);
+         Timer timer = registry.timer("latency");
+         timer.update(4, TimeUnit.MILLISECONDS);
+
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .setPrefix("app.")
+                 .setTags(ImmutableList.of("env:test"))
+                 .addReportedMetric("latency", ReportedFields.fromString("count,max,p99.99"))
+                 .build();
+
+         reporter.report();
+         List<String> lines = receive(socket, 5);
+         assertTrue(lines.contains("app.queue_size:2.25|g|#env:test"));
+         assertTrue(lines.contains("app.requests:5|c|#env:test"));
+         assertTrue(lines.contains("app.latency.count:1|c|#env:test"));
+         assertTrue(lines.contains("app.latency.max:4|g|#env:test"));
+         assertTrue(lines.contains("app.latency.p9999:4|g|#env:test"));
+
+         registry.counter("requests").inc(2);
+         reporter.report();
+         lines = receive(socket, 5);
+         assertTrue(lines.contains("app.requests:2|c|#env:test")); //Change since last report...
+         assertTrue(lines.contains("app.latency.count:0|c|#env:test"));
+
+         assertEquals(2L, ((Counter)reporter.getMetrics().get("packets")).getCount());
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void counterChanges() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         socket.setSoTimeout(2000);
+         MetricRegistry registry = new MetricRegistry();
+         Counter counter = registry.counter("connections");
+         counter.inc(10);
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .build();
+
+         reporter.report();
+         assertEquals(ImmutableList.of("connections:10|c"), receive(socket, 1));
+         counter.dec(3);
+         reporter.report();
+         assertEquals(ImmutableList.of("connections:-3|c"), receive(socket, 1)); //Not a reset...
+
+         registry.remove("connections");
+         registry.counter("connections").inc(4);
+         reporter.report();
+         assertEquals(ImmutableList.of("connections:4|c"), receive(socket, 1)); //The last count was removed...
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void coalesceToPacketSize() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         socket.setSoTimeout(2000);
+         MetricRegistry registry = new MetricRegistry();
+         for(int i = 0; i < 10; i++) {
+            registry.counter("counter." + i).inc(i);
+         }
+
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .setMaxPacketSize(48)
+                 .build();
+
+         reporter.report();
+         List<String> lines = receive(socket, 10);
+         assertEquals(10, lines.size());
+         assertTrue(lines.contains("counter.9:9|c"));
+         long packets = ((Counter)reporter.getMetrics().get("packets")).getCount();
+         assertEquals(4L, packets); //Three 13 byte lines, with separators, per packet...
+         assertTrue(((Counter)reporter.getMetrics().get("bytes-sent")).getCount() <= packets * 48);
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void reportColumns() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         socket.setSoTimeout(2000);
+         MetricRegistry registry = new MetricRegistry();
+         registry.counter("requests").inc(5);
+         registry.register("queue size", (MetricColumns.DoubleGauge)() -> 2.25);
+         registry.timer("latency").update(4, TimeUnit.MILLISECONDS);
+
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .addReportedMetric("latency", MetricField.setFromString("count,max"))
+                 .build();
+         MetricColumns columns = new MetricColumns(registry, null);
+
+         columns.collect();
+         reporter.report(columns);
+         List<String> lines = receive(socket, 4);
+         assertTrue(lines.contains("queue_size:2.25|g"));
+         assertTrue(lines.contains("requests:5|c"));
+         assertTrue(lines.contains("latency.count:1|c"));
+         assertTrue(lines.contains("latency.max:4|g"));
+
+         registry.counter("requests").inc(2);
+         columns.collect();
+         reporter.report(columns);
+         lines = receive(socket, 4);
+         assertTrue(lines.contains("requests:2|c"));
+
+         registry.counter("requests").dec(3);
+         columns.collect();
+         reporter.report(columns);
+         lines = receive(socket, 4);
+         assertTrue(lines.contains("requests:-3|c"));
+
+         columns.close();
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void reportColumnsWithoutAllocation() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         MetricRegistry registry = new MetricRegistry();
+         for(int i = 0; i < 100; i++) {
+            registry.counter("counter-" + i).inc(i);
+            registry.meter("meter-" + i).mark(i);
+            final double value = i + 0.5;
+            registry.register("gauge-" + i, (MetricColumns.DoubleGauge)() -> value);
+         }
+
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .setPrefix("app.")
+                 .build();
+         MetricColumns columns = new MetricColumns(registry, null);
+         for(int i = 0; i < 100; i++) {
+            columns.collect();
+            reporter.report(columns);
+         }
+
+         com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+         long threadId = Thread.currentThread().getId();
+         long overhead = -threads.getThreadAllocatedBytes(threadId) + threads.getThreadAllocatedBytes(threadId);
+         long start = threads.getThreadAllocatedBytes(threadId);
+         for(int i = 0; i < 1000; i++) {
+            columns.collect();
+            reporter.report(columns);
+         }
+         long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+         assertTrue("Allocated " + allocated + " bytes", allocated < 1000L * 64L);
+
+         columns.close();
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void reportSketch() throws Exception {
+      try(DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+         socket.setSoTimeout(2000);
+         MetricRegistry registry = new MetricRegistry();
+         Timer timer = registry.timer("latency", SketchMetrics.timers(0.01, 0L));
+         timer.update(4, TimeUnit.MILLISECONDS);
+         timer.update(4, TimeUnit.MILLISECONDS);
+         timer.update(100, TimeUnit.MILLISECONDS);
+
+         ScheduledStatsDReporter reporter = ScheduledStatsDReporter
+                 .newBuilder(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()))
+                 .addReportedMetric("latency", MetricField.setFromString("sketch"))
+                 .build();
+
+         reporter.report();
+         List<String> lines = receive(socket, 2);
+         assertEquals(2, lines.size());
+         assertTrue(lines.get(0), lines.get(0).matches("latency:(3\\.9|4)[0-9.]*\\|d\\|@0\\.5"));
+         assertTrue(lines.get(1), lines.get(1).matches("latency:(99|100)[0-9.]*\\|d"));
+         reporter.stop();
+      }
+   }
+
+   @Test
+   public void appendValue() {
+      assertEquals("12", value(12.0));
+      assertEquals("-0.5", value(-0.5));
+      assertEquals("0.000125", value(0.000125));
+      assertEquals("12345678.5", value(12345678.5));
+      assertEquals("10000000000", value(1e10));
+   }
+
+   private static String value(final double value) {
+      StringBuilder buf = new StringBuilder();
+      ScheduledStatsDReporter.appendValue(buf, value);
+      return buf.toString();
+   }
+
+   /**
+    * Receives datagrams until the expected number of lines arrive.
+    * @param socket The socket.
+    * @param expectedLines The number of lines.
+    * @return The lines.
+    * @throws Exception on receive error or timeout.
+    */
+   private static List<String> receive(final DatagramSocket socket, final int expectedLines) throws Exception {
+      List<String> lines = Lists.newArrayList();
+      byte[] buf = new byte[2048];
+      while(lines.size() < expectedLines) {
+         DatagramPacket packet = new DatagramPacket(buf, buf.length);
+         try {
+            socket.receive(packet);
+         } catch(SocketTimeoutException ste) {
+            break;
+         }
+         for(String line : new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")) {
+            lines.add(line);
+         }
+      }
+      return lines;
+   }
+}